@@ -24,13 +24,17 @@
 import java.util.Map;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
 import org.xwiki.eventstream.Event;
 import org.xwiki.eventstream.EventGroup;
+import org.xwiki.eventstream.EventQuery;
 import org.xwiki.eventstream.EventStream;
+import org.xwiki.eventstream.internal.EventQueryTranslator;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
@@ -61,6 +65,15 @@ public class BridgeEventStream implements EventStream
     @Inject
     private EventConverter eventConverter;
 
+    /** Needed for serializing the users. */
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /** Needed for serializing the spaces, which are stored relative to the wiki of the event. */
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
     @Override
     public void addEvent(Event e)
     {
@@ -117,6 +130,19 @@ public List<Event> searchEvents(Query query) throws QueryException
         return convertActivitiesToEvents(events);
     }
 
+    @Override
+    public List<Event> searchEvents(EventQuery eventQuery) throws QueryException
+    {
+        // The activity events store their identifier in the eventId property
+        EventQueryTranslator translator =
+            new EventQueryTranslator("eventId", this.serializer, this.localSerializer);
+
+        Query query = this.qm.createQuery(translator.getStatement(eventQuery), Query.HQL);
+        translator.bindValues(query, eventQuery);
+
+        return searchEvents(query);
+    }
+
     /**
      * Retrieve the old {@link XWikiContext} from the {@link org.xwiki.context.ExecutionContext execution context}.
      *
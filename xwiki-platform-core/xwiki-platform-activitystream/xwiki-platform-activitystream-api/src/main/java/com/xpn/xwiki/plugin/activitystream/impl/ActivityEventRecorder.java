@@ -0,0 +1,392 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.activitystream.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.ApplicationStoppedEvent;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.plugin.activitystream.api.ActivityEvent;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * Stores the activity events in the background so that the request producing them doesn't have to wait for the
+ * database. The events are stored in batches, with one transaction per wiki for each batch, and the listeners are
+ * notified once the events are stored. When a batch fails to be stored its events are stored one by one so that an
+ * invalid event doesn't prevent the others from being stored. Recording an event only blocks when the queue is full,
+ * and the remaining events are stored when the application is stopped.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class ActivityEventRecorder extends AbstractXWikiRunnable implements EventListener
+{
+    /**
+     * Logging helper object.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ActivityEventRecorder.class);
+
+    /**
+     * Tell the recording thread to stop.
+     */
+    private static final QueuedEvent STOP = new QueuedEvent(null, Collections.<String>emptyList());
+
+    /**
+     * The number of milliseconds to wait for room in the queue before checking again if the recording thread is still
+     * running.
+     */
+    private static final long OFFER_TIMEOUT = 100L;
+
+    /**
+     * An event waiting to be stored.
+     *
+     * @version $Id$
+     */
+    private static final class QueuedEvent
+    {
+        private final ActivityEvent event;
+
+        private final List<String> wikis;
+
+        private QueuedEvent(ActivityEvent event, List<String> wikis)
+        {
+            this.event = event;
+            this.wikis = wikis;
+        }
+    }
+
+    /**
+     * The events waiting to be stored.
+     */
+    private final BlockingQueue<QueuedEvent> queue;
+
+    /**
+     * The maximum number of events stored in one batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Called for each event once it's stored in at least one of its wikis.
+     */
+    private final Consumer<ActivityEvent> storedCallback;
+
+    /**
+     * Make sure no event is queued once the recording thread has been told to stop.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The thread storing the events.
+     */
+    private Thread thread;
+
+    /**
+     * True while the recording thread is accepting events.
+     */
+    private boolean running;
+
+    /**
+     * The XWiki context used to store the events in the recording thread.
+     */
+    private XWikiContext xwikiContext;
+
+    /**
+     * @param context the XWiki context
+     * @param queueSize the maximum number of events waiting to be stored
+     * @param batchSize the maximum number of events stored in one batch
+     * @param storedCallback called for each event once it's stored in at least one of its wikis
+     */
+    public ActivityEventRecorder(XWikiContext context, int queueSize, int batchSize,
+        Consumer<ActivityEvent> storedCallback)
+    {
+        this.xwikiContext = context.clone();
+        this.queue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+        this.batchSize = Math.max(batchSize, 1);
+        this.storedCallback = storedCallback;
+    }
+
+    @Override
+    protected void declareProperties(ExecutionContext executionContext)
+    {
+        this.xwikiContext.declareInExecutionContext(executionContext);
+        this.xwikiContext = null;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "activitystream.recorder";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new ApplicationStoppedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        stop();
+    }
+
+    /**
+     * Start the recording thread.
+     */
+    public void start()
+    {
+        this.lock.writeLock().lock();
+        try {
+            if (this.thread == null) {
+                this.thread = new Thread(this, "Activity stream recording daemon");
+                // The JVM should be allowed to shutdown while this thread is running
+                this.thread.setDaemon(true);
+                this.thread.start();
+                this.running = true;
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stop the recording thread after it stored the events waiting in the queue. The events recorded after that are
+     * stored synchronously.
+     */
+    public void stop()
+    {
+        Thread recordingThread;
+
+        this.lock.writeLock().lock();
+        try {
+            recordingThread = this.thread;
+            this.running = false;
+            this.thread = null;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        if (recordingThread != null) {
+            try {
+                this.queue.put(STOP);
+                recordingThread.join();
+            } catch (InterruptedException e) {
+                LOGGER.warn("Interrupted while waiting for the activity stream events to be stored");
+
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queue an event to be stored, waiting if the queue is full. The event is stored synchronously when the recording
+     * thread is not running.
+     *
+     * @param event the event to store
+     * @param wikis the wikis in which to store the event
+     * @param context the XWiki context
+     */
+    public void record(ActivityEvent event, List<String> wikis, XWikiContext context)
+    {
+        QueuedEvent queuedEvent = new QueuedEvent(event, wikis);
+
+        try {
+            while (true) {
+                this.lock.readLock().lock();
+                try {
+                    if (!this.running) {
+                        break;
+                    }
+
+                    // Don't keep the lock while waiting for room in the queue, the recording thread needs the write
+                    // lock to stop
+                    if (this.queue.offer(queuedEvent, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                } finally {
+                    this.lock.readLock().unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Don't lose the event
+            Thread.currentThread().interrupt();
+        }
+
+        store(Collections.singletonList(queuedEvent), context);
+    }
+
+    @Override
+    protected void runInternal()
+    {
+        XWikiContext context = (XWikiContext) Utils.getComponent(Execution.class).getContext()
+            .getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+
+        List<QueuedEvent> batch = new ArrayList<>(this.batchSize);
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException e) {
+                LOGGER.warn("Activity stream recording thread has been interrupted");
+
+                stopped = true;
+            }
+            this.queue.drainTo(batch, this.batchSize - batch.size());
+
+            stopped |= batch.remove(STOP);
+
+            store(batch, context);
+
+            batch.clear();
+        }
+
+        // Following events are stored synchronously
+        this.lock.writeLock().lock();
+        try {
+            this.running = false;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        // Store the events queued after the stop order (if any)
+        this.queue.drainTo(batch);
+        batch.remove(STOP);
+        store(batch, context);
+    }
+
+    /**
+     * Store the passed events, using one transaction per wiki, and notify the listeners.
+     *
+     * @param batch the events to store
+     * @param context the XWiki context
+     */
+    private void store(List<QueuedEvent> batch, XWikiContext context)
+    {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<ActivityEvent>> eventsByWiki = new LinkedHashMap<>();
+        for (QueuedEvent queuedEvent : batch) {
+            for (String wiki : queuedEvent.wikis) {
+                eventsByWiki.computeIfAbsent(wiki, k -> new ArrayList<>()).add(queuedEvent.event);
+            }
+        }
+
+        // The same event instance is stored in each of its wikis
+        Set<ActivityEvent> storedEvents = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        String currentWiki = context.getWikiId();
+        try {
+            for (Map.Entry<String, List<ActivityEvent>> entry : eventsByWiki.entrySet()) {
+                context.setWikiId(entry.getKey());
+
+                storedEvents.addAll(store(entry.getValue(), entry.getKey(), context));
+            }
+        } finally {
+            context.setWikiId(currentWiki);
+        }
+
+        for (QueuedEvent queuedEvent : batch) {
+            if (storedEvents.contains(queuedEvent.event)) {
+                try {
+                    this.storedCallback.accept(queuedEvent.event);
+                } catch (Exception e) {
+                    LOGGER.error("Failed to notify the storage of activity stream event [{}]",
+                        queuedEvent.event.getEventId(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Store the passed events in the current wiki, one by one if they fail to be stored in a single transaction.
+     *
+     * @return the events which have been stored
+     */
+    private Collection<ActivityEvent> store(List<ActivityEvent> events, String wiki, XWikiContext context)
+    {
+        try {
+            store(events, context.getWiki().getHibernateStore(), context);
+
+            return events;
+        } catch (Exception e) {
+            if (events.size() == 1) {
+                LOGGER.error("Failed to store activity stream event [{}] in wiki [{}]", events.get(0).getEventId(),
+                    wiki, e);
+
+                return Collections.emptyList();
+            }
+
+            LOGGER.warn("Failed to store [{}] activity stream events in wiki [{}], storing them one by one: {}",
+                events.size(), wiki, ExceptionUtils.getRootCauseMessage(e));
+        }
+
+        List<ActivityEvent> storedEvents = new ArrayList<>(events.size());
+        for (ActivityEvent event : events) {
+            try {
+                store(Collections.singletonList(event), context.getWiki().getHibernateStore(), context);
+
+                storedEvents.add(event);
+            } catch (Exception e) {
+                LOGGER.error("Failed to store activity stream event [{}] in wiki [{}]", event.getEventId(), wiki, e);
+            }
+        }
+
+        return storedEvents;
+    }
+
+    private void store(List<ActivityEvent> events, XWikiHibernateStore store, XWikiContext context)
+        throws XWikiException
+    {
+        store.executeWrite(context, session -> {
+            for (ActivityEvent event : events) {
+                session.save(event);
+            }
+
+            return null;
+        });
+    }
+}
@@ -40,6 +40,7 @@
 import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.eventstream.events.EventStreamAddedEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.observation.EventListener;
@@ -69,6 +70,7 @@
 import com.xpn.xwiki.plugin.activitystream.api.ActivityEventType;
 import com.xpn.xwiki.plugin.activitystream.api.ActivityStream;
 import com.xpn.xwiki.plugin.activitystream.api.ActivityStreamException;
+import com.xpn.xwiki.plugin.activitystream.eventstreambridge.EventConverter;
 import com.xpn.xwiki.store.XWikiHibernateStore;
 import com.xpn.xwiki.web.Utils;
 
@@ -124,11 +126,26 @@ public class ActivityStreamImpl implements ActivityStream, EventListener
         }
     };
 
+    /**
+     * The default maximum number of events waiting to be stored.
+     */
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /**
+     * The maximum number of events stored in one batch.
+     */
+    private static final int BATCH_SIZE = 100;
+
     /**
      * Used to retrieve some configuration about the activity stream.
      */
     private ActivityStreamConfiguration configuration;
 
+    /**
+     * Stores the events in the background.
+     */
+    private ActivityEventRecorder recorder;
+
     /**
      * Set fields related to the document which fired the event in the given event object.
      *
@@ -244,6 +261,17 @@ public void init(XWikiContext context) throws XWikiException
         if (observationManager.getListener(getName()) == null) {
             observationManager.addListener(this);
         }
+        // Start storing events in the background.
+        if (this.recorder == null) {
+            int queueSize = (int) context.getWiki().ParamAsLong("xwiki.plugin.activitystream.queueSize",
+                DEFAULT_QUEUE_SIZE);
+            this.recorder = new ActivityEventRecorder(context, queueSize, BATCH_SIZE, this::notifyEventAdded);
+            this.recorder.start();
+            // Store the remaining events when the application is stopped
+            if (observationManager.getListener(this.recorder.getName()) == null) {
+                observationManager.addListener(this.recorder);
+            }
+        }
         // Init activitystream cleaner.
         ActivityStreamCleaner.getInstance().init(context);
     }
@@ -296,37 +324,68 @@ public void addActivityEvent(ActivityEvent event, XWikiDocument doc, XWikiContex
     {
         prepareEvent(event, doc, context);
 
+        List<String> wikis = new ArrayList<String>(2);
+
         if (useLocalStore()) {
             // store event in the local database
-            XWikiHibernateStore localHibernateStore = context.getWiki().getHibernateStore();
-            try {
-                localHibernateStore.beginTransaction(context);
-                Session session = localHibernateStore.getSession(context);
-                session.save(event);
-                localHibernateStore.endTransaction(context, true);
-            } catch (XWikiException e) {
-                localHibernateStore.endTransaction(context, false);
-            }
+            wikis.add(context.getWikiId());
         }
 
         if (useMainStore()) {
             // store event in the main database
-            String oriDatabase = context.getWikiId();
-            context.setWikiId(context.getMainXWiki());
-            XWikiHibernateStore mainHibernateStore = context.getWiki().getHibernateStore();
-            try {
-                mainHibernateStore.beginTransaction(context);
-                Session session = mainHibernateStore.getSession(context);
-                session.save(event);
-                mainHibernateStore.endTransaction(context, true);
-            } catch (XWikiException e) {
-                mainHibernateStore.endTransaction(context, false);
-            } finally {
-                context.setWikiId(oriDatabase);
+            wikis.add(context.getMainXWiki());
+        }
+
+        if (this.recorder != null) {
+            // The listeners are notified once the event is actually stored
+            this.recorder.record(event, wikis, context);
+        } else {
+            storeActivityEvent(event, wikis, context);
+
+            notifyEventAdded(event);
+        }
+    }
+
+    /**
+     * Store the event synchronously, used when the background recording is not initialized.
+     *
+     * @param event the event to store
+     * @param wikis the wikis in which to store the event
+     * @param context the XWiki context
+     */
+    private void storeActivityEvent(ActivityEvent event, List<String> wikis, XWikiContext context)
+    {
+        String oriDatabase = context.getWikiId();
+        try {
+            for (String wiki : wikis) {
+                context.setWikiId(wiki);
+                XWikiHibernateStore hibernateStore = context.getWiki().getHibernateStore();
+                try {
+                    hibernateStore.beginTransaction(context);
+                    Session session = hibernateStore.getSession(context);
+                    session.save(event);
+                    hibernateStore.endTransaction(context, true);
+                } catch (XWikiException e) {
+                    hibernateStore.endTransaction(context, false);
+                }
             }
+        } finally {
+            context.setWikiId(oriDatabase);
         }
     }
 
+    /**
+     * Let the listeners know that a new event has been stored.
+     *
+     * @param event the stored event
+     */
+    private void notifyEventAdded(ActivityEvent event)
+    {
+        ObservationManager observationManager = Utils.getComponent(ObservationManager.class);
+        EventConverter eventConverter = Utils.getComponent(EventConverter.class);
+        observationManager.notify(new EventStreamAddedEvent(), eventConverter.convertActivityToEvent(event));
+    }
+
     @Override
     public void addActivityEvent(String streamName, String type, String title, XWikiContext context)
         throws ActivityStreamException
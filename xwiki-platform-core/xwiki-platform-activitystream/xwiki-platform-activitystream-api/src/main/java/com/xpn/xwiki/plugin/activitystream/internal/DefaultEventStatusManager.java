@@ -32,7 +32,9 @@
 import org.xwiki.eventstream.Event;
 import org.xwiki.eventstream.EventStatus;
 import org.xwiki.eventstream.EventStatusManager;
+import org.xwiki.eventstream.events.EventStatusAddOrUpdatedEvent;
 import org.xwiki.eventstream.internal.DefaultEventStatus;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryManager;
 import org.xwiki.text.StringUtils;
@@ -67,6 +69,9 @@ public class DefaultEventStatusManager implements EventStatusManager
     @Inject
     private Provider<XWikiContext> contextProvider;
 
+    @Inject
+    private ObservationManager observationManager;
+
     @Override
     public List<EventStatus> getEventStatus(List<Event> events, List<String> entityIds) throws Exception
     {
@@ -153,6 +158,8 @@ public void saveEventStatus(EventStatus eventStatus) throws Exception
                 context.setWikiId(oriDatabase);
             }
         }
+
+        observationManager.notify(new EventStatusAddOrUpdatedEvent(), eventStatus);
     }
 
     private void saveEventStatusInStore(ActivityEventStatus eventStatus) throws ActivityStreamException
@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.activitystream.internal;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+
+import com.xpn.xwiki.store.migration.DataMigrationException;
+import com.xpn.xwiki.store.migration.XWikiDBVersion;
+import com.xpn.xwiki.store.migration.hibernate.AbstractHibernateDataMigration;
+
+/**
+ * Add the composite indexes used to paginate the activity stream events by date for a given wiki, space, user or
+ * type. New databases get them directly from the Hibernate mapping.
+ *
+ * @since 9.4RC1
+ * @version $Id$
+ */
+@Component
+@Named("R94000ActivityStreamIndexesMigration")
+@Singleton
+public class R94000ActivityStreamIndexesMigration extends AbstractHibernateDataMigration
+{
+    private static final String TABLE = "activitystream_events";
+
+    private static final String DATE_COLUMN = "ase_date";
+
+    @Override
+    public String getDescription()
+    {
+        return "Add composite indexes on the activity stream events table to speed up the event queries.";
+    }
+
+    @Override
+    public XWikiDBVersion getVersion()
+    {
+        return new XWikiDBVersion(94000);
+    }
+
+    @Override
+    protected void hibernateMigrate() throws DataMigrationException
+    {
+        // Everything is done in the Liquibase change log
+    }
+
+    @Override
+    public String getLiquibaseChangeLog() throws DataMigrationException
+    {
+        StringBuilder sb = new StringBuilder();
+
+        appendCreateIndex(sb, "EVENT_WIKI_DATE", "ase_wiki", DATE_COLUMN);
+        appendCreateIndex(sb, "EVENT_SPACE_DATE", "ase_wiki", "ase_space", DATE_COLUMN);
+        appendCreateIndex(sb, "EVENT_USER_DATE", "ase_user", DATE_COLUMN);
+        appendCreateIndex(sb, "EVENT_TYPE_DATE", "ase_type", DATE_COLUMN);
+
+        return sb.toString();
+    }
+
+    private void appendCreateIndex(StringBuilder sb, String indexName, String... columns)
+    {
+        sb.append("  <changeSet id=\"R").append(getVersion().getVersion()).append('-').append(indexName)
+            .append("\" author=\"xwiki\">\n");
+
+        // The table might not exist yet and the index might already have been created by the Hibernate schema update
+        sb.append("    <preConditions onFail=\"MARK_RAN\">\n")
+            .append("      <tableExists tableName=\"").append(TABLE).append("\"/>\n")
+            .append("      <not><indexExists tableName=\"").append(TABLE).append("\" indexName=\"").append(indexName)
+            .append("\"/></not>\n")
+            .append("    </preConditions>\n");
+
+        sb.append("    <createIndex tableName=\"").append(TABLE).append("\" indexName=\"").append(indexName)
+            .append("\">\n");
+        for (String column : columns) {
+            sb.append("      <column name=\"").append(column).append("\"/>\n");
+        }
+        sb.append("    </createIndex>\n");
+
+        sb.append("  </changeSet>\n");
+    }
+}
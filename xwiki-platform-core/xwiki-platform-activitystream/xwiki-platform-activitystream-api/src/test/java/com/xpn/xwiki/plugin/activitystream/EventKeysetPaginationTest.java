@@ -0,0 +1,178 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.activitystream;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that the keyset pagination used by {@code BridgeEventStream#searchEvents(EventQuery)} walks the activity
+ * stream events in the right order, without skipping or repeating events sharing the same date, on a small events
+ * table stored in an embedded database.
+ *
+ * @version $Id$
+ */
+public class EventKeysetPaginationTest
+{
+    private static final int EVENTS = 50;
+
+    private static final int PAGE_SIZE = 7;
+
+    private static final String WIKI = "xwiki";
+
+    private static final String KEYSET_QUERY = "select ase_eventid, ase_date from activitystream_events"
+        + " where ase_wiki = ? and (ase_date < ? or (ase_date = ? and ase_eventid < ?))"
+        + " order by ase_date desc, ase_eventid desc limit ?";
+
+    private static final String FIRST_PAGE_QUERY = "select ase_eventid, ase_date from activitystream_events"
+        + " where ase_wiki = ? order by ase_date desc, ase_eventid desc limit ?";
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.connection = DriverManager.getConnection("jdbc:hsqldb:mem:activitystream", "SA", "");
+
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("create table activitystream_events (ase_eventid varchar(48) not null primary key,"
+                + " ase_wiki varchar(255), ase_date timestamp)");
+            // Same index as the one declared in activitystream.hbm.xml
+            statement.execute("create index EVENT_WIKI_DATE on activitystream_events (ase_wiki, ase_date)");
+        }
+
+        try (PreparedStatement statement =
+            this.connection.prepareStatement("insert into activitystream_events values (?, ?, ?)")) {
+            for (int i = 0; i < EVENTS; i++) {
+                statement.setString(1, getEventId(i));
+                statement.setString(2, i % 10 == 0 ? "subwiki" : WIKI);
+                // Several events share the same date, like the events generated by a single request, and the pages
+                // end in the middle of such groups
+                statement.setTimestamp(3, getDate(i));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("shutdown");
+        }
+        this.connection.close();
+    }
+
+    private static String getEventId(int index)
+    {
+        return String.format("event-%03d", index);
+    }
+
+    private static Timestamp getDate(int index)
+    {
+        return new Timestamp(1_000_000_000_000L + (index / 4) * 1000L);
+    }
+
+    @Test
+    public void keysetPaginationWalksAllEventsInOrder() throws Exception
+    {
+        List<Page> pages = new ArrayList<>();
+        for (Page page = firstPage(); !page.ids.isEmpty(); page = nextPage(page)) {
+            pages.add(page);
+        }
+
+        // The events of the wiki, most recent first and by decreasing identifier for the same date
+        List<String> expected = new ArrayList<>();
+        for (int i = EVENTS - 1; i >= 0; i--) {
+            if (i % 10 != 0) {
+                expected.add(getEventId(i));
+            }
+        }
+
+        List<String> actual = new ArrayList<>();
+        for (int i = 0; i < pages.size(); i++) {
+            List<String> ids = pages.get(i).ids;
+            if (i < pages.size() - 1) {
+                assertEquals(PAGE_SIZE, ids.size());
+            } else {
+                assertTrue(ids.size() <= PAGE_SIZE);
+            }
+            actual.addAll(ids);
+        }
+
+        assertEquals((expected.size() + PAGE_SIZE - 1) / PAGE_SIZE, pages.size());
+        assertEquals(expected, actual);
+    }
+
+    private Page firstPage() throws SQLException
+    {
+        try (PreparedStatement statement = this.connection.prepareStatement(FIRST_PAGE_QUERY)) {
+            statement.setString(1, WIKI);
+            statement.setInt(2, PAGE_SIZE);
+
+            return new Page(statement.executeQuery());
+        }
+    }
+
+    private Page nextPage(Page previous) throws SQLException
+    {
+        try (PreparedStatement statement = this.connection.prepareStatement(KEYSET_QUERY)) {
+            statement.setString(1, WIKI);
+            statement.setTimestamp(2, previous.lastDate);
+            statement.setTimestamp(3, previous.lastDate);
+            statement.setString(4, previous.ids.get(previous.ids.size() - 1));
+            statement.setInt(5, PAGE_SIZE);
+
+            return new Page(statement.executeQuery());
+        }
+    }
+
+    private static class Page
+    {
+        private final List<String> ids = new ArrayList<>();
+
+        private Timestamp lastDate;
+
+        Page(ResultSet result) throws SQLException
+        {
+            try (ResultSet rs = result) {
+                while (rs.next()) {
+                    this.ids.add(rs.getString(1));
+                    this.lastDate = rs.getTimestamp(2);
+                }
+            }
+        }
+    }
+}
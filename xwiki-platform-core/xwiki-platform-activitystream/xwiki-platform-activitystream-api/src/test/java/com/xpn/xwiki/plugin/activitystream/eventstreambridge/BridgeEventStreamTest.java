@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.activitystream.eventstreambridge;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.eventstream.EventQuery;
+import org.xwiki.eventstream.EventStream;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.query.QueryParameter;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link BridgeEventStream}.
+ *
+ * @version $Id$
+ */
+public class BridgeEventStreamTest
+{
+    @Rule
+    public MockitoComponentMockingRule<EventStream> mocker =
+        new MockitoComponentMockingRule<EventStream>(BridgeEventStream.class);
+
+    private QueryManager queryManager;
+
+    private Query stub;
+
+    private Query query;
+
+    private QueryParameter nestedSpace;
+
+    private Map<String, Object> parameters = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.queryManager = this.mocker.getInstance(QueryManager.class);
+
+        // The stub built from the filters, and the query actually selecting the activity events
+        this.stub = mock(Query.class, "stub");
+        this.query = mock(Query.class, "query");
+        when(this.queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(this.stub);
+        when(this.queryManager.createQuery(
+            eq("select event from ActivityEventImpl event where 1=1 order by event.date desc, event.eventId desc"),
+            eq(Query.HQL))).thenReturn(this.query);
+        when(this.stub.getLanguage()).thenReturn(Query.HQL);
+        when(this.stub.getNamedParameters()).thenReturn(this.parameters);
+        when(this.stub.getPositionalParameters()).thenReturn(Collections.emptyMap());
+        when(this.stub.getLimit()).thenReturn(20);
+        when(this.query.execute()).thenReturn(Collections.emptyList());
+
+        this.nestedSpace = mock(QueryParameter.class);
+        when(this.stub.bindValue("nestedSpace0")).thenReturn(this.nestedSpace);
+        when(this.nestedSpace.literal(anyString())).thenReturn(this.nestedSpace);
+        when(this.nestedSpace.anyChars()).thenReturn(this.nestedSpace);
+
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(serializer.serialize(new DocumentReference("xwiki", "XWiki", "Alice"))).thenReturn("xwiki:XWiki.Alice");
+        EntityReferenceSerializer<String> localSerializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        when(localSerializer.serialize(new SpaceReference("wiki", "Main"))).thenReturn("Main");
+    }
+
+    @Test
+    public void searchEventsWithFilters() throws Exception
+    {
+        Date date = new Date();
+        EventQuery eventQuery = new EventQuery().setWikis(new WikiReference("wiki"))
+            .setSpaces(new SpaceReference("wiki", "Main"))
+            .setUsers(new DocumentReference("xwiki", "XWiki", "Alice")).setTypes("update", "create")
+            .setApplications("xwiki").setAfter(date, "id").setLimit(20);
+
+        when(this.stub.getStatement()).thenReturn("where 1=1");
+
+        this.mocker.getComponentUnderTest().searchEvents(eventQuery);
+
+        verify(this.queryManager).createQuery("where 1=1 and event.wiki in (:wiki) and ((event.wiki = :spaceWiki0 "
+            + "and (event.space = :space0 or event.space like :nestedSpace0))) and event.user in (:user) "
+            + "and event.type in (:type) and event.application in (:application) and (event.date < :afterDate "
+            + "or (event.date = :afterDate and event.eventId < :afterId)) "
+            + "order by event.date desc, event.eventId desc", Query.HQL);
+
+        verify(this.stub).bindValue("wiki", Arrays.asList("wiki"));
+        verify(this.stub).bindValue("spaceWiki0", "wiki");
+        verify(this.stub).bindValue("space0", "Main");
+        verify(this.nestedSpace).literal("Main.");
+        verify(this.nestedSpace).anyChars();
+        verify(this.stub).bindValue("user", Arrays.asList("xwiki:XWiki.Alice"));
+        verify(this.stub).bindValue("type", Arrays.asList("update", "create"));
+        verify(this.stub).bindValue("application", Arrays.asList("xwiki"));
+        verify(this.stub).bindValue("afterDate", date);
+        verify(this.stub).bindValue("afterId", "id");
+        verify(this.stub).setLimit(20);
+    }
+
+    @Test
+    public void searchEventsWithoutFilters() throws Exception
+    {
+        this.parameters.put("param", "value");
+        when(this.stub.getStatement()).thenReturn("where 1=1 order by event.date desc, event.eventId desc");
+
+        assertTrue(this.mocker.getComponentUnderTest().searchEvents(new EventQuery().setLimit(20)).isEmpty());
+
+        verify(this.queryManager).createQuery("where 1=1 order by event.date desc, event.eventId desc", Query.HQL);
+        verify(this.stub, never()).bindValue(eq("afterDate"), any());
+        verify(this.stub).setLimit(20);
+
+        // The stub is executed through the activity events
+        verify(this.query).bindValue("param", "value");
+        verify(this.query).setLimit(20);
+        verify(this.query).execute();
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.activitystream.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.observation.event.ApplicationStoppedEvent;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.plugin.activitystream.api.ActivityEvent;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.web.Utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ActivityEventRecorder}.
+ *
+ * @version $Id$
+ */
+public class ActivityEventRecorderTest
+{
+    private static final List<String> WIKIS = Collections.singletonList("wiki");
+
+    @Rule
+    public MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    private XWikiContext context;
+
+    private XWikiContext recordingContext;
+
+    private XWikiHibernateStore store;
+
+    private Session session;
+
+    private List<ActivityEvent> storedEvents = new CopyOnWriteArrayList<>();
+
+    private CountDownLatch storing = new CountDownLatch(1);
+
+    private CountDownLatch release = new CountDownLatch(1);
+
+    private Thread recordingThread;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        this.componentManager.registerMockComponent(ExecutionContextManager.class);
+        Execution execution = this.componentManager.registerMockComponent(Execution.class);
+        Utils.setComponentManager(this.componentManager);
+
+        this.store = mock(XWikiHibernateStore.class);
+        this.session = mock(Session.class);
+        doAnswer(invocation -> invocation.<HibernateCallback<Object>>getArgument(1).doInHibernate(this.session))
+            .when(this.store).executeWrite(any(XWikiContext.class), any(HibernateCallback.class));
+        XWiki xwiki = mock(XWiki.class);
+        when(xwiki.getHibernateStore()).thenReturn(this.store);
+
+        this.context = mock(XWikiContext.class);
+        this.recordingContext = mock(XWikiContext.class);
+        when(this.context.clone()).thenReturn(this.recordingContext);
+        when(this.context.getWiki()).thenReturn(xwiki);
+        when(this.recordingContext.getWiki()).thenReturn(xwiki);
+
+        ExecutionContext executionContext = new ExecutionContext();
+        executionContext.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, this.recordingContext);
+        when(execution.getContext()).thenReturn(executionContext);
+    }
+
+    private ActivityEvent event(String id)
+    {
+        ActivityEvent event = new ActivityEventImpl();
+        event.setEventId(id);
+        return event;
+    }
+
+    /**
+     * Block the recording thread while it stores the passed event, until {@link #release} is counted down.
+     */
+    private void blockStorageOf(ActivityEvent event)
+    {
+        doAnswer(invocation -> {
+            this.recordingThread = Thread.currentThread();
+            this.storing.countDown();
+
+            // Keep the interrupted status for the recording thread
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.release.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            return null;
+        }).when(this.session).save(event);
+    }
+
+    private void waitUntilWaiting(Thread thread)
+    {
+        long timeout = System.currentTimeMillis() + 10000L;
+        while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING
+            && System.currentTimeMillis() < timeout) {
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void recordStoresEventsInBatches() throws Exception
+    {
+        ActivityEventRecorder recorder = new ActivityEventRecorder(this.context, 10, 2, this.storedEvents::add);
+        recorder.start();
+
+        ActivityEvent event1 = event("1");
+        blockStorageOf(event1);
+        recorder.record(event1, WIKIS, this.context);
+        assertTrue(this.storing.await(10, TimeUnit.SECONDS));
+
+        // The following events are queued while the first one is being stored
+        ActivityEvent event2 = event("2");
+        ActivityEvent event3 = event("3");
+        ActivityEvent event4 = event("4");
+        ActivityEvent event5 = event("5");
+        recorder.record(event2, WIKIS, this.context);
+        recorder.record(event3, WIKIS, this.context);
+        recorder.record(event4, WIKIS, this.context);
+        recorder.record(event5, WIKIS, this.context);
+        assertEquals(Collections.emptyList(), this.storedEvents);
+
+        this.release.countDown();
+        recorder.stop();
+
+        assertEquals(Arrays.asList(event1, event2, event3, event4, event5), this.storedEvents);
+        // One transaction for the first event, then one per batch of 2 events
+        verify(this.store, times(3)).executeWrite(same(this.recordingContext), any(HibernateCallback.class));
+    }
+
+    @Test
+    public void recordStoresEventsOneByOneWhenBatchFails() throws Exception
+    {
+        ActivityEventRecorder recorder = new ActivityEventRecorder(this.context, 10, 10, this.storedEvents::add);
+        recorder.start();
+
+        ActivityEvent event1 = event("1");
+        blockStorageOf(event1);
+        recorder.record(event1, WIKIS, this.context);
+        assertTrue(this.storing.await(10, TimeUnit.SECONDS));
+
+        ActivityEvent event2 = event("2");
+        ActivityEvent event3 = event("3");
+        doThrow(new HibernateException("Invalid event")).when(this.session).save(event2);
+        recorder.record(event2, WIKIS, this.context);
+        recorder.record(event3, WIKIS, this.context);
+
+        this.release.countDown();
+        recorder.stop();
+
+        // Only the stored events are notified
+        assertEquals(Arrays.asList(event1, event3), this.storedEvents);
+        // Once in the failed batch, then alone
+        verify(this.session, times(2)).save(event3);
+    }
+
+    @Test
+    public void stopStoresQueuedEvents() throws Exception
+    {
+        ActivityEventRecorder recorder = new ActivityEventRecorder(this.context, 10, 10, this.storedEvents::add);
+        recorder.start();
+
+        ActivityEvent event1 = event("1");
+        blockStorageOf(event1);
+        recorder.record(event1, WIKIS, this.context);
+        assertTrue(this.storing.await(10, TimeUnit.SECONDS));
+
+        ActivityEvent event2 = event("2");
+        ActivityEvent event3 = event("3");
+        recorder.record(event2, WIKIS, this.context);
+        recorder.record(event3, WIKIS, this.context);
+
+        Thread stopping = new Thread(() -> recorder.onEvent(new ApplicationStoppedEvent(), null, null));
+        stopping.start();
+        this.release.countDown();
+        stopping.join(10000L);
+        assertFalse(stopping.isAlive());
+
+        assertEquals(Arrays.asList(event1, event2, event3), this.storedEvents);
+
+        // The events recorded once stopped are stored synchronously
+        ActivityEvent event4 = event("4");
+        recorder.record(event4, WIKIS, this.context);
+
+        assertEquals(Arrays.asList(event1, event2, event3, event4), this.storedEvents);
+        verify(this.store).executeWrite(same(this.context), any(HibernateCallback.class));
+    }
+
+    @Test
+    public void recordingThreadStopsWhileRecordWaitsForRoomInTheQueue() throws Exception
+    {
+        ActivityEventRecorder recorder = new ActivityEventRecorder(this.context, 1, 10, this.storedEvents::add);
+        recorder.start();
+
+        ActivityEvent event1 = event("1");
+        blockStorageOf(event1);
+        recorder.record(event1, WIKIS, this.context);
+        assertTrue(this.storing.await(10, TimeUnit.SECONDS));
+
+        // Fill the queue and wait for room in it from two other threads
+        ActivityEvent event2 = event("2");
+        ActivityEvent event3 = event("3");
+        ActivityEvent event4 = event("4");
+        recorder.record(event2, WIKIS, this.context);
+        Thread producer3 = new Thread(() -> recorder.record(event3, WIKIS, this.context));
+        Thread producer4 = new Thread(() -> recorder.record(event4, WIKIS, this.context));
+        producer3.start();
+        producer4.start();
+        waitUntilWaiting(producer3);
+        waitUntilWaiting(producer4);
+
+        // The recording thread is interrupted: it stores the queued events and needs the write lock to stop while one
+        // of the threads is still waiting for room in the queue
+        this.recordingThread.interrupt();
+        this.release.countDown();
+
+        producer3.join(10000L);
+        producer4.join(10000L);
+        assertFalse(producer3.isAlive());
+        assertFalse(producer4.isAlive());
+
+        recorder.stop();
+
+        assertEquals(4, this.storedEvents.size());
+        assertTrue(this.storedEvents.containsAll(Arrays.asList(event1, event2, event3, event4)));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.eventstream;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Typed search of the stored events, see {@link EventStream#searchEvents(EventQuery)}. The matching events are returned
+ * from the most recent to the oldest one. Instead of skipping a number of events, the next page of results is
+ * retrieved by passing the last event of the current page to {@link #setAfter(Event)} (keyset pagination), which keeps
+ * the same cost whatever the depth of the page.
+ * <p>
+ * Each filter matches the events having one of the passed values; an empty filter matches all the events.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Unstable
+public class EventQuery
+{
+    private final Set<WikiReference> wikis = new LinkedHashSet<>();
+
+    private final Set<SpaceReference> spaces = new LinkedHashSet<>();
+
+    private final Set<DocumentReference> users = new LinkedHashSet<>();
+
+    private final Set<String> types = new LinkedHashSet<>();
+
+    private final Set<String> applications = new LinkedHashSet<>();
+
+    private Date afterDate;
+
+    private String afterId;
+
+    private int limit;
+
+    /**
+     * @param wikis only return the events of these wikis
+     * @return this query
+     */
+    public EventQuery setWikis(WikiReference... wikis)
+    {
+        return set(this.wikis, wikis);
+    }
+
+    /**
+     * @return the wikis of the events to return
+     */
+    public Set<WikiReference> getWikis()
+    {
+        return Collections.unmodifiableSet(this.wikis);
+    }
+
+    /**
+     * @param spaces only return the events of these spaces, including their nested spaces
+     * @return this query
+     */
+    public EventQuery setSpaces(SpaceReference... spaces)
+    {
+        return set(this.spaces, spaces);
+    }
+
+    /**
+     * @return the spaces of the events to return
+     */
+    public Set<SpaceReference> getSpaces()
+    {
+        return Collections.unmodifiableSet(this.spaces);
+    }
+
+    /**
+     * @param users only return the events produced by these users
+     * @return this query
+     */
+    public EventQuery setUsers(DocumentReference... users)
+    {
+        return set(this.users, users);
+    }
+
+    /**
+     * @return the users of the events to return
+     */
+    public Set<DocumentReference> getUsers()
+    {
+        return Collections.unmodifiableSet(this.users);
+    }
+
+    /**
+     * @param types only return the events of these types
+     * @return this query
+     */
+    public EventQuery setTypes(String... types)
+    {
+        return set(this.types, types);
+    }
+
+    /**
+     * @return the types of the events to return
+     */
+    public Set<String> getTypes()
+    {
+        return Collections.unmodifiableSet(this.types);
+    }
+
+    /**
+     * @param applications only return the events produced by these applications
+     * @return this query
+     */
+    public EventQuery setApplications(String... applications)
+    {
+        return set(this.applications, applications);
+    }
+
+    /**
+     * @return the applications of the events to return
+     */
+    public Set<String> getApplications()
+    {
+        return Collections.unmodifiableSet(this.applications);
+    }
+
+    /**
+     * Only return the events following the passed one, i.e. the next page of results when passing the last event of the
+     * current page.
+     *
+     * @param event the last event already retrieved, {@code null} to start from the most recent event
+     * @return this query
+     */
+    public EventQuery setAfter(Event event)
+    {
+        return event != null ? setAfter(event.getDate(), event.getId()) : setAfter(null, null);
+    }
+
+    /**
+     * Only return the events older than the passed date, or having the same date and a lower identifier.
+     *
+     * @param date the date of the last event already retrieved
+     * @param id the identifier of the last event already retrieved
+     * @return this query
+     */
+    public EventQuery setAfter(Date date, String id)
+    {
+        this.afterDate = date;
+        this.afterId = id;
+
+        return this;
+    }
+
+    /**
+     * @return the date of the last event already retrieved, {@code null} to start from the most recent event
+     */
+    public Date getAfterDate()
+    {
+        return this.afterDate;
+    }
+
+    /**
+     * @return the identifier of the last event already retrieved
+     */
+    public String getAfterId()
+    {
+        return this.afterId;
+    }
+
+    /**
+     * @param limit the maximum number of events to return, 0 for no limit
+     * @return this query
+     */
+    public EventQuery setLimit(int limit)
+    {
+        this.limit = limit;
+
+        return this;
+    }
+
+    /**
+     * @return the maximum number of events to return, 0 for no limit
+     */
+    public int getLimit()
+    {
+        return this.limit;
+    }
+
+    private <T> EventQuery set(Set<T> set, T[] values)
+    {
+        set.clear();
+        if (values != null) {
+            set.addAll(Arrays.asList(values));
+            set.remove(null);
+        }
+
+        return this;
+    }
+}
@@ -22,8 +22,11 @@
 import java.util.List;
 
 import org.xwiki.component.annotation.Role;
+import org.xwiki.eventstream.internal.EventQueryTranslator;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
+import org.xwiki.query.internal.DefaultQuery;
+import org.xwiki.stability.Unstable;
 
 /**
  * The stream of events, allowing to store and retrieve events.
@@ -52,6 +55,26 @@
      */
     List<Event> searchEvents(Query query) throws QueryException;
 
+    /**
+     * Search stored events matching the passed filters, from the most recent to the oldest one. Contrary to
+     * {@link #searchEvents(Query)}, deep pages are retrieved without skipping the previous events, see
+     * {@link EventQuery#setAfter(Event)}. By default the filters are translated into a query stub on the properties of
+     * {@link Event} and passed to {@link #searchEvents(Query)}.
+     *
+     * @param query the filters and the page of events to retrieve
+     * @return the list of events matched by the query
+     * @throws QueryException if the query cannot be executed
+     * @since 9.4RC1
+     */
+    @Unstable
+    default List<Event> searchEvents(EventQuery query) throws QueryException
+    {
+        Query stub = new DefaultQuery(EventQueryTranslator.DEFAULT.getStatement(query), Query.HQL, null);
+        EventQueryTranslator.DEFAULT.bindValues(stub, query);
+
+        return searchEvents(stub);
+    }
+
     /**
      * Retrieve the group that a given event is part of.
      * 
@@ -0,0 +1,46 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.eventstream.events;
+
+import org.xwiki.observation.event.Event;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Event triggered when the status of an event for an entity (e.g. read or unread by a user) has been saved.
+ * <p>
+ * The event also send the following parameters:
+ * </p>
+ * <ul>
+ * <li>source: the saved {@link org.xwiki.eventstream.EventStatus}</li>
+ * <li>data: null</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Unstable
+public class EventStatusAddOrUpdatedEvent implements Event
+{
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof EventStatusAddOrUpdatedEvent;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.eventstream.internal;
+
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.xwiki.eventstream.EventQuery;
+import org.xwiki.model.internal.reference.DefaultStringEntityReferenceSerializer;
+import org.xwiki.model.internal.reference.DefaultSymbolScheme;
+import org.xwiki.model.internal.reference.LocalStringEntityReferenceSerializer;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+
+/**
+ * Translate an {@link EventQuery} into the HQL query stub expected by
+ * {@link org.xwiki.eventstream.EventStream#searchEvents(Query)}.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class EventQueryTranslator
+{
+    /**
+     * The translator matching the properties of {@link org.xwiki.eventstream.Event}, with the references stored as
+     * strings.
+     */
+    public static final EventQueryTranslator DEFAULT = new EventQueryTranslator("id",
+        new DefaultStringEntityReferenceSerializer(new DefaultSymbolScheme()),
+        new LocalStringEntityReferenceSerializer(new DefaultSymbolScheme()));
+
+    private final String idProperty;
+
+    private final EntityReferenceSerializer<String> serializer;
+
+    private final EntityReferenceSerializer<String> localSerializer;
+
+    /**
+     * @param idProperty the name of the property holding the identifier of the stored events
+     * @param serializer the serializer used for the users
+     * @param localSerializer the serializer used for the spaces, which are stored relative to the wiki of the event
+     */
+    public EventQueryTranslator(String idProperty, EntityReferenceSerializer<String> serializer,
+        EntityReferenceSerializer<String> localSerializer)
+    {
+        this.idProperty = idProperty;
+        this.serializer = serializer;
+        this.localSerializer = localSerializer;
+    }
+
+    /**
+     * @param eventQuery the filters and the page of events to retrieve
+     * @return the statement of the query stub, to bind with {@link #bindValues(Query, EventQuery)}
+     */
+    public String getStatement(EventQuery eventQuery)
+    {
+        StringBuilder statement = new StringBuilder("where 1=1");
+
+        appendFilter(statement, "wiki", eventQuery.getWikis());
+        appendSpacesFilter(statement, eventQuery.getSpaces());
+        appendFilter(statement, "user", eventQuery.getUsers());
+        appendFilter(statement, "type", eventQuery.getTypes());
+        appendFilter(statement, "application", eventQuery.getApplications());
+
+        // Keyset pagination: continue after the last retrieved event instead of skipping the previous ones
+        if (eventQuery.getAfterDate() != null) {
+            statement.append(" and (event.date < :afterDate");
+            if (eventQuery.getAfterId() != null) {
+                statement.append(
+                    String.format(" or (event.date = :afterDate and event.%1$s < :afterId)", this.idProperty));
+            }
+            statement.append(')');
+        }
+
+        statement.append(String.format(" order by event.date desc, event.%1$s desc", this.idProperty));
+
+        return statement.toString();
+    }
+
+    /**
+     * Bind the parameters used by the statement returned by {@link #getStatement(EventQuery)}, and the limit.
+     *
+     * @param query the query created from the statement
+     * @param eventQuery the filters and the page of events to retrieve
+     */
+    public void bindValues(Query query, EventQuery eventQuery)
+    {
+        bindFilter(query, "wiki", eventQuery.getWikis(), WikiReference::getName);
+        bindSpacesFilter(query, eventQuery.getSpaces());
+        bindFilter(query, "user", eventQuery.getUsers(), this.serializer::serialize);
+        bindFilter(query, "type", eventQuery.getTypes(), Function.identity());
+        bindFilter(query, "application", eventQuery.getApplications(), Function.identity());
+
+        if (eventQuery.getAfterDate() != null) {
+            query.bindValue("afterDate", eventQuery.getAfterDate());
+            if (eventQuery.getAfterId() != null) {
+                query.bindValue("afterId", eventQuery.getAfterId());
+            }
+        }
+
+        query.setLimit(eventQuery.getLimit());
+    }
+
+    private void appendFilter(StringBuilder statement, String property, Collection<?> values)
+    {
+        if (!values.isEmpty()) {
+            statement.append(String.format(" and event.%1$s in (:%1$s)", property));
+        }
+    }
+
+    private <T> void bindFilter(Query query, String property, Collection<T> values, Function<T, String> serializer)
+    {
+        if (!values.isEmpty()) {
+            query.bindValue(property, values.stream().map(serializer).collect(Collectors.toList()));
+        }
+    }
+
+    private void appendSpacesFilter(StringBuilder statement, Collection<SpaceReference> spaces)
+    {
+        if (!spaces.isEmpty()) {
+            statement.append(" and (");
+            for (int i = 0; i < spaces.size(); i++) {
+                if (i > 0) {
+                    statement.append(" or ");
+                }
+                statement.append(String.format(
+                    "(event.wiki = :spaceWiki%1$d and (event.space = :space%1$d or event.space like :nestedSpace%1$d))",
+                    i));
+            }
+            statement.append(')');
+        }
+    }
+
+    private void bindSpacesFilter(Query query, Collection<SpaceReference> spaces)
+    {
+        int i = 0;
+        for (SpaceReference space : spaces) {
+            String localSpace = this.localSerializer.serialize(space);
+
+            query.bindValue("spaceWiki" + i, space.getWikiReference().getName());
+            query.bindValue("space" + i, localSpace);
+            query.bindValue("nestedSpace" + i).literal(localSpace + '.').anyChars();
+
+            i++;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.eventstream;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for the default typed search of {@link EventStream}.
+ *
+ * @version $Id$
+ */
+public class EventStreamTest
+{
+    @Test
+    public void searchEventsFallsBackOnQueryStub() throws Exception
+    {
+        EventStream stream = mock(EventStream.class);
+        doCallRealMethod().when(stream).searchEvents(any(EventQuery.class));
+
+        Date date = new Date();
+        stream.searchEvents(new EventQuery().setWikis(new WikiReference("wiki"))
+            .setSpaces(new SpaceReference("wiki", "Main", "Sub"))
+            .setUsers(new DocumentReference("xwiki", "XWiki", "Bob"))
+            .setTypes("update").setAfter(date, "id").setLimit(10));
+
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(stream).searchEvents(captor.capture());
+        Query stub = captor.getValue();
+
+        assertEquals("where 1=1 and event.wiki in (:wiki) and ((event.wiki = :spaceWiki0 "
+            + "and (event.space = :space0 or event.space like :nestedSpace0))) and event.user in (:user) "
+            + "and event.type in (:type) and (event.date < :afterDate "
+            + "or (event.date = :afterDate and event.id < :afterId)) order by event.date desc, event.id desc",
+            stub.getStatement());
+        assertEquals(Query.HQL, stub.getLanguage());
+        assertEquals(Arrays.asList("wiki"), stub.getNamedParameters().get("wiki"));
+        assertEquals("wiki", stub.getNamedParameters().get("spaceWiki0"));
+        assertEquals("Main.Sub", stub.getNamedParameters().get("space0"));
+        assertEquals(Arrays.asList("xwiki:XWiki.Bob"), stub.getNamedParameters().get("user"));
+        assertEquals(Arrays.asList("update"), stub.getNamedParameters().get("type"));
+        assertEquals(date, stub.getNamedParameters().get("afterDate"));
+        assertEquals("id", stub.getNamedParameters().get("afterId"));
+        assertEquals(10, stub.getLimit());
+    }
+}
@@ -56,4 +56,22 @@ public boolean isGenerateInlineSourceMaps()
     {
         return configurationSource.getProperty(CONFIGURATION_PREFIX + "generateInlineSourceMaps", false);
     }
+
+    /**
+     * @return whether the compiled CSS should also be stored in the permanent directory so that it survives a restart
+     * @since 9.4RC1
+     */
+    public boolean isPersistentCacheEnabled()
+    {
+        return configurationSource.getProperty(CONFIGURATION_PREFIX + "cache.persistent", true);
+    }
+
+    /**
+     * @return whether the skins should be compiled for all the color themes in background when XWiki starts
+     * @since 9.4RC1
+     */
+    public boolean isCachePrewarmingEnabled()
+    {
+        return configurationSource.getProperty(CONFIGURATION_PREFIX + "cache.prewarm", true);
+    }
 }
@@ -104,35 +104,35 @@ public T getResult(LESSResourceReference lessResourceReference, boolean includeS
             return compiler.compute(lessResourceReference, includeSkinStyle, useVelocity, true, skin);
         }
 
-        T result = null;
-
         SkinReference skinReference = skinReferenceFactory.createReference(skin);
         ColorThemeReference colorThemeReference = colorThemeReferenceFactory.createReference(
                 currentColorThemeGetter.getCurrentColorTheme(true, "default"));
 
+        // Optimistic read: most of the time the result is already in the cache and there is no need to lock anything.
+        // It's also what allows the readers to get the previous result while a forced compilation is in progress.
+        if (!force) {
+            T cachedResult = cache.get(lessResourceReference, skinReference, colorThemeReference);
+            if (cachedResult != null) {
+                return getCachedResult(cachedResult, lessResourceReference, includeSkinStyle, useVelocity, skin);
+            }
+        }
+
+        T result = null;
+
         // Only one computation is allowed in the same time per color theme, then the waiting threads will be able to
         // use the last result stored in the cache.
         Object mutex = cache.getMutex(lessResourceReference, skinReference, colorThemeReference);
         synchronized (mutex) {
 
-            // Check if the result is in the cache
+            // Check again if the result is in the cache since it might have been computed while we were waiting
             if (!force) {
                 result = cache.get(lessResourceReference, skinReference, colorThemeReference);
                 if (result != null) {
-                    // The LESS file contains Velocity code that call resources (ie: $xwiki.getSkinFile), and the HTML
-                    // exporter listens these calls to know which resources must be exported.
-                    // If we only use the cache, we would have a correct CSS file but some resources will be missing.
-                    // So we need to execute the velocity again, even if the LESS file is cached.
-                    // To perform this quickly, we do not recompile the LESS code (which would be useless anyway), but
-                    // we only do the Velocity Execution step.
-                    if (lessContext.isHtmlExport() && useVelocity && this instanceof DefaultLESSCompiler) {
-                        compiler.compute(lessResourceReference, includeSkinStyle, true, false, skin);
-                    }
-                    return cloneResult(result);
+                    return getCachedResult(result, lessResourceReference, includeSkinStyle, useVelocity, skin);
                 }
             }
 
-            // Either the result was in the cache or the force flag is set to true, we need to compile
+            // Either the result was not in the cache or the force flag is set to true, we need to compile
             try {
                 result = compiler.compute(lessResourceReference, includeSkinStyle, useVelocity, true, skin);
             } catch (LESSCompilerException e) {
@@ -149,6 +149,22 @@ public T getResult(LESSResourceReference lessResourceReference, boolean includeS
         return cloneResult(result);
     }
 
+    private T getCachedResult(T result, LESSResourceReference lessResourceReference, boolean includeSkinStyle,
+        boolean useVelocity, String skin) throws LESSCompilerException
+    {
+        // The LESS file contains Velocity code that call resources (ie: $xwiki.getSkinFile), and the HTML
+        // exporter listens these calls to know which resources must be exported.
+        // If we only use the cache, we would have a correct CSS file but some resources will be missing.
+        // So we need to execute the velocity again, even if the LESS file is cached.
+        // To perform this quickly, we do not recompile the LESS code (which would be useless anyway), but
+        // we only do the Velocity Execution step.
+        if (lessContext.isHtmlExport() && useVelocity && this instanceof DefaultLESSCompiler) {
+            compiler.compute(lessResourceReference, includeSkinStyle, true, false, skin);
+        }
+
+        return cloneResult(result);
+    }
+
     /**
      * Returns a clone of the result to avoid returning the instance stored in the cache. Need to be implemented by
      * subclasses.
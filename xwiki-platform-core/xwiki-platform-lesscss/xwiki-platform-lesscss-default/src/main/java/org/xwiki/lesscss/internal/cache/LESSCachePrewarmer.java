@@ -0,0 +1,180 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.lesscss.internal.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.lesscss.compiler.LESSCompiler;
+import org.xwiki.lesscss.compiler.LESSCompilerException;
+import org.xwiki.lesscss.internal.compiler.CachedLESSCompiler;
+import org.xwiki.lesscss.resources.LESSResourceReferenceFactory;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+import org.xwiki.wiki.manager.WikiManagerException;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.XWikiRequest;
+import com.xpn.xwiki.web.XWikiServletRequest;
+import com.xpn.xwiki.web.XWikiServletRequestStub;
+
+/**
+ * Compile the main style of each skin with each color theme, in every wiki, so that the caches are filled before the
+ * first user needs them.
+ *
+ * @since 9.4RC1
+ * @version $Id$
+ */
+@Component(roles = LESSCachePrewarmer.class)
+@Singleton
+public class LESSCachePrewarmer
+{
+    private static final String COLOR_THEME_FIELD = "colorTheme";
+
+    private static final String[] SKIN_CLASSES = {"XWiki.XWikiSkins"};
+
+    private static final String[] COLOR_THEME_CLASSES =
+        {"FlamingoThemesCode.ThemeClass", "ColorThemes.ColorThemeClass"};
+
+    /**
+     * The stored compilation results that have not been used for this long are considered obsolete.
+     */
+    private static final long PERSISTENT_CACHE_MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private LESSCompiler lessCompiler;
+
+    @Inject
+    private LESSResourceReferenceFactory lessResourceReferenceFactory;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Inject
+    private PersistentLESSCache persistentCache;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Compile all the skin and color theme combinations of all the wikis.
+     */
+    public void prewarm()
+    {
+        long startTime = System.currentTimeMillis();
+
+        try {
+            for (String wikiId : this.wikiDescriptorManager.getAllIds()) {
+                prewarm(wikiId);
+            }
+        } catch (WikiManagerException e) {
+            this.logger.warn("Failed to get the list of wikis: {}", e.getMessage());
+        }
+
+        this.persistentCache.cleanUp(PERSISTENT_CACHE_MAX_AGE);
+
+        this.logger.info("LESS caches have been filled in [{}] ms.", System.currentTimeMillis() - startTime);
+    }
+
+    private void prewarm(String wikiId)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String currentWikiId = xcontext.getWikiId();
+        XWikiRequest currentRequest = xcontext.getRequest();
+
+        try {
+            xcontext.setWikiId(wikiId);
+
+            // The default skin and color theme of the wiki, then the ones that users can select
+            Set<String> skins = new LinkedHashSet<>();
+            skins.add(xcontext.getWiki().getSkin(xcontext));
+            skins.addAll(getDocumentsWithObject(wikiId, SKIN_CLASSES));
+            List<String> colorThemes = new ArrayList<>();
+            colorThemes.add(null);
+            colorThemes.addAll(getDocumentsWithObject(wikiId, COLOR_THEME_CLASSES));
+
+            for (String skin : skins) {
+                for (String colorTheme : colorThemes) {
+                    compile(xcontext, currentRequest, skin, colorTheme);
+                }
+            }
+        } finally {
+            xcontext.setWikiId(currentWikiId);
+            xcontext.setRequest(currentRequest);
+        }
+    }
+
+    private void compile(XWikiContext xcontext, XWikiRequest currentRequest, String skin, String colorTheme)
+    {
+        // The current color theme is taken from the request
+        XWikiServletRequestStub request = new XWikiServletRequestStub();
+        if (currentRequest != null) {
+            request.setHost(currentRequest.getHeader("x-forwarded-host"));
+            request.setScheme(currentRequest.getScheme());
+        }
+        if (colorTheme != null) {
+            request.put(COLOR_THEME_FIELD, colorTheme);
+        }
+        xcontext.setRequest(new XWikiServletRequest(request));
+
+        try {
+            this.lessCompiler.compile(this.lessResourceReferenceFactory.createReferenceForSkinFile(
+                CachedLESSCompiler.MAIN_SKIN_STYLE_FILENAME), false, true, skin, false);
+        } catch (LESSCompilerException e) {
+            this.logger.warn("Failed to compile the skin [{}] with the color theme [{}] in the wiki [{}]: {}", skin,
+                colorTheme, xcontext.getWikiId(), e.getMessage());
+        }
+    }
+
+    private List<String> getDocumentsWithObject(String wikiId, String[] classNames)
+    {
+        List<String> documents = new ArrayList<>();
+        for (String className : classNames) {
+            try {
+                Query query =
+                    this.queryManager.createQuery(String.format("from doc.object(%s) as obj", className), Query.XWQL);
+                query.setWiki(wikiId);
+                documents.addAll(query.<String>execute());
+            } catch (QueryException e) {
+                this.logger.warn("Failed to get the documents having an object of type [{}] in the wiki [{}]: {}",
+                    className, wikiId, e.getMessage());
+            }
+        }
+
+        return documents;
+    }
+}
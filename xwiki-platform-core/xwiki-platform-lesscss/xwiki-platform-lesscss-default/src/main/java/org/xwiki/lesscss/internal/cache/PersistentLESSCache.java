@@ -0,0 +1,186 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.lesscss.internal.cache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+import org.xwiki.lesscss.internal.LESSConfiguration;
+
+/**
+ * Store the results of the LESS compilations in the permanent directory, so that they survive a restart or can be
+ * used by a new cluster node. An entry is identified by a hash of the compiled LESS code (after the Velocity
+ * execution, so it already depends on the color theme and the other Velocity inputs) and of the skin. Since the LESS
+ * code can import some skin templates, the hash of each imported template is stored with the CSS and checked before
+ * returning it.
+ *
+ * @since 9.4RC1
+ * @version $Id$
+ */
+@Component(roles = PersistentLESSCache.class)
+@Singleton
+public class PersistentLESSCache implements Initializable
+{
+    private static final String DIRECTORY = "cache/lesscss";
+
+    private static final String EXTENSION = ".css";
+
+    private static final String SEPARATOR = "\t";
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private LESSConfiguration lessConfiguration;
+
+    @Inject
+    private Logger logger;
+
+    private File directory;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        if (this.lessConfiguration.isPersistentCacheEnabled()) {
+            this.directory = new File(this.environment.getPermanentDirectory(), DIRECTORY);
+            this.directory.mkdirs();
+        }
+    }
+
+    /**
+     * @param lessCode the LESS code to compile
+     * @param skin the skin holding the imported templates
+     * @param inlineSourceMap whether the generated CSS contains inline sourcemaps
+     * @return the key identifying the compilation result
+     */
+    public String getKey(String lessCode, String skin, boolean inlineSourceMap)
+    {
+        return DigestUtils.sha256Hex(
+            String.format("%d:%s:%s:%s", skin.length(), skin, inlineSourceMap, lessCode));
+    }
+
+    /**
+     * @param key the key identifying the compilation result
+     * @param sourceProvider return the current content of an imported template, or {@code null} if it can't be read
+     * @return the stored CSS, or {@code null} if there is none or if one of the imported templates has changed
+     */
+    public String get(String key, Function<String, String> sourceProvider)
+    {
+        if (this.directory == null) {
+            return null;
+        }
+
+        File file = new File(this.directory, key + EXTENSION);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            int count = Integer.parseInt(reader.readLine());
+            for (int i = 0; i < count; i++) {
+                String[] source = reader.readLine().split(SEPARATOR, 2);
+                String content = sourceProvider.apply(source[1]);
+                if (content == null || !source[0].equals(DigestUtils.sha256Hex(content))) {
+                    return null;
+                }
+            }
+
+            String css = IOUtils.toString(reader);
+
+            // Remember that the entry is still used, see #cleanUp()
+            file.setLastModified(System.currentTimeMillis());
+
+            return css;
+        } catch (Exception e) {
+            this.logger.warn("Failed to read the stored LESS compilation result [{}]: {}", file, e.getMessage());
+
+            return null;
+        }
+    }
+
+    /**
+     * @param key the key identifying the compilation result
+     * @param importedSources the content of the templates imported during the compilation, indexed by template name
+     * @param css the result of the compilation
+     */
+    public void set(String key, Map<String, String> importedSources, String css)
+    {
+        if (this.directory == null) {
+            return;
+        }
+
+        File file = new File(this.directory, key + EXTENSION);
+        try {
+            // Write in a temporary file first so that another thread or node never reads a partial entry
+            File tmpFile = File.createTempFile(key, EXTENSION, this.directory);
+            try (Writer writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(importedSources.size() + "\n");
+                for (Map.Entry<String, String> source : importedSources.entrySet()) {
+                    writer.write(DigestUtils.sha256Hex(source.getValue()) + SEPARATOR + source.getKey() + '\n');
+                }
+                writer.write(css);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            this.logger.warn("Failed to store the LESS compilation result [{}]: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the entries that have not been used for some time. Each modification of a skin, a color theme or a LESS
+     * resource produces new entries, so the old ones have to be removed at some point.
+     *
+     * @param maxAge the number of milliseconds after which an unused entry is removed
+     */
+    public void cleanUp(long maxAge)
+    {
+        if (this.directory == null) {
+            return;
+        }
+
+        long limit = System.currentTimeMillis() - maxAge;
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.lastModified() < limit) {
+                    file.delete();
+                }
+            }
+        }
+    }
+}
@@ -19,6 +19,9 @@
  */
 package org.xwiki.lesscss.internal.compiler.less4j;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.xwiki.skin.Resource;
 import org.xwiki.skin.Skin;
 import org.xwiki.template.TemplateManager;
@@ -36,6 +39,11 @@ public abstract class AbstractLESSSource extends LessSource
     protected TemplateManager templateManager;
 
     protected Skin skin;
+
+    /**
+     * The content of the templates imported during the compilation, indexed by template name.
+     */
+    protected Map<String, String> importedSources;
     
     private String folder;
 
@@ -46,10 +54,24 @@ public abstract class AbstractLESSSource extends LessSource
      * @param folder the folder in which the template is located
      */
     public AbstractLESSSource(TemplateManager templateManager, Skin skin, String folder)
+    {
+        this(templateManager, skin, folder, new LinkedHashMap<>());
+    }
+
+    /**
+     * @param templateManager the template manager component
+     * @param skin the skin holding the templates
+     * @param folder the folder in which the template is located
+     * @param importedSources the map in which to record the content of the imported templates
+     * @since 9.4RC1
+     */
+    public AbstractLESSSource(TemplateManager templateManager, Skin skin, String folder,
+        Map<String, String> importedSources)
     {
         this.templateManager = templateManager;
         this.skin = skin;
         this.folder = folder;
+        this.importedSources = importedSources;
     }
     
     @Override
@@ -58,7 +80,7 @@ public LessSource relativeSource(String filename) throws FileNotFound
         String template = folder + "/" + filename;
         Resource resource = skin.getResource(template);
         if (resource != null) {
-            return new TemplateLESSSource(templateManager, skin, template);
+            return new TemplateLESSSource(templateManager, skin, template, importedSources);
         }
 
         // The file has not been found
@@ -19,6 +19,8 @@
  */
 package org.xwiki.lesscss.internal.compiler.less4j;
 
+import java.util.Map;
+
 import org.xwiki.skin.Skin;
 import org.xwiki.template.TemplateManager;
 
@@ -44,6 +46,20 @@ public CustomContentLESSSource(String lessCode, TemplateManager templateManager,
         this.lessCode = lessCode;
     }
 
+    /**
+     * @param lessCode the LESS code to compile
+     * @param templateManager the template manager component
+     * @param skin the skin holding the template
+     * @param importedSources the map in which to record the content of the imported templates
+     * @since 9.4RC1
+     */
+    public CustomContentLESSSource(String lessCode, TemplateManager templateManager, Skin skin,
+        Map<String, String> importedSources)
+    {
+        super(templateManager, skin, "less", importedSources);
+        this.lessCode = lessCode;
+    }
+
     @Override
     public String getContent() throws FileNotFound, CannotReadFile
     {
@@ -19,10 +19,15 @@
  */
 package org.xwiki.lesscss.internal.compiler.less4j;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.lesscss.internal.cache.PersistentLESSCache;
+import org.xwiki.skin.Skin;
 import org.xwiki.skin.SkinManager;
 import org.xwiki.template.TemplateManager;
 
@@ -47,6 +52,9 @@
     @Inject
     private SkinManager skinManager;
 
+    @Inject
+    private PersistentLESSCache persistentCache;
+
     /**
      * Compile the LESS code and get the included files from the skin templates.
      * @param lessCode code to compile
@@ -56,15 +64,41 @@
      * @throws Less4jException if problems occur
      */
     public String compile(String lessCode, String skin, boolean inlineSourceMap) throws Less4jException
+    {
+        Skin skinObject = skinManager.getSkin(skin);
+
+        // The compilation is much slower than reading a previous result from the disk
+        String key = persistentCache.getKey(lessCode, skin, inlineSourceMap);
+        String css = persistentCache.get(key, templateName -> readTemplate(templateName, skinObject));
+        if (css != null) {
+            return css;
+        }
+
+        Map<String, String> importedSources = new LinkedHashMap<>();
+        css = compile(new CustomContentLESSSource(lessCode, templateManager, skinObject, importedSources),
+            inlineSourceMap);
+        persistentCache.set(key, importedSources, css);
+
+        return css;
+    }
+
+    private String compile(LessSource lessSource, boolean inlineSourceMap) throws Less4jException
     {
         LessCompiler lessCompiler = new DefaultLessCompiler();
         LessCompiler.Configuration options = new LessCompiler.Configuration();
         options.setCompressing(true);
         options.getSourceMapConfiguration().setInline(inlineSourceMap);
         options.getSourceMapConfiguration().setIncludeSourcesContent(true);
-        LessSource lessSource = 
-            new CustomContentLESSSource(lessCode, templateManager, skinManager.getSkin(skin));
         LessCompiler.CompilationResult lessResult = lessCompiler.compile(lessSource, options);
         return lessResult.getCss();
     }
+
+    private String readTemplate(String templateName, Skin skin)
+    {
+        try {
+            return new TemplateLESSSource(templateManager, skin, templateName).getContent();
+        } catch (LessSource.FileNotFound | LessSource.CannotReadFile e) {
+            return null;
+        }
+    }
 }
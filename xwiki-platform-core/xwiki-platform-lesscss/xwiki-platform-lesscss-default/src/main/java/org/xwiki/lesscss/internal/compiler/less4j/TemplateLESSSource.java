@@ -19,6 +19,9 @@
  */
 package org.xwiki.lesscss.internal.compiler.less4j;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.apache.commons.lang3.StringUtils;
 import org.xwiki.lesscss.internal.compiler.CachedLESSCompiler;
 import org.xwiki.skin.Skin;
@@ -46,7 +49,20 @@ public class TemplateLESSSource extends AbstractLESSSource
      */
     public TemplateLESSSource(TemplateManager templateManager, Skin skin, String templateName)
     {
-        super(templateManager, skin, getParentFolder(templateName));
+        this(templateManager, skin, templateName, new LinkedHashMap<>());
+    }
+
+    /**
+     * @param templateManager the template manager component
+     * @param skin the skin holding the template
+     * @param templateName the name of the template
+     * @param importedSources the map in which to record the content of the imported templates
+     * @since 9.4RC1
+     */
+    public TemplateLESSSource(TemplateManager templateManager, Skin skin, String templateName,
+        Map<String, String> importedSources)
+    {
+        super(templateManager, skin, getParentFolder(templateName), importedSources);
         this.templateName = templateName;
     }
 
@@ -62,6 +78,14 @@ private static String getParentFolder(String templateName)
 
     @Override
     public String getContent() throws FileNotFound, CannotReadFile
+    {
+        String content = readContent();
+        importedSources.put(templateName, content);
+
+        return content;
+    }
+
+    private String readContent() throws CannotReadFile
     {
         try {
             // We execute velocity on the main skin file only (which is included by SSX objects using LESS).
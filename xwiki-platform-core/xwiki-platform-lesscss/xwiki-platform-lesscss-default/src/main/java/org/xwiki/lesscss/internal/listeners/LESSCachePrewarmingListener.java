@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.lesscss.internal.listeners;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.lesscss.internal.LESSConfiguration;
+import org.xwiki.lesscss.internal.cache.LESSCachePrewarmer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
+/**
+ * Listener that fills the LESS caches in background when XWiki is started.
+ *
+ * @since 9.4RC1
+ * @version $Id$
+ */
+@Component
+@Named("lessCachePrewarming")
+@Singleton
+public class LESSCachePrewarmingListener implements EventListener
+{
+    @Inject
+    private LESSConfiguration lessConfiguration;
+
+    @Inject
+    private LESSCachePrewarmer prewarmer;
+
+    @Override
+    public String getName()
+    {
+        return "LESS Cache Prewarming Listener";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new ApplicationReadyEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (lessConfiguration.isCachePrewarmingEnabled()) {
+            Thread thread = new Thread(new AbstractXWikiRunnable()
+            {
+                @Override
+                protected void runInternal()
+                {
+                    prewarmer.prewarm();
+                }
+            }, "LESS cache prewarming");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+}
@@ -25,6 +25,7 @@
 import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.when;
@@ -62,4 +63,18 @@ public void generateSourceMaps() throws Exception
         boolean b  = mocker.getComponentUnderTest().isGenerateInlineSourceMaps();
         assertTrue(b);
     }
+
+    @Test
+    public void persistentCache() throws Exception
+    {
+        when(xwikiPropertiesSource.getProperty("lesscss.cache.persistent", true)).thenReturn(false);
+        assertFalse(mocker.getComponentUnderTest().isPersistentCacheEnabled());
+    }
+
+    @Test
+    public void cachePrewarming() throws Exception
+    {
+        when(xwikiPropertiesSource.getProperty("lesscss.cache.prewarm", true)).thenReturn(true);
+        assertTrue(mocker.getComponentUnderTest().isCachePrewarmingEnabled());
+    }
 }
@@ -0,0 +1,251 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.lesscss.internal.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.lesscss.compiler.LESSCompilerException;
+import org.xwiki.lesscss.internal.LESSContext;
+import org.xwiki.lesscss.internal.colortheme.ColorThemeReference;
+import org.xwiki.lesscss.internal.colortheme.ColorThemeReferenceFactory;
+import org.xwiki.lesscss.internal.colortheme.CurrentColorThemeGetter;
+import org.xwiki.lesscss.internal.colortheme.NamedColorThemeReference;
+import org.xwiki.lesscss.internal.skin.FSSkinReference;
+import org.xwiki.lesscss.internal.skin.SkinReference;
+import org.xwiki.lesscss.internal.skin.SkinReferenceFactory;
+import org.xwiki.lesscss.resources.LESSResourceReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Check how {@link AbstractCachedCompiler} behaves when it's called by several threads at the same time, and measure
+ * the throughput of the cache hits while a compilation is in progress.
+ *
+ * @version $Id$
+ */
+public class AbstractCachedCompilerConcurrencyTest
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractCachedCompilerConcurrencyTest.class);
+
+    private static final int THREADS = 8;
+
+    private final AtomicInteger compilations = new AtomicInteger();
+
+    private final LESSResourceReference resource = mock(LESSResourceReference.class);
+
+    private CountDownLatch compilationStarted;
+
+    private CountDownLatch compilationAllowed;
+
+    private AbstractCachedCompiler<String> cachedCompiler;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.cachedCompiler = new AbstractCachedCompiler<String>()
+        {
+            @Override
+            protected String cloneResult(String toClone)
+            {
+                return toClone;
+            }
+
+            @Override
+            protected String exceptionAsResult(LESSCompilerException exception)
+            {
+                return exception.getMessage();
+            }
+        };
+        this.cachedCompiler.cache = new MapCache();
+        this.cachedCompiler.compiler = (lessResourceReference, includeSkinStyle, useVelocity, useLESS, skin) -> {
+            int compilation = this.compilations.incrementAndGet();
+            this.compilationStarted.countDown();
+            try {
+                this.compilationAllowed.await();
+            } catch (InterruptedException e) {
+                throw new LESSCompilerException("interrupted", e);
+            }
+            return "css" + compilation;
+        };
+        this.cachedCompiler.lessContext = mock(LESSContext.class);
+        this.cachedCompiler.currentColorThemeGetter = mock(CurrentColorThemeGetter.class);
+        when(this.cachedCompiler.currentColorThemeGetter.getCurrentColorTheme(anyBoolean(), anyString()))
+            .thenReturn("colorTheme");
+        this.cachedCompiler.skinReferenceFactory = mock(SkinReferenceFactory.class);
+        when(this.cachedCompiler.skinReferenceFactory.createReference("skin")).thenReturn(new FSSkinReference("skin"));
+        this.cachedCompiler.colorThemeReferenceFactory = mock(ColorThemeReferenceFactory.class);
+        when(this.cachedCompiler.colorThemeReferenceFactory.createReference("colorTheme"))
+            .thenReturn(new NamedColorThemeReference("colorTheme"));
+        this.cachedCompiler.logger = LOGGER;
+
+        this.executor = Executors.newFixedThreadPool(THREADS + 1);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    private String getResult(boolean force) throws LESSCompilerException
+    {
+        return this.cachedCompiler.getResult(this.resource, false, false, "skin", force);
+    }
+
+    @Test
+    public void compileOnceWhenSeveralThreadsMissTheCache() throws Exception
+    {
+        this.compilationStarted = new CountDownLatch(1);
+        this.compilationAllowed = new CountDownLatch(1);
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(this.executor.submit(() -> getResult(false)));
+        }
+
+        assertTrue(this.compilationStarted.await(10, TimeUnit.SECONDS));
+        this.compilationAllowed.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("css1", result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, this.compilations.get());
+    }
+
+    @Test
+    public void readersGetThePreviousResultDuringAForcedCompilation() throws Exception
+    {
+        this.compilationStarted = new CountDownLatch(0);
+        this.compilationAllowed = new CountDownLatch(0);
+        assertEquals("css1", getResult(false));
+
+        // Start a forced compilation that does not end until we allow it
+        this.compilationStarted = new CountDownLatch(1);
+        this.compilationAllowed = new CountDownLatch(1);
+        Future<String> forcedResult = this.executor.submit(() -> getResult(true));
+        assertTrue(this.compilationStarted.await(10, TimeUnit.SECONDS));
+
+        // Readers are not blocked by the compilation in progress and get the previous result
+        long duration = TimeUnit.SECONDS.toNanos(1);
+        Callable<Integer> reader = () -> {
+            int reads = 0;
+            long end = System.nanoTime() + duration;
+            while (System.nanoTime() < end) {
+                assertEquals("css1", getResult(false));
+                reads++;
+            }
+            return reads;
+        };
+        List<Future<Integer>> readers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            readers.add(this.executor.submit(reader));
+        }
+        long reads = 0;
+        for (Future<Integer> readerResult : readers) {
+            reads += readerResult.get(10, TimeUnit.SECONDS);
+        }
+        assertTrue(reads > 0);
+        LOGGER.info("[{}] cache hits per second with [{}] threads during a compilation", reads, THREADS);
+
+        this.compilationAllowed.countDown();
+        assertEquals("css2", forcedResult.get(10, TimeUnit.SECONDS));
+        assertEquals("css2", getResult(false));
+    }
+
+    /**
+     * Minimal thread safe {@link LESSCache}.
+     */
+    private static class MapCache implements LESSCache<String>
+    {
+        private final Map<String, String> values = new ConcurrentHashMap<>();
+
+        private final Map<String, Object> mutexes = new ConcurrentHashMap<>();
+
+        private String getKey(LESSResourceReference lessResource, SkinReference skin, ColorThemeReference colorTheme)
+        {
+            return skin.serialize() + '/' + colorTheme.serialize();
+        }
+
+        @Override
+        public String get(LESSResourceReference lessResource, SkinReference skin, ColorThemeReference colorTheme)
+        {
+            return this.values.get(getKey(lessResource, skin, colorTheme));
+        }
+
+        @Override
+        public void set(LESSResourceReference lessResource, SkinReference skin, ColorThemeReference colorTheme,
+            String object)
+        {
+            this.values.put(getKey(lessResource, skin, colorTheme), object);
+        }
+
+        @Override
+        public void clear()
+        {
+            this.values.clear();
+        }
+
+        @Override
+        public void clearFromSkin(SkinReference skin)
+        {
+            clear();
+        }
+
+        @Override
+        public void clearFromColorTheme(ColorThemeReference colorTheme)
+        {
+            clear();
+        }
+
+        @Override
+        public void clearFromLESSResource(LESSResourceReference lessResource)
+        {
+            clear();
+        }
+
+        @Override
+        public Object getMutex(LESSResourceReference lessResource, SkinReference skin, ColorThemeReference colorTheme)
+        {
+            return this.mutexes.computeIfAbsent(getKey(lessResource, skin, colorTheme), key -> new Object());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.lesscss.internal.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.lesscss.compiler.LESSCompiler;
+import org.xwiki.lesscss.resources.LESSResourceReference;
+import org.xwiki.lesscss.resources.LESSResourceReferenceFactory;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.XWikiRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for {@link LESSCachePrewarmer}.
+ *
+ * @since 9.4RC1
+ * @version $Id$
+ */
+public class LESSCachePrewarmerTest
+{
+    @Rule
+    public MockitoComponentMockingRule<LESSCachePrewarmer> mocker =
+        new MockitoComponentMockingRule<>(LESSCachePrewarmer.class);
+
+    private XWikiContext xcontext;
+
+    private XWikiRequest request;
+
+    private LESSResourceReference mainStyle;
+
+    private QueryManager queryManager;
+
+    private Map<String, List<String>> documents = new HashMap<>();
+
+    private List<String> compiled = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        XWiki xwiki = mock(XWiki.class);
+        this.xcontext = new XWikiContext();
+        this.xcontext.setWiki(xwiki);
+        this.xcontext.setWikiId("xwiki");
+        this.request = mock(XWikiRequest.class);
+        this.xcontext.setRequest(this.request);
+        Provider<XWikiContext> xcontextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(this.xcontext);
+
+        // The default skin of each wiki
+        when(xwiki.getSkin(same(this.xcontext))).then(invocation -> "Skins." + this.xcontext.getWikiId());
+
+        WikiDescriptorManager wikiDescriptorManager = this.mocker.getInstance(WikiDescriptorManager.class);
+        when(wikiDescriptorManager.getAllIds()).thenReturn(Arrays.asList("xwiki", "subwiki"));
+
+        // The documents having an object of the given class, indexed by class and wiki
+        this.documents.put("XWiki.XWikiSkins@xwiki", Arrays.asList("Skins.xwiki", "Skins.Other"));
+        this.documents.put("FlamingoThemesCode.ThemeClass@xwiki", Arrays.asList("FlamingoThemes.Charcoal"));
+        this.documents.put("ColorThemes.ColorThemeClass@xwiki", Arrays.asList("ColorThemes.Old"));
+        this.documents.put("FlamingoThemesCode.ThemeClass@subwiki", Arrays.asList("FlamingoThemes.Sub"));
+        this.queryManager = this.mocker.getInstance(QueryManager.class);
+        mockQuery("XWiki.XWikiSkins");
+        mockQuery("FlamingoThemesCode.ThemeClass");
+        mockQuery("ColorThemes.ColorThemeClass");
+
+        this.mainStyle = mock(LESSResourceReference.class);
+        LESSResourceReferenceFactory referenceFactory = this.mocker.getInstance(LESSResourceReferenceFactory.class);
+        when(referenceFactory.createReferenceForSkinFile("style.less.vm")).thenReturn(this.mainStyle);
+
+        // Remember the wiki, skin and color theme of each compilation
+        LESSCompiler lessCompiler = this.mocker.getInstance(LESSCompiler.class);
+        when(lessCompiler.compile(same(this.mainStyle), eq(false), eq(true), anyString(), eq(false)))
+            .then(invocation -> {
+                this.compiled.add(String.format("%s %s %s", this.xcontext.getWikiId(), invocation.getArgument(3),
+                    this.xcontext.getRequest().get("colorTheme")));
+                return "";
+            });
+    }
+
+    private void mockQuery(String className) throws Exception
+    {
+        Query query = mock(Query.class, className);
+        when(this.queryManager.createQuery(String.format("from doc.object(%s) as obj", className), Query.XWQL))
+            .thenReturn(query);
+
+        String[] wiki = new String[1];
+        when(query.setWiki(anyString())).then(invocation -> {
+            wiki[0] = invocation.getArgument(0);
+            return query;
+        });
+        when(query.execute()).then(
+            invocation -> this.documents.getOrDefault(className + '@' + wiki[0], Collections.emptyList()));
+    }
+
+    @Test
+    public void prewarm() throws Exception
+    {
+        this.mocker.getComponentUnderTest().prewarm();
+
+        assertEquals(Arrays.asList(
+            "xwiki Skins.xwiki null",
+            "xwiki Skins.xwiki FlamingoThemes.Charcoal",
+            "xwiki Skins.xwiki ColorThemes.Old",
+            "xwiki Skins.Other null",
+            "xwiki Skins.Other FlamingoThemes.Charcoal",
+            "xwiki Skins.Other ColorThemes.Old",
+            "subwiki Skins.subwiki null",
+            "subwiki Skins.subwiki FlamingoThemes.Sub"), this.compiled);
+
+        // The context is restored
+        assertEquals("xwiki", this.xcontext.getWikiId());
+        assertSame(this.request, this.xcontext.getRequest());
+
+        verify(this.mocker.<PersistentLESSCache>getInstance(PersistentLESSCache.class)).cleanUp(anyLong());
+    }
+
+    @Test
+    public void prewarmWithoutWikis() throws Exception
+    {
+        WikiDescriptorManager wikiDescriptorManager = this.mocker.getInstance(WikiDescriptorManager.class);
+        when(wikiDescriptorManager.getAllIds()).thenReturn(Collections.emptyList());
+
+        this.mocker.getComponentUnderTest().prewarm();
+
+        assertEquals(Collections.emptyList(), this.compiled);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.lesscss.internal.cache;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.environment.Environment;
+import org.xwiki.lesscss.internal.LESSConfiguration;
+import org.xwiki.test.annotation.AfterComponent;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for {@link PersistentLESSCache}.
+ *
+ * @since 9.4RC1
+ * @version $Id$
+ */
+public class PersistentLESSCacheTest
+{
+    @Rule
+    public MockitoComponentMockingRule<PersistentLESSCache> mocker =
+        new MockitoComponentMockingRule<>(PersistentLESSCache.class);
+
+    private Map<String, String> templates = new LinkedHashMap<>();
+
+    @AfterComponent
+    public void afterComponent() throws Exception
+    {
+        Environment environment = this.mocker.registerMockComponent(Environment.class);
+        when(environment.getPermanentDirectory())
+            .thenReturn(new File("target/test-" + getClass().getSimpleName() + '-' + System.nanoTime()));
+        LESSConfiguration lessConfiguration = this.mocker.registerMockComponent(LESSConfiguration.class);
+        when(lessConfiguration.isPersistentCacheEnabled()).thenReturn(true);
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.templates.put("less/style.less.vm", "@import \"variables.less\";");
+        this.templates.put("less/variables.less", "@color: red;");
+    }
+
+    @Test
+    public void getKey() throws Exception
+    {
+        PersistentLESSCache cache = this.mocker.getComponentUnderTest();
+
+        assertEquals(cache.getKey("code", "skin", false), cache.getKey("code", "skin", false));
+        assertNotEquals(cache.getKey("code", "skin", false), cache.getKey("code", "skin2", false));
+        assertNotEquals(cache.getKey("code", "skin", false), cache.getKey("code", "skin", true));
+        assertNotEquals(cache.getKey("code", "skin", false), cache.getKey("code2", "skin", false));
+    }
+
+    @Test
+    public void setAndGet() throws Exception
+    {
+        PersistentLESSCache cache = this.mocker.getComponentUnderTest();
+        String key = cache.getKey("code", "skin", false);
+
+        assertNull(cache.get(key, this.templates::get));
+
+        cache.set(key, this.templates, ".a{color:red}\n.b{}");
+
+        assertEquals(".a{color:red}\n.b{}", cache.get(key, this.templates::get));
+    }
+
+    @Test
+    public void getWhenImportedTemplateHasChanged() throws Exception
+    {
+        PersistentLESSCache cache = this.mocker.getComponentUnderTest();
+        String key = cache.getKey("code", "skin", false);
+        cache.set(key, this.templates, ".a{color:red}");
+
+        this.templates.put("less/variables.less", "@color: blue;");
+        assertNull(cache.get(key, this.templates::get));
+
+        this.templates.remove("less/variables.less");
+        assertNull(cache.get(key, this.templates::get));
+    }
+
+    @Test
+    public void cleanUp() throws Exception
+    {
+        PersistentLESSCache cache = this.mocker.getComponentUnderTest();
+        String key = cache.getKey("code", "skin", false);
+        cache.set(key, Collections.emptyMap(), ".a{}");
+
+        cache.cleanUp(60000);
+        assertEquals(".a{}", cache.get(key, this.templates::get));
+
+        cache.cleanUp(-60000);
+        assertNull(cache.get(key, this.templates::get));
+    }
+}
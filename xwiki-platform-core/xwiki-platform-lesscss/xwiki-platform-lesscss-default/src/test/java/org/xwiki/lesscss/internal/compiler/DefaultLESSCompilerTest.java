@@ -125,6 +125,9 @@ public void compileWhenInCache() throws Exception
         // Verify
         verify(cache, never()).set(eq(lessResourceReference), eq(skinReference), eq(colorThemeReference), 
                 eq("cache output"));
+        // The cache hits don't need any lock
+        verify(cache, never()).getMutex(any(LESSResourceReference.class), any(SkinReference.class),
+                any(ColorThemeReference.class));
     }
 
     @Test
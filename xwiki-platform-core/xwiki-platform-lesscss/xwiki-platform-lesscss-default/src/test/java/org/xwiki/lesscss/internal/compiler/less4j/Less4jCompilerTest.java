@@ -19,6 +19,7 @@
  */
 package org.xwiki.lesscss.internal.compiler.less4j;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.StringWriter;
 
@@ -26,6 +27,11 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.environment.Environment;
+import org.xwiki.lesscss.internal.LESSConfiguration;
+import org.xwiki.lesscss.internal.cache.PersistentLESSCache;
 import org.xwiki.skin.Resource;
 import org.xwiki.skin.Skin;
 import org.xwiki.skin.SkinManager;
@@ -37,9 +43,15 @@
 import com.github.sommeri.less4j.Less4jException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -140,4 +152,93 @@ public void compileWhenImportDoesNotExist() throws Exception
         IOUtils.copy(new FileInputStream(getClass().getResource("/lessException.txt").getFile()), exceptionMessage);
         assertEquals(exceptionMessage.toString(), caughtException.getMessage());
     }
+
+    private String readResource(String name) throws Exception
+    {
+        return IOUtils.toString(getClass().getResourceAsStream(name), "UTF-8");
+    }
+
+    private TemplateContent mockTemplate(String templateName, String content) throws Exception
+    {
+        when(skin.getResource(templateName)).thenReturn(mock(Resource.class));
+        Template template = mock(Template.class);
+        when(templateManager.getTemplate(templateName, skin)).thenReturn(template);
+        TemplateContent templateContent = mock(TemplateContent.class);
+        when(template.getContent()).thenReturn(templateContent);
+        when(templateContent.getContent()).thenReturn(content);
+
+        return templateContent;
+    }
+
+    /**
+     * @return the content of the last template imported by style3.less
+     */
+    private TemplateContent mockImports() throws Exception
+    {
+        when(skinManager.getSkin("skin")).thenReturn(skin);
+        when(skin.getResource("less/style.less.vm")).thenReturn(mock(Resource.class));
+        when(templateManager.renderFromSkin("less/style.less.vm", skin)).thenReturn(readResource("/style.less.vm"));
+        mockTemplate("less/subdir/import2.less", readResource("/import2.less"));
+
+        return mockTemplate("less/subdir/import3.less", readResource("/import3.less"));
+    }
+
+    /**
+     * Simulate a (re)start by using a new persistent cache on the passed permanent directory.
+     */
+    private PersistentLESSCache startPersistentCache(File permanentDirectory) throws Exception
+    {
+        Environment environment = mock(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(permanentDirectory);
+        LESSConfiguration lessConfiguration = mock(LESSConfiguration.class);
+        when(lessConfiguration.isPersistentCacheEnabled()).thenReturn(true);
+
+        PersistentLESSCache persistentCache = new PersistentLESSCache();
+        ReflectionUtils.setFieldValue(persistentCache, "environment", environment);
+        ReflectionUtils.setFieldValue(persistentCache, "lessConfiguration", lessConfiguration);
+        ReflectionUtils.setFieldValue(persistentCache, "logger", mock(Logger.class));
+        persistentCache.initialize();
+
+        // Spy the cache to know if a result is stored, i.e. if the LESS code was actually compiled
+        persistentCache = spy(persistentCache);
+        ReflectionUtils.setFieldValue(mocker.getComponentUnderTest(), "persistentCache", persistentCache);
+
+        return persistentCache;
+    }
+
+    @Test
+    public void compileReusesPersistedResultAfterRestart() throws Exception
+    {
+        mockImports();
+        File permanentDirectory = new File("target/test-" + getClass().getSimpleName() + '-' + System.nanoTime());
+        String source = readResource("/style3.less");
+
+        PersistentLESSCache persistentCache = startPersistentCache(permanentDirectory);
+        String result = mocker.getComponentUnderTest().compile(source, "skin", false);
+        verify(persistentCache).set(any(), any(), eq(result));
+
+        persistentCache = startPersistentCache(permanentDirectory);
+        assertEquals(result, mocker.getComponentUnderTest().compile(source, "skin", false));
+        verify(persistentCache, never()).set(any(), any(), any());
+    }
+
+    @Test
+    public void compileWhenImportedTemplateHasChangedSinceRestart() throws Exception
+    {
+        TemplateContent import3 = mockImports();
+        File permanentDirectory = new File("target/test-" + getClass().getSimpleName() + '-' + System.nanoTime());
+        String source = readResource("/style3.less");
+
+        startPersistentCache(permanentDirectory);
+        String result = mocker.getComponentUnderTest().compile(source, "skin", false);
+
+        // The restarted wiki has a new version of an imported template
+        when(import3.getContent()).thenReturn(".myClass {\n  padding: 1px;\n}");
+        PersistentLESSCache persistentCache = startPersistentCache(permanentDirectory);
+        String newResult = mocker.getComponentUnderTest().compile(source, "skin", false);
+
+        assertNotEquals(result, newResult);
+        assertTrue(newResult.contains("padding:1px"));
+        verify(persistentCache).set(any(), any(), eq(newResult));
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.lesscss.internal.listeners;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.lesscss.internal.LESSConfiguration;
+import org.xwiki.lesscss.internal.cache.LESSCachePrewarmer;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.web.Utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for {@link LESSCachePrewarmingListener}.
+ *
+ * @since 9.4RC1
+ * @version $Id$
+ */
+public class LESSCachePrewarmingListenerTest
+{
+    @Rule
+    public MockitoComponentMockingRule<LESSCachePrewarmingListener> mocker =
+        new MockitoComponentMockingRule<>(LESSCachePrewarmingListener.class);
+
+    @Test
+    public void getEvents() throws Exception
+    {
+        assertEquals(1, this.mocker.getComponentUnderTest().getEvents().size());
+        assertEquals(new ApplicationReadyEvent(), this.mocker.getComponentUnderTest().getEvents().get(0));
+    }
+
+    @Test
+    public void onEvent() throws Exception
+    {
+        LESSConfiguration lessConfiguration = this.mocker.getInstance(LESSConfiguration.class);
+        when(lessConfiguration.isCachePrewarmingEnabled()).thenReturn(true);
+
+        // Needed by the background thread to initialize its execution context
+        this.mocker.registerMockComponent(Execution.class);
+        this.mocker.registerMockComponent(ExecutionContextManager.class);
+        Utils.setComponentManager(this.mocker);
+
+        this.mocker.getComponentUnderTest().onEvent(new ApplicationReadyEvent(), null, null);
+
+        // The caches are filled in background
+        verify(this.mocker.<LESSCachePrewarmer>getInstance(LESSCachePrewarmer.class), timeout(10000)).prewarm();
+    }
+
+    @Test
+    public void onEventWhenDisabled() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onEvent(new ApplicationReadyEvent(), null, null);
+
+        verifyZeroInteractions(this.mocker.<LESSCachePrewarmer>getInstance(LESSCachePrewarmer.class));
+    }
+}
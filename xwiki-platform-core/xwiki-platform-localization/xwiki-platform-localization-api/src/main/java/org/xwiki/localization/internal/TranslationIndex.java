@@ -0,0 +1,315 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.localization.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.localization.LocaleUtils;
+import org.xwiki.localization.Translation;
+import org.xwiki.localization.TranslationBundle;
+import org.xwiki.localization.TranslationBundleContext;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Keep the translations resolved for each wiki and set of bundles so that a key is searched in all the bundles (and
+ * all the parent locales) only once. Translations which can't be found are remembered too.
+ * <p>
+ * The index is built lazily and must be {@link #clear() cleared} each time the content of a bundle changes. Bundles
+ * which are registered, unregistered or used on demand lead to a different set of bundles and thus to a different
+ * index.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Component(roles = TranslationIndex.class)
+@Singleton
+public class TranslationIndex
+{
+    /**
+     * The key associated to the index of the current bundles in the {@link ExecutionContext}.
+     */
+    private static final String CKEY_INDEX = "localization.index";
+
+    /**
+     * The maximum number of sets of bundles to index. Going over it usually means that a lot of different on demand
+     * bundles have been used, in which case we start again from scratch.
+     */
+    private static final int MAX_INDEXES = 100;
+
+    /**
+     * The maximum number of keys to index for a given set of bundles and locale, protects from unbounded growth when
+     * arbitrary keys are asked.
+     */
+    private static final int MAX_KEYS = 100000;
+
+    @Inject
+    private TranslationBundleContext bundleContext;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ModelContext modelContext;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<IndexKey, BundlesIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented each time the index is cleared, used to detect the indexes which are not valid anymore.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Identify a set of bundles in a wiki.
+     */
+    private static final class IndexKey
+    {
+        private final String wiki;
+
+        private final List<TranslationBundle> bundles;
+
+        private final int hashCode;
+
+        IndexKey(String wiki, List<TranslationBundle> bundles)
+        {
+            this.wiki = wiki;
+            this.bundles = bundles;
+            this.hashCode = 31 * wiki.hashCode() + bundles.hashCode();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this) {
+                return true;
+            }
+
+            if (obj instanceof IndexKey) {
+                IndexKey otherKey = (IndexKey) obj;
+
+                return this.wiki.equals(otherKey.wiki) && this.bundles.equals(otherKey.bundles);
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * The translations resolved for a set of bundles.
+     */
+    private final class BundlesIndex
+    {
+        private final List<TranslationBundle> bundles;
+
+        private final long indexGeneration;
+
+        private final Map<Locale, Map<String, Optional<Translation>>> translations = new ConcurrentHashMap<>();
+
+        BundlesIndex(List<TranslationBundle> bundles, long indexGeneration)
+        {
+            this.bundles = bundles;
+            this.indexGeneration = indexGeneration;
+        }
+
+        boolean isValid()
+        {
+            return this.indexGeneration == generation.get();
+        }
+
+        Translation getTranslation(String key, Locale locale)
+        {
+            Map<String, Optional<Translation>> localeTranslations = this.translations.get(locale);
+            if (localeTranslations == null) {
+                localeTranslations = new ConcurrentHashMap<>();
+                Map<String, Optional<Translation>> existing =
+                    this.translations.putIfAbsent(locale, localeTranslations);
+                if (existing != null) {
+                    localeTranslations = existing;
+                }
+            }
+
+            Optional<Translation> translation = localeTranslations.get(key);
+            if (translation == null) {
+                // Don't hold any lock while searching the bundles since it can be slow (e.g. loading documents)
+                translation = Optional.ofNullable(resolveTranslation(this.bundles, key, locale));
+                if (localeTranslations.size() < MAX_KEYS) {
+                    localeTranslations.putIfAbsent(key, translation);
+                }
+            }
+
+            return translation.orElse(null);
+        }
+    }
+
+    /**
+     * The index associated to the bundles of the current execution context, so that the list of bundles does not need
+     * to be compared for each translation.
+     */
+    private static final class CurrentIndex
+    {
+        private final Collection<TranslationBundle> bundles;
+
+        private final int size;
+
+        private final String wiki;
+
+        private final BundlesIndex index;
+
+        CurrentIndex(Collection<TranslationBundle> bundles, String wiki, BundlesIndex index)
+        {
+            this.bundles = bundles;
+            this.size = bundles.size();
+            this.wiki = wiki;
+            this.index = index;
+        }
+
+        boolean matches(Collection<TranslationBundle> currentBundles, String currentWiki)
+        {
+            // The bundles of the context can only be added so the size is enough to detect a modification
+            return this.bundles == currentBundles && this.size == currentBundles.size()
+                && this.wiki.equals(currentWiki) && this.index.isValid();
+        }
+    }
+
+    /**
+     * Find the translation of the passed key in the current bundles.
+     *
+     * @param key the key identifying the message to look for
+     * @param locale the locale of the target language
+     * @return the {@link Translation} object, or {@code null} if no translation was found
+     */
+    public Translation getTranslation(String key, Locale locale)
+    {
+        Collection<TranslationBundle> bundles = this.bundleContext.getBundles();
+
+        if (key == null || locale == null) {
+            return resolveTranslation(bundles, key, locale);
+        }
+
+        return getIndex(bundles).getTranslation(key, locale);
+    }
+
+    /**
+     * Forget all the resolved translations.
+     */
+    public void clear()
+    {
+        this.generation.incrementAndGet();
+        this.indexes.clear();
+    }
+
+    private BundlesIndex getIndex(Collection<TranslationBundle> bundles)
+    {
+        String wiki = getCurrentWiki();
+
+        ExecutionContext context = this.execution.getContext();
+
+        if (context != null) {
+            CurrentIndex currentIndex = (CurrentIndex) context.getProperty(CKEY_INDEX);
+            if (currentIndex != null && currentIndex.matches(bundles, wiki)) {
+                return currentIndex.index;
+            }
+        }
+
+        // Read the generation first so that an index created while the index is being cleared is not kept
+        long currentGeneration = this.generation.get();
+        List<TranslationBundle> bundleList = new ArrayList<>(bundles);
+        IndexKey key = new IndexKey(wiki, bundleList);
+
+        BundlesIndex index = this.indexes.get(key);
+        if (index == null || !index.isValid()) {
+            if (this.indexes.size() >= MAX_INDEXES) {
+                this.logger.debug("Too many sets of translation bundles indexed, clearing the index");
+
+                this.indexes.clear();
+            }
+
+            index = new BundlesIndex(bundleList, currentGeneration);
+            this.indexes.put(key, index);
+        }
+
+        if (context != null) {
+            context.setProperty(CKEY_INDEX, new CurrentIndex(bundles, wiki, index));
+        }
+
+        return index;
+    }
+
+    private Translation resolveTranslation(Collection<TranslationBundle> bundles, String key, Locale locale)
+    {
+        for (TranslationBundle bundle : bundles) {
+            try {
+                Translation translation = bundle.getTranslation(key, locale);
+                if (translation != null && translation.getLocale().equals(locale)) {
+                    return translation;
+                }
+            } catch (Exception e) {
+                this.logger.error("Failed to get translation", e);
+            }
+        }
+
+        // Try parent locale
+        Locale parentLocale = LocaleUtils.getParentLocale(locale);
+        if (parentLocale != null) {
+            return resolveTranslation(bundles, key, parentLocale);
+        }
+
+        return null;
+    }
+
+    private String getCurrentWiki()
+    {
+        String currentWiki = "";
+
+        EntityReference currentReference = this.modelContext.getCurrentEntityReference();
+        if (currentReference != null) {
+            EntityReference wikiReference = currentReference.extractReference(EntityType.WIKI);
+            if (wikiReference != null) {
+                currentWiki = wikiReference.getName();
+            }
+        }
+
+        return currentWiki;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.localization.internal;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.localization.Translation;
+import org.xwiki.localization.TranslationBundle;
+import org.xwiki.localization.TranslationBundleContext;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.test.annotation.AfterComponent;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link TranslationIndex}.
+ *
+ * @version $Id$
+ */
+public class TranslationIndexTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<TranslationIndex> mocker =
+        new MockitoComponentMockingRule<>(TranslationIndex.class);
+
+    private final SortedSet<TranslationBundle> bundles = new TreeSet<>();
+
+    private ModelContext modelContext;
+
+    private TranslationIndex translationIndex;
+
+    /**
+     * Translation without any message.
+     */
+    private static class SimpleTranslation implements Translation
+    {
+        private final TranslationBundle bundle;
+
+        private final String key;
+
+        private final Locale locale;
+
+        SimpleTranslation(TranslationBundle bundle, String key, Locale locale)
+        {
+            this.bundle = bundle;
+            this.key = key;
+            this.locale = locale;
+        }
+
+        @Override
+        public TranslationBundle getBundle()
+        {
+            return this.bundle;
+        }
+
+        @Override
+        public Locale getLocale()
+        {
+            return this.locale;
+        }
+
+        @Override
+        public String getKey()
+        {
+            return this.key;
+        }
+
+        @Override
+        public Object getRawSource()
+        {
+            return null;
+        }
+
+        @Override
+        public Block render(Object... parameters)
+        {
+            return null;
+        }
+
+        @Override
+        public Block render(Locale locale, Object... parameters)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Bundle storing its translations in a map and counting the lookups.
+     */
+    private static class MapTranslationBundle extends AbstractTranslationBundle
+    {
+        private final Map<Locale, Map<String, Translation>> translations = new HashMap<>();
+
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        private final Map<String, Integer> lookupsPerKey = new HashMap<>();
+
+        MapTranslationBundle(String id)
+        {
+            super(id);
+        }
+
+        Translation addTranslation(String key, Locale locale)
+        {
+            Translation translation = new SimpleTranslation(this, key, locale);
+
+            this.translations.computeIfAbsent(locale, k -> new HashMap<>()).put(key, translation);
+
+            return translation;
+        }
+
+        @Override
+        public Translation getTranslation(String key, Locale locale)
+        {
+            this.lookups.incrementAndGet();
+            this.lookupsPerKey.merge(key + '/' + locale, 1, Integer::sum);
+
+            Map<String, Translation> localeTranslations = this.translations.get(locale);
+
+            return localeTranslations != null ? localeTranslations.get(key) : null;
+        }
+    }
+
+    @AfterComponent
+    public void afterComponent() throws Exception
+    {
+        Execution execution = mock(Execution.class);
+        when(execution.getContext()).thenReturn(new ExecutionContext());
+        this.mocker.registerComponent(Execution.class, execution);
+
+        this.modelContext = mock(ModelContext.class);
+        when(this.modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("wiki"));
+        this.mocker.registerComponent(ModelContext.class, this.modelContext);
+
+        TranslationBundleContext bundleContext = mock(TranslationBundleContext.class);
+        when(bundleContext.getBundles()).thenReturn(this.bundles);
+        this.mocker.registerComponent(TranslationBundleContext.class, bundleContext);
+    }
+
+    @Before
+    public void before() throws Exception
+    {
+        this.translationIndex = this.mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void getTranslationSearchesTheBundlesOnce()
+    {
+        MapTranslationBundle bundle = new MapTranslationBundle("bundle");
+        Translation translation = bundle.addTranslation("key", Locale.ROOT);
+        this.bundles.add(bundle);
+
+        assertSame(translation, this.translationIndex.getTranslation("key", Locale.FRENCH));
+        int lookups = bundle.lookups.get();
+        assertSame(translation, this.translationIndex.getTranslation("key", Locale.FRENCH));
+        assertEquals(lookups, bundle.lookups.get());
+
+        // Missing translations are indexed too
+        assertNull(this.translationIndex.getTranslation("missing", Locale.FRENCH));
+        lookups = bundle.lookups.get();
+        assertNull(this.translationIndex.getTranslation("missing", Locale.FRENCH));
+        assertEquals(lookups, bundle.lookups.get());
+    }
+
+    @Test
+    public void getTranslationAfterClear()
+    {
+        MapTranslationBundle bundle = new MapTranslationBundle("bundle");
+        this.bundles.add(bundle);
+
+        assertNull(this.translationIndex.getTranslation("key", Locale.ROOT));
+
+        Translation translation = bundle.addTranslation("key", Locale.ROOT);
+        this.translationIndex.clear();
+
+        assertSame(translation, this.translationIndex.getTranslation("key", Locale.ROOT));
+    }
+
+    @Test
+    public void getTranslationWhenBundleIsAdded()
+    {
+        MapTranslationBundle bundle1 = new MapTranslationBundle("bundle1");
+        this.bundles.add(bundle1);
+
+        assertNull(this.translationIndex.getTranslation("key", Locale.ROOT));
+
+        // Simulate a bundle used on demand
+        MapTranslationBundle bundle2 = new MapTranslationBundle("bundle2");
+        Translation translation = bundle2.addTranslation("key", Locale.ROOT);
+        this.bundles.add(bundle2);
+
+        assertSame(translation, this.translationIndex.getTranslation("key", Locale.ROOT));
+    }
+
+    @Test
+    public void getTranslationInAnotherWiki()
+    {
+        MapTranslationBundle bundle = new MapTranslationBundle("bundle");
+        this.bundles.add(bundle);
+
+        assertNull(this.translationIndex.getTranslation("key", Locale.ROOT));
+
+        // Some bundles (e.g. the XWikiPreferences one) depend on the current wiki
+        Translation translation = bundle.addTranslation("key", Locale.ROOT);
+        when(this.modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("otherwiki"));
+
+        assertSame(translation, this.translationIndex.getTranslation("key", Locale.ROOT));
+    }
+
+    @Test
+    public void getTranslationPrefersTheMostSpecificLocale()
+    {
+        MapTranslationBundle bundle1 = new MapTranslationBundle("bundle1");
+        bundle1.addTranslation("key", Locale.ROOT);
+        this.bundles.add(bundle1);
+        MapTranslationBundle bundle2 = new MapTranslationBundle("bundle2");
+        Translation translation = bundle2.addTranslation("key", Locale.FRENCH);
+        this.bundles.add(bundle2);
+
+        assertSame(translation, this.translationIndex.getTranslation("key", Locale.FRANCE));
+    }
+
+    @Test
+    public void getTranslationConsultsBundlesOncePerKeyAndLocale()
+    {
+        for (int i = 0; i < 3; i++) {
+            MapTranslationBundle bundle = new MapTranslationBundle("bundle" + i);
+            for (int j = 0; j < 5; j++) {
+                bundle.addTranslation("bundle" + i + ".key" + j, Locale.ROOT);
+            }
+            this.bundles.add(bundle);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 5; j++) {
+                    assertNotNull(this.translationIndex.getTranslation("bundle" + i + ".key" + j, Locale.FRANCE));
+                }
+                assertNull(this.translationIndex.getTranslation("missing" + i, Locale.FRANCE));
+            }
+        }
+
+        for (TranslationBundle bundle : this.bundles) {
+            Map<String, Integer> lookups = ((MapTranslationBundle) bundle).lookupsPerKey;
+            assertFalse(lookups.isEmpty());
+            for (Map.Entry<String, Integer> entry : lookups.entrySet()) {
+                assertEquals(entry.getKey(), 1, entry.getValue().intValue());
+            }
+        }
+    }
+}
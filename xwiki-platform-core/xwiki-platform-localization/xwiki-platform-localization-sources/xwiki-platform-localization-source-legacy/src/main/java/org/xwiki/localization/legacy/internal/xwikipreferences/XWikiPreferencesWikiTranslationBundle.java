@@ -36,6 +36,7 @@
 import org.xwiki.localization.Translation;
 import org.xwiki.localization.TranslationBundle;
 import org.xwiki.localization.internal.AbstractTranslationBundle;
+import org.xwiki.localization.internal.TranslationIndex;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
@@ -73,6 +74,8 @@ public class XWikiPreferencesWikiTranslationBundle extends AbstractTranslationBu
 
     private DocumentReferenceResolver<String> resolver;
 
+    private TranslationIndex translationIndex;
+
     private final List<Event> events;
 
     private final String wiki;
@@ -92,6 +95,7 @@ public XWikiPreferencesWikiTranslationBundle(String wiki, XWikiPreferencesTransl
         this.observation = componentManager.getInstance(ObservationManager.class);
         this.documentAccessBridge = componentManager.getInstance(DocumentAccessBridge.class);
         this.resolver = componentManager.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        this.translationIndex = componentManager.getInstance(TranslationIndex.class);
 
         intializeBundles();
 
@@ -161,6 +165,8 @@ public List<Event> getEvents()
     public void onEvent(Event arg0, Object arg1, Object arg2)
     {
         intializeBundles();
+
+        this.translationIndex.clear();
     }
 
     // Bundle
@@ -44,6 +44,7 @@
 import org.xwiki.localization.internal.DefaultLocalizedTranslationBundle;
 import org.xwiki.localization.internal.DefaultTranslation;
 import org.xwiki.localization.internal.LocalizedTranslationBundle;
+import org.xwiki.localization.internal.TranslationIndex;
 import org.xwiki.localization.message.TranslationMessage;
 import org.xwiki.localization.message.TranslationMessageParser;
 import org.xwiki.model.reference.DocumentReference;
@@ -83,6 +84,13 @@ public abstract class AbstractDocumentTranslationBundle extends AbstractCachedTr
 
     protected TranslationMessageParser translationMessageParser;
 
+    /**
+     * Cleared each time the translations of this bundle change.
+     *
+     * @since 9.4RC1
+     */
+    protected TranslationIndex translationIndex;
+
     protected List<Event> events;
 
     /**
@@ -109,6 +117,7 @@ public AbstractDocumentTranslationBundle(String idPrefix, DocumentReference refe
         this.serializer = componentManager.getInstance(EntityReferenceSerializer.TYPE_STRING);
         this.contextProvider = componentManager.getInstance(XWikiContext.TYPE_PROVIDER);
         this.observation = componentManager.getInstance(ObservationManager.class);
+        this.translationIndex = componentManager.getInstance(TranslationIndex.class);
 
         this.translationMessageParser = translationMessageParser;
 
@@ -218,6 +227,7 @@ public void dispose()
     {
         this.disposed = true;
         this.bundleCache.clear();
+        this.translationIndex.clear();
         this.observation.removeListener(getName());
     }
 
@@ -239,6 +249,9 @@ public void onEvent(Event event, Object source, Object data)
                 this.bundleCache.remove(document.getDefaultLocale());
             }
         }
+
+        // Must be done after the bundle cache is cleared to not index the previous translations again
+        this.translationIndex.clear();
     }
 
     @Override
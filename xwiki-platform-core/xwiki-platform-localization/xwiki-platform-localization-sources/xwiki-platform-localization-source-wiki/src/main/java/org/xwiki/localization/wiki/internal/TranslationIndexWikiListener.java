@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.localization.wiki.internal;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.bridge.event.WikiReadyEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.localization.internal.TranslationIndex;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Clear the {@link TranslationIndex} when a wiki becomes ready since the wiki based bundles don't return anything
+ * until then.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Component
+@Named(TranslationIndexWikiListener.NAME)
+@Singleton
+public class TranslationIndexWikiListener extends AbstractEventListener
+{
+    /**
+     * The name of this event listener.
+     */
+    public static final String NAME = "localization.index.wiki";
+
+    @Inject
+    private TranslationIndex translationIndex;
+
+    /**
+     * Default constructor.
+     */
+    public TranslationIndexWikiListener()
+    {
+        super(NAME, new ApplicationReadyEvent(), new WikiReadyEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        this.translationIndex.clear();
+    }
+}
@@ -101,4 +101,24 @@
      * @since 6.4RC1
      */
     long getSendWaitTime();
+
+    /**
+     * @return the number of threads sending mails in parallel. Note that the {@link #getSendWaitTime() send wait time}
+     *         is applied per SMTP server, whatever the number of threads
+     * @since 9.4RC1
+     */
+    default int getSendThreadCount()
+    {
+        return 1;
+    }
+
+    /**
+     * @return the number of threads preparing batches of mails in parallel, and persisting the mails of a given batch
+     *         in parallel (the mails of a given batch are always generated by a single thread)
+     * @since 9.4RC1
+     */
+    default int getPrepareThreadCount()
+    {
+        return 1;
+    }
 }
@@ -19,8 +19,11 @@
  */
 package org.xwiki.mail.internal;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
@@ -40,7 +43,7 @@ public class MemoryMailStatusResult extends AbstractMailStatusResult
 {
     private abstract class AbstractMailStatusIterator implements Iterator<MailStatus>
     {
-        private final Iterator<MailStatus> it = statusMap.values().iterator();
+        private final Iterator<MailStatus> it = getStatuses().iterator();
         private MailStatus nextStatus;
 
         abstract boolean match(MailStatus status);
@@ -82,9 +85,9 @@ public void remove()
      * The Map's key is the unique message ID.
      *
      * Note that we keep the order in which messages are passed (i.e. the first status result will contain the first
-     * mail sent, etc).
+     * mail sent, etc). The statuses can be updated by several mail sender threads.
      */
-    private Map<String, MailStatus> statusMap = new LinkedHashMap<>();
+    private Map<String, MailStatus> statusMap = Collections.synchronizedMap(new LinkedHashMap<>());
 
     /**
      * Retrieve the status for the given message identifier.
@@ -110,7 +113,17 @@ public void setStatus(MailStatus status)
     @Override
     public Iterator<MailStatus> getAll()
     {
-        return this.statusMap.values().iterator();
+        return getStatuses().iterator();
+    }
+
+    /**
+     * @return a copy of the statuses, to not be impacted by the statuses being updated while iterating
+     */
+    private List<MailStatus> getStatuses()
+    {
+        synchronized (this.statusMap) {
+            return new ArrayList<>(this.statusMap.values());
+        }
     }
 
     @Override
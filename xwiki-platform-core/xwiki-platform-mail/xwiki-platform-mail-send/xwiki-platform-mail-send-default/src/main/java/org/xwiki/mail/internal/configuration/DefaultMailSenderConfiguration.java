@@ -95,6 +95,16 @@ public class DefaultMailSenderConfiguration implements MailSenderConfiguration
      */
     private static final long DEFAULT_SEND_WAIT_TIME = 8 * 1000L;
 
+    /**
+     * By default a single thread sends the mails.
+     */
+    private static final int DEFAULT_SEND_THREAD_COUNT = 1;
+
+    /**
+     * By default a single thread prepares the mails.
+     */
+    private static final int DEFAULT_PREPARE_THREAD_COUNT = 1;
+
     private static final String FROM_PROPERTY = "from";
     private static final String BCC_PROPERTY = "bcc";
     private static final String HOST_PROPERTY = "host";
@@ -318,4 +328,16 @@ public long getSendWaitTime()
 
         return waitTime;
     }
+
+    @Override
+    public int getSendThreadCount()
+    {
+        return this.xwikiPropertiesSource.getProperty(PREFIX + "sendThreadCount", DEFAULT_SEND_THREAD_COUNT);
+    }
+
+    @Override
+    public int getPrepareThreadCount()
+    {
+        return this.xwikiPropertiesSource.getProperty(PREFIX + "prepareThreadCount", DEFAULT_PREPARE_THREAD_COUNT);
+    }
 }
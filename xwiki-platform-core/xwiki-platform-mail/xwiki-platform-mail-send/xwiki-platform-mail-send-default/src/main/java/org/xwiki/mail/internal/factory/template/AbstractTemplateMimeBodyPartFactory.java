@@ -20,6 +20,7 @@
 package org.xwiki.mail.internal.factory.template;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,7 @@
 import javax.mail.internet.MimeBodyPart;
 
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.context.Execution;
 import org.xwiki.mail.MimeBodyPartFactory;
 import org.xwiki.mail.internal.factory.AbstractMimeBodyPartFactory;
 import org.xwiki.model.reference.DocumentReference;
@@ -51,6 +53,8 @@ public abstract class AbstractTemplateMimeBodyPartFactory extends AbstractMimeBo
 
     private static final String INCLUDE_TEMPLATE_ATTACHMENTS_PROPERTY_NAME = "includeTemplateAttachments";
 
+    private static final String ATTACHMENTS_CACHE_KEY = "attachments";
+
     @Inject
     @Named("text/html")
     private MimeBodyPartFactory<String> htmlBodyPartFactory;
@@ -61,6 +65,9 @@ public abstract class AbstractTemplateMimeBodyPartFactory extends AbstractMimeBo
     @Inject
     private AttachmentConverter attachmentConverter;
 
+    @Inject
+    private Execution execution;
+
     /**
      * @return the Template Manager instance to use, this allows passing either the default component implementation or
      * a secure one for scripts
@@ -92,15 +99,10 @@ public MimeBodyPart create(DocumentReference documentReference, Map<String, Obje
         }
         Boolean includeTemplateAttachments = (Boolean) parameters.get(INCLUDE_TEMPLATE_ATTACHMENTS_PROPERTY_NAME);
         if (includeTemplateAttachments != null && includeTemplateAttachments) {
-            try {
-                List<XWikiAttachment> xwikiAttachments =
-                    ((XWikiDocument) this.bridge.getDocument(documentReference)).getAttachmentList();
-                attachments.addAll(this.attachmentConverter.convert(xwikiAttachments));
-            } catch (Exception e) {
-                throw new MessagingException(
-                    String.format("Failed to include attachments from the Mail Template [%s]", documentReference),
-                    e);
-            }
+            // The template attachments don't depend on the recipient so they're cached when preparing a batch of mails
+            attachments.addAll(MailTemplateCache.get(this.execution,
+                Arrays.asList(ATTACHMENTS_CACHE_KEY, documentReference),
+                () -> getTemplateAttachments(documentReference)));
         }
         if (!attachments.isEmpty()) {
             htmlParameters.put(ATTACHMENT_PROPERTY_NAME, attachments);
@@ -108,4 +110,16 @@ public MimeBodyPart create(DocumentReference documentReference, Map<String, Obje
 
         return this.htmlBodyPartFactory.create(htmlContent, htmlParameters);
     }
+
+    private List<Attachment> getTemplateAttachments(DocumentReference documentReference) throws MessagingException
+    {
+        try {
+            List<XWikiAttachment> xwikiAttachments =
+                ((XWikiDocument) this.bridge.getDocument(documentReference)).getAttachmentList();
+            return this.attachmentConverter.convert(xwikiAttachments);
+        } catch (Exception e) {
+            throw new MessagingException(
+                String.format("Failed to include attachments from the Mail Template [%s]", documentReference), e);
+        }
+    }
 }
@@ -20,6 +20,7 @@
 package org.xwiki.mail.internal.factory.template;
 
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.Map;
 
@@ -32,6 +33,7 @@
 import org.apache.velocity.VelocityContext;
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
 import org.xwiki.localization.LocaleUtils;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
@@ -62,6 +64,8 @@ public class DefaultMailTemplateManager implements MailTemplateManager
 
     private static final String LANGUAGE_PROPERTY_NAME = "language";
 
+    private static final String CONTENT_CACHE_KEY = "content";
+
     @Inject
     private DocumentAccessBridge documentBridge;
 
@@ -78,24 +82,24 @@ public class DefaultMailTemplateManager implements MailTemplateManager
     @Inject
     private Provider<XWikiContext> xwikiContextProvider;
 
+    @Inject
+    private Execution execution;
+
     @Override
     public String evaluate(DocumentReference templateReference, String property, Map<String, Object> velocityVariables,
         Object localeValue) throws MessagingException
     {
         Locale locale = getLocale(localeValue);
 
-        // Note: Make sure to use the class reference relative to the template's wiki and not the current wiki.
-        DocumentReference mailClassReference = this.resolver.resolve(MAIL_CLASS, templateReference.getWikiReference());
+        // The template content doesn't depend on the recipient so it's cached when preparing a batch of mails
+        String content = MailTemplateCache.get(this.execution,
+            Arrays.asList(CONTENT_CACHE_KEY, templateReference, locale, property),
+            () -> getContent(templateReference, property, locale));
 
         VelocityContext velocityContext = createVelocityContext(velocityVariables);
 
         String templateFullName = this.serializer.serialize(templateReference);
 
-        int objectNumber = getObjectMailNumber(templateReference, mailClassReference, locale);
-
-        String content =
-            this.documentBridge.getProperty(templateReference, mailClassReference, objectNumber, property).toString();
-
         // Save the current URL Factory since we'll replace it with a URL factory that generates external URLs (ie
         // full URLs).
         XWikiContext xcontext = this.xwikiContextProvider.get();
@@ -122,6 +126,18 @@ public String evaluate(DocumentReference templateReference, String property, Map
         return evaluate(templateReference, property, data, null);
     }
 
+    private String getContent(DocumentReference templateReference, String property, Locale locale)
+        throws MessagingException
+    {
+        // Note: Make sure to use the class reference relative to the template's wiki and not the current wiki.
+        DocumentReference mailClassReference = this.resolver.resolve(MAIL_CLASS, templateReference.getWikiReference());
+
+        int objectNumber = getObjectMailNumber(templateReference, mailClassReference, locale);
+
+        return this.documentBridge.getProperty(templateReference, mailClassReference, objectNumber, property)
+            .toString();
+    }
+
     /**
      * @return the number of the XWiki.Mail xobject with language xproperty is equal to the language parameter if not
      * exist return the XWiki.Mail xobject with language xproperty as default language if not exist return the first
@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.mail.internal.factory.template;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.mail.MessagingException;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+/**
+ * Keeps the recipient-independent data of the mail templates (template content, attachments, etc.) while preparing
+ * the mails of a batch, so that only the Velocity evaluation is done for each recipient. The cache is stored in the
+ * Execution Context of the batch, see {@link #CONTEXT_KEY}, and thus only lives as long as the batch is prepared.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class MailTemplateCache
+{
+    /**
+     * The key under which the cache is stored in the Execution Context of the batch being prepared.
+     */
+    public static final String CONTEXT_KEY = "mail.templateCache";
+
+    /**
+     * Computes a value to cache.
+     *
+     * @param <T> the type of the value
+     * @version $Id$
+     */
+    @FunctionalInterface
+    public interface Loader<T>
+    {
+        /**
+         * @return the value to cache
+         * @throws MessagingException when failing to compute the value
+         */
+        T load() throws MessagingException;
+    }
+
+    private final Map<List<?>, Object> values = new ConcurrentHashMap<>();
+
+    /**
+     * @param key the key of the value, made of the elements identifying it (the first element being the kind of value)
+     * @param loader used to compute the value when it's not cached yet
+     * @param <T> the type of the value
+     * @return the cached value
+     * @throws MessagingException when failing to compute the value
+     */
+    public <T> T get(List<?> key, Loader<T> loader) throws MessagingException
+    {
+        @SuppressWarnings("unchecked")
+        T value = (T) this.values.get(key);
+        if (value == null) {
+            value = loader.load();
+            if (value != null) {
+                this.values.put(key, value);
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * @param execution used to access the current Execution Context
+     * @param key the key of the value, made of the elements identifying it
+     * @param loader used to compute the value when it's not cached or when no batch is being prepared
+     * @param <T> the type of the value
+     * @return the cached value or the value computed by the loader when no batch is being prepared
+     * @throws MessagingException when failing to compute the value
+     */
+    public static <T> T get(Execution execution, List<?> key, Loader<T> loader)
+        throws MessagingException
+    {
+        ExecutionContext context = execution.getContext();
+        MailTemplateCache cache = context != null ? (MailTemplateCache) context.getProperty(CONTEXT_KEY) : null;
+
+        return cache != null ? cache.get(key, loader) : loader.load();
+    }
+}
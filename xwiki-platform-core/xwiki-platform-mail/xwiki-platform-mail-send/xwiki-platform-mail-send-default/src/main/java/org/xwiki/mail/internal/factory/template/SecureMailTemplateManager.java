@@ -19,6 +19,7 @@
  */
 package org.xwiki.mail.internal.factory.template;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import javax.inject.Inject;
@@ -28,6 +29,7 @@
 
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.security.authorization.AuthorizationManager;
 import org.xwiki.security.authorization.Right;
@@ -53,13 +55,18 @@ public class SecureMailTemplateManager implements MailTemplateManager
     @Inject
     private DocumentAccessBridge documentBridge;
 
+    @Inject
+    private Execution execution;
+
     @Override
     public String evaluate(DocumentReference templateReference, String property, Map<String, Object> velocityVariables,
         Object localeValue) throws MessagingException
     {
         // Verify that the current user has the view right on the Template document
-        if (!this.authorizationManager.hasAccess(
-            Right.VIEW, this.documentBridge.getCurrentUserReference(), templateReference))
+        // Note: the result is cached while preparing a batch of mails
+        DocumentReference currentUserReference = this.documentBridge.getCurrentUserReference();
+        if (!MailTemplateCache.get(this.execution, Arrays.asList(Right.VIEW, currentUserReference, templateReference),
+            () -> this.authorizationManager.hasAccess(Right.VIEW, currentUserReference, templateReference)))
         {
             throw new MessagingException(
                 String.format("Current user [%s] has no permission to view Mail Template Document [%s]",
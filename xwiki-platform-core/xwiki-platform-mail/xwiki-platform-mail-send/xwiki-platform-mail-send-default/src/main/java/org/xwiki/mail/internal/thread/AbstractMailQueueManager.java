@@ -19,8 +19,13 @@
  */
 package org.xwiki.mail.internal.thread;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handles all operations on the Mail Queues.
@@ -35,12 +40,22 @@
      * The Mail queue that the mail sender thread will use to send mails. We use a separate thread to allow sending
      * mail asynchronously.
      */
-    private Queue<T> mailQueue = new ConcurrentLinkedQueue<>();
+    private BlockingQueue<T> mailQueue = new LinkedBlockingQueue<>();
+
+    /**
+     * The mails taken from the queue by a thread but not processed yet.
+     */
+    private Set<T> processedMails = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    /**
+     * The number of mails on the queue, including the mails being processed.
+     */
+    private AtomicInteger size = new AtomicInteger();
 
     /**
      * @return the mail queue containing all pending mails to be sent
      */
-    private Queue<T> getMailQueue()
+    private BlockingQueue<T> getMailQueue()
     {
         return this.mailQueue;
     }
@@ -48,13 +63,14 @@ private Queue<T> getMailQueue()
     @Override
     public void addToQueue(T mailQueueItem)
     {
+        this.size.incrementAndGet();
         getMailQueue().add(mailQueueItem);
     }
 
     @Override
     public boolean hasMessage()
     {
-        return !getMailQueue().isEmpty();
+        return this.size.get() > 0;
     }
 
     @Override
@@ -63,9 +79,26 @@ public T peekMessage()
         return getMailQueue().peek();
     }
 
+    @Override
+    public T takeMessage(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        T mailQueueItem = getMailQueue().poll(timeout, unit);
+        if (mailQueueItem != null) {
+            this.processedMails.add(mailQueueItem);
+        }
+
+        return mailQueueItem;
+    }
+
     @Override
     public boolean removeMessageFromQueue(T mailQueueItem)
     {
-        return getMailQueue().remove(mailQueueItem);
+        if (this.processedMails.remove(mailQueueItem) || getMailQueue().remove(mailQueueItem)) {
+            this.size.decrementAndGet();
+
+            return true;
+        }
+
+        return false;
     }
 }
@@ -19,6 +19,9 @@
  */
 package org.xwiki.mail.internal.thread;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.inject.Inject;
 
 import org.slf4j.Logger;
@@ -33,6 +36,11 @@
  */
 public abstract class AbstractMailRunnable implements MailRunnable
 {
+    /**
+     * The maximum number of milliseconds to wait for a mail on the queue before checking if the thread should stop.
+     */
+    protected static final long QUEUE_TIMEOUT = 1000L;
+
     @Inject
     protected Logger logger;
 
@@ -47,6 +55,45 @@ public abstract class AbstractMailRunnable implements MailRunnable
     @Inject
     protected Execution execution;
 
+    /**
+     * Execute the passed code in the current thread and in the passed number of threads minus one, so that mails can
+     * be processed in parallel. Returns when the code executed in the current thread returns, after having stopped the
+     * other threads.
+     *
+     * @param threadCount the number of threads in which to execute the code
+     * @param runnable the code to execute
+     * @since 9.4RC1
+     */
+    protected void runInThreads(int threadCount, Runnable runnable)
+    {
+        // Start the additional threads, the current thread being the first one
+        List<Thread> threads = new ArrayList<>();
+        String threadName = Thread.currentThread().getName();
+        for (int i = 1; i < threadCount; i++) {
+            Thread thread = new Thread(runnable);
+            thread.setName(threadName + " " + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        try {
+            runnable.run();
+        } finally {
+            // Stop the additional threads
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    this.logger.debug("Interrupted while waiting for [{}] to stop", thread.getName(), e);
+                }
+            }
+        }
+    }
+
     protected void removeContext()
     {
         this.execution.removeContext();
@@ -19,6 +19,8 @@
  */
 package org.xwiki.mail.internal.thread;
 
+import java.util.concurrent.TimeUnit;
+
 import org.xwiki.component.annotation.Role;
 
 /**
@@ -48,6 +50,19 @@
      */
     T peekMessage();
 
+    /**
+     * Wait for the next mail on the queue and reserve it for the calling thread, so that several threads can process
+     * the queue in parallel. The mail is still considered on the queue (see {@link #hasMessage()}) until
+     * {@link #removeMessageFromQueue(MailQueueItem)} is called.
+     *
+     * @param timeout how long to wait for a mail before giving up, in units of {@code unit}
+     * @param unit the unit of the timeout
+     * @return the next mail on the queue waiting to be processed or {@code null} if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     * @since 9.4RC1
+     */
+    T takeMessage(long timeout, TimeUnit unit) throws InterruptedException;
+
     /**
      * Removes the next mail on the queue.
      *
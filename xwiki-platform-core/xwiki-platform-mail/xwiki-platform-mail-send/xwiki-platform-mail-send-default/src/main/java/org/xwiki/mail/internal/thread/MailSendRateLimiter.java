@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.mail.internal.thread;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.mail.Session;
+
+/**
+ * Makes sure that the mails sent to a given SMTP server are spaced by the configured send wait time, whatever the
+ * number of threads sending mails.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class MailSendRateLimiter
+{
+    /**
+     * The date from which the next mail can be sent, indexed by SMTP server.
+     */
+    private final Map<String, Long> nextSendDates = new ConcurrentHashMap<>();
+
+    /**
+     * Wait until a mail can be sent to the SMTP server configured in the passed Session.
+     *
+     * @param session the Session used to send the mail
+     * @param sendWaitTime the minimum number of milliseconds between two mails sent to the same SMTP server
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(Session session, long sendWaitTime) throws InterruptedException
+    {
+        if (sendWaitTime <= 0) {
+            return;
+        }
+
+        String server = session.getProperty("mail.smtp.host") + ':' + session.getProperty("mail.smtp.port");
+
+        // Reserve the next slot for this server
+        long now = System.currentTimeMillis();
+        long sendDate = this.nextSendDates.merge(server, now + sendWaitTime,
+            (nextSendDate, value) -> Math.max(nextSendDate, now) + sendWaitTime) - sendWaitTime;
+
+        if (sendDate > now) {
+            Thread.sleep(sendDate - now);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.mail.internal.thread;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the connected SMTP {@link Transport}s so that they can be reused by the threads sending mails with the same
+ * {@link Session}.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class MailTransportPool
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MailTransportPool.class);
+
+    /**
+     * The number of mails after which a Transport is closed and a new one is created.
+     */
+    private static final int MAX_MAILS_PER_TRANSPORT = 100;
+
+    /**
+     * The number of milliseconds after which an unused Transport is closed.
+     */
+    private static final long MAX_IDLE_TIME = 60 * 1000L;
+
+    /**
+     * A Transport along with its usage information.
+     *
+     * @version $Id$
+     */
+    public static final class PooledTransport
+    {
+        private final Session session;
+
+        private final Transport transport;
+
+        private int mailCount;
+
+        private long releaseDate;
+
+        private PooledTransport(Session session, Transport transport)
+        {
+            this.session = session;
+            this.transport = transport;
+        }
+
+        /**
+         * @return the connected Transport
+         */
+        public Transport getTransport()
+        {
+            return this.transport;
+        }
+    }
+
+    /**
+     * The unused Transports, indexed by the Session they were created with.
+     */
+    private final Map<Session, Deque<PooledTransport>> idleTransports = new HashMap<>();
+
+    /**
+     * @param session the Session to use to send the mail
+     * @return a connected Transport for the passed Session, to give back with {@link #release(PooledTransport)} or
+     *         {@link #invalidate(PooledTransport)}
+     * @throws MessagingException when failing to create or connect the Transport
+     */
+    public PooledTransport borrow(Session session) throws MessagingException
+    {
+        PooledTransport pooledTransport;
+        synchronized (this.idleTransports) {
+            Deque<PooledTransport> transports = this.idleTransports.get(session);
+            pooledTransport = transports != null ? transports.pollFirst() : null;
+        }
+
+        if (pooledTransport == null) {
+            pooledTransport = new PooledTransport(session, session.getTransport("smtp"));
+        }
+
+        if (!pooledTransport.transport.isConnected()) {
+            try {
+                pooledTransport.transport.connect();
+            } catch (MessagingException e) {
+                close(pooledTransport);
+
+                throw e;
+            }
+        }
+
+        return pooledTransport;
+    }
+
+    /**
+     * Give back a Transport after a mail has been sent with it.
+     *
+     * @param pooledTransport the Transport returned by {@link #borrow(Session)}
+     */
+    public void release(PooledTransport pooledTransport)
+    {
+        pooledTransport.mailCount++;
+        pooledTransport.releaseDate = System.currentTimeMillis();
+
+        // Recreate the connection regularly
+        if (pooledTransport.mailCount >= MAX_MAILS_PER_TRANSPORT) {
+            close(pooledTransport);
+        } else {
+            synchronized (this.idleTransports) {
+                this.idleTransports.computeIfAbsent(pooledTransport.session, k -> new ArrayDeque<>())
+                    .addFirst(pooledTransport);
+            }
+        }
+
+        closeIdleTransports(pooledTransport.releaseDate);
+    }
+
+    /**
+     * Give back a Transport which cannot be reused (e.g. because sending a mail failed).
+     *
+     * @param pooledTransport the Transport returned by {@link #borrow(Session)}
+     */
+    public void invalidate(PooledTransport pooledTransport)
+    {
+        close(pooledTransport);
+    }
+
+    /**
+     * Close the Transports which have not been used for a while, to call regularly when no mail is sent.
+     */
+    public void closeIdleTransports()
+    {
+        closeIdleTransports(System.currentTimeMillis());
+    }
+
+    /**
+     * Close all the unused Transports.
+     */
+    public void close()
+    {
+        closeIdleTransports(Long.MAX_VALUE);
+    }
+
+    private void closeIdleTransports(long now)
+    {
+        List<PooledTransport> transportsToClose = new ArrayList<>();
+
+        synchronized (this.idleTransports) {
+            for (Iterator<Deque<PooledTransport>> it = this.idleTransports.values().iterator(); it.hasNext();) {
+                Deque<PooledTransport> transports = it.next();
+                // The least recently used Transports are at the end
+                while (!transports.isEmpty() && now - transports.peekLast().releaseDate >= MAX_IDLE_TIME) {
+                    transportsToClose.add(transports.pollLast());
+                }
+                if (transports.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+
+        for (PooledTransport pooledTransport : transportsToClose) {
+            close(pooledTransport);
+        }
+    }
+
+    private void close(PooledTransport pooledTransport)
+    {
+        try {
+            pooledTransport.transport.close();
+        } catch (MessagingException e) {
+            LOGGER.warn("Failed to close JavaMail Transport connection. Reason [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+}
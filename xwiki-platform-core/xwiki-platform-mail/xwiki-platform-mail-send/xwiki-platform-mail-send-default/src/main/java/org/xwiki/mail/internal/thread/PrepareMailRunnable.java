@@ -19,8 +19,18 @@
  */
 package org.xwiki.mail.internal.thread;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -39,6 +49,8 @@
 import org.xwiki.mail.MailListener;
 import org.xwiki.mail.MailStatusResult;
 import org.xwiki.mail.internal.UpdateableMailStatusResult;
+import org.xwiki.mail.internal.factory.template.MailTemplateCache;
+import org.xwiki.mail.internal.thread.context.Copier;
 
 import com.xpn.xwiki.XWikiContext;
 
@@ -54,6 +66,136 @@
 @Singleton
 public class PrepareMailRunnable extends AbstractMailRunnable
 {
+    /**
+     * The maximum number of generated messages waiting to be persisted, per persisting thread.
+     */
+    private static final int PENDING_MESSAGES_PER_THREAD = 2;
+
+    /**
+     * Marks the end of the messages of a batch.
+     */
+    private static final GeneratedMessage END = new GeneratedMessage(null, null);
+
+    /**
+     * A message generated by the iterator of a batch, waiting to be persisted.
+     *
+     * @version $Id$
+     */
+    private static final class GeneratedMessage
+    {
+        private final MimeMessage message;
+
+        private final String wikiId;
+
+        GeneratedMessage(MimeMessage message, String wikiId)
+        {
+            this.message = message;
+            this.wikiId = wikiId;
+        }
+    }
+
+    /**
+     * Persists the messages of a batch in several threads while the message iterator generates the next ones.
+     *
+     * @version $Id$
+     */
+    private final class MessagePersister
+    {
+        private final PrepareMailQueueItem item;
+
+        private final BlockingQueue<GeneratedMessage> messages;
+
+        private final CountDownLatch stopped;
+
+        private int threadCount;
+
+        MessagePersister(PrepareMailQueueItem item, List<ExecutionContext> contexts)
+        {
+            this.item = item;
+            this.messages = new ArrayBlockingQueue<>(Math.max(1, contexts.size() * PENDING_MESSAGES_PER_THREAD));
+            this.stopped = new CountDownLatch(contexts.size());
+
+            for (ExecutionContext context : contexts) {
+                try {
+                    persistExecutor.execute(() -> run(context));
+                    this.threadCount++;
+                } catch (RejectedExecutionException e) {
+                    // The runnable is being stopped
+                    this.stopped.countDown();
+                }
+            }
+        }
+
+        void persist(MimeMessage message, String wikiId) throws InterruptedException
+        {
+            if (this.threadCount > 0) {
+                this.messages.put(new GeneratedMessage(message, wikiId));
+            } else {
+                prepareSingleMail(message, this.item, wikiId);
+            }
+        }
+
+        private void run(ExecutionContext context)
+        {
+            try {
+                // The listener might need a context to record the status of the messages
+                prepareContext(context);
+            } catch (ExecutionContextException e) {
+                logger.error("Failed to initialize the context to persist the mails of batch [{}]",
+                    this.item.getBatchId(), e);
+            }
+
+            try {
+                for (GeneratedMessage message = this.messages.take(); message != END;
+                    message = this.messages.take()) {
+                    try {
+                        prepareSingleMail(message.message, this.item, message.wikiId);
+                    } catch (Exception e) {
+                        // Keep persisting the other messages so that the generating thread is never blocked
+                        logger.error("Failed to persist a mail of batch [{}]", this.item.getBatchId(), e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                removeContext();
+                this.stopped.countDown();
+            }
+        }
+
+        /**
+         * Wait for all the messages to be persisted.
+         */
+        void stop()
+        {
+            boolean interrupted = false;
+
+            for (int i = 0; i < this.threadCount; i++) {
+                while (true) {
+                    try {
+                        this.messages.put(END);
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+
+            while (true) {
+                try {
+                    this.stopped.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     @Inject
     private MailQueueManager<PrepareMailQueueItem> prepareMailQueueManager;
 
@@ -64,24 +206,59 @@ public class PrepareMailRunnable extends AbstractMailRunnable
     @Named("filesystem")
     private MailContentStore mailContentStore;
 
+    @Inject
+    private Copier<ExecutionContext> executionContextCloner;
+
+    /**
+     * The threads persisting the generated messages, null when a single prepare thread is configured.
+     */
+    private ExecutorService persistExecutor;
+
+    private int persistThreadCount;
+
     @Override
     public void run()
+    {
+        this.persistThreadCount = this.configuration.getPrepareThreadCount();
+        if (this.persistThreadCount > 1) {
+            String threadName = Thread.currentThread().getName();
+            AtomicInteger threadIndex = new AtomicInteger();
+            this.persistExecutor = Executors.newFixedThreadPool(this.persistThreadCount, runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setName(threadName + " persist " + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        try {
+            // Several batches of mails can be prepared in parallel
+            runInThreads(this.persistThreadCount, this::runInternal);
+        } finally {
+            if (this.persistExecutor != null) {
+                this.persistExecutor.shutdownNow();
+                this.persistExecutor = null;
+            }
+        }
+    }
+
+    private void runInternal()
     {
         do {
             try {
-                // Handle next message in the queue
-                if (this.prepareMailQueueManager.hasMessage()) {
+                // Wait for the next message in the queue
+                // Note: the timeout is used to regularly check if the thread should stop.
+                PrepareMailQueueItem mailItem =
+                    this.prepareMailQueueManager.takeMessage(QUEUE_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (mailItem != null) {
                     // Important: only remove the mail item after the message has been created and put on the sender
                     // queue.
-                    PrepareMailQueueItem mailItem = this.prepareMailQueueManager.peekMessage();
                     try {
                         prepareMail(mailItem);
                     } finally {
                         this.prepareMailQueueManager.removeMessageFromQueue(mailItem);
                     }
                 }
-                // Note: a short pause to catch thread interruptions and to be kind on CPU.
-                Thread.sleep(100L);
             } catch (InterruptedException e) {
                 // Thread has been stopped, exit
                 this.logger.debug("Mail Prepare Thread was forcefully stopped", e);
@@ -111,6 +288,10 @@ protected void prepareMail(PrepareMailQueueItem item) throws ExecutionContextExc
         // Count the total number of messages to process
         long messageCounter = 0;
 
+        // Keep the recipient-independent data of the mail templates while preparing the batch
+        item.getContext().setProperty(MailTemplateCache.CONTEXT_KEY, new MailTemplateCache());
+
+        MessagePersister persister = null;
         try {
             boolean shouldStop = false;
             while (!shouldStop) {
@@ -118,9 +299,15 @@ protected void prepareMail(PrepareMailQueueItem item) throws ExecutionContextExc
                 // need a valid XWiki Context.
                 prepareContext(item.getContext());
                 try {
+                    if (persister == null) {
+                        persister = createPersister(item);
+                    }
                     if (messageIterator.hasNext()) {
                         MimeMessage mimeMessage = messageIterator.next();
-                        prepareSingleMail(mimeMessage, item);
+                        // Try to complete message with From and Bcc from configuration if needed
+                        completeMessage(mimeMessage);
+                        // The messages are generated one after the other but persisted in parallel
+                        persister.persist(mimeMessage, extractWikiId(item));
                         messageCounter++;
                     } else {
                         shouldStop = true;
@@ -134,6 +321,12 @@ protected void prepareMail(PrepareMailQueueItem item) throws ExecutionContextExc
                 listener.onPrepareFatalError(e, Collections.<String, Object>emptyMap());
             }
         } finally {
+            if (persister != null) {
+                persister.stop();
+            }
+
+            item.getContext().removeProperty(MailTemplateCache.CONTEXT_KEY);
+
             if (listener != null) {
                 MailStatusResult result = listener.getMailStatusResult();
                 // Update the listener with the total number of messages prepared so that the user can known when
@@ -147,6 +340,19 @@ protected void prepareMail(PrepareMailQueueItem item) throws ExecutionContextExc
         }
     }
 
+    private MessagePersister createPersister(PrepareMailQueueItem item)
+    {
+        // Each persisting thread gets its own copy of the context of the batch
+        List<ExecutionContext> contexts = new ArrayList<>();
+        if (this.persistExecutor != null) {
+            for (int i = 0; i < this.persistThreadCount; i++) {
+                contexts.add(this.executionContextCloner.copy(item.getContext()));
+            }
+        }
+
+        return new MessagePersister(item, contexts);
+    }
+
     protected void prepareContext(ExecutionContext executionContext) throws ExecutionContextException
     {
         try {
@@ -158,14 +364,11 @@ protected void prepareContext(ExecutionContext executionContext) throws Executio
         }
     }
 
-    private void prepareSingleMail(MimeMessage mimeMessage, PrepareMailQueueItem item)
+    private void prepareSingleMail(MimeMessage mimeMessage, PrepareMailQueueItem item, String wikiId)
     {
         MailListener listener = item.getListener();
 
-        // Step 1: Try to complete message with From and Bcc from configuration if needed
-        completeMessage(mimeMessage);
-
-        // Ensure mimeMessage to be extended
+        // Step 1: Ensure mimeMessage to be extended
         ExtendedMimeMessage message = ExtendedMimeMessage.wrap(mimeMessage);
 
         // Step 2: Persist the MimeMessage
@@ -181,9 +384,8 @@ private void prepareSingleMail(MimeMessage mimeMessage, PrepareMailQueueItem ite
         }
 
         // Step 3: Put the MimeMessage id on the Mail Send Queue for sending
-        // Extract the wiki id from the context
         this.sendMailQueueManager.addToQueue(new SendMailQueueItem(message.getUniqueMessageId(),
-            item.getSession(), listener, item.getBatchId(), extractWikiId(item)));
+            item.getSession(), listener, item.getBatchId(), wikiId));
 
         // Step 4: Notify the user that the MimeMessage is prepared
         if (listener != null) {
@@ -20,16 +20,13 @@
 package org.xwiki.mail.internal.thread;
 
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
-import javax.mail.MessagingException;
-import javax.mail.Session;
-import javax.mail.Transport;
 
-import org.apache.commons.lang.exception.ExceptionUtils;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.context.ExecutionContextException;
@@ -37,11 +34,13 @@
 import org.xwiki.mail.ExtendedMimeMessage;
 import org.xwiki.mail.MailContentStore;
 import org.xwiki.mail.MailListener;
+import org.xwiki.mail.internal.thread.MailTransportPool.PooledTransport;
 
 import com.xpn.xwiki.XWikiContext;
 
 /**
- * Runnable that regularly check for mails on a Queue, and for each mail tries to send it.
+ * Runnable that regularly check for mails on a Queue, and for each mail tries to send it. Depending on the
+ * configuration, several threads can be started to send mails in parallel.
  *
  * @version $Id$
  * @since 6.4
@@ -64,14 +63,21 @@ public class SendMailRunnable extends AbstractMailRunnable
     @Inject
     private Provider<XWikiContext> contextProvider;
 
-    private Transport currentTransport;
+    private final MailTransportPool transportPool = new MailTransportPool();
 
-    private Session currentSession;
-
-    private int count;
+    private final MailSendRateLimiter rateLimiter = new MailSendRateLimiter();
 
     @Override
     public void run()
+    {
+        try {
+            runInThreads(this.configuration.getSendThreadCount(), this::runSender);
+        } finally {
+            this.transportPool.close();
+        }
+    }
+
+    private void runSender()
     {
         try {
             // Make sure we initialize an execution context.
@@ -81,8 +87,6 @@ public void run()
         } catch (ExecutionContextException e) {
             // Not much to do but log.
             logger.error("Failed to initialize the send mail thread's execution context", e);
-        } finally {
-            closeTransport();
         }
     }
 
@@ -105,24 +109,26 @@ private void runInternal()
     {
         do {
             try {
-                // Handle next message in the queue
-                if (this.sendMailQueueManager.hasMessage()) {
+                // Wait for the next message in the queue
+                // Note: the timeout is used to regularly check if the thread should stop.
+                SendMailQueueItem mailItem =
+                    this.sendMailQueueManager.takeMessage(QUEUE_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (mailItem != null) {
                     // Important: only remove the mail item from the queue after the mail has been sent as
                     // otherwise, MailSender.waitTillSent() may return before the mail is actually sent!
-                    SendMailQueueItem mailItem = this.sendMailQueueManager.peekMessage();
                     try {
+                        prepareContextForQueueItem(mailItem);
+                        // Email throttling: Wait before sending the mail if another mail has just been sent to the
+                        // same server
+                        waitSendWaitTime(mailItem);
                         sendMail(mailItem);
                     } finally {
                         this.sendMailQueueManager.removeMessageFromQueue(mailItem);
                     }
-                    // Email throttling: Wait before processing the next mail queue item
-                    // Note: it's important that we wait after the previous item has been removed from the queue in
-                    // order to let users know as soon as possible that their mail has been sent (otherwise when sending
-                    // a synchronous mail, the user would have to wait the send wait time!).
-                    waitSendWaitTime();
+                } else {
+                    // Don't keep the connections to the SMTP servers open while no mail is sent
+                    this.transportPool.closeIdleTransports();
                 }
-                // Note: a short pause to catch thread interruptions and to be kind on CPU.
-                Thread.sleep(50L);
             } catch (InterruptedException e) {
                 // Thread has been stopped, exit
                 this.logger.debug("Mail Sender Thread was forcefully stopped", e);
@@ -145,42 +151,35 @@ protected void sendMail(SendMailQueueItem item)
 
         MailListener listener = item.getListener();
 
-        ExtendedMimeMessage message;
-        try {
-            // Step 1: Load the message from the filesystem store
-            message = this.mailContentStore.load(item.getSession(), item.getBatchId(), item.getUniqueMessageId());
-        } catch (Exception e) {
-            if (listener != null) {
-                listener.onSendMessageFatalError(item.getUniqueMessageId(), e, Collections.<String, Object>emptyMap());
-            }
+        // Step 1: Load the message from the filesystem store
+        ExtendedMimeMessage message = loadMessage(item);
+        if (message == null) {
             return;
         }
 
+        PooledTransport transport = null;
         try {
-            // Step 2: If the current Session in use is different from the one passed then close
-            // the current Transport, get a new one and reconnect.
-            // Also do that every 100 mails sent.
-            // TODO: explain why!
-            if (item.getSession() != this.currentSession || (this.count % 100) == 0) {
-                closeTransport();
-                this.currentSession = item.getSession();
-                this.currentTransport = this.currentSession.getTransport("smtp");
-                this.currentTransport.connect();
-            } else if (!this.currentTransport.isConnected()) {
-                this.currentTransport.connect();
-            }
+            // Step 2: Get a connected Transport for the Session of the mail. Transports are reused between mails
+            // using the same Session and are recreated every 100 mails sent.
+            transport = this.transportPool.borrow(item.getSession());
 
             // Step 3: Send the mail
             // Unlike the static send method, the sendMessage method does not call the saveChanges method on the
             // message; this prevent the MessageID header to be changed.
-            this.currentTransport.sendMessage(message, message.getAllRecipients());
-            this.count++;
+            transport.getTransport().sendMessage(message, message.getAllRecipients());
+            this.transportPool.release(transport);
+            transport = null;
 
             // Step 4: Notify the user of the success if a listener has been provided
             if (listener != null) {
                 listener.onSendMessageSuccess(message, Collections.<String, Object>emptyMap());
             }
         } catch (Exception e) {
+            // Don't reuse a Transport which failed to send a mail
+            if (transport != null) {
+                this.transportPool.invalidate(transport);
+            }
+
             // An error occurred, notify the user if a listener has been provided.
             if (listener != null) {
                 listener.onSendMessageError(message, e, Collections.<String, Object>emptyMap());
@@ -188,21 +187,34 @@ protected void sendMail(SendMailQueueItem item)
         }
     }
 
-    private void waitSendWaitTime() throws InterruptedException
+    private ExtendedMimeMessage loadMessage(SendMailQueueItem item)
     {
-        long sendWaitTime = this.configuration.getSendWaitTime();
-        Thread.sleep(sendWaitTime);
+        try {
+            return this.mailContentStore.load(item.getSession(), item.getBatchId(), item.getUniqueMessageId());
+        } catch (Exception e) {
+            MailListener listener = item.getListener();
+            if (listener != null) {
+                listener.onSendMessageFatalError(item.getUniqueMessageId(), e, Collections.<String, Object>emptyMap());
+            }
+            return null;
+        }
     }
 
-    private void closeTransport()
+    private void waitSendWaitTime(SendMailQueueItem item) throws InterruptedException
     {
-        if (this.currentTransport != null) {
-            try {
-                this.currentTransport.close();
-            } catch (MessagingException e) {
-                this.logger.warn("Failed to close JavaMail Transport connection. Reason [{}]",
-                    ExceptionUtils.getRootCauseMessage(e));
+        try {
+            this.rateLimiter.acquire(item.getSession(), this.configuration.getSendWaitTime());
+        } catch (InterruptedException e) {
+            // The mail is removed from the queue without being sent: report it as failed so that it can be resent
+            MailListener listener = item.getListener();
+            if (listener != null) {
+                ExtendedMimeMessage message = loadMessage(item);
+                if (message != null) {
+                    listener.onSendMessageError(message, e, Collections.<String, Object>emptyMap());
+                }
             }
+
+            throw e;
         }
     }
 }
@@ -36,6 +36,8 @@
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.velocity.VelocityEngine;
@@ -56,6 +58,7 @@
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -128,6 +131,32 @@ public Void answer(InvocationOnMock invocation) throws Throwable
         assertEquals(result, "Hello <b>John Doe</b> <br />john@doe.com");
     }
 
+    @Test
+    public void evaluateWhenPreparingBatchLoadsContentOnce() throws Exception
+    {
+        ExecutionContext executionContext = new ExecutionContext();
+        executionContext.setProperty(MailTemplateCache.CONTEXT_KEY, new MailTemplateCache());
+        Execution execution = this.mocker.getInstance(Execution.class);
+        when(execution.getContext()).thenReturn(executionContext);
+
+        DocumentAccessBridge documentBridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        DocumentReference documentReference = new DocumentReference("wiki", "space", "page");
+
+        when(documentBridge.getProperty(same(documentReference), any(), anyInt(), eq("html")))
+            .thenReturn("Hello <b>${name}</b>");
+
+        VelocityEngine velocityEngine = mock(VelocityEngine.class);
+        VelocityManager velocityManager = this.mocker.getInstance(VelocityManager.class);
+        when(velocityManager.getVelocityEngine()).thenReturn(velocityEngine);
+
+        this.mocker.getComponentUnderTest().evaluate(documentReference, "html", Collections.emptyMap());
+        this.mocker.getComponentUnderTest().evaluate(documentReference, "html", Collections.emptyMap());
+
+        verify(documentBridge).getProperty(same(documentReference), any(), anyInt(), eq("html"));
+        verify(velocityEngine, times(2)).evaluate(any(VelocityContext.class), any(Writer.class), any(),
+            eq("Hello <b>${name}</b>"));
+    }
+
     @Test
     public void evaluateWithLanguage() throws Exception
     {
@@ -19,10 +19,15 @@
  */
 package org.xwiki.mail.internal.thread;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Provider;
 import javax.mail.Session;
@@ -39,12 +44,14 @@
 import org.xwiki.mail.ExtendedMimeMessage;
 import org.xwiki.mail.MailContentStore;
 import org.xwiki.mail.MailListener;
+import org.xwiki.mail.MailSenderConfiguration;
 import org.xwiki.mail.MailState;
 import org.xwiki.mail.MailStatus;
 import org.xwiki.mail.MailStatusResult;
 import org.xwiki.mail.MailStoreException;
 import org.xwiki.mail.internal.MemoryMailListener;
 import org.xwiki.mail.internal.UpdateableMailStatusResult;
+import org.xwiki.mail.internal.thread.context.Copier;
 import org.xwiki.test.AllLogRule;
 import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
@@ -287,4 +294,85 @@ public Object answer(InvocationOnMock invocationOnMock) throws Throwable
 
         assertEquals("Failure during preparation phase of thread [" + batchId1 + "]", logRule.getMessage(0));
     }
+
+    @Test
+    public void prepareMailOfOneBatchInSeveralThreads() throws Exception
+    {
+        MailSenderConfiguration configuration = this.mocker.getInstance(MailSenderConfiguration.class);
+        when(configuration.getPrepareThreadCount()).thenReturn(2);
+
+        Session session = Session.getInstance(new Properties());
+        List<MimeMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            MimeMessage message = new MimeMessage(session);
+            message.setText("Content" + i);
+            messages.add(message);
+        }
+
+        ExecutionContext context = new ExecutionContext();
+        XWikiContext xContext = new XWikiContext();
+        xContext.setWikiId("wiki");
+        context.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, xContext);
+
+        Copier<ExecutionContext> contextCopier =
+            this.mocker.getInstance(new DefaultParameterizedType(null, Copier.class, ExecutionContext.class));
+        when(contextCopier.copy(context)).thenAnswer(invocation -> new ExecutionContext());
+
+        MemoryMailListener listener = this.mocker.getInstance(MailListener.class, "memory");
+        String batchId = UUID.randomUUID().toString();
+        PrepareMailQueueItem item = new PrepareMailQueueItem(messages, session, listener, batchId, context);
+
+        MailQueueManager prepareMailQueueManager =
+            this.mocker.getInstance(new DefaultParameterizedType(null, MailQueueManager.class,
+                PrepareMailQueueItem.class));
+        MailQueueManager sendMailQueueManager =
+            this.mocker.getInstance(new DefaultParameterizedType(null, MailQueueManager.class,
+                SendMailQueueItem.class));
+
+        // Each message is persisted only once another one is being persisted, which cannot happen if the messages of
+        // the batch are persisted by a single thread
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        MailContentStore contentStore = this.mocker.getInstance(MailContentStore.class, "filesystem");
+        doAnswer(invocation -> {
+            invocation.<MimeMessage>getArgument(1).saveChanges();
+            barrier.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(contentStore).save(any(String.class), any(ExtendedMimeMessage.class));
+
+        List<String> wikis = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            SendMailQueueItem sendItem = invocation.getArgument(0);
+            wikis.add(sendItem.getWikiId());
+            ((UpdateableMailStatusResult) sendItem.getListener().getMailStatusResult()).incrementCurrentSize();
+            return null;
+        }).when(sendMailQueueManager).addToQueue(any(SendMailQueueItem.class));
+
+        prepareMailQueueManager.addToQueue(item);
+
+        MailRunnable runnable = this.mocker.getComponentUnderTest();
+        Thread thread = new Thread(runnable);
+        thread.start();
+
+        // Wait for the mails to have been processed.
+        try {
+            listener.getMailStatusResult().waitTillProcessed(10000L);
+        } finally {
+            runnable.stopProcessing();
+            thread.interrupt();
+            thread.join();
+        }
+
+        MailStatusResult result = listener.getMailStatusResult();
+        assertTrue(result.isProcessed());
+        assertEquals(4, result.getTotalMailCount());
+        Iterator<MailStatus> statuses = result.getByState(MailState.PREPARE_SUCCESS);
+        int successCount = 0;
+        while (statuses.hasNext()) {
+            statuses.next();
+            successCount++;
+        }
+        assertEquals(4, successCount);
+        assertFalse(barrier.isBroken());
+        assertEquals(Arrays.asList("wiki", "wiki", "wiki", "wiki"), wikis);
+    }
 }
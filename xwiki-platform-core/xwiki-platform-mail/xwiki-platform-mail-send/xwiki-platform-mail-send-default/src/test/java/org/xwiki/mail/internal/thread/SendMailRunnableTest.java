@@ -23,6 +23,8 @@
 import java.util.Iterator;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Provider;
 import javax.mail.Session;
@@ -36,6 +38,7 @@
 import org.xwiki.mail.ExtendedMimeMessage;
 import org.xwiki.mail.MailContentStore;
 import org.xwiki.mail.MailListener;
+import org.xwiki.mail.MailSenderConfiguration;
 import org.xwiki.mail.MailState;
 import org.xwiki.mail.MailStatus;
 import org.xwiki.mail.MailStoreException;
@@ -47,7 +50,9 @@
 import com.xpn.xwiki.XWikiContext;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 
 /**
@@ -66,11 +71,14 @@
     public MockitoComponentMockingRule<SendMailRunnable> mocker =
         new MockitoComponentMockingRule<>(SendMailRunnable.class);
 
+    private XWikiContext xcontext;
+
     @Before
     public void setUp() throws Exception
     {
         Provider<XWikiContext> xwikiContextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
-        when(xwikiContextProvider.get()).thenReturn(Mockito.mock(XWikiContext.class));
+        this.xcontext = Mockito.mock(XWikiContext.class);
+        when(xwikiContextProvider.get()).thenReturn(this.xcontext);
     }
 
     @Test
@@ -206,4 +214,123 @@ public void sendMailWhenMailRetrievalFails() throws Exception
         }
         assertEquals(2, errorCount);
     }
+
+    @Test
+    public void sendMailWithSeveralThreads() throws Exception
+    {
+        MailSenderConfiguration configuration = this.mocker.getInstance(MailSenderConfiguration.class);
+        when(configuration.getSendThreadCount()).thenReturn(3);
+
+        // Create a Session with an invalid host so that it generates an error
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "xwiki-unknown");
+        Session session = Session.getInstance(properties);
+
+        MemoryMailListener listener = this.mocker.getInstance(MailListener.class, "memory");
+        String batchId = UUID.randomUUID().toString();
+        listener.onPrepareBegin(batchId, Collections.<String, Object>emptyMap());
+        ((UpdateableMailStatusResult) listener.getMailStatusResult()).setTotalSize(10);
+
+        MailQueueManager mailQueueManager = this.mocker.getInstance(
+            new DefaultParameterizedType(null, MailQueueManager.class, SendMailQueueItem.class));
+        MailContentStore contentStore = this.mocker.getInstance(MailContentStore.class, "filesystem");
+
+        for (int i = 0; i < 10; i++) {
+            MimeMessage msg = new MimeMessage(session);
+            msg.setText("Content" + i);
+            ExtendedMimeMessage message = new ExtendedMimeMessage(msg);
+            String id = message.getUniqueMessageId();
+            when(contentStore.load(session, batchId, id)).thenReturn(message);
+            mailQueueManager.addToQueue(new SendMailQueueItem(id, session, listener, batchId, "xwiki"));
+        }
+
+        MailRunnable runnable = this.mocker.getComponentUnderTest();
+        Thread thread = new Thread(runnable);
+        thread.start();
+
+        // Wait for the mails to have been processed.
+        try {
+            listener.getMailStatusResult().waitTillProcessed(10000L);
+        } finally {
+            runnable.stopProcessing();
+            thread.interrupt();
+            thread.join();
+        }
+
+        // Each mail has been processed exactly once, whatever the thread which processed it
+        assertEquals(10, listener.getMailStatusResult().getProcessedMailCount());
+        Iterator<MailStatus> statuses = listener.getMailStatusResult().getByState(MailState.SEND_ERROR);
+        int errorCount = 0;
+        while (statuses.hasNext()) {
+            statuses.next();
+            errorCount++;
+        }
+        assertEquals(10, errorCount);
+        assertFalse(mailQueueManager.hasMessage());
+    }
+
+    @Test
+    public void sendMailWhenInterruptedWhileWaiting() throws Exception
+    {
+        // The second mail has to wait a long time before being sent to the same server
+        MailSenderConfiguration configuration = this.mocker.getInstance(MailSenderConfiguration.class);
+        when(configuration.getSendWaitTime()).thenReturn(3600000L);
+
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "xwiki-unknown");
+        Session session = Session.getInstance(properties);
+
+        MimeMessage msg1 = new MimeMessage(session);
+        msg1.setText("Content1");
+        ExtendedMimeMessage message1 = new ExtendedMimeMessage(msg1);
+        String id1 = message1.getUniqueMessageId();
+        MimeMessage msg2 = new MimeMessage(session);
+        msg2.setText("Content2");
+        ExtendedMimeMessage message2 = new ExtendedMimeMessage(msg2);
+        String id2 = message2.getUniqueMessageId();
+
+        MemoryMailListener listener = this.mocker.getInstance(MailListener.class, "memory");
+        String batchId = UUID.randomUUID().toString();
+        listener.onPrepareBegin(batchId, Collections.<String, Object>emptyMap());
+        ((UpdateableMailStatusResult) listener.getMailStatusResult()).setTotalSize(2);
+
+        MailQueueManager mailQueueManager = this.mocker.getInstance(
+            new DefaultParameterizedType(null, MailQueueManager.class, SendMailQueueItem.class));
+
+        // The first mail cannot be loaded, so that it's processed without connecting to the server
+        MailContentStore contentStore = this.mocker.getInstance(MailContentStore.class, "filesystem");
+        when(contentStore.load(session, batchId, id1)).thenThrow(new MailStoreException("Store failure"));
+        when(contentStore.load(session, batchId, id2)).thenReturn(message2);
+
+        // Know when the second mail is being processed
+        CountDownLatch secondMailTaken = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            secondMailTaken.countDown();
+            return null;
+        }).when(this.xcontext).setWikiId("wiki2");
+
+        mailQueueManager.addToQueue(new SendMailQueueItem(id1, session, listener, batchId, "xwiki"));
+        mailQueueManager.addToQueue(new SendMailQueueItem(id2, session, listener, batchId, "wiki2"));
+
+        MailRunnable runnable = this.mocker.getComponentUnderTest();
+        Thread thread = new Thread(runnable);
+        thread.start();
+
+        try {
+            assertTrue(secondMailTaken.await(10, TimeUnit.SECONDS));
+        } finally {
+            // Interrupt the thread while it waits before sending the second mail
+            runnable.stopProcessing();
+            thread.interrupt();
+            thread.join();
+        }
+
+        // The second mail is reported as failed instead of being silently dropped
+        assertEquals(2, listener.getMailStatusResult().getProcessedMailCount());
+        Iterator<MailStatus> statuses = listener.getMailStatusResult().getByState(MailState.SEND_ERROR);
+        assertTrue(statuses.hasNext());
+        assertEquals(id2, statuses.next().getMessageId());
+        assertFalse(statuses.hasNext());
+        assertFalse(mailQueueManager.hasMessage());
+    }
 }
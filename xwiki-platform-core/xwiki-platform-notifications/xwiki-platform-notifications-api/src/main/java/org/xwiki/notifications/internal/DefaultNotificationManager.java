@@ -22,7 +22,9 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -33,6 +35,7 @@
 import org.xwiki.eventstream.EventStream;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.notifications.CompositeEvent;
 import org.xwiki.notifications.NotificationException;
 import org.xwiki.notifications.NotificationManager;
@@ -51,6 +54,12 @@
 @Singleton
 public class DefaultNotificationManager implements NotificationManager
 {
+    /**
+     * Maximum number of batches of events to fetch from the database for a single call, so that a user who cannot see
+     * most of the events does not end up scanning the whole event stream.
+     */
+    private static final int MAX_BATCHES = 10;
+
     @Inject
     private EventStream eventStream;
 
@@ -72,6 +81,12 @@ public class DefaultNotificationManager implements NotificationManager
     @Inject
     private SimilarityCalculator similarityCalculator;
 
+    @Inject
+    private EventCountCache eventCountCache;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
     @Override
     public List<CompositeEvent> getEvents(String userId, boolean onlyUnread, int expectedCount)
             throws NotificationException
@@ -99,10 +114,10 @@ public long getEventsCount(String userId, boolean onlyUnread, int maxCount) thro
     {
         DocumentReference user = documentReferenceResolver.resolve(userId);
 
-        List<CompositeEvent> events = getEvents(new ArrayList<>(), user, onlyUnread, maxCount,
-                null, new ArrayList<>());
-
-        return events.size();
+        // The count is displayed on every page so we avoid computing it again until it changes
+        return eventCountCache.getCount(serializer.serialize(user), onlyUnread, maxCount,
+            () -> getEvents(new ArrayList<>(), user, onlyUnread, maxCount, null, new ArrayList<>()).size(),
+            () -> queryGenerator.generateFilter(user));
     }
 
     private List<CompositeEvent> getEvents(List<CompositeEvent> results, DocumentReference userReference,
@@ -111,37 +126,43 @@ private List<CompositeEvent> getEvents(List<CompositeEvent> results, DocumentRef
         // Because the user might not be able to see all notifications because of the rights, we take from the database
         // more events than expected and we will filter afterwards.
         final int batchSize = expectedCount * 2;
+        // Several events usually concern the same document so we check the rights only once per document
+        Map<DocumentReference, Boolean> viewableDocuments = new HashMap<>();
+        // Index the recorded events so that grouping a new event does not require to compare it with all of them
+        SimilarEventIndex index = new SimilarEventIndex(results);
         try {
-            // Create the query
-            Query query = queryGenerator.generateQuery(userReference, onlyUnread, endDate, blackList);
-            if (query == null) {
-                return Collections.emptyList();
-            }
-            query.setLimit(batchSize);
-
-            // Get a batch of events
-            List<Event> batch = eventStream.searchEvents(query);
-
-            // Add to the results the events the user has the right to see
-            for (Event event : batch) {
-                DocumentReference document = event.getDocument();
-                // Don't record events concerning a doc the user cannot see
-                if (document != null && !authorizationManager.hasAccess(Right.VIEW, userReference, document)) {
-                    continue;
+            Event lastEvent = null;
+            for (int batchIndex = 0; batchIndex < MAX_BATCHES; batchIndex++) {
+                // Create the query, starting after the last event of the previous batch
+                Query query = queryGenerator.generateQuery(userReference, onlyUnread, endDate, blackList, lastEvent);
+                if (query == null) {
+                    return Collections.emptyList();
                 }
-                // Record this event
-                recordEvent(results, event);
-                // If the expected count is reached, stop now
-                if (results.size() >= expectedCount) {
-                    return results;
+                query.setLimit(batchSize);
+
+                // Get a batch of events
+                List<Event> batch = eventStream.searchEvents(query);
+
+                // Add to the results the events the user has the right to see
+                for (Event event : batch) {
+                    // Don't record events concerning a doc the user cannot see
+                    if (!canView(userReference, event.getDocument(), viewableDocuments)) {
+                        continue;
+                    }
+                    // Record this event
+                    recordEvent(index, event);
+                    // If the expected count is reached, stop now
+                    if (results.size() >= expectedCount) {
+                        return results;
+                    }
+                }
+
+                // If there is no more events, stop now
+                if (batch.size() < batchSize) {
+                    break;
                 }
-            }
 
-            // If we haven't get the expected number of events, perform a new batch
-            if (results.size() < expectedCount && batch.size() == batchSize) {
-                blackList.addAll(getEventsIds(batch));
-                getEvents(results, userReference, onlyUnread, expectedCount - results.size(), endDate,
-                        blackList);
+                lastEvent = batch.get(batch.size() - 1);
             }
 
             return results;
@@ -150,13 +171,15 @@ private List<CompositeEvent> getEvents(List<CompositeEvent> results, DocumentRef
         }
     }
 
-    private List<String> getEventsIds(List<Event> events)
+    private boolean canView(DocumentReference userReference, DocumentReference document,
+            Map<DocumentReference, Boolean> viewableDocuments)
     {
-        List<String> list = new ArrayList<>();
-        for (Event event : events) {
-            list.add(event.getId());
+        if (document == null) {
+            return true;
         }
-        return list;
+
+        return viewableDocuments.computeIfAbsent(document,
+            key -> authorizationManager.hasAccess(Right.VIEW, userReference, key));
     }
 
     private class BestSimilarity
@@ -179,9 +202,9 @@ public boolean isCompositeEventCompatibleWith(Event event)
         }
     }
 
-    private void recordEvent(List<CompositeEvent> results, Event event) throws NotificationException
+    private void recordEvent(SimilarEventIndex index, Event event) throws NotificationException
     {
-        BestSimilarity bestSimilarity = getBestSimilarity(results, event);
+        BestSimilarity bestSimilarity = getBestSimilarity(index, event);
 
         if (bestSimilarity.compositeEvent != null) {
             if (bestSimilarity.value > bestSimilarity.compositeEvent.getSimilarityBetweenEvents()
@@ -192,10 +215,11 @@ private void recordEvent(List<CompositeEvent> results, Event event) throws Notif
                 // It means we must remove the existing event A from that composite event C1 and create a new composite
                 // event C2 made of A and E.
                 bestSimilarity.compositeEvent.remove(bestSimilarity.event);
+                index.remove(bestSimilarity.event, bestSimilarity.compositeEvent);
 
                 // Instead of creating a new composite event with A and E, we first look if an other composite event can
                 // match with A and E.
-                BestSimilarity bestSecondChoice = getBestSimilarity(results, event);
+                BestSimilarity bestSecondChoice = getBestSimilarity(index, event);
                 if (bestSecondChoice.compositeEvent != null
                         && bestSecondChoice.isCompositeEventCompatibleWith(event)) {
                     // We have found a composite event C2 made of events (X, Y) which have a greater similarity between
@@ -210,12 +234,14 @@ private void recordEvent(List<CompositeEvent> results, Event event) throws Notif
                     // is Y, which we can group with the event E.
                     bestSecondChoice.compositeEvent.add(bestSimilarity.event,
                             bestSecondChoice.compositeEvent.getSimilarityBetweenEvents());
+                    index.add(bestSimilarity.event, bestSecondChoice.compositeEvent);
                     bestSecondChoice.compositeEvent.add(event,
                             bestSecondChoice.compositeEvent.getSimilarityBetweenEvents());
+                    index.add(event, bestSecondChoice.compositeEvent);
                 } else {
                     CompositeEvent newCompositeEvent = new CompositeEvent(event);
                     newCompositeEvent.add(bestSimilarity.event, bestSimilarity.value);
-                    results.add(newCompositeEvent);
+                    index.addCompositeEvent(newCompositeEvent);
                 }
 
                 return;
@@ -224,6 +250,7 @@ private void recordEvent(List<CompositeEvent> results, Event event) throws Notif
                 // themselves than between A end E.
                 // All we need to do it to add E to C1.
                 bestSimilarity.compositeEvent.add(event, bestSimilarity.value);
+                index.add(event, bestSimilarity.compositeEvent);
                 return;
             } else if (bestSimilarity.isCompositeEventCompatibleWith(event)) {
                 // We have found a composite event C1 made of events (A, B) which have a greater similarity between
@@ -238,26 +265,29 @@ private void recordEvent(List<CompositeEvent> results, Event event) throws Notif
                 // B, which we can group with the event E.
                 bestSimilarity.compositeEvent.add(event,
                         bestSimilarity.compositeEvent.getSimilarityBetweenEvents());
+                index.add(event, bestSimilarity.compositeEvent);
                 return;
             }
         }
         // We haven't found an event that is similar to the current one, so we create a new composite event
-        results.add(new CompositeEvent(event));
+        index.addCompositeEvent(new CompositeEvent(event));
     }
 
-    private BestSimilarity getBestSimilarity(List<CompositeEvent> results, Event event)
+    private BestSimilarity getBestSimilarity(SimilarEventIndex index, Event event)
     {
         BestSimilarity bestSimilarity = new BestSimilarity();
-
-        // Looking for the most similar event inside the existing composite events
-        for (CompositeEvent existingCompositeEvent : results) {
-            for (Event existingEvent : existingCompositeEvent.getEvents()) {
-                int similarity = similarityCalculator.computeSimilarity(event, existingEvent);
-                if (similarity > bestSimilarity.value) {
-                    bestSimilarity.value = similarity;
-                    bestSimilarity.event = existingEvent;
-                    bestSimilarity.compositeEvent = existingCompositeEvent;
-                }
+        SimilarEventIndex.IndexedEvent best = null;
+
+        // Looking for the most similar event inside the existing composite events. When several events have the same
+        // similarity, we keep the first one in the order of the composite events.
+        for (SimilarEventIndex.IndexedEvent candidate : index.getCandidates(event)) {
+            int similarity = similarityCalculator.computeSimilarity(event, candidate.getEvent());
+            if (similarity > bestSimilarity.value
+                    || (similarity > 0 && similarity == bestSimilarity.value && index.isBefore(candidate, best))) {
+                bestSimilarity.value = similarity;
+                bestSimilarity.event = candidate.getEvent();
+                bestSimilarity.compositeEvent = candidate.getCompositeEvent();
+                best = candidate;
             }
         }
 
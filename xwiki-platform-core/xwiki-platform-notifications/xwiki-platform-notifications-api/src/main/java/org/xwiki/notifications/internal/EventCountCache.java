@@ -0,0 +1,279 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.notifications.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.eventstream.Event;
+import org.xwiki.notifications.NotificationException;
+
+/**
+ * Cache the number of notifications of the users so that displaying the notifications counter does not cost a query
+ * on each page load.
+ * <p>
+ * The counts of a user are invalidated when the status of one of his events changes or when his profile (which
+ * contains his notification preferences) is modified. The most recently stored events are remembered so that, when a
+ * count is requested again, it is only computed again if one of the events stored since then matches the filter of the
+ * user and if the count had not already reached the maximum requested count: a more recent event can only increase
+ * the number of notifications. Since the rights of the users are not tracked, the counts also expire after a while.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Component(roles = EventCountCache.class)
+@Singleton
+public class EventCountCache implements Initializable, Disposable
+{
+    /**
+     * Compute the count when it's not in the cache.
+     *
+     * @version $Id$
+     */
+    @FunctionalInterface
+    public interface CountLoader
+    {
+        /**
+         * @return the count
+         * @throws NotificationException if error happens
+         */
+        long load() throws NotificationException;
+    }
+
+    /**
+     * Compute the filter indicating if an event could be part of the notifications of the user.
+     *
+     * @version $Id$
+     */
+    @FunctionalInterface
+    public interface FilterLoader
+    {
+        /**
+         * @return the filter
+         * @throws NotificationException if error happens
+         */
+        Predicate<Event> load() throws NotificationException;
+    }
+
+    /**
+     * A cached count.
+     *
+     * @version $Id$
+     */
+    private static class Count
+    {
+        private final long value;
+
+        private final long generation;
+
+        Count(long value, long generation)
+        {
+            this.value = value;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * The counts of a user.
+     *
+     * @version $Id$
+     */
+    private static class UserCounts
+    {
+        private final Map<String, Count> counts = new ConcurrentHashMap<>();
+
+        private volatile Predicate<Event> filter;
+
+        private volatile boolean invalidated;
+    }
+
+    private static final int CACHE_SIZE = 10000;
+
+    /**
+     * Expire the counts after 10 minutes.
+     */
+    private static final int CACHE_LIFESPAN = 600;
+
+    /**
+     * The number of recently stored events which are remembered. When more events than that have been stored since a
+     * count was computed, the count is computed again.
+     */
+    private static final int RECENT_EVENTS_SIZE = 1000;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    private Cache<UserCounts> cache;
+
+    /**
+     * The most recently stored events, the event of generation {@code n} being at index
+     * {@code n % RECENT_EVENTS_SIZE}.
+     */
+    private final Event[] recentEvents = new Event[RECENT_EVENTS_SIZE];
+
+    /**
+     * Incremented each time a new event is stored.
+     */
+    private long generation;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        CacheConfiguration configuration = new CacheConfiguration("notifications.count");
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(CACHE_SIZE);
+        lru.setLifespan(CACHE_LIFESPAN);
+        configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        try {
+            this.cache = this.cacheManager.createNewCache(configuration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the notifications count cache", e);
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+
+    /**
+     * @param user the serialized reference of the user
+     * @param onlyUnread if only unread events are counted
+     * @param maxCount the maximum number of events to count
+     * @param loader used to compute the count when it's not in the cache
+     * @param filterLoader used to compute the filter telling if a new event could be part of the notifications of the
+     *     user
+     * @return the number of notifications of the user
+     * @throws NotificationException if error happens
+     */
+    public long getCount(String user, boolean onlyUnread, int maxCount, CountLoader loader,
+        FilterLoader filterLoader) throws NotificationException
+    {
+        UserCounts userCounts = this.cache.get(user);
+        if (userCounts == null) {
+            userCounts = new UserCounts();
+            this.cache.set(user, userCounts);
+        }
+
+        String key = String.valueOf(onlyUnread) + '/' + maxCount;
+        long currentGeneration = getGeneration();
+
+        Count count = userCounts.counts.get(key);
+        if (count != null && !userCounts.invalidated) {
+            if (count.generation == currentGeneration || count.value >= maxCount) {
+                return count.value;
+            }
+
+            List<Event> events = getEvents(count.generation, currentGeneration);
+            if (events != null && !matches(userCounts, events, filterLoader)) {
+                // None of the events stored since the count was computed concern the user
+                userCounts.counts.put(key, new Count(count.value, currentGeneration));
+
+                return count.value;
+            }
+        }
+
+        long value = loader.load();
+
+        // If the counts have been invalidated while loading, the value is simply lost
+        userCounts.counts.put(key, new Count(value, currentGeneration));
+
+        return value;
+    }
+
+    private boolean matches(UserCounts userCounts, List<Event> events, FilterLoader filterLoader)
+        throws NotificationException
+    {
+        Predicate<Event> filter = userCounts.filter;
+        if (filter == null) {
+            filter = filterLoader.load();
+            userCounts.filter = filter;
+        }
+
+        return events.stream().anyMatch(filter);
+    }
+
+    private synchronized long getGeneration()
+    {
+        return this.generation;
+    }
+
+    /**
+     * @return the events stored between the two generations, or null if they are not all remembered anymore
+     */
+    private synchronized List<Event> getEvents(long fromGeneration, long toGeneration)
+    {
+        // The events more recent than the requested ones may already have overwritten them
+        if (this.generation - fromGeneration > RECENT_EVENTS_SIZE) {
+            return null;
+        }
+
+        Event[] events = new Event[(int) (toGeneration - fromGeneration)];
+        for (long i = fromGeneration; i < toGeneration; i++) {
+            events[(int) (i - fromGeneration)] = this.recentEvents[(int) (i % RECENT_EVENTS_SIZE)];
+        }
+
+        return Arrays.asList(events);
+    }
+
+    /**
+     * Invalidate the counts of the given user.
+     *
+     * @param user the serialized reference of the user
+     */
+    public void invalidate(String user)
+    {
+        UserCounts userCounts = this.cache.get(user);
+        if (userCounts != null) {
+            userCounts.invalidated = true;
+            this.cache.remove(user);
+        }
+    }
+
+    /**
+     * Indicate that a new event has been stored.
+     *
+     * @param event the new event
+     */
+    public synchronized void onEventAdded(Event event)
+    {
+        this.recentEvents[(int) (this.generation % RECENT_EVENTS_SIZE)] = event;
+        this.generation++;
+    }
+}
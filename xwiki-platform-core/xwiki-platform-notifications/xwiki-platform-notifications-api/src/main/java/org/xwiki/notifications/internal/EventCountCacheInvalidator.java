@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.notifications.internal;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.eventstream.EventStatus;
+import org.xwiki.eventstream.events.EventStatusAddOrUpdatedEvent;
+import org.xwiki.eventstream.events.EventStreamAddedEvent;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Keep the {@link EventCountCache} up to date.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Component
+@Singleton
+@Named(EventCountCacheInvalidator.NAME)
+public class EventCountCacheInvalidator extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "NotificationsEventCountCacheInvalidator";
+
+    @Inject
+    private EventCountCache cache;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /**
+     * Construct an EventCountCacheInvalidator.
+     */
+    public EventCountCacheInvalidator()
+    {
+        super(NAME, Arrays.asList(new EventStreamAddedEvent(), new EventStatusAddOrUpdatedEvent(),
+            new DocumentUpdatedEvent(), new DocumentDeletedEvent()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof EventStreamAddedEvent) {
+            this.cache.onEventAdded((org.xwiki.eventstream.Event) source);
+        } else if (event instanceof EventStatusAddOrUpdatedEvent) {
+            this.cache.invalidate(((EventStatus) source).getEntityId());
+        } else {
+            // The notification preferences and the start date of a user are stored in his profile
+            this.cache.invalidate(this.serializer.serialize(((DocumentModelBridge) source).getDocumentReference()));
+        }
+    }
+}
@@ -22,6 +22,7 @@
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Predicate;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -29,6 +30,7 @@
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.eventstream.Event;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.notifications.NotificationException;
@@ -80,6 +82,26 @@
      */
     public Query generateQuery(DocumentReference user, boolean onlyUnread, Date endDate, List<String> blackList)
             throws NotificationException, QueryException
+    {
+        return generateQuery(user, onlyUnread, endDate, blackList, null);
+    }
+
+    /**
+     * Generate the query.
+     *
+     * @param user user interested in the notifications
+     * @param onlyUnread f only unread events should be returned
+     * @param endDate do not return events happened after this date
+     * @param blackList list of ids of blacklisted events to not return (to not get already known events again)
+     * @param lastEvent the last event returned by the previous query, only the events coming after it (in the order
+     *     of the query: by date, then by id) are returned, or null to start with the most recent event
+     * @return the query to execute
+     *
+     * @throws NotificationException if error happens
+     * @throws QueryException if error happens
+     */
+    public Query generateQuery(DocumentReference user, boolean onlyUnread, Date endDate, List<String> blackList,
+            Event lastEvent) throws NotificationException, QueryException
     {
         // TODO: create a role so extensions can inject their own complex query parts
         // TODO: create unit tests for all use-cases
@@ -105,6 +127,7 @@ public Query generateQuery(DocumentReference user, boolean onlyUnread, Date endD
 
         handleBlackList(blackList, hql);
         handleEndDate(endDate, hql);
+        handleLastEvent(lastEvent, hql);
         handleHiddenEvents(hql);
         handleEventStatus(onlyUnread, hql);
         handleWiki(user, hql);
@@ -120,12 +143,49 @@ public Query generateQuery(DocumentReference user, boolean onlyUnread, Date endD
         handleApplications(apps, query);
         handleBlackList(blackList, query);
         handleEndDate(endDate, query);
+        handleLastEvent(lastEvent, query);
         handleWiki(user, query);
 
         // Return the query
         return query;
     }
 
+    /**
+     * Generate a filter telling, without any query, if a new event could be part of the notifications of the user. It
+     * applies the same criteria as {@link #generateQuery(DocumentReference, boolean, Date, List)} except those which
+     * cannot exclude a new event (start date, status) or which depend on the current request (hidden events), so it
+     * can accept events that are not actually notified but never rejects an event that is.
+     *
+     * @param user user interested in the notifications
+     * @return the filter
+     * @throws NotificationException if error happens
+     */
+    public Predicate<Event> generateFilter(DocumentReference user) throws NotificationException
+    {
+        List<NotificationPreference> preferences = modelBridge.getNotificationsPreferences(user);
+
+        List<String> types = new ArrayList<>();
+        List<String> apps = new ArrayList<>();
+        for (NotificationPreference preference : preferences) {
+            if (preference.isNotificationEnabled()) {
+                if (StringUtils.isNotBlank(preference.getEventType())) {
+                    types.add(preference.getEventType());
+                }
+                if (StringUtils.isNotBlank(preference.getApplicationId())) {
+                    apps.add(preference.getApplicationId());
+                }
+            }
+        }
+
+        // If the user is a local user
+        String userWiki = user.getWikiReference().getName().equals(wikiDescriptorManager.getMainWikiId()) ? null
+            : user.getWikiReference().getName();
+
+        return event -> !user.equals(event.getUser())
+            && (types.contains(event.getType()) || apps.contains(event.getApplication()))
+            && (userWiki == null || event.getWiki() == null || userWiki.equals(event.getWiki().getName()));
+    }
+
     private void handleEndDate(Date endDate, Query query)
     {
         if (endDate != null) {
@@ -133,6 +193,14 @@ private void handleEndDate(Date endDate, Query query)
         }
     }
 
+    private void handleLastEvent(Event lastEvent, Query query)
+    {
+        if (lastEvent != null) {
+            query.bindValue("lastEventDate", lastEvent.getDate());
+            query.bindValue("lastEventId", lastEvent.getId());
+        }
+    }
+
     private void handleBlackList(List<String> blackList, Query query)
     {
         if (blackList != null && !blackList.isEmpty()) {
@@ -147,6 +215,16 @@ private void handleEndDate(Date endDate, StringBuilder hql)
         }
     }
 
+    private void handleLastEvent(Event lastEvent, StringBuilder hql)
+    {
+        // Keyset pagination: unlike a list of ids to exclude, it does not make the query more costly as the user
+        // browses older events
+        if (lastEvent != null) {
+            hql.append(" AND (event.date < :lastEventDate OR (event.date = :lastEventDate"
+                + " AND event.id < :lastEventId))");
+        }
+    }
+
     private void handleBlackList(List<String> blackList, StringBuilder hql)
     {
         if (blackList != null && !blackList.isEmpty()) {
@@ -164,7 +242,8 @@ private void handleWiki(DocumentReference user, StringBuilder hql)
 
     private void handleOrder(StringBuilder hql)
     {
-        hql.append(" order by event.date DESC");
+        // Sort by id too so that the order is stable for events having the same date
+        hql.append(" order by event.date DESC, event.id DESC");
     }
 
     private void handleEventStatus(boolean onlyUnread, StringBuilder hql)
@@ -0,0 +1,214 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.notifications.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.eventstream.Event;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.notifications.CompositeEvent;
+
+/**
+ * Index the events of a list of composite events by the properties compared by {@link SimilarityCalculator} so that
+ * a new event is only compared with the events that can be similar to it, instead of all the events.
+ * <p>
+ * An event concerning a document can only be similar to events concerning the same document, and an event which does
+ * not concern any document can only be similar to events having the same type.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class SimilarEventIndex
+{
+    /**
+     * An event, and the composite event containing it.
+     *
+     * @version $Id$
+     */
+    public static final class IndexedEvent
+    {
+        private final Event event;
+
+        private final CompositeEvent compositeEvent;
+
+        private IndexedEvent(Event event, CompositeEvent compositeEvent)
+        {
+            this.event = event;
+            this.compositeEvent = compositeEvent;
+        }
+
+        /**
+         * @return the event
+         */
+        public Event getEvent()
+        {
+            return this.event;
+        }
+
+        /**
+         * @return the composite event containing the event
+         */
+        public CompositeEvent getCompositeEvent()
+        {
+            return this.compositeEvent;
+        }
+    }
+
+    private final List<CompositeEvent> compositeEvents;
+
+    private final Map<CompositeEvent, Integer> positions = new IdentityHashMap<>();
+
+    private final Map<DocumentReference, List<IndexedEvent>> eventsByDocument = new HashMap<>();
+
+    private final Map<String, List<IndexedEvent>> eventsByType = new HashMap<>();
+
+    /**
+     * @param compositeEvents the list of composite events to index, new composite events have to be added with
+     *     {@link #addCompositeEvent(CompositeEvent)}
+     */
+    public SimilarEventIndex(List<CompositeEvent> compositeEvents)
+    {
+        this.compositeEvents = compositeEvents;
+
+        for (CompositeEvent compositeEvent : compositeEvents) {
+            index(compositeEvent);
+        }
+    }
+
+    private void index(CompositeEvent compositeEvent)
+    {
+        this.positions.put(compositeEvent, this.positions.size());
+
+        for (Event event : compositeEvent.getEvents()) {
+            add(event, compositeEvent);
+        }
+    }
+
+    /**
+     * Add a new composite event at the end of the list.
+     *
+     * @param compositeEvent the composite event to add
+     */
+    public void addCompositeEvent(CompositeEvent compositeEvent)
+    {
+        this.compositeEvents.add(compositeEvent);
+        index(compositeEvent);
+    }
+
+    /**
+     * Index an event which has been added to a composite event.
+     *
+     * @param event the added event
+     * @param compositeEvent the composite event in which the event has been added
+     */
+    public void add(Event event, CompositeEvent compositeEvent)
+    {
+        IndexedEvent indexedEvent = new IndexedEvent(event, compositeEvent);
+
+        if (event.getDocument() != null) {
+            this.eventsByDocument.computeIfAbsent(event.getDocument(), key -> new ArrayList<>()).add(indexedEvent);
+        }
+        if (event.getType() != null) {
+            this.eventsByType.computeIfAbsent(event.getType(), key -> new ArrayList<>()).add(indexedEvent);
+        }
+    }
+
+    /**
+     * Remove an event which has been removed from a composite event.
+     *
+     * @param event the removed event
+     * @param compositeEvent the composite event from which the event has been removed
+     */
+    public void remove(Event event, CompositeEvent compositeEvent)
+    {
+        if (event.getDocument() != null) {
+            remove(event, compositeEvent, this.eventsByDocument.get(event.getDocument()));
+        }
+        if (event.getType() != null) {
+            remove(event, compositeEvent, this.eventsByType.get(event.getType()));
+        }
+    }
+
+    private void remove(Event event, CompositeEvent compositeEvent, List<IndexedEvent> indexedEvents)
+    {
+        if (indexedEvents != null) {
+            Iterator<IndexedEvent> iterator = indexedEvents.iterator();
+            while (iterator.hasNext()) {
+                IndexedEvent indexedEvent = iterator.next();
+                if (indexedEvent.event == event && indexedEvent.compositeEvent == compositeEvent) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param event a new event
+     * @return the indexed events which can be similar to the given event, in any order
+     */
+    public List<IndexedEvent> getCandidates(Event event)
+    {
+        List<IndexedEvent> candidates;
+        if (event.getDocument() != null) {
+            candidates = this.eventsByDocument.get(event.getDocument());
+        } else {
+            candidates = event.getType() != null ? this.eventsByType.get(event.getType()) : null;
+        }
+
+        return candidates != null ? candidates : Collections.emptyList();
+    }
+
+    /**
+     * @param indexedEvent1 an indexed event
+     * @param indexedEvent2 an other indexed event
+     * @return true if the first event comes before the second one when iterating over the events of the composite
+     *     events, in the order of the list
+     */
+    public boolean isBefore(IndexedEvent indexedEvent1, IndexedEvent indexedEvent2)
+    {
+        int position1 = this.positions.get(indexedEvent1.compositeEvent);
+        int position2 = this.positions.get(indexedEvent2.compositeEvent);
+
+        if (position1 != position2) {
+            return position1 < position2;
+        }
+
+        return indexOf(indexedEvent1) < indexOf(indexedEvent2);
+    }
+
+    private int indexOf(IndexedEvent indexedEvent)
+    {
+        List<Event> events = indexedEvent.compositeEvent.getEvents();
+        for (int i = 0; i < events.size(); ++i) {
+            if (events.get(i) == indexedEvent.event) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -19,9 +19,11 @@
  */
 package org.xwiki.notifications.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -29,8 +31,10 @@
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.eventstream.Event;
 import org.xwiki.eventstream.EventStream;
+import org.xwiki.eventstream.internal.DefaultEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.notifications.CompositeEvent;
 import org.xwiki.notifications.NotificationException;
 import org.xwiki.notifications.NotificationPreference;
@@ -45,10 +49,13 @@
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
@@ -68,6 +75,8 @@
     private DocumentReferenceResolver<String> documentReferenceResolver;
     private ModelBridge modelBridge;
     private AuthorizationManager authorizationManager;
+    private EventCountCache eventCountCache;
+    private EntityReferenceSerializer<String> serializer;
 
     private DocumentReference userReference = new DocumentReference("xwiki", "XWiki", "UserA");
     private Query query;
@@ -82,16 +91,22 @@ public void setUp() throws Exception
         documentReferenceResolver = mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
         modelBridge = mocker.getInstance(ModelBridge.class);
         authorizationManager = mocker.getInstance(AuthorizationManager.class);
+        eventCountCache = mocker.getInstance(EventCountCache.class);
+        serializer = mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
         startDate = new Date(10);
 
         when(documentReferenceResolver.resolve("xwiki:XWiki.UserA")).thenReturn(userReference);
         query = mock(Query.class);
-        when(queryGenerator.generateQuery(any(DocumentReference.class), anyBoolean(), nullable(Date.class), nullable(List.class)))
-                .thenReturn(query);
+        when(queryGenerator.generateQuery(any(DocumentReference.class), anyBoolean(), nullable(Date.class),
+                nullable(List.class), nullable(Event.class))).thenReturn(query);
 
 
         when(modelBridge.getUserStartDate(userReference)).thenReturn(startDate);
 
+        when(serializer.serialize(userReference)).thenReturn("xwiki:XWiki.UserA");
+        when(eventCountCache.getCount(eq("xwiki:XWiki.UserA"), anyBoolean(), anyInt(), any(), any()))
+                .thenAnswer(invocation -> invocation.<EventCountCache.CountLoader>getArgument(3).load());
+
         NotificationPreference pref1 = new NotificationPreference("create", null, true);
         when(modelBridge.getNotificationsPreferences(userReference)).thenReturn(Arrays.asList(pref1));
     }
@@ -135,6 +150,31 @@ public void getEventsWith2Queries() throws Exception
         assertEquals(2, results.size());
         assertEquals(event1, results.get(0).getEvents().get(0));
         assertEquals(event5, results.get(1).getEvents().get(0));
+        // The second query starts after the last event of the first batch
+        verify(queryGenerator).generateQuery(eq(userReference), eq(true), isNull(), any(List.class), eq(event4));
+        // The rights are checked only once per document
+        verify(authorizationManager, times(1)).hasAccess(Right.VIEW, userReference, doc2);
+    }
+
+    @Test
+    public void getEventsStopsAfterMaxBatches() throws Exception
+    {
+        // Mocks
+        Event event = mock(Event.class);
+        DocumentReference doc = new DocumentReference("xwiki", "PrivateSpace", "WebHome");
+        when(event.getDocument()).thenReturn(doc);
+        when(authorizationManager.hasAccess(Right.VIEW, userReference, doc)).thenReturn(false);
+
+        // The user can't see any event and there are always more of them
+        when(eventStream.searchEvents(query)).thenReturn(Arrays.asList(event, event, event, event));
+
+        // Test
+        List<CompositeEvent> results
+                = mocker.getComponentUnderTest().getEvents("xwiki:XWiki.UserA", true, 2);
+
+        // Verify
+        assertEquals(0, results.size());
+        verify(eventStream, times(10)).searchEvents(query);
     }
 
     @Test
@@ -156,7 +196,8 @@ public void getEventsWhenException() throws Exception
     {
         // Mocks
         NotificationException exception = new NotificationException("Error");
-        when(queryGenerator.generateQuery(eq(userReference), eq(true), isNull(), any(List.class))).thenThrow(exception);
+        when(queryGenerator.generateQuery(eq(userReference), eq(true), isNull(), any(List.class), isNull()))
+                .thenThrow(exception);
 
         // Test
         NotificationException caughtException = null;
@@ -190,6 +231,21 @@ public void getEventsCount() throws Exception
         // Verify
         assertEquals(5, result);
         verifyZeroInteractions(event3);
+        verify(eventCountCache).getCount(eq("xwiki:XWiki.UserA"), eq(true), eq(5), any(), any());
+    }
+
+    @Test
+    public void getEventsCountWhenCached() throws Exception
+    {
+        // Mocks
+        when(eventCountCache.getCount(eq("xwiki:XWiki.UserA"), eq(true), eq(21), any(), any())).thenReturn(3L);
+
+        // Test
+        long result = mocker.getComponentUnderTest().getEventsCount("xwiki:XWiki.UserA", true, 21);
+
+        // Verify
+        assertEquals(3, result);
+        verifyZeroInteractions(eventStream);
     }
 
     @Test
@@ -538,4 +594,111 @@ public void getEvents1Update2Events() throws Exception
         assertTrue(results.get(0).getEvents().contains(event2));
         assertTrue(results.get(0).getEvents().contains(event3));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getEventsGroupsLikeComparingAllEvents() throws Exception
+    {
+        // Mocks
+        Random random = new Random(42);
+        List<String> types = Arrays.asList("create", "update", "addComment", "addAttachment", "annotation");
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            DefaultEvent event = new DefaultEvent();
+            event.setId("event" + i);
+            if (random.nextInt(10) > 0) {
+                event.setDocument(new DocumentReference("xwiki", "Space", "Page" + random.nextInt(30)));
+            }
+            event.setType(types.get(random.nextInt(types.size())));
+            if (random.nextBoolean()) {
+                event.setGroupId("g" + random.nextInt(300));
+            }
+            events.add(event);
+        }
+
+        when(authorizationManager.hasAccess(eq(Right.VIEW), eq(userReference), any(DocumentReference.class)))
+                .thenReturn(true);
+        when(eventStream.searchEvents(query)).thenReturn(events);
+
+        // Test
+        List<CompositeEvent> results
+                = mocker.getComponentUnderTest().getEvents("xwiki:XWiki.UserA", true, events.size());
+
+        // Verify
+        List<CompositeEvent> expected = new ArrayList<>();
+        for (Event event : events) {
+            recordEventComparingAllEvents(expected, event);
+        }
+        assertEquals(expected.size(), results.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getEvents(), results.get(i).getEvents());
+        }
+    }
+
+    /**
+     * The grouping algorithm comparing a new event with all the events already grouped.
+     */
+    private void recordEventComparingAllEvents(List<CompositeEvent> results, Event event) throws Exception
+    {
+        BestSimilarity best = getBestSimilarityComparingAllEvents(results, event);
+        int bestValue = best.value;
+        CompositeEvent bestCompositeEvent = best.compositeEvent;
+        Event bestEvent = best.event;
+
+        if (bestCompositeEvent != null) {
+            if (bestValue > bestCompositeEvent.getSimilarityBetweenEvents()
+                    && bestCompositeEvent.getEvents().size() > 1) {
+                bestCompositeEvent.remove(bestEvent);
+                CompositeEvent secondCompositeEvent =
+                        getBestSimilarityComparingAllEvents(results, event).compositeEvent;
+                if (secondCompositeEvent != null && isCompatible(secondCompositeEvent, event)) {
+                    secondCompositeEvent.add(bestEvent, secondCompositeEvent.getSimilarityBetweenEvents());
+                    secondCompositeEvent.add(event, secondCompositeEvent.getSimilarityBetweenEvents());
+                } else {
+                    CompositeEvent newCompositeEvent = new CompositeEvent(event);
+                    newCompositeEvent.add(bestEvent, bestValue);
+                    results.add(newCompositeEvent);
+                }
+                return;
+            } else if (bestValue >= bestCompositeEvent.getSimilarityBetweenEvents()) {
+                bestCompositeEvent.add(event, bestValue);
+                return;
+            } else if (isCompatible(bestCompositeEvent, event)) {
+                bestCompositeEvent.add(event, bestCompositeEvent.getSimilarityBetweenEvents());
+                return;
+            }
+        }
+        results.add(new CompositeEvent(event));
+    }
+
+    private boolean isCompatible(CompositeEvent compositeEvent, Event event)
+    {
+        return compositeEvent.getSimilarityBetweenEvents() >= SimilarityCalculator.SAME_GROUP_ID
+                && compositeEvent.getType().equals(event.getType());
+    }
+
+    private BestSimilarity getBestSimilarityComparingAllEvents(List<CompositeEvent> results, Event event)
+            throws Exception
+    {
+        SimilarityCalculator similarityCalculator = mocker.getInstance(SimilarityCalculator.class);
+
+        BestSimilarity best = new BestSimilarity();
+        for (CompositeEvent compositeEvent : results) {
+            for (Event existingEvent : compositeEvent.getEvents()) {
+                int similarity = similarityCalculator.computeSimilarity(event, existingEvent);
+                if (similarity > best.value) {
+                    best.value = similarity;
+                    best.compositeEvent = compositeEvent;
+                    best.event = existingEvent;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static class BestSimilarity
+    {
+        private int value;
+        private CompositeEvent compositeEvent;
+        private Event event;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.notifications.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.eventstream.Event;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @version $Id$
+ */
+public class EventCountCacheTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<EventCountCache> mocker =
+            new MockitoComponentMockingRule<>(EventCountCache.class);
+
+    private Map<String, Object> cacheContent = new HashMap<>();
+
+    private int loads;
+
+    private int filterLoads;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(invocation -> cacheContent.get(invocation.getArgument(0)));
+        doAnswer(invocation -> cacheContent.put(invocation.getArgument(0), invocation.getArgument(1))).when(cache)
+                .set(anyString(), any());
+        doAnswer(invocation -> cacheContent.remove(invocation.getArgument(0))).when(cache).remove(anyString());
+
+        CacheManager cacheManager = mocker.getInstance(CacheManager.class);
+        when(cacheManager.createNewCache(any(CacheConfiguration.class))).thenReturn(cache);
+    }
+
+    private long getCount(long value, int maxCount) throws Exception
+    {
+        return mocker.getComponentUnderTest().getCount("xwiki:XWiki.UserA", true, maxCount, () -> {
+            loads++;
+            return value;
+        }, () -> {
+            filterLoads++;
+            return event -> "create".equals(event.getType());
+        });
+    }
+
+    private void addEvent(String type) throws Exception
+    {
+        Event event = mock(Event.class);
+        when(event.getType()).thenReturn(type);
+        mocker.getComponentUnderTest().onEventAdded(event);
+    }
+
+    @Test
+    public void getCountIsCached() throws Exception
+    {
+        assertEquals(2, getCount(2, 21));
+        assertEquals(2, getCount(3, 21));
+        assertEquals(1, loads);
+
+        // Other parameters
+        assertEquals(5, getCount(5, 5));
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void invalidate() throws Exception
+    {
+        assertEquals(2, getCount(2, 21));
+
+        mocker.getComponentUnderTest().invalidate("xwiki:XWiki.UserA");
+
+        assertEquals(1, getCount(1, 21));
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void onEventAdded() throws Exception
+    {
+        assertEquals(2, getCount(2, 21));
+        assertEquals(5, getCount(5, 5));
+
+        addEvent("create");
+
+        // The count which was not saturated is computed again
+        assertEquals(3, getCount(3, 21));
+        // But not the saturated one
+        assertEquals(5, getCount(4, 5));
+        assertEquals(3, loads);
+    }
+
+    @Test
+    public void onEventAddedForOtherUsers() throws Exception
+    {
+        assertEquals(2, getCount(2, 21));
+
+        addEvent("update");
+        addEvent("delete");
+
+        // None of the new events match the filter of the user
+        assertEquals(2, getCount(3, 21));
+        assertEquals(1, loads);
+
+        addEvent("update");
+
+        // Only the events stored since the last check are filtered
+        assertEquals(2, getCount(3, 21));
+        assertEquals(1, loads);
+        assertEquals(1, filterLoads);
+
+        addEvent("create");
+
+        assertEquals(3, getCount(3, 21));
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void onEventAddedWhenTooManyEvents() throws Exception
+    {
+        assertEquals(2, getCount(2, 21));
+
+        for (int i = 0; i < 1001; i++) {
+            addEvent("update");
+        }
+
+        // The events are not all remembered anymore so the count is computed again
+        assertEquals(3, getCount(3, 21));
+        assertEquals(2, loads);
+    }
+}
@@ -22,19 +22,24 @@
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.function.Predicate;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.eventstream.Event;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
 import org.xwiki.notifications.NotificationPreference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.wiki.descriptor.WikiDescriptorManager;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
@@ -98,7 +103,7 @@ public void generateQuery() throws Exception
                         " AND event.hidden <> true AND " +
                         "(event not in (select status.activityEvent from ActivityEventStatusImpl status " +
                         "where status.activityEvent = event and status.entityId = :user and status.read = true)) " +
-                        "order by event.date DESC", Query.HQL);
+                        "order by event.date DESC, event.id DESC", Query.HQL);
         verify(query).bindValue("user", "xwiki:XWiki.UserA");
         verify(query).bindValue(eq("types"), eq(Arrays.asList("create")));
         verify(query).bindValue("startDate", startDate);
@@ -121,7 +126,7 @@ public void generateQueryWhenHiddenDocsAreEnabled() throws Exception
                         " AND " +
                         "(event not in (select status.activityEvent from ActivityEventStatusImpl status " +
                         "where status.activityEvent = event and status.entityId = :user and status.read = true)) " +
-                        "order by event.date DESC", Query.HQL);
+                        "order by event.date DESC, event.id DESC", Query.HQL);
         verify(query).bindValue("user", "xwiki:XWiki.UserA");
         verify(query).bindValue(eq("types"), eq(Arrays.asList("create")));
         verify(query).bindValue("startDate", startDate);
@@ -139,7 +144,7 @@ public void generateQueryWithNotOnlyUnread() throws Exception
         verify(queryManager).createQuery(
                 "where event.date >= :startDate AND event.user <> :user AND (event.type IN (:types))" +
                         " AND event.hidden <> true " +
-                        "order by event.date DESC", Query.HQL);
+                        "order by event.date DESC, event.id DESC", Query.HQL);
         verify(query).bindValue("user", "xwiki:XWiki.UserA");
         verify(query).bindValue(eq("types"), eq(Arrays.asList("create")));
         verify(query).bindValue("startDate", startDate);
@@ -161,7 +166,7 @@ public void generateQueryWithUntilDate() throws Exception
                         " AND event.date <= :endDate AND event.hidden <> true AND " +
                         "(event not in (select status.activityEvent from ActivityEventStatusImpl status " +
                         "where status.activityEvent = event and status.entityId = :user and status.read = true)) " +
-                        "order by event.date DESC", Query.HQL);
+                        "order by event.date DESC, event.id DESC", Query.HQL);
         verify(query).bindValue("user", "xwiki:XWiki.UserA");
         verify(query).bindValue(eq("types"), eq(Arrays.asList("create")));
         verify(query).bindValue("startDate", startDate);
@@ -184,7 +189,7 @@ public void generateQueryWithUntilDateAndBlackList() throws Exception
                         " AND event.id NOT IN (:blackList) AND event.date <= :endDate AND event.hidden <> true AND " +
                         "(event not in (select status.activityEvent from ActivityEventStatusImpl status " +
                         "where status.activityEvent = event and status.entityId = :user and status.read = true)) " +
-                        "order by event.date DESC", Query.HQL);
+                        "order by event.date DESC, event.id DESC", Query.HQL);
         verify(query).bindValue("user", "xwiki:XWiki.UserA");
         verify(query).bindValue(eq("types"), eq(Arrays.asList("create")));
         verify(query).bindValue("startDate", startDate);
@@ -192,6 +197,31 @@ public void generateQueryWithUntilDateAndBlackList() throws Exception
         verify(query).bindValue("blackList", Arrays.asList("event1", "event2"));
     }
 
+    @Test
+    public void generateQueryWithLastEvent() throws Exception
+    {
+        Date lastEventDate = new Date();
+        Event lastEvent = mock(Event.class);
+        when(lastEvent.getDate()).thenReturn(lastEventDate);
+        when(lastEvent.getId()).thenReturn("event1");
+
+        // Test
+        mocker.getComponentUnderTest().generateQuery(
+                new DocumentReference("xwiki", "XWiki", "UserA"),
+                true, null, null, lastEvent);
+
+        // Verify
+        verify(queryManager).createQuery(
+                "where event.date >= :startDate AND event.user <> :user AND (event.type IN (:types))" +
+                        " AND (event.date < :lastEventDate OR (event.date = :lastEventDate" +
+                        " AND event.id < :lastEventId)) AND event.hidden <> true AND " +
+                        "(event not in (select status.activityEvent from ActivityEventStatusImpl status " +
+                        "where status.activityEvent = event and status.entityId = :user and status.read = true)) " +
+                        "order by event.date DESC, event.id DESC", Query.HQL);
+        verify(query).bindValue("lastEventDate", lastEventDate);
+        verify(query).bindValue("lastEventId", "event1");
+    }
+
     @Test
     public void generateQueryWithLocalUser() throws Exception
     {
@@ -208,11 +238,58 @@ public void generateQueryWithLocalUser() throws Exception
                         "(event not in (select status.activityEvent from ActivityEventStatusImpl status " +
                         "where status.activityEvent = event and status.entityId = :user and status.read = true))" +
                         " AND event.wiki = :userWiki " +
-                        "order by event.date DESC", Query.HQL);
+                        "order by event.date DESC, event.id DESC", Query.HQL);
         verify(query).bindValue("user", "xwiki:XWiki.UserA");
         verify(query).bindValue(eq("types"), eq(Arrays.asList("create")));
         verify(query).bindValue("startDate", startDate);
         verify(query).bindValue("userWiki", "xwiki");
     }
 
+    private Event mockEvent(String type, DocumentReference user, String wiki)
+    {
+        Event event = mock(Event.class);
+        when(event.getType()).thenReturn(type);
+        when(event.getUser()).thenReturn(user);
+        when(event.getWiki()).thenReturn(new WikiReference(wiki));
+        return event;
+    }
+
+    @Test
+    public void generateFilter() throws Exception
+    {
+        DocumentReference userB = new DocumentReference("xwiki", "XWiki", "UserB");
+
+        // Test
+        Predicate<Event> filter = mocker.getComponentUnderTest().generateFilter(userReference);
+
+        // Verify
+        assertTrue(filter.test(mockEvent("create", userB, "xwiki")));
+        assertTrue(filter.test(mockEvent("create", userB, "subwiki")));
+        // Events of the user himself
+        assertFalse(filter.test(mockEvent("create", userReference, "xwiki")));
+        // Types not enabled in the preferences
+        assertFalse(filter.test(mockEvent("update", userB, "xwiki")));
+    }
+
+    @Test
+    public void generateFilterForLocalUser() throws Exception
+    {
+        DocumentReference localUser = new DocumentReference("subwiki", "XWiki", "UserC");
+        NotificationPreference pref = new NotificationPreference(null, "blog", true);
+        when(modelBridge.getNotificationsPreferences(localUser)).thenReturn(Arrays.asList(pref));
+
+        // Test
+        Predicate<Event> filter = mocker.getComponentUnderTest().generateFilter(localUser);
+
+        // Verify
+        Event blogEvent = mockEvent("create", userReference, "subwiki");
+        when(blogEvent.getApplication()).thenReturn("blog");
+        assertTrue(filter.test(blogEvent));
+        // Events of other applications
+        assertFalse(filter.test(mockEvent("create", userReference, "subwiki")));
+        // Events of other wikis
+        Event otherWikiEvent = mockEvent("create", userReference, "xwiki");
+        when(otherWikiEvent.getApplication()).thenReturn("blog");
+        assertFalse(filter.test(otherWikiEvent));
+    }
 }
@@ -37,6 +37,7 @@
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -1871,6 +1872,33 @@ public XWikiDocument getDocument(DocumentReference reference, XWikiContext conte
         return getDocument(doc, context);
     }
 
+    /**
+     * Load several documents at once, which is a lot faster than loading them one by one when they are not already
+     * cached.
+     *
+     * @param references the references of the documents, the locale of the reference indicates the translation to load
+     * @param context see {@link XWikiContext}
+     * @return the documents in the same order as the passed references (documents which don't exist are returned as
+     *         new documents)
+     * @throws XWikiException when failing to load the documents
+     * @since 9.4RC1
+     */
+    public List<XWikiDocument> getDocuments(Collection<DocumentReference> references, XWikiContext context)
+        throws XWikiException
+    {
+        List<XWikiDocument> documents = getStore().loadXWikiDocs(references, context);
+
+        // Make sure the documents which don't exist are in the same state as the ones returned by
+        // #getDocument(DocumentReference, XWikiContext)
+        for (XWikiDocument document : documents) {
+            if (document.isNew()) {
+                document.setContentDirty(true);
+            }
+        }
+
+        return documents;
+    }
+
     /**
      * @param fullname the reference of the document as String
      * @param context see {@link XWikiContext}
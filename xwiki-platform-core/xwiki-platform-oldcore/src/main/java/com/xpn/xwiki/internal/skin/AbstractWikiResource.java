@@ -19,6 +19,8 @@
  */
 package com.xpn.xwiki.internal.skin;
 
+import java.util.Date;
+
 import javax.inject.Provider;
 
 import org.xwiki.filter.input.InputSource;
@@ -69,6 +71,16 @@ protected XWikiDocument getDocument() throws XWikiException
         return xcontext.getWiki().getDocument(documentReference, xcontext);
     }
 
+    /**
+     * @return the date of the last modification of the document holding the resource
+     * @throws XWikiException when failing to load the document
+     * @since 9.4RC1
+     */
+    public Date getDocumentDate() throws XWikiException
+    {
+        return getDocument().getDate();
+    }
+
     @Override
     public I getInputSource() throws Exception
     {
@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size Bloom filter of document identifiers. Answers if a document identifier has possibly been added to the
+ * filter, or has certainly not been added. Adding and checking can be done concurrently without locking.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class DocumentBloomFilter
+{
+    private static final double LN2 = Math.log(2);
+
+    private final AtomicLongArray bits;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    private final long expectedInsertions;
+
+    /**
+     * @param expectedInsertions the number of identifiers expected to be added to the filter
+     * @param falsePositiveProbability the expected probability for {@link #mightContain(long)} to return {@code true}
+     *            for an identifier which was never added, once {@code expectedInsertions} identifiers have been added
+     */
+    public DocumentBloomFilter(long expectedInsertions, double falsePositiveProbability)
+    {
+        this.expectedInsertions = Math.max(1, expectedInsertions);
+
+        long optimalBitCount =
+            (long) (-this.expectedInsertions * Math.log(falsePositiveProbability) / (LN2 * LN2));
+        int arrayLength = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (optimalBitCount + 63) / 64));
+
+        this.bits = new AtomicLongArray(arrayLength);
+        this.bitCount = (long) arrayLength * 64;
+        this.hashCount =
+            Math.max(1, (int) Math.round((double) this.bitCount / this.expectedInsertions * LN2));
+    }
+
+    /**
+     * @return the number of identifiers the filter has been sized for
+     */
+    public long getExpectedInsertions()
+    {
+        return this.expectedInsertions;
+    }
+
+    /**
+     * @param id the document identifier to add
+     */
+    public void put(long id)
+    {
+        long hash1 = mix(id);
+        long hash2 = mix(hash1) | 1;
+
+        for (int i = 0; i < this.hashCount; ++i) {
+            setBit(Math.floorMod(hash1 + i * hash2, this.bitCount));
+        }
+    }
+
+    /**
+     * @param id the document identifier to check
+     * @return {@code false} if the identifier has certainly never been added to the filter, {@code true} if it might
+     *         have been
+     */
+    public boolean mightContain(long id)
+    {
+        long hash1 = mix(id);
+        long hash2 = mix(hash1) | 1;
+
+        for (int i = 0; i < this.hashCount; ++i) {
+            if (!getBit(Math.floorMod(hash1 + i * hash2, this.bitCount))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void setBit(long index)
+    {
+        int arrayIndex = (int) (index >>> 6);
+        long mask = 1L << index;
+
+        long current;
+        do {
+            current = this.bits.get(arrayIndex);
+            if ((current & mask) != 0) {
+                return;
+            }
+        } while (!this.bits.compareAndSet(arrayIndex, current, current | mask));
+    }
+
+    private boolean getBit(long index)
+    {
+        return (this.bits.get((int) (index >>> 6)) & (1L << index)) != 0;
+    }
+
+    /**
+     * Document identifiers are already hashes but not necessarily well distributed on all bits so we mix them (64 bits
+     * finalizer of MurmurHash3).
+     */
+    private static long mix(long value)
+    {
+        long hash = value;
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.management.JMXBeanRegistration;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.internal.XWikiCfgConfigurationSource;
+
+/**
+ * Keep, for each wiki, a {@link DocumentBloomFilter} of the identifiers of the documents stored in the database so
+ * that checking the existence of a document which does not exist does not require a database query.
+ * <p>
+ * Until the filter of a wiki has been built (see {@link DocumentExistenceFilterJob}) all documents of this wiki are
+ * considered as possibly existing. Since a Bloom filter does not support removal, deleted documents are still
+ * considered as possibly existing until the next rebuild.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Component(roles = DocumentExistenceFilter.class)
+@Singleton
+public class DocumentExistenceFilter implements DocumentExistenceFilterMBean, Initializable
+{
+    /**
+     * The name of the configuration property indicating if the filter is enabled.
+     */
+    public static final String CONFIGURATION_ENABLED = "xwiki.store.cache.existencefilter";
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    /**
+     * The number of documents which can be created after the build before the filter stop being accurate enough.
+     */
+    private static final long MIN_HEADROOM = 10000;
+
+    private static final int BATCH_SIZE = 10000;
+
+    @Inject
+    @Named(XWikiCfgConfigurationSource.ROLEHINT)
+    private ConfigurationSource configuration;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private JMXBeanRegistration jmxRegistration;
+
+    @Inject
+    private Logger logger;
+
+    private final ConcurrentMap<String, WikiFilter> filters = new ConcurrentHashMap<>();
+
+    private final AtomicLong negatives = new AtomicLong();
+
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    private Boolean enabled;
+
+    /**
+     * The filter of a wiki.
+     */
+    private static final class WikiFilter
+    {
+        /**
+         * The filter used to answer existence checks, null until the first build is finished.
+         */
+        private volatile DocumentBloomFilter current;
+
+        /**
+         * The filter currently being built, null when no build is in progress.
+         */
+        private DocumentBloomFilter building;
+
+        private long documentCount;
+
+        private long insertions;
+
+        private long deletions;
+
+        private synchronized boolean needsRebuild()
+        {
+            return this.current != null && this.building == null
+                && (this.documentCount + this.insertions > this.current.getExpectedInsertions()
+                    || this.deletions > this.current.getExpectedInsertions() / 10);
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        if (isEnabled()) {
+            try {
+                this.jmxRegistration.registerMBean(this, "type=Store,name=existencefilter");
+            } catch (Exception e) {
+                this.logger.warn("Failed to register the document existence filter statistics in JMX: {}",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    /**
+     * @return true if the filter is enabled in xwiki.cfg
+     */
+    public boolean isEnabled()
+    {
+        if (this.enabled == null) {
+            this.enabled = this.configuration.getProperty(CONFIGURATION_ENABLED, 0) == 1;
+        }
+
+        return this.enabled;
+    }
+
+    /**
+     * @param wiki the identifier of the wiki
+     * @param id the identifier of the document (see {@link com.xpn.xwiki.doc.XWikiDocument#getId()})
+     * @return {@code false} if the document certainly does not exist, {@code true} if it might exist or if the filter
+     *         of the wiki is not ready
+     */
+    public boolean mightExist(String wiki, long id)
+    {
+        WikiFilter wikiFilter = this.filters.get(wiki);
+        DocumentBloomFilter filter = wikiFilter != null ? wikiFilter.current : null;
+
+        if (filter == null || filter.mightContain(id)) {
+            return true;
+        }
+
+        this.negatives.incrementAndGet();
+
+        return false;
+    }
+
+    /**
+     * Indicate that a document for which {@link #mightExist(String, long)} returned {@code true} actually does not
+     * exist.
+     *
+     * @param wiki the identifier of the wiki
+     */
+    public void recordFalsePositive(String wiki)
+    {
+        WikiFilter wikiFilter = this.filters.get(wiki);
+
+        // Not a false positive of the filter if it was not ready
+        if (wikiFilter != null && wikiFilter.current != null) {
+            this.falsePositives.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param wiki the identifier of the wiki
+     * @param id the identifier of the document which has been saved
+     */
+    public void add(String wiki, long id)
+    {
+        WikiFilter wikiFilter = this.filters.get(wiki);
+
+        if (wikiFilter != null) {
+            synchronized (wikiFilter) {
+                // Saving an existing document again does not fill the filter any more
+                if (wikiFilter.current != null && !wikiFilter.current.mightContain(id)) {
+                    wikiFilter.current.put(id);
+                    ++wikiFilter.insertions;
+                }
+                // Make sure the document is not missed by the build in progress
+                if (wikiFilter.building != null) {
+                    wikiFilter.building.put(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param wiki the identifier of the wiki in which a document has been deleted
+     */
+    public void remove(String wiki)
+    {
+        WikiFilter wikiFilter = this.filters.get(wiki);
+
+        if (wikiFilter != null) {
+            synchronized (wikiFilter) {
+                ++wikiFilter.deletions;
+            }
+        }
+    }
+
+    /**
+     * @param wiki the identifier of the wiki
+     * @return true if so many documents have been created or deleted since the last build that the filter of the wiki
+     *         should be rebuilt
+     */
+    public boolean needsRebuild(String wiki)
+    {
+        WikiFilter wikiFilter = this.filters.get(wiki);
+
+        return wikiFilter != null && wikiFilter.needsRebuild();
+    }
+
+    /**
+     * Forget the filter of the passed wiki, all its documents are considered as possibly existing until the next
+     * build.
+     *
+     * @param wiki the identifier of the wiki
+     */
+    public void invalidate(String wiki)
+    {
+        this.filters.remove(wiki);
+    }
+
+    /**
+     * Build the filter of the passed wiki from the identifiers of the documents found in the database. The current
+     * filter, if any, is kept until the new one is ready.
+     *
+     * @param wiki the identifier of the wiki
+     * @throws QueryException when failing to get the documents identifiers from the database
+     */
+    public void rebuild(String wiki) throws QueryException
+    {
+        List<Long> counts = this.queryManager.createQuery("select count(doc.id) from XWikiDocument doc", Query.HQL)
+            .setWiki(wiki).execute();
+        long documentCount = counts.get(0);
+
+        WikiFilter wikiFilter = this.filters.computeIfAbsent(wiki, key -> new WikiFilter());
+        DocumentBloomFilter filter;
+        synchronized (wikiFilter) {
+            if (wikiFilter.building != null) {
+                // Already being built
+                return;
+            }
+
+            filter = new DocumentBloomFilter(documentCount + Math.max(MIN_HEADROOM, documentCount / 2),
+                FALSE_POSITIVE_PROBABILITY);
+            wikiFilter.building = filter;
+        }
+
+        try {
+            Query query = this.queryManager
+                .createQuery("select doc.id from XWikiDocument doc where doc.id > :lastId order by doc.id", Query.HQL)
+                .setWiki(wiki).setLimit(BATCH_SIZE);
+
+            long lastId = Long.MIN_VALUE;
+            List<Long> ids;
+            do {
+                ids = query.bindValue("lastId", lastId).execute();
+                for (Long id : ids) {
+                    filter.put(id);
+                }
+                if (!ids.isEmpty()) {
+                    lastId = ids.get(ids.size() - 1);
+                }
+            } while (ids.size() == BATCH_SIZE);
+
+            synchronized (wikiFilter) {
+                wikiFilter.current = filter;
+                wikiFilter.documentCount = documentCount;
+                wikiFilter.insertions = 0;
+                wikiFilter.deletions = 0;
+            }
+        } finally {
+            synchronized (wikiFilter) {
+                wikiFilter.building = null;
+            }
+        }
+    }
+
+    @Override
+    public long getNegativeCount()
+    {
+        return this.negatives.get();
+    }
+
+    @Override
+    public long getFalsePositiveCount()
+    {
+        return this.falsePositives.get();
+    }
+
+    @Override
+    public double getFalsePositiveRate()
+    {
+        long falsePositiveCount = getFalsePositiveCount();
+        long total = falsePositiveCount + getNegativeCount();
+
+        return total > 0 ? (double) falsePositiveCount / total : 0;
+    }
+
+    @Override
+    public int getReadyWikiCount()
+    {
+        int count = 0;
+        for (WikiFilter wikiFilter : this.filters.values()) {
+            if (wikiFilter.current != null) {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.InstantiationStrategy;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.Request;
+
+/**
+ * Build the {@link DocumentExistenceFilter} of a wiki.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Component
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+@Named(DocumentExistenceFilterJob.JOBTYPE)
+public class DocumentExistenceFilterJob
+    extends AbstractJob<DocumentExistenceFilterRequest, DefaultJobStatus<DocumentExistenceFilterRequest>>
+{
+    /**
+     * The id of the job.
+     */
+    public static final String JOBTYPE = "store.existencefilter";
+
+    @Inject
+    private DocumentExistenceFilter filter;
+
+    @Override
+    public String getType()
+    {
+        return JOBTYPE;
+    }
+
+    @Override
+    protected DocumentExistenceFilterRequest castRequest(Request request)
+    {
+        DocumentExistenceFilterRequest filterRequest;
+        if (request instanceof DocumentExistenceFilterRequest) {
+            filterRequest = (DocumentExistenceFilterRequest) request;
+        } else {
+            filterRequest = new DocumentExistenceFilterRequest(request);
+        }
+
+        return filterRequest;
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        String wikiId = getRequest().getWikiId();
+
+        this.logger.info("Start building the document existence filter of wiki [{}]", wikiId);
+
+        this.filter.rebuild(wikiId);
+
+        this.logger.info("Document existence filter of wiki [{}] ready", wikiId);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.bridge.event.WikiReadyEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.job.JobRequestContext;
+
+/**
+ * Keep the {@link DocumentExistenceFilter} up to date with the documents created (locally or on other cluster members)
+ * and build it when a wiki is ready.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Component
+@Named(DocumentExistenceFilterListener.NAME)
+@Singleton
+public class DocumentExistenceFilterListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "store.existencefilter";
+
+    @Inject
+    private DocumentExistenceFilter filter;
+
+    @Inject
+    private Provider<JobExecutor> jobExecutorProvider;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Default constructor.
+     */
+    public DocumentExistenceFilterListener()
+    {
+        super(NAME, new ApplicationReadyEvent(), new WikiReadyEvent(), new WikiDeletedEvent(),
+            new DocumentCreatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (!this.filter.isEnabled()) {
+            return;
+        }
+
+        if (event instanceof ApplicationReadyEvent) {
+            rebuild(this.xcontextProvider.get().getMainXWiki());
+        } else if (event instanceof WikiReadyEvent) {
+            rebuild(((WikiReadyEvent) event).getWikiId());
+        } else if (event instanceof WikiDeletedEvent) {
+            this.filter.invalidate(((WikiDeletedEvent) event).getWikiId());
+        } else {
+            XWikiDocument document = (XWikiDocument) source;
+            String wikiId = document.getDocumentReference().getWikiReference().getName();
+
+            if (event instanceof DocumentCreatedEvent) {
+                this.filter.add(wikiId, document.getId());
+            } else {
+                this.filter.remove(wikiId);
+            }
+
+            if (this.filter.needsRebuild(wikiId)) {
+                rebuild(wikiId);
+            }
+        }
+    }
+
+    private void rebuild(String wikiId)
+    {
+        DocumentExistenceFilterRequest request = new DocumentExistenceFilterRequest(wikiId);
+
+        JobRequestContext.set(request, this.xcontextProvider.get());
+
+        try {
+            this.jobExecutorProvider.get().execute(DocumentExistenceFilterJob.JOBTYPE, request);
+        } catch (JobException e) {
+            this.logger.warn("Failed to start building the document existence filter of wiki [{}]: {}", wikiId,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+/**
+ * Statistics of the {@link DocumentExistenceFilter} exposed through JMX.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public interface DocumentExistenceFilterMBean
+{
+    /**
+     * @return the number of checks for which the filter answered that the document certainly does not exist
+     */
+    long getNegativeCount();
+
+    /**
+     * @return the number of checks for which the filter answered that the document might exist while it actually did
+     *         not exist in the database
+     */
+    long getFalsePositiveCount();
+
+    /**
+     * @return the observed false positive rate, i.e. the proportion of non-existing documents which could not be
+     *         detected as such by the filter
+     */
+    double getFalsePositiveRate();
+
+    /**
+     * @return the number of wikis for which a filter is available
+     */
+    int getReadyWikiCount();
+}
@@ -0,0 +1,335 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+
+/**
+ * A document cache which evicts the least recently used documents when the total estimated memory weight of the cached
+ * documents goes above a configured number of bytes. The documents themselves are stored in a wrapped {@link Cache}
+ * (which is expected to have a large enough count based limit), this class only keeps track of their weight.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class WeightedDocumentCache implements Cache<XWikiDocument>, WeightedDocumentCacheMBean
+{
+    /**
+     * Approximate fixed cost of a document (fields, references, dates, etc.).
+     */
+    private static final long DOCUMENT_WEIGHT = 2048;
+
+    /**
+     * Approximate fixed cost of an object or an attachment.
+     */
+    private static final long ELEMENT_WEIGHT = 256;
+
+    /**
+     * Approximate fixed cost of an object property.
+     */
+    private static final long PROPERTY_WEIGHT = 96;
+
+    private final Cache<XWikiDocument> cache;
+
+    private final long maxWeight;
+
+    /**
+     * The weight of each cached document, in access order. Also used as the lock guarding both the weights and the
+     * modifications of the wrapped cache, so that they never get out of sync.
+     */
+    private final LinkedHashMap<String, Weight> weights = new LinkedHashMap<>(16, 0.75F, true);
+
+    private long totalWeight;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * The weight of a cached document.
+     */
+    private static class Weight
+    {
+        private final XWikiDocument document;
+
+        private final long weight;
+
+        Weight(XWikiDocument document, long weight)
+        {
+            this.document = document;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * @param cache the cache where to actually store the documents
+     * @param maxWeight the maximum estimated weight (in bytes) of the cached documents
+     */
+    public WeightedDocumentCache(Cache<XWikiDocument> cache, long maxWeight)
+    {
+        this.cache = cache;
+        this.maxWeight = maxWeight;
+
+        // Keep the weights up to date when the wrapped cache removes documents by itself
+        this.cache.addCacheEntryListener(new CacheEntryListener<XWikiDocument>()
+        {
+            @Override
+            public void cacheEntryAdded(CacheEntryEvent<XWikiDocument> event)
+            {
+                // Already taken care of in #set()
+            }
+
+            @Override
+            public void cacheEntryRemoved(CacheEntryEvent<XWikiDocument> event)
+            {
+                // The key might have been set again with another document since this one was removed
+                removeWeight(event.getEntry().getKey(), event.getEntry().getValue());
+            }
+
+            @Override
+            public void cacheEntryModified(CacheEntryEvent<XWikiDocument> event)
+            {
+                // Already taken care of in #set()
+            }
+        });
+    }
+
+    /**
+     * Estimate the memory taken by a document: its content, its objects and the metadata of its attachments.
+     *
+     * @param document the document
+     * @return the estimated weight of the document in bytes
+     */
+    public static long weigh(XWikiDocument document)
+    {
+        long weight = DOCUMENT_WEIGHT + weigh(document.getContent()) + weigh(document.getXClassXML())
+            + weigh(document.getTitle());
+
+        Map<DocumentReference, List<BaseObject>> xobjects = document.getXObjects();
+        if (xobjects != null) {
+            for (List<BaseObject> classObjects : xobjects.values()) {
+                for (BaseObject xobject : classObjects) {
+                    if (xobject != null) {
+                        weight += weigh(xobject);
+                    }
+                }
+            }
+        }
+
+        List<XWikiAttachment> attachments = document.getAttachmentList();
+        if (attachments != null) {
+            for (XWikiAttachment attachment : attachments) {
+                weight += ELEMENT_WEIGHT + weigh(attachment.getFilename()) + weigh(attachment.getComment());
+            }
+        }
+
+        return weight;
+    }
+
+    private static long weigh(BaseObject xobject)
+    {
+        long weight = ELEMENT_WEIGHT;
+
+        for (Object field : xobject.getFieldList()) {
+            BaseProperty<?> property = (BaseProperty<?>) field;
+            weight += PROPERTY_WEIGHT + weigh(property.getName());
+
+            Object value = property.getValue();
+            if (value instanceof String) {
+                weight += weigh((String) value);
+            } else if (value instanceof Collection) {
+                for (Object item : (Collection<?>) value) {
+                    weight += PROPERTY_WEIGHT / 2 + (item instanceof String ? weigh((String) item) : 0);
+                }
+            }
+        }
+
+        return weight;
+    }
+
+    private static long weigh(String value)
+    {
+        // Java strings use 2 bytes per character
+        return value != null ? value.length() * 2L : 0;
+    }
+
+    @Override
+    public void set(String key, XWikiDocument value)
+    {
+        long weight = weigh(value);
+
+        synchronized (this.weights) {
+            Weight previousWeight = this.weights.put(key, new Weight(value, weight));
+            if (previousWeight != null) {
+                this.totalWeight -= previousWeight.weight;
+            }
+            this.totalWeight += weight;
+
+            this.cache.set(key, value);
+
+            // Evict the least recently used documents (but never the one we just added)
+            List<String> evictedKeys = new ArrayList<>();
+            Iterator<Map.Entry<String, Weight>> iterator = this.weights.entrySet().iterator();
+            while (this.totalWeight > this.maxWeight && iterator.hasNext()) {
+                Map.Entry<String, Weight> entry = iterator.next();
+                if (!entry.getKey().equals(key)) {
+                    iterator.remove();
+                    this.totalWeight -= entry.getValue().weight;
+                    evictedKeys.add(entry.getKey());
+                }
+            }
+
+            for (String evictedKey : evictedKeys) {
+                this.cache.remove(evictedKey);
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public XWikiDocument get(String key)
+    {
+        XWikiDocument document = this.cache.get(key);
+
+        if (document != null) {
+            this.hits.incrementAndGet();
+
+            // Update the access order
+            synchronized (this.weights) {
+                this.weights.get(key);
+            }
+        } else {
+            this.misses.incrementAndGet();
+        }
+
+        return document;
+    }
+
+    @Override
+    public void remove(String key)
+    {
+        synchronized (this.weights) {
+            this.cache.remove(key);
+
+            Weight weight = this.weights.remove(key);
+            if (weight != null) {
+                this.totalWeight -= weight.weight;
+            }
+        }
+    }
+
+    @Override
+    public void removeAll()
+    {
+        synchronized (this.weights) {
+            this.cache.removeAll();
+
+            this.weights.clear();
+            this.totalWeight = 0;
+        }
+    }
+
+    private void removeWeight(String key, XWikiDocument document)
+    {
+        synchronized (this.weights) {
+            Weight weight = this.weights.get(key);
+            if (weight != null && weight.document == document) {
+                this.weights.remove(key);
+                this.totalWeight -= weight.weight;
+            }
+        }
+    }
+
+    @Override
+    public void addCacheEntryListener(CacheEntryListener<XWikiDocument> listener)
+    {
+        this.cache.addCacheEntryListener(listener);
+    }
+
+    @Override
+    public void removeCacheEntryListener(CacheEntryListener<XWikiDocument> listener)
+    {
+        this.cache.removeCacheEntryListener(listener);
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.cache.dispose();
+    }
+
+    @Override
+    public long getMaxWeight()
+    {
+        return this.maxWeight;
+    }
+
+    @Override
+    public long getTotalWeight()
+    {
+        synchronized (this.weights) {
+            return this.totalWeight;
+        }
+    }
+
+    @Override
+    public int getSize()
+    {
+        synchronized (this.weights) {
+            return this.weights.size();
+        }
+    }
+
+    @Override
+    public long getHitCount()
+    {
+        return this.hits.get();
+    }
+
+    @Override
+    public long getMissCount()
+    {
+        return this.misses.get();
+    }
+
+    @Override
+    public long getEvictionCount()
+    {
+        return this.evictions.get();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+/**
+ * JMX view of the document cache when it's limited by an estimated memory weight instead of a number of documents.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public interface WeightedDocumentCacheMBean
+{
+    /**
+     * @return the maximum estimated weight (in bytes) of the documents kept in the cache
+     */
+    long getMaxWeight();
+
+    /**
+     * @return the current estimated weight (in bytes) of the documents kept in the cache
+     */
+    long getTotalWeight();
+
+    /**
+     * @return the number of documents currently in the cache
+     */
+    int getSize();
+
+    /**
+     * @return the number of times a requested document was found in the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of times a requested document was not found in the cache
+     */
+    long getMissCount();
+
+    /**
+     * @return the number of documents removed from the cache to stay under the maximum weight
+     */
+    long getEvictionCount();
+}
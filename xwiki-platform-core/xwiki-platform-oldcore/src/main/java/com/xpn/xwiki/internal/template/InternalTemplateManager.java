@@ -19,6 +19,7 @@
  */
 package com.xpn.xwiki.internal.template;
 
+import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -33,6 +34,7 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,6 +48,8 @@
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.environment.Environment;
 import org.xwiki.filter.input.InputSource;
@@ -55,6 +59,9 @@
 import org.xwiki.job.event.status.JobProgressManager;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.properties.BeanManager;
 import org.xwiki.properties.ConverterManager;
 import org.xwiki.properties.PropertyException;
@@ -81,10 +88,14 @@
 import org.xwiki.skin.Skin;
 import org.xwiki.template.Template;
 import org.xwiki.template.TemplateContent;
+import org.xwiki.template.event.TemplateDeletedEvent;
+import org.xwiki.template.event.TemplateEvent;
+import org.xwiki.template.event.TemplateUpdatedEvent;
 import org.xwiki.velocity.VelocityManager;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.internal.skin.AbstractEnvironmentResource;
+import com.xpn.xwiki.internal.skin.AbstractWikiResource;
 import com.xpn.xwiki.internal.skin.InternalSkinManager;
 import com.xpn.xwiki.internal.skin.WikiResource;
 import com.xpn.xwiki.user.api.XWikiRightService;
@@ -97,7 +108,7 @@
  */
 @Component(roles = InternalTemplateManager.class)
 @Singleton
-public class InternalTemplateManager
+public class InternalTemplateManager implements Initializable
 {
     private static final Pattern PROPERTY_LINE = Pattern.compile("^##!(.+)=(.*)$\r?\n?", Pattern.MULTILINE);
 
@@ -160,10 +171,32 @@
     @Inject
     private JobProgressManager progress;
 
+    @Inject
+    private ObservationManager observation;
+
     @Inject
     private Logger logger;
 
-    private static abstract class AbtractTemplate<T extends TemplateContent, R extends Resource<?>> implements Template
+    /**
+     * The contents of the templates already read and parsed, shared between all the {@link Template} instances
+     * created for the same resource.
+     */
+    private final Map<String, CachedTemplateContent> contentCache = new ConcurrentHashMap<>();
+
+    private static class CachedTemplateContent
+    {
+        private final long lastModified;
+
+        private final TemplateContent content;
+
+        CachedTemplateContent(long lastModified, TemplateContent content)
+        {
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+    }
+
+    private abstract class AbtractTemplate<T extends TemplateContent, R extends Resource<?>> implements Template
     {
         protected R resource;
 
@@ -187,9 +220,22 @@ public String getPath()
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public TemplateContent getContent() throws Exception
         {
             if (this.content == null) {
+                // Reuse the content parsed for another instance of the same template if it did not change since
+                String id = getId();
+                long lastModified = id != null ? getLastModified(this.resource) : -1;
+                if (lastModified >= 0) {
+                    CachedTemplateContent cachedContent = contentCache.get(id);
+                    if (cachedContent != null && cachedContent.lastModified == lastModified) {
+                        this.content = (T) cachedContent.content;
+
+                        return this.content;
+                    }
+                }
+
                 // TODO: work with streams instead of forcing String
                 String strinContent;
 
@@ -209,6 +255,10 @@ public TemplateContent getContent() throws Exception
                 }
 
                 this.content = getContentInternal(strinContent);
+
+                if (lastModified >= 0) {
+                    contentCache.put(id, new CachedTemplateContent(lastModified, this.content));
+                }
             }
 
             return this.content;
@@ -272,6 +322,11 @@ private class DefaultTemplateContent implements RawProperties, TemplateContent
 
         protected Map<String, Object> properties = new HashMap<>();
 
+        /**
+         * The result of the parsing of the content when a source syntax is provided.
+         */
+        protected volatile XDOM xdom;
+
         DefaultTemplateContent(String content)
         {
             this.content = content;
@@ -428,6 +483,20 @@ public void setPrivileged(boolean privileged)
         }
     }
 
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observation.addListener(new AbstractEventListener("templates.content", new TemplateUpdatedEvent(),
+            new TemplateDeletedEvent())
+        {
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                InternalTemplateManager.this.contentCache.remove(((TemplateEvent) event).getId());
+            }
+        });
+    }
+
     private String getResourcePath(String suffixPath, String templateName, boolean testExist)
     {
         String templatePath = suffixPath + templateName;
@@ -458,6 +527,33 @@ private void renderError(Throwable throwable, Writer writer)
         render(xdom, writer);
     }
 
+    private long getLastModified(Resource<?> resource)
+    {
+        try {
+            if (resource instanceof AbstractWikiResource) {
+                return ((AbstractWikiResource<?, ?>) resource).getDocumentDate().getTime();
+            } else if (resource instanceof AbstractEnvironmentResource) {
+                URL url = this.environment.getResource(resource.getPath());
+                if (url != null) {
+                    if (url.getProtocol().equals("file")) {
+                        return new File(url.toURI()).lastModified();
+                    } else if (url.getProtocol().equals("jar")) {
+                        // A packed web application cannot change without being restarted, don't open the jar to check
+                        return 0;
+                    }
+                }
+            } else if (resource instanceof ClassloaderResource) {
+                // The id of the resource changes with the jar containing it
+                return 0;
+            }
+        } catch (Exception e) {
+            this.logger.debug("Failed to get the last modification date of template [{}]", resource.getId(), e);
+        }
+
+        // Unknown, don't reuse the content
+        return -1;
+    }
+
     private XDOM generateError(Throwable throwable)
     {
         List<Block> errorBlocks = new ArrayList<Block>();
@@ -553,7 +649,12 @@ private XDOM getXDOM(Template template, DefaultTemplateContent content) throws E
         XDOM xdom;
 
         if (content.sourceSyntax != null) {
-            xdom = this.parser.parse(content.content, content.sourceSyntax);
+            if (content.xdom == null) {
+                content.xdom = this.parser.parse(content.content, content.sourceSyntax);
+            }
+
+            // The XDOM is modified by the transformations
+            xdom = content.xdom.clone();
         } else {
             String result = evaluateContent(template, content);
             xdom = new XDOM(Arrays.asList(new RawBlock(result, content.rawSyntax)));
@@ -43,6 +43,7 @@
 import com.xpn.xwiki.criteria.impl.Scope;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.stats.api.XWikiStatsService;
+import com.xpn.xwiki.stats.impl.xwiki.DocumentStatsCounters;
 import com.xpn.xwiki.stats.impl.xwiki.XWikiStatsReader;
 import com.xpn.xwiki.stats.impl.xwiki.XWikiStatsStoreService;
 import com.xpn.xwiki.web.DownloadAction;
@@ -85,6 +86,11 @@ public class XWikiStatsServiceImpl implements XWikiStatsService, EventListener
     private DocumentReferenceResolver<String> currentDocumentReferenceResolver = Utils.getComponent(
         DocumentReferenceResolver.TYPE_STRING, "current");
 
+    /**
+     * The document statistics not yet stored in the database.
+     */
+    private DocumentStatsCounters documentStatsCounters = new DocumentStatsCounters();
+
     /**
      * The statistics storing thread.
      */
@@ -93,7 +99,7 @@ public class XWikiStatsServiceImpl implements XWikiStatsService, EventListener
     /**
      * The statistics database reader.
      */
-    private XWikiStatsReader statsReader = new XWikiStatsReader();
+    private XWikiStatsReader statsReader = new XWikiStatsReader(this.documentStatsCounters);
 
     @Override
     public String getName()
@@ -116,7 +122,7 @@ public void init(XWikiContext context)
 
         if (StatsUtil.isStatsEnabled(context)) {
             // Start statistics store thread
-            this.statsRegister = new XWikiStatsStoreService(context);
+            this.statsRegister = new XWikiStatsStoreService(context, this.documentStatsCounters);
             this.statsRegister.start();
 
             // Adding the rule which will allow this module to be called on each page view
@@ -0,0 +1,332 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.stats.impl.xwiki;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import com.xpn.xwiki.stats.impl.DocumentStats;
+import com.xpn.xwiki.stats.impl.StatsUtil;
+import com.xpn.xwiki.stats.impl.StatsUtil.PeriodType;
+
+/**
+ * Accumulates the document statistics in memory until they are flushed to the database by
+ * {@link XWikiStatsStoreService}, so that the database is updated once per flush for each wiki/space/document, period
+ * and action instead of once per request.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class DocumentStatsCounters
+{
+    /**
+     * Identify a document statistics row.
+     *
+     * @version $Id$
+     */
+    public static final class Key
+    {
+        private final String wiki;
+
+        private final String name;
+
+        private final String action;
+
+        private final PeriodType periodType;
+
+        private final int period;
+
+        /**
+         * @param wiki the wiki where the statistics are stored
+         * @param name the name of the wiki/space/document
+         * @param action the action made on the document
+         * @param periodType the type of the period
+         * @param period the period
+         */
+        public Key(String wiki, String name, String action, PeriodType periodType, int period)
+        {
+            this.wiki = wiki;
+            this.name = name;
+            this.action = action;
+            this.periodType = periodType;
+            this.period = period;
+        }
+
+        /**
+         * @return the wiki where the statistics are stored
+         */
+        public String getWiki()
+        {
+            return this.wiki;
+        }
+
+        /**
+         * @return the name of the wiki/space/document
+         */
+        public String getName()
+        {
+            return this.name;
+        }
+
+        /**
+         * @return the action made on the document
+         */
+        public String getAction()
+        {
+            return this.action;
+        }
+
+        /**
+         * @return the type of the period
+         */
+        public PeriodType getPeriodType()
+        {
+            return this.periodType;
+        }
+
+        /**
+         * @return the period
+         */
+        public int getPeriod()
+        {
+            return this.period;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+
+            return this.period == other.period && this.periodType == other.periodType
+                && Objects.equals(this.name, other.name) && Objects.equals(this.action, other.action)
+                && Objects.equals(this.wiki, other.wiki);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.wiki, this.name, this.action, this.periodType, this.period);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s:%s %s %s", this.wiki, this.name, this.action, this.period);
+        }
+    }
+
+    /**
+     * The counters not yet stored in the database for a given {@link Key}.
+     *
+     * @version $Id$
+     */
+    public static final class Counter
+    {
+        private final Date periodDate;
+
+        private final AtomicInteger pageViews = new AtomicInteger();
+
+        private final AtomicInteger visits = new AtomicInteger();
+
+        private Counter(Date periodDate)
+        {
+            this.periodDate = periodDate;
+        }
+
+        /**
+         * @return a date in the period of the counter
+         */
+        public Date getPeriodDate()
+        {
+            return this.periodDate;
+        }
+
+        /**
+         * @return the number of page views to add to the stored statistics
+         */
+        public int getPageViews()
+        {
+            return this.pageViews.get();
+        }
+
+        /**
+         * @return the number of visits to add to the stored statistics
+         */
+        public int getVisits()
+        {
+            return this.visits.get();
+        }
+
+        private void add(int pageViews, int visits)
+        {
+            this.pageViews.addAndGet(pageViews);
+            this.visits.addAndGet(visits);
+        }
+    }
+
+    private final ConcurrentMap<Key, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * The counters currently being stored, still taken into account when reading the statistics until the database
+     * transaction is done.
+     */
+    private volatile Map<Key, Counter> flushing = Collections.emptyMap();
+
+    /**
+     * Count a new action on a wiki/space/document.
+     *
+     * @param wiki the wiki where the statistics are stored
+     * @param name the name of the wiki/space/document
+     * @param action the action made on the document
+     * @param periodDate the date of the action
+     * @param periodType the type of the period
+     * @param isVisit true if it's the first page of a visit
+     */
+    public void add(String wiki, String name, String action, Date periodDate, PeriodType periodType, boolean isVisit)
+    {
+        Key key = new Key(wiki, name, action, periodType, StatsUtil.getPeriodAsInt(periodDate, periodType));
+
+        // Computing inside the map makes sure the counter is not removed by a flush while being incremented
+        this.counters.compute(key, (k, counter) -> {
+            Counter result = counter != null ? counter : new Counter(periodDate);
+            result.add(1, isVisit ? 1 : 0);
+            return result;
+        });
+    }
+
+    /**
+     * @return true if there is nothing to flush
+     */
+    public boolean isEmpty()
+    {
+        return this.counters.isEmpty();
+    }
+
+    /**
+     * Remove the current counters so that they can be stored in the database. The removed counters are still taken
+     * into account by {@link #getPageViews(String, String, Predicate, int, int)} until {@link #endFlush(Map)} is
+     * called.
+     *
+     * @return the counters to store
+     */
+    public synchronized Map<Key, Counter> startFlush()
+    {
+        // Expose the counters being flushed before removing them so that the readers never miss them
+        Map<Key, Counter> toFlush = new ConcurrentHashMap<>(this.counters.size());
+        this.flushing = toFlush;
+
+        for (Key key : this.counters.keySet()) {
+            this.counters.computeIfPresent(key, (k, counter) -> {
+                toFlush.put(k, counter);
+                return null;
+            });
+        }
+
+        return toFlush;
+    }
+
+    /**
+     * @param notStored the counters returned by {@link #startFlush()} which could not be stored, kept for the next
+     *            flush
+     */
+    public synchronized void endFlush(Map<Key, Counter> notStored)
+    {
+        for (Map.Entry<Key, Counter> entry : notStored.entrySet()) {
+            Counter counter = entry.getValue();
+            this.counters.compute(entry.getKey(), (k, current) -> {
+                Counter result = current != null ? current : new Counter(counter.getPeriodDate());
+                result.add(counter.getPageViews(), counter.getVisits());
+                return result;
+            });
+        }
+
+        this.flushing = Collections.emptyMap();
+    }
+
+    /**
+     * @param wiki the wiki where the statistics are stored
+     * @param action the action made on the documents
+     * @param nameFilter filter the wiki/space/document names to take into account
+     * @param startCode the start of the period, included
+     * @param endCode the end of the period, excluded
+     * @return the page views not yet stored in the database, indexed by wiki/space/document name
+     */
+    public Map<String, Integer> getPageViews(String wiki, String action, Predicate<String> nameFilter, int startCode,
+        int endCode)
+    {
+        Map<String, Integer> pageViews = new HashMap<>();
+
+        addPageViews(this.counters, wiki, action, nameFilter, startCode, endCode, pageViews);
+        addPageViews(this.flushing, wiki, action, nameFilter, startCode, endCode, pageViews);
+
+        return pageViews;
+    }
+
+    private void addPageViews(Map<Key, Counter> source, String wiki, String action, Predicate<String> nameFilter,
+        int startCode, int endCode, Map<String, Integer> pageViews)
+    {
+        for (Map.Entry<Key, Counter> entry : source.entrySet()) {
+            Key key = entry.getKey();
+            if (startCode <= key.getPeriod() && key.getPeriod() < endCode && Objects.equals(wiki, key.getWiki())
+                && Objects.equals(action, key.getAction()) && nameFilter.test(key.getName())) {
+                pageViews.merge(key.getName(), entry.getValue().getPageViews(), Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Add the counters not yet stored in the database to the passed statistics.
+     *
+     * @param wiki the wiki where the statistics are stored
+     * @param documentStats the statistics loaded from the database
+     * @param periodType the type of period of the statistics
+     */
+    public void addTo(String wiki, DocumentStats documentStats, PeriodType periodType)
+    {
+        Key key = new Key(wiki, documentStats.getName(), documentStats.getAction(), periodType,
+            documentStats.getPeriod());
+
+        addTo(this.counters.get(key), documentStats);
+        addTo(this.flushing.get(key), documentStats);
+    }
+
+    private void addTo(Counter counter, DocumentStats documentStats)
+    {
+        if (counter != null) {
+            documentStats.setPageViews(documentStats.getPageViews() + counter.getPageViews());
+            documentStats.setVisits(documentStats.getVisits() + counter.getVisits());
+        }
+    }
+}
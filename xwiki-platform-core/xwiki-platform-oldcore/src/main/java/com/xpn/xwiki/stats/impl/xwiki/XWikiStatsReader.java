@@ -23,10 +23,13 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -73,6 +76,28 @@
     private EntityReferenceSerializer<String> compactwikiEntityReferenceSerializer = Utils.getComponent(
         EntityReferenceSerializer.TYPE_STRING, "compactwiki");
 
+    /**
+     * The document statistics not yet stored in the database.
+     */
+    private final DocumentStatsCounters documentStatsCounters;
+
+    /**
+     * Create a reader which only takes into account the statistics stored in the database.
+     */
+    public XWikiStatsReader()
+    {
+        this(null);
+    }
+
+    /**
+     * @param documentStatsCounters the document statistics not yet stored in the database, added to the stored ones
+     * @since 9.4RC1
+     */
+    public XWikiStatsReader(DocumentStatsCounters documentStatsCounters)
+    {
+        this.documentStatsCounters = documentStatsCounters;
+    }
+
     /**
      * Return the statistics action stored.
      *
@@ -159,6 +184,41 @@ private String getHqlNameFilterFromScope(Scope scope, List<Object> paramList)
         return nameFilter;
     }
 
+    /**
+     * @param scope the set of documents for which to retrieve statistics.
+     * @return the filter matching the same names as {@link #getHqlNameFilterFromScope(Scope, List)}
+     */
+    private Predicate<String> getNameFilterFromScope(Scope scope)
+    {
+        Predicate<String> nameFilter;
+
+        if (scope.getType() == Scope.SPACE_SCOPE && StringUtils.isEmpty(scope.getName())) {
+            nameFilter = name -> StringUtils.isNotEmpty(name) && name.indexOf('.') < 0;
+        } else if (scope.getType() == Scope.GLOBAL_SCOPE && StringUtils.isEmpty(scope.getName())) {
+            nameFilter = StringUtils::isEmpty;
+        } else if (scope.getType() == Scope.PAGE_SCOPE && StringUtils.isEmpty(scope.getName())) {
+            nameFilter = name -> name != null && name.indexOf('.') >= 0;
+        } else if (scope.getPattern() != null) {
+            // Convert the HQL "like" pattern into a regular expression
+            StringBuilder regex = new StringBuilder();
+            for (char c : scope.getPattern().toCharArray()) {
+                if (c == '%') {
+                    regex.append(".*");
+                } else if (c == '_') {
+                    regex.append('.');
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            Pattern pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+            nameFilter = name -> pattern.matcher(StringUtils.defaultString(name)).matches();
+        } else {
+            nameFilter = name -> false;
+        }
+
+        return nameFilter;
+    }
+
     /**
      * Shows how the statistics for the specified action have evolved over the specified period of time.
      *
@@ -221,6 +281,11 @@ public List<DocumentStats> getDocumentStatistics(String action, Scope scope, Per
 
         XWikiHibernateStore store = context.getWiki().getHibernateStore();
 
+        Map<String, Integer> pendingPageViews = this.documentStatsCounters != null
+            ? this.documentStatsCounters.getPageViews(context.getWikiId(), action, getNameFilterFromScope(scope),
+                period.getStartCode(), period.getEndCode())
+            : Collections.<String, Integer>emptyMap();
+
         try {
             String query =
                 MessageFormat.format("select name, sum(pageViews) from DocumentStats"
@@ -231,10 +296,15 @@ public List<DocumentStats> getDocumentStatistics(String action, Scope scope, Per
             paramList.add(period.getStartCode());
             paramList.add(period.getEndCode());
 
-            List<?> solist =
-                store.search(query, range.getAbsoluteSize(), range.getAbsoluteStart(), paramList, context);
+            if (pendingPageViews.isEmpty()) {
+                List<?> solist =
+                    store.search(query, range.getAbsoluteSize(), range.getAbsoluteStart(), paramList, context);
 
-            documentStatsList = getDocumentStatistics(solist, action);
+                documentStatsList = getDocumentStatistics(solist, action);
+            } else {
+                documentStatsList =
+                    getDocumentStatistics(query, paramList, pendingPageViews, action, period, range, context);
+            }
             if (range.getSize() < 0) {
                 Collections.reverse(documentStatsList);
             }
@@ -245,6 +315,81 @@ public List<DocumentStats> getDocumentStatistics(String action, Scope scope, Per
         return documentStatsList;
     }
 
+    /**
+     * Retrieves document statistics, adding the page views not yet stored in the database. The returned order and
+     * range stay exact since only the pending page views can change the order of the stored statistics: it's enough
+     * to load the first stored statistics (plus one per pending name) and the stored statistics of the pending names.
+     *
+     * @param query the query returning the stored statistics, ordered by page views.
+     * @param paramList the values to insert in the query.
+     * @param pendingPageViews the page views not yet stored, indexed by wiki/space/document name.
+     * @param action the action for which to retrieve statistics.
+     * @param period the period of time, including its start date but excluding its end date.
+     * @param range the sub-range to return from the entire result set.
+     * @param context the XWiki context.
+     * @return a list of DocumentStats objects, in the order of the query.
+     * @throws XWikiException when failing to query the database.
+     */
+    private List<DocumentStats> getDocumentStatistics(String query, List<Object> paramList,
+        Map<String, Integer> pendingPageViews, String action, Period period, Range range, XWikiContext context)
+        throws XWikiException
+    {
+        XWikiHibernateStore store = context.getWiki().getHibernateStore();
+
+        int limit = range.getAbsoluteSize() > 0
+            ? range.getAbsoluteStart() + range.getAbsoluteSize() + pendingPageViews.size() : 0;
+
+        Map<String, Integer> pageViews = new HashMap<>();
+        for (Object row : store.search(query, limit, 0, paramList, context)) {
+            Object[] result = (Object[]) row;
+            pageViews.put((String) result[0], ((Number) result[1]).intValue());
+        }
+
+        // Make sure we know the stored page views of all the pending names
+        List<Object> namesParamList = new ArrayList<>();
+        StringBuilder names = new StringBuilder();
+        if (limit > 0) {
+            for (String name : pendingPageViews.keySet()) {
+                if (!pageViews.containsKey(name)) {
+                    names.append(names.length() > 0 ? ", ?" : "?");
+                    namesParamList.add(name);
+                }
+            }
+        }
+        if (names.length() > 0) {
+            namesParamList.add(action);
+            namesParamList.add(period.getStartCode());
+            namesParamList.add(period.getEndCode());
+
+            String namesQuery = MessageFormat.format("select name, sum(pageViews) from DocumentStats"
+                + " where name in ({0}) and action=? and ? <= period and period < ? group by name", names);
+
+            for (Object row : store.search(namesQuery, 0, 0, namesParamList, context)) {
+                Object[] result = (Object[]) row;
+                pageViews.put((String) result[0], ((Number) result[1]).intValue());
+            }
+        }
+
+        for (Map.Entry<String, Integer> entry : pendingPageViews.entrySet()) {
+            pageViews.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(pageViews.entrySet());
+        Comparator<Map.Entry<String, Integer>> comparator = Map.Entry.comparingByValue();
+        entries.sort(range.getSize() < 0 ? comparator : comparator.reversed());
+
+        int start = Math.min(range.getAbsoluteStart(), entries.size());
+        int end = range.getAbsoluteSize() > 0 ? Math.min(start + range.getAbsoluteSize(), entries.size())
+            : entries.size();
+
+        List<Object[]> resultSet = new ArrayList<>(end - start);
+        for (Map.Entry<String, Integer> entry : entries.subList(start, end)) {
+            resultSet.add(new Object[] { entry.getKey(), entry.getValue() });
+        }
+
+        return getDocumentStatistics(resultSet, action);
+    }
+
     /**
      * Converts the rows retrieved from the database to a list of DocumentStats instances.
      *
@@ -555,6 +700,9 @@ public DocumentStats getDocMonthStats(String docname, String action, Date month,
         try {
             // TODO Fix use of deprecated call.
             store.loadXWikiCollection(object, context, true);
+            if (this.documentStatsCounters != null) {
+                this.documentStatsCounters.addTo(context.getWikiId(), object, PeriodType.MONTH);
+            }
             return object;
         } catch (XWikiException e) {
             e.printStackTrace();
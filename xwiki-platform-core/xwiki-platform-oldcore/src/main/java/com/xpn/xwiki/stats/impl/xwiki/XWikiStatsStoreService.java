@@ -25,18 +25,27 @@
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import org.hibernate.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.stats.impl.DocumentStats;
 import com.xpn.xwiki.stats.impl.StatsUtil;
 import com.xpn.xwiki.stats.impl.VisitStats;
+import com.xpn.xwiki.stats.impl.xwiki.DocumentStatsCounters.Counter;
+import com.xpn.xwiki.stats.impl.xwiki.DocumentStatsCounters.Key;
+import com.xpn.xwiki.store.XWikiHibernateStore;
 import com.xpn.xwiki.util.AbstractXWikiRunnable;
 import com.xpn.xwiki.web.DownloadAction;
 import com.xpn.xwiki.web.SaveAction;
+import com.xpn.xwiki.web.Utils;
 import com.xpn.xwiki.web.ViewAction;
 
 /**
@@ -52,6 +61,12 @@ public class XWikiStatsStoreService extends AbstractXWikiRunnable
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiStatsStoreService.class);
 
+    /**
+     * Increment the stored document statistics without loading them first.
+     */
+    private static final String DOCUMENT_STATS_UPDATE = "update DocumentStats set"
+        + " pageViews = coalesce(pageViews, 0) + :pageViews, visits = coalesce(visits, 0) + :visits where id = :id";
+
     /**
      * The queue containing the statistics to store.
      */
@@ -67,16 +82,45 @@ public class XWikiStatsStoreService extends AbstractXWikiRunnable
      */
     private XWikiContext xwikiContext;
 
+    /**
+     * The document statistics waiting to be stored.
+     */
+    private final DocumentStatsCounters documentStatsCounters;
+
+    /**
+     * The time in milliseconds between two flushes of the document statistics.
+     */
+    private final long flushInterval;
+
+    /**
+     * The date of the next flush of the document statistics.
+     */
+    private long nextFlush;
+
     /**
      * Create new instance of XWikiStatsRegister and init statistics queue.
      *
      * @param context the XWiki context.
      */
     public XWikiStatsStoreService(XWikiContext context)
+    {
+        this(context, new DocumentStatsCounters());
+    }
+
+    /**
+     * Create new instance of XWikiStatsRegister and init statistics queue.
+     *
+     * @param context the XWiki context.
+     * @param documentStatsCounters the document statistics waiting to be stored.
+     * @since 9.4RC1
+     */
+    public XWikiStatsStoreService(XWikiContext context, DocumentStatsCounters documentStatsCounters)
     {
         this.xwikiContext = context.clone();
         long queueSize = context.getWiki().ParamAsLong("stats.queue.size", 200);
         this.queue = new ArrayBlockingQueue<XWikiStatsStoreItem>((int) queueSize);
+        this.documentStatsCounters = documentStatsCounters;
+        this.flushInterval = Math.max(context.getWiki().ParamAsLong("xwiki.stats.flushInterval", 10), 1) * 1000;
     }
 
     @Override
@@ -119,6 +163,8 @@ public void stop()
     @Override
     public void runInternal()
     {
+        this.nextFlush = System.currentTimeMillis() + this.flushInterval;
+
         try {
             while (true) {
                 register();
@@ -131,6 +177,9 @@ public void runInternal()
             if (LOGGER.isInfoEnabled()) {
                 LOGGER.warn("Statistics storing thread received stop order.", e);
             }
+        } finally {
+            // Don't lose the document statistics accumulated since the last flush
+            flushDocumentStats();
         }
     }
 
@@ -142,7 +191,27 @@ public void runInternal()
      */
     private void register() throws InterruptedException, StopStatsStoreException
     {
-        XWikiStatsStoreItem stat = this.queue.take();
+        XWikiStatsStoreItem stat =
+            this.queue.poll(Math.max(this.nextFlush - System.currentTimeMillis(), 1), TimeUnit.MILLISECONDS);
+
+        if (stat != null) {
+            register(stat);
+        }
+
+        if (System.currentTimeMillis() >= this.nextFlush) {
+            flushDocumentStats();
+        }
+    }
+
+    /**
+     * Store the provided statistic and the others waiting in the queue.
+     *
+     * @param firstStat the first statistic taken from the queue.
+     * @throws StopStatsStoreException service received stop order.
+     */
+    private void register(XWikiStatsStoreItem firstStat) throws StopStatsStoreException
+    {
+        XWikiStatsStoreItem stat = firstStat;
 
         List<List<XWikiStatsStoreItem>> statsList = new ArrayList<List<XWikiStatsStoreItem>>();
         Map<String, List<XWikiStatsStoreItem>> statsMap = new HashMap<String, List<XWikiStatsStoreItem>>();
@@ -173,6 +242,91 @@ private void register() throws InterruptedException, StopStatsStoreException
         }
     }
 
+    /**
+     * Store the accumulated document statistics in the database, using one transaction per wiki.
+     */
+    void flushDocumentStats()
+    {
+        this.nextFlush = System.currentTimeMillis() + this.flushInterval;
+
+        if (this.documentStatsCounters.isEmpty()) {
+            return;
+        }
+
+        Map<Key, Counter> counters = this.documentStatsCounters.startFlush();
+
+        Map<String, Map<Key, Counter>> countersByWiki = new HashMap<>();
+        for (Map.Entry<Key, Counter> entry : counters.entrySet()) {
+            countersByWiki.computeIfAbsent(entry.getKey().getWiki(), k -> new HashMap<>()).put(entry.getKey(),
+                entry.getValue());
+        }
+
+        Map<Key, Counter> notStored = new HashMap<>();
+
+        XWikiContext context = (XWikiContext) Utils.getComponent(Execution.class).getContext()
+            .getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+        String currentWiki = context.getWikiId();
+        try {
+            for (Map.Entry<String, Map<Key, Counter>> entry : countersByWiki.entrySet()) {
+                context.setWikiId(entry.getKey());
+
+                try {
+                    storeDocumentStats(entry.getValue(), context);
+                } catch (Exception e) {
+                    LOGGER.error("Failed to store document statistics for wiki [{}], will retry with the next flush",
+                        entry.getKey(), e);
+
+                    notStored.putAll(entry.getValue());
+                }
+            }
+        } finally {
+            context.setWikiId(currentWiki);
+
+            this.documentStatsCounters.endFlush(notStored);
+        }
+    }
+
+    /**
+     * Add the provided counters to the stored document statistics of the current wiki in a single transaction.
+     *
+     * @param counters the counters to store.
+     * @param context the XWiki context.
+     * @throws XWikiException when failing to store the statistics.
+     */
+    private void storeDocumentStats(Map<Key, Counter> counters, XWikiContext context) throws XWikiException
+    {
+        XWikiHibernateStore store = context.getWiki().getHibernateStore();
+        if (store == null) {
+            return;
+        }
+
+        store.executeWrite(context, session -> {
+            Query query = session.createQuery(DOCUMENT_STATS_UPDATE);
+
+            for (Map.Entry<Key, Counter> entry : counters.entrySet()) {
+                Key key = entry.getKey();
+                Counter counter = entry.getValue();
+
+                DocumentStats documentStats = new DocumentStats(key.getName(), key.getAction(),
+                    counter.getPeriodDate(), key.getPeriodType());
+
+                query.setInteger("pageViews", counter.getPageViews());
+                query.setInteger("visits", counter.getVisits());
+                query.setLong("id", documentStats.getId());
+
+                // Only insert the statistics when they don't exist yet
+                if (query.executeUpdate() == 0) {
+                    documentStats.setPageViews(counter.getPageViews());
+                    documentStats.setVisits(counter.getVisits());
+
+                    session.save(documentStats);
+                }
+            }
+
+            return null;
+        });
+    }
+
     // ////////////////////////////////////////////////////////////////////////////
     // Add stats to queue
     // ////////////////////////////////////////////////////////////////////////////
@@ -252,17 +406,15 @@ private void addVisitStats(VisitStats vobject, XWikiContext context)
     private void addDocumentStats(XWikiDocument doc, String action, boolean isVisit, XWikiContext context)
     {
         Date currentDate = new Date();
-
-        add(new DocumentStatsStoreItem(doc.getFullName(), currentDate, StatsUtil.PeriodType.MONTH, action, isVisit,
-            context));
-        add(new DocumentStatsStoreItem(doc.getSpace(), currentDate, StatsUtil.PeriodType.MONTH, action, isVisit,
-            context));
-        add(new DocumentStatsStoreItem("", currentDate, StatsUtil.PeriodType.MONTH, action, false, context));
-        add(new DocumentStatsStoreItem(doc.getFullName(), currentDate, StatsUtil.PeriodType.DAY, action, isVisit,
-            context));
-        add(new DocumentStatsStoreItem(doc.getSpace(), currentDate, StatsUtil.PeriodType.DAY, action, isVisit,
-            context));
-        add(new DocumentStatsStoreItem("", currentDate, StatsUtil.PeriodType.DAY, action, false, context));
+        String wiki = context.getWikiId();
+
+        // Document statistics are accumulated in memory and regularly flushed to the database by the storing thread
+        for (StatsUtil.PeriodType periodType : new StatsUtil.PeriodType[] { StatsUtil.PeriodType.MONTH,
+            StatsUtil.PeriodType.DAY }) {
+            this.documentStatsCounters.add(wiki, doc.getFullName(), action, currentDate, periodType, isVisit);
+            this.documentStatsCounters.add(wiki, doc.getSpace(), action, currentDate, periodType, isVisit);
+            this.documentStatsCounters.add(wiki, "", action, currentDate, periodType, false);
+        }
     }
 
     /**
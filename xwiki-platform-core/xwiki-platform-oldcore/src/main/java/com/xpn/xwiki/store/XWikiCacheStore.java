@@ -19,9 +19,19 @@
  */
 package com.xpn.xwiki.store;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.bridge.event.DocumentCreatedEvent;
@@ -32,6 +42,7 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.management.JMXBeanRegistration;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.observation.EventListener;
@@ -45,6 +56,9 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.doc.XWikiLink;
 import com.xpn.xwiki.doc.XWikiLock;
+import com.xpn.xwiki.internal.store.DocumentExistenceFilter;
+import com.xpn.xwiki.internal.store.WeightedDocumentCache;
+import com.xpn.xwiki.internal.store.WeightedDocumentCacheMBean;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.web.Utils;
 
@@ -64,6 +78,21 @@ public class XWikiCacheStore implements XWikiCacheStoreInterface, EventListener
 
     private Cache<Boolean> pageExistCache;
 
+    /**
+     * The documents currently being loaded from the underlying store, indexed by cache key. Used to make concurrent
+     * cache misses for the same document wait for a single store load instead of each issuing their own.
+     */
+    private final ConcurrentMap<String, InFlightLoad> inFlightLoads = new ConcurrentHashMap<>();
+
+    private final AtomicLong issuedLoads = new AtomicLong();
+
+    private final AtomicLong coalescedLoads = new AtomicLong();
+
+    /**
+     * Used to know that a document does not exist without asking the underlying store, null when disabled.
+     */
+    private DocumentExistenceFilter existenceFilter;
+
     /**
      * Used to know if a received event is a local or remote one.
      */
@@ -76,6 +105,20 @@ public class XWikiCacheStore implements XWikiCacheStoreInterface, EventListener
      */
     private ObservationManager observationManager;
 
+    /**
+     * A load of a document from the underlying store, shared by the cache misses happening while it's in progress.
+     */
+    private static class InFlightLoad
+    {
+        private final CompletableFuture<XWikiDocument> future = new CompletableFuture<>();
+
+        /**
+         * True when the document has been saved, deleted or modified remotely after the load started, in which case
+         * the loaded document might be outdated and must not be shared or kept in the cache.
+         */
+        private volatile boolean superseded;
+    }
+
     public XWikiCacheStore(XWikiStoreInterface store, XWikiContext context) throws XWikiException
     {
         setStore(store);
@@ -106,9 +149,20 @@ public void initCache(XWikiContext context) throws XWikiException
         CacheManager cacheManager = Utils.getComponent(CacheManager.class);
 
         try {
-            int pageCacheCapacity = (int) context.getWiki().ParamAsLong("xwiki.store.cache.capacity", 500);
-            this.cache =
-                cacheManager.createNewCache(new LRUCacheConfiguration("xwiki.store.pagecache", pageCacheCapacity));
+            long pageCacheMaxWeight = context.getWiki().ParamAsLong("xwiki.store.cache.maxweight", 0);
+            if (pageCacheMaxWeight > 0) {
+                // The number of documents is only a safety limit, the cache is limited by the weight of the documents
+                int pageCacheCapacity = (int) context.getWiki().ParamAsLong("xwiki.store.cache.capacity", 100000);
+                Cache<XWikiDocument> pageCache =
+                    cacheManager.createNewCache(new LRUCacheConfiguration("xwiki.store.pagecache", pageCacheCapacity));
+                WeightedDocumentCache weightedCache = new WeightedDocumentCache(pageCache, pageCacheMaxWeight);
+                registerMBean(weightedCache);
+                this.cache = weightedCache;
+            } else {
+                int pageCacheCapacity = (int) context.getWiki().ParamAsLong("xwiki.store.cache.capacity", 500);
+                this.cache =
+                    cacheManager.createNewCache(new LRUCacheConfiguration("xwiki.store.pagecache", pageCacheCapacity));
+            }
 
             int pageExistCacheCapacity =
                 (int) context.getWiki().ParamAsLong("xwiki.store.cache.pageexistcapacity", 10000);
@@ -118,6 +172,21 @@ public void initCache(XWikiContext context) throws XWikiException
             throw new XWikiException(XWikiException.MODULE_XWIKI_CACHE, XWikiException.ERROR_CACHE_INITIALIZING,
                 "Failed to initialize cache", e);
         }
+
+        if (context.getWiki().ParamAsLong(DocumentExistenceFilter.CONFIGURATION_ENABLED, 0) == 1) {
+            this.existenceFilter = Utils.getComponent(DocumentExistenceFilter.class);
+        }
+    }
+
+    private void registerMBean(WeightedDocumentCacheMBean mbean)
+    {
+        try {
+            JMXBeanRegistration jmxRegistration = Utils.getComponent(JMXBeanRegistration.class);
+            jmxRegistration.registerMBean(mbean, "type=Store,name=pagecache");
+        } catch (Exception e) {
+            LOGGER.warn("Failed to register the document cache statistics in JMX: {}",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
     }
 
     @Deprecated
@@ -152,9 +221,14 @@ public void saveXWikiDoc(XWikiDocument doc, XWikiContext context, boolean bTrans
 
         doc.setStore(this.store);
 
+        if (this.existenceFilter != null) {
+            this.existenceFilter.add(context.getWikiId(), doc.getId());
+        }
+
         // We need to flush so that caches
         // on the cluster are informed about the change
         String key = getKey(doc, context);
+        supersedeInFlightLoad(key);
         getCache().remove(key);
         getPageExistCache().remove(key);
 
@@ -185,6 +259,8 @@ public void onEvent(Event event, Object source, Object data)
 
                 String key = doc.getKey();
 
+                supersedeInFlightLoad(key);
+
                 if (getCache() != null) {
                     getCache().remove(key);
                 }
@@ -265,7 +341,7 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
         } else {
             Boolean result = getPageExistCache().get(key);
 
-            if (result == Boolean.FALSE) {
+            if (result == Boolean.FALSE || (result == null && !mightExist(context.getWikiId(), doc.getId()))) {
                 LOGGER.debug("Cache: The document {} does not exist, return an empty one", key);
 
                 cachedoc = doc;
@@ -275,30 +351,299 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
                 // Allow writing more generic code.
                 cachedoc.setOriginalDocument(new XWikiDocument(cachedoc.getDocumentReference(), cachedoc.getLocale()));
             } else {
-                LOGGER.debug("Cache: Trying to get doc {} from persistent storage", key);
+                cachedoc = loadXWikiDocFromStore(key, doc, context);
+            }
 
-                cachedoc = this.store.loadXWikiDoc(doc, context);
+            cachedoc.setStore(this.store);
+        }
 
-                LOGGER.debug("Cache: Got doc {} from storage", key);
+        LOGGER.debug("Cache: end for doc {} in cache", key);
 
-                if (cachedoc.isNew()) {
-                    getPageExistCache().set(key, Boolean.FALSE);
+        return cachedoc;
+    }
+
+    @Override
+    public List<XWikiDocument> loadXWikiDocs(Collection<DocumentReference> references, XWikiContext context)
+        throws XWikiException
+    {
+        List<XWikiDocument> documents = new ArrayList<>(references.size());
+
+        // Serve what can be served by the caches and remember the rest
+        List<DocumentReference> missingReferences = new ArrayList<>();
+        List<XWikiDocument> missingDocuments = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (DocumentReference reference : references) {
+            XWikiDocument doc = new XWikiDocument(
+                reference.getLocale() != null ? new DocumentReference(reference, null) : reference,
+                reference.getLocale());
+            String key = doc.getKey();
+
+            XWikiDocument cachedoc;
+            try {
+                cachedoc = getCache().get(key);
+            } catch (Exception e) {
+                LOGGER.error("Failed to get document from the cache", e);
+
+                cachedoc = null;
+            }
+
+            if (cachedoc != null) {
+                cachedoc.setFromCache(true);
+            } else {
+                Boolean result = getPageExistCache().get(key);
+
+                if (result == Boolean.FALSE
+                    || (result == null && !mightExist(reference.getWikiReference().getName(), doc.getId()))) {
+                    cachedoc = doc;
+                    cachedoc.setNew(true);
+                    cachedoc.setOriginalDocument(
+                        new XWikiDocument(cachedoc.getDocumentReference(), cachedoc.getLocale()));
+                    cachedoc.setStore(this.store);
                 } else {
-                    getCache().set(key, cachedoc);
+                    missingReferences.add(reference);
+                    missingDocuments.add(doc);
+                    missingIndexes.add(documents.size());
+                }
+            }
+
+            documents.add(cachedoc);
+        }
+
+        // Load all the missing documents at once
+        if (!missingDocuments.isEmpty()) {
+            loadXWikiDocsFromStore(missingReferences, missingDocuments, missingIndexes, documents, context);
+        }
+
+        return documents;
+    }
+
+    private void loadXWikiDocsFromStore(List<DocumentReference> missingReferences,
+        List<XWikiDocument> missingDocuments, List<Integer> missingIndexes, List<XWikiDocument> documents,
+        XWikiContext context) throws XWikiException
+    {
+        // Share the loads with the concurrent cache misses, as for a single document load
+        List<DocumentReference> loadReferences = new ArrayList<>(missingDocuments.size());
+        List<String> loadKeys = new ArrayList<>(missingDocuments.size());
+        List<InFlightLoad> loads = new ArrayList<>(missingDocuments.size());
+        List<Integer> loadIndexes = new ArrayList<>(missingDocuments.size());
+        Map<Integer, InFlightLoad> waitedLoads = new LinkedHashMap<>();
+        for (int i = 0; i < missingDocuments.size(); ++i) {
+            XWikiDocument doc = missingDocuments.get(i);
+            String key = doc.getKey();
+
+            InFlightLoad load = new InFlightLoad();
+            InFlightLoad inFlightLoad = this.inFlightLoads.putIfAbsent(key, load);
+            if (inFlightLoad != null) {
+                // Another thread is already loading the same document, wait for it instead of loading it again
+                this.coalescedLoads.incrementAndGet();
+                waitedLoads.put(i, inFlightLoad);
+            } else {
+                loadReferences.add(missingReferences.get(i));
+                loadKeys.add(key);
+                loads.add(load);
+                loadIndexes.add(missingIndexes.get(i));
+            }
+        }
+
+        if (!loadReferences.isEmpty()) {
+            LOGGER.debug("Cache: Trying to get [{}] docs from persistent storage", loadReferences.size());
+
+            this.issuedLoads.addAndGet(loadReferences.size());
+
+            try {
+                List<XWikiDocument> loadedDocuments = this.store.loadXWikiDocs(loadReferences, context);
+
+                for (int i = 0; i < loads.size(); ++i) {
+                    XWikiDocument loadedDocument = loadedDocuments.get(i);
+
+                    cacheLoadedDocument(loadKeys.get(i), loads.get(i), loadedDocument,
+                        loadedDocument.getDocumentReference().getWikiReference().getName());
+
+                    loadedDocument.setStore(this.store);
+
+                    documents.set(loadIndexes.get(i), loadedDocument);
+                }
+            } catch (XWikiException | RuntimeException e) {
+                // Don't leave the concurrent cache misses waiting for the documents which could not be loaded
+                for (InFlightLoad load : loads) {
+                    load.future.completeExceptionally(e);
+                }
 
-                    // Also update exist cache
-                    getPageExistCache().set(key, Boolean.TRUE);
+                throw e;
+            } finally {
+                for (int i = 0; i < loads.size(); ++i) {
+                    this.inFlightLoads.remove(loadKeys.get(i), loads.get(i));
                 }
+            }
+        }
 
-                LOGGER.debug("Cache: put doc {} in cache", key);
+        // Get the documents which were already being loaded by other threads
+        for (Map.Entry<Integer, InFlightLoad> entry : waitedLoads.entrySet()) {
+            XWikiDocument doc = missingDocuments.get(entry.getKey());
+            String key = doc.getKey();
+
+            XWikiDocument loadedDoc = waitForXWikiDocLoad(key, entry.getValue(), doc);
+            if (loadedDoc == null) {
+                // The shared load has been superseded by a modification of the document, start a new one
+                loadedDoc = loadXWikiDocFromStore(key, doc, context);
             }
+            loadedDoc.setStore(this.store);
 
-            cachedoc.setStore(this.store);
+            documents.set(missingIndexes.get(entry.getKey()), loadedDoc);
         }
+    }
 
-        LOGGER.debug("Cache: end for doc {} in cache", key);
+    private XWikiDocument loadXWikiDocFromStore(String key, XWikiDocument doc, XWikiContext context)
+        throws XWikiException
+    {
+        InFlightLoad load = new InFlightLoad();
+        InFlightLoad inFlightLoad = this.inFlightLoads.putIfAbsent(key, load);
 
-        return cachedoc;
+        if (inFlightLoad != null) {
+            // Another thread is already loading the same document, wait for it instead of hitting the store again
+            this.coalescedLoads.incrementAndGet();
+
+            LOGGER.debug("Cache: Waiting for the load of doc {} already in progress", key);
+
+            XWikiDocument loadedDoc = waitForXWikiDocLoad(key, inFlightLoad, doc);
+            if (loadedDoc == null) {
+                // The shared load has been superseded by a modification of the document, start a new one
+                return loadXWikiDocFromStore(key, doc, context);
+            }
+
+            return loadedDoc;
+        }
+
+        this.issuedLoads.incrementAndGet();
+
+        try {
+            LOGGER.debug("Cache: Trying to get doc {} from persistent storage", key);
+
+            XWikiDocument loadedDoc = this.store.loadXWikiDoc(doc, context);
+
+            LOGGER.debug("Cache: Got doc {} from storage", key);
+
+            cacheLoadedDocument(key, load, loadedDoc, context.getWikiId());
+
+            return loadedDoc;
+        } catch (XWikiException | RuntimeException e) {
+            load.future.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            this.inFlightLoads.remove(key, load);
+        }
+    }
+
+    /**
+     * Put a document loaded from the underlying store in the caches and share it with the cache misses waiting for
+     * it.
+     */
+    private void cacheLoadedDocument(String key, InFlightLoad load, XWikiDocument loadedDoc, String wiki)
+    {
+        if (loadedDoc.isNew()) {
+            getPageExistCache().set(key, Boolean.FALSE);
+
+            recordFalsePositive(wiki);
+        } else {
+            getCache().set(key, loadedDoc);
+
+            // Also update exist cache
+            getPageExistCache().set(key, Boolean.TRUE);
+        }
+
+        // The document might have been saved, deleted or modified remotely while it was loaded, in which case
+        // what has just been put in the caches might be outdated. The modification flags the load before
+        // cleaning the caches so checking the flag after filling them is enough to never keep an outdated
+        // document.
+        if (load.superseded) {
+            LOGGER.debug("Cache: doc {} has been modified while being loaded, don't cache it", key);
+
+            getCache().remove(key);
+            getPageExistCache().remove(key);
+        } else {
+            LOGGER.debug("Cache: put doc {} in cache", key);
+        }
+
+        load.future.complete(loadedDoc);
+    }
+
+    /**
+     * Make sure the load of the passed document currently in progress (if any) is not shared with cache misses
+     * happening after a modification of the document and that its result is not kept in the cache.
+     *
+     * @param key the cache key of the modified document
+     */
+    private void supersedeInFlightLoad(String key)
+    {
+        InFlightLoad load = this.inFlightLoads.remove(key);
+        if (load != null) {
+            load.superseded = true;
+        }
+    }
+
+    /**
+     * @return the loaded document or null if the load has been superseded by a modification of the document
+     */
+    private XWikiDocument waitForXWikiDocLoad(String key, InFlightLoad inFlightLoad, XWikiDocument doc)
+        throws XWikiException
+    {
+        XWikiDocument loadedDoc;
+        try {
+            loadedDoc = inFlightLoad.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_READING_DOC,
+                "Interrupted while waiting for the document [" + key + "] to be loaded", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof XWikiException) {
+                throw (XWikiException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_READING_DOC,
+                "Failed to load the document [" + key + "]", e.getCause());
+        }
+
+        if (inFlightLoad.superseded) {
+            return null;
+        }
+
+        if (loadedDoc.isNew()) {
+            // Don't share the new document instance created for another caller
+            doc.setNew(true);
+            doc.setOriginalDocument(new XWikiDocument(doc.getDocumentReference(), doc.getLocale()));
+
+            return doc;
+        }
+
+        // The document loaded by the other thread is the one which has been put in the cache
+        loadedDoc.setFromCache(true);
+
+        return loadedDoc;
+    }
+
+    /**
+     * @return the number of document loads actually delegated to the underlying store after a cache miss
+     * @since 9.4RC1
+     */
+    public long getIssuedLoadCount()
+    {
+        return this.issuedLoads.get();
+    }
+
+    /**
+     * @return the number of cache misses which waited for a load of the same document already in progress instead of
+     *         issuing their own load to the underlying store
+     * @since 9.4RC1
+     */
+    public long getCoalescedLoadCount()
+    {
+        return this.coalescedLoads.get();
     }
 
     @Override
@@ -309,6 +654,7 @@ public void deleteXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWiki
 
         this.store.deleteXWikiDoc(doc, context);
 
+        supersedeInFlightLoad(key);
         getCache().remove(key);
         getPageExistCache().remove(key);
         getPageExistCache().set(key, Boolean.FALSE);
@@ -627,12 +973,32 @@ public boolean exists(XWikiDocument doc, XWikiContext context) throws XWikiExcep
         } catch (Exception e) {
         }
 
+        if (!mightExist(context.getWikiId(), doc.getId())) {
+            return false;
+        }
+
         boolean result = this.store.exists(doc, context);
         getPageExistCache().set(key, Boolean.valueOf(result));
 
+        if (!result) {
+            recordFalsePositive(context.getWikiId());
+        }
+
         return result;
     }
 
+    private boolean mightExist(String wikiId, long id)
+    {
+        return this.existenceFilter == null || this.existenceFilter.mightExist(wikiId, id);
+    }
+
+    private void recordFalsePositive(String wikiId)
+    {
+        if (this.existenceFilter != null) {
+            this.existenceFilter.recordFalsePositive(wikiId);
+        }
+    }
+
     public Cache<XWikiDocument> getCache()
     {
         return this.cache;
@@ -25,12 +25,14 @@
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -62,6 +64,7 @@
 import org.xwiki.bridge.event.ActionExecutingEvent;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.localization.LocaleUtils;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
@@ -92,6 +95,7 @@
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.BaseProperty;
 import com.xpn.xwiki.objects.BaseStringProperty;
+import com.xpn.xwiki.objects.DBStringListProperty;
 import com.xpn.xwiki.objects.LargeStringProperty;
 import com.xpn.xwiki.objects.ListProperty;
 import com.xpn.xwiki.objects.PropertyInterface;
@@ -114,6 +118,11 @@
 @Singleton
 public class XWikiHibernateStore extends XWikiHibernateBaseStore implements XWikiStoreInterface
 {
+    /**
+     * The maximum number of values passed to a IN clause (Oracle does not support more than 1000).
+     */
+    private static final int MAX_IN_PARAMETERS = 1000;
+
     @Inject
     private Logger logger;
 
@@ -869,12 +878,7 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext inputxcontext)
 
             try {
                 session.load(doc, Long.valueOf(doc.getId()));
-                doc.setNew(false);
-                doc.setMostRecent(true);
-                // Fix for XWIKI-1651
-                doc.setDate(new Date(doc.getDate().getTime()));
-                doc.setCreationDate(new Date(doc.getCreationDate().getTime()));
-                doc.setContentUpdateDate(new Date(doc.getContentUpdateDate().getTime()));
+                initLoadedXWikiDoc(doc);
             } catch (ObjectNotFoundException e) { // No document
                 doc.setNew(true);
 
@@ -885,97 +889,17 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext inputxcontext)
                 return doc;
             }
 
-            // Loading the attachment list
-            if (doc.hasElement(XWikiDocument.HAS_ATTACHMENTS)) {
-                loadAttachmentList(doc, context, false);
-            }
-
-            // TODO: handle the case where there are no xWikiClass and xWikiObject in the Database
-            BaseClass bclass = new BaseClass();
-            String cxml = doc.getXClassXML();
-            if (cxml != null) {
-                bclass.fromXML(cxml);
-                doc.setXClass(bclass);
-                bclass.setDirty(false);
-            }
-
-            // Store this XWikiClass in the context so that we can use it in case of recursive usage
-            // of classes
-            context.addBaseClass(bclass);
+            BaseClass bclass = loadXWikiDocMetaData(doc, context);
 
             if (doc.hasElement(XWikiDocument.HAS_OBJECTS)) {
                 Query query = session
                     .createQuery("from BaseObject as bobject where bobject.name = :name order by " + "bobject.number");
                 query.setText("name", doc.getFullName());
-                @SuppressWarnings("unchecked")
-                Iterator<BaseObject> it = query.list().iterator();
-
-                EntityReference localGroupEntityReference = new EntityReference("XWikiGroups", EntityType.DOCUMENT,
-                    new EntityReference("XWiki", EntityType.SPACE));
-                DocumentReference groupsDocumentReference = new DocumentReference(context.getWikiId(),
-                    localGroupEntityReference.getParent().getName(), localGroupEntityReference.getName());
-
-                boolean hasGroups = false;
-                while (it.hasNext()) {
-                    BaseObject object = it.next();
-                    DocumentReference classReference = object.getXClassReference();
-
-                    if (classReference == null) {
-                        continue;
-                    }
-
-                    // It seems to search before is case insensitive. And this would break the loading if we get an
-                    // object which doesn't really belong to this document
-                    if (!object.getDocumentReference().equals(doc.getDocumentReference())) {
-                        continue;
-                    }
 
-                    BaseObject newobject;
-                    if (classReference.equals(doc.getDocumentReference())) {
-                        newobject = bclass.newCustomClassInstance(context);
-                    } else {
-                        newobject = BaseClass.newCustomClassInstance(classReference, context);
-                    }
-                    if (newobject != null) {
-                        newobject.setId(object.getId());
-                        newobject.setXClassReference(object.getRelativeXClassReference());
-                        newobject.setDocumentReference(object.getDocumentReference());
-                        newobject.setNumber(object.getNumber());
-                        newobject.setGuid(object.getGuid());
-                        object = newobject;
-                    }
-
-                    if (classReference.equals(groupsDocumentReference)) {
-                        // Groups objects are handled differently.
-                        hasGroups = true;
-                    } else {
-                        loadXWikiCollectionInternal(object, doc, context, false, true);
-                    }
-                    doc.setXObject(object.getNumber(), object);
-                }
-
-                // AFAICT this was added as an emergency patch because loading of objects has proven
-                // too slow and the objects which cause the most overhead are the XWikiGroups objects
-                // as each group object (each group member) would otherwise cost 2 database queries.
-                // This will do every group member in a single query.
-                if (hasGroups) {
-                    Query query2 = session.createQuery("select bobject.number, prop.value from StringProperty as prop,"
-                        + "BaseObject as bobject where bobject.name = :name and bobject.className='XWiki.XWikiGroups' "
-                        + "and bobject.id=prop.id.id and prop.id.name='member' order by bobject.number");
-                    query2.setText("name", doc.getFullName());
-                    @SuppressWarnings("unchecked")
-                    Iterator<Object[]> it2 = query2.list().iterator();
-                    while (it2.hasNext()) {
-                        Object[] result = it2.next();
-                        Integer number = (Integer) result[0];
-                        String member = (String) result[1];
-                        BaseObject obj = BaseClass.newCustomClassInstance(groupsDocumentReference, context);
-                        obj.setDocumentReference(doc.getDocumentReference());
-                        obj.setXClassReference(localGroupEntityReference);
-                        obj.setNumber(number.intValue());
-                        obj.setStringValue("member", member);
-                        doc.setXObject(obj.getNumber(), obj);
-                    }
+                List<BaseObject> objectsToLoad = new ArrayList<>();
+                setXObjects(doc, bclass, query.list(), objectsToLoad, context);
+                if (!objectsToLoad.isEmpty()) {
+                    loadXWikiCollectionsInternal(objectsToLoad, Collections.singletonList(doc), context);
                 }
             }
 
@@ -1012,6 +936,327 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext inputxcontext)
         return doc;
     }
 
+    @Override
+    public List<XWikiDocument> loadXWikiDocs(Collection<DocumentReference> references, XWikiContext inputxcontext)
+        throws XWikiException
+    {
+        XWikiContext context = getXWikiContext(inputxcontext);
+
+        // Dynamic custom mappings need to be injected before loading each document
+        if (context.getWiki().hasDynamicCustomMappings()) {
+            return XWikiStoreInterface.super.loadXWikiDocs(references, context);
+        }
+
+        // Group the documents by wiki
+        XWikiDocument[] documents = new XWikiDocument[references.size()];
+        Map<String, List<Integer>> indexesByWiki = new LinkedHashMap<>();
+        int index = 0;
+        for (DocumentReference reference : references) {
+            documents[index] = new XWikiDocument(
+                reference.getLocale() != null ? new DocumentReference(reference, null) : reference,
+                reference.getLocale());
+
+            String wiki = reference.getWikiReference().getName();
+            List<Integer> wikiIndexes = indexesByWiki.get(wiki);
+            if (wikiIndexes == null) {
+                wikiIndexes = new ArrayList<>();
+                indexesByWiki.put(wiki, wikiIndexes);
+            }
+            wikiIndexes.add(index++);
+        }
+
+        String currentWiki = context.getWikiId();
+        try {
+            for (Map.Entry<String, List<Integer>> entry : indexesByWiki.entrySet()) {
+                context.setWikiId(entry.getKey());
+
+                List<XWikiDocument> wikiDocuments = new ArrayList<>(entry.getValue().size());
+                for (Integer wikiIndex : entry.getValue()) {
+                    wikiDocuments.add(documents[wikiIndex]);
+                }
+
+                List<XWikiDocument> loadedDocuments = loadXWikiDocsInternal(wikiDocuments, context);
+
+                for (int i = 0; i < loadedDocuments.size(); ++i) {
+                    documents[entry.getValue().get(i)] = loadedDocuments.get(i);
+                }
+            }
+        } finally {
+            context.setWikiId(currentWiki);
+        }
+
+        return Arrays.asList(documents);
+    }
+
+    /**
+     * Load several documents of the current wiki with one query for the documents, one query for their objects and
+     * one query per property table.
+     *
+     * @param documents the documents to load
+     * @param context the XWiki context
+     * @return the loaded documents, in the same order as the passed documents
+     */
+    private List<XWikiDocument> loadXWikiDocsInternal(List<XWikiDocument> documents, XWikiContext context)
+        throws XWikiException
+    {
+        List<XWikiDocument> loadedDocuments = new ArrayList<>(documents.size());
+
+        boolean bTransaction = true;
+        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        try {
+            // Start monitoring timer
+            if (monitor != null) {
+                monitor.startTimer("hibernate");
+            }
+            checkHibernate(context);
+
+            bTransaction = beginTransaction(false, context);
+            Session session = getSession(context);
+            session.setFlushMode(FlushMode.MANUAL);
+
+            Set<Long> ids = new LinkedHashSet<>();
+            for (XWikiDocument document : documents) {
+                ids.add(document.getId());
+            }
+
+            // Load the documents
+            Map<Long, XWikiDocument> documentsById = new HashMap<>();
+            for (List<Long> partitionIds : partition(ids)) {
+                Query query = session.createQuery("from XWikiDocument as doc where doc.id in (:ids)");
+                query.setParameterList("ids", partitionIds);
+                for (XWikiDocument document : (List<XWikiDocument>) query.list()) {
+                    initLoadedXWikiDoc(document);
+                    documentsById.put(document.getId(), document);
+                }
+            }
+
+            // Load the attachments and classes
+            Map<String, List<XWikiDocument>> documentsWithObjects = new HashMap<>();
+            Map<XWikiDocument, BaseClass> classes = new HashMap<>();
+            for (XWikiDocument document : documentsById.values()) {
+                classes.put(document, loadXWikiDocMetaData(document, context));
+
+                if (document.hasElement(XWikiDocument.HAS_OBJECTS)) {
+                    List<XWikiDocument> sameNameDocuments = documentsWithObjects.get(document.getFullName());
+                    if (sameNameDocuments == null) {
+                        sameNameDocuments = new ArrayList<>();
+                        documentsWithObjects.put(document.getFullName(), sameNameDocuments);
+                    }
+                    sameNameDocuments.add(document);
+                }
+            }
+
+            // Load the objects
+            if (!documentsWithObjects.isEmpty()) {
+                Map<String, List<BaseObject>> storedObjects = new HashMap<>();
+                for (List<String> names : partition(documentsWithObjects.keySet())) {
+                    Query query = session.createQuery(
+                        "from BaseObject as bobject where bobject.name in (:names) order by bobject.number");
+                    query.setParameterList("names", names);
+                    for (BaseObject object : (List<BaseObject>) query.list()) {
+                        List<BaseObject> documentObjects = storedObjects.get(object.getName());
+                        if (documentObjects == null) {
+                            documentObjects = new ArrayList<>();
+                            storedObjects.put(object.getName(), documentObjects);
+                        }
+                        documentObjects.add(object);
+                    }
+                }
+
+                List<BaseObject> objectsToLoad = new ArrayList<>();
+                for (Map.Entry<String, List<XWikiDocument>> entry : documentsWithObjects.entrySet()) {
+                    List<BaseObject> documentObjects = storedObjects.get(entry.getKey());
+                    if (documentObjects != null) {
+                        for (XWikiDocument document : entry.getValue()) {
+                            setXObjects(document, classes.get(document), documentObjects, objectsToLoad, context);
+                        }
+                    }
+                }
+                if (!objectsToLoad.isEmpty()) {
+                    loadXWikiCollectionsInternal(objectsToLoad, documentsById.values(), context);
+                }
+            }
+
+            for (XWikiDocument loadedDocument : documentsById.values()) {
+                loadedDocument.setContentDirty(false);
+                loadedDocument.setMetaDataDirty(false);
+
+                // We need to ensure that the loaded document becomes the original document
+                loadedDocument.setOriginalDocument(loadedDocument.clone());
+            }
+
+            for (XWikiDocument document : documents) {
+                XWikiDocument loadedDocument = documentsById.get(document.getId());
+
+                if (loadedDocument != null) {
+                    loadedDocuments.add(loadedDocument);
+                } else {
+                    document.setStore(this);
+                    document.setNew(true);
+
+                    // Make sure to always return a document with an original version, even for one that does not
+                    // exist. Allow writing more generic code.
+                    document.setOriginalDocument(new XWikiDocument(document.getDocumentReference(),
+                        document.getLocale()));
+
+                    loadedDocuments.add(document);
+                }
+            }
+
+            if (bTransaction) {
+                endTransaction(context, false, false);
+            }
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_READING_DOC, "Exception while reading documents", e);
+        } finally {
+            try {
+                if (bTransaction) {
+                    endTransaction(context, false, false);
+                }
+            } catch (Exception e) {
+            }
+
+            // End monitoring timer
+            if (monitor != null) {
+                monitor.endTimer("hibernate");
+            }
+        }
+
+        this.logger.debug("Loaded [{}] XWikiDocuments", loadedDocuments.size());
+
+        return loadedDocuments;
+    }
+
+    /**
+     * Initialize a document which has just been loaded from the database.
+     */
+    private void initLoadedXWikiDoc(XWikiDocument doc)
+    {
+        doc.setStore(this);
+        doc.setNew(false);
+        doc.setMostRecent(true);
+        // Fix for XWIKI-1651
+        doc.setDate(new Date(doc.getDate().getTime()));
+        doc.setCreationDate(new Date(doc.getCreationDate().getTime()));
+        doc.setContentUpdateDate(new Date(doc.getContentUpdateDate().getTime()));
+    }
+
+    /**
+     * Load the attachments and the class of a document which has just been loaded from the database.
+     *
+     * @return the class of the document
+     */
+    private BaseClass loadXWikiDocMetaData(XWikiDocument doc, XWikiContext context) throws XWikiException
+    {
+        // Loading the attachment list
+        if (doc.hasElement(XWikiDocument.HAS_ATTACHMENTS)) {
+            loadAttachmentList(doc, context, false);
+        }
+
+        // TODO: handle the case where there are no xWikiClass and xWikiObject in the Database
+        BaseClass bclass = new BaseClass();
+        String cxml = doc.getXClassXML();
+        if (cxml != null) {
+            bclass.fromXML(cxml);
+            doc.setXClass(bclass);
+            bclass.setDirty(false);
+        }
+
+        // Store this XWikiClass in the context so that we can use it in case of recursive usage
+        // of classes
+        context.addBaseClass(bclass);
+
+        return bclass;
+    }
+
+    /**
+     * Set in the document the objects loaded from the database.
+     *
+     * @param doc the document
+     * @param bclass the class of the document
+     * @param storedObjects the objects loaded from the database
+     * @param objectsToLoad the objects for which the properties still need to be loaded (when batch loading is
+     *            enabled)
+     * @param context the XWiki context
+     */
+    private void setXObjects(XWikiDocument doc, BaseClass bclass, List<BaseObject> storedObjects,
+        List<BaseObject> objectsToLoad, XWikiContext context) throws XWikiException
+    {
+        EntityReference localGroupEntityReference = new EntityReference("XWikiGroups", EntityType.DOCUMENT,
+            new EntityReference("XWiki", EntityType.SPACE));
+        DocumentReference groupsDocumentReference = new DocumentReference(context.getWikiId(),
+            localGroupEntityReference.getParent().getName(), localGroupEntityReference.getName());
+
+        boolean batchLoading = isBatchObjectLoadingEnabled(context);
+
+        boolean hasGroups = false;
+        for (BaseObject storedObject : storedObjects) {
+            BaseObject object = storedObject;
+            DocumentReference classReference = object.getXClassReference();
+
+            if (classReference == null) {
+                continue;
+            }
+
+            // It seems to search before is case insensitive. And this would break the loading if we get an
+            // object which doesn't really belong to this document
+            if (!object.getDocumentReference().equals(doc.getDocumentReference())) {
+                continue;
+            }
+
+            BaseObject newobject;
+            if (classReference.equals(doc.getDocumentReference())) {
+                newobject = bclass.newCustomClassInstance(context);
+            } else {
+                newobject = BaseClass.newCustomClassInstance(classReference, context);
+            }
+            if (newobject != null) {
+                newobject.setId(object.getId());
+                newobject.setXClassReference(object.getRelativeXClassReference());
+                newobject.setDocumentReference(object.getDocumentReference());
+                newobject.setNumber(object.getNumber());
+                newobject.setGuid(object.getGuid());
+                object = newobject;
+            }
+
+            if (classReference.equals(groupsDocumentReference)) {
+                // Groups objects are handled differently.
+                hasGroups = true;
+            } else if (batchLoading) {
+                objectsToLoad.add(object);
+            } else {
+                loadXWikiCollectionInternal(object, doc, context, false, true);
+            }
+            doc.setXObject(object.getNumber(), object);
+        }
+
+        // AFAICT this was added as an emergency patch because loading of objects has proven
+        // too slow and the objects which cause the most overhead are the XWikiGroups objects
+        // as each group object (each group member) would otherwise cost 2 database queries.
+        // This will do every group member in a single query.
+        if (hasGroups) {
+            Session session = getSession(context);
+            Query query2 = session.createQuery("select bobject.number, prop.value from StringProperty as prop,"
+                + "BaseObject as bobject where bobject.name = :name and bobject.className='XWiki.XWikiGroups' "
+                + "and bobject.id=prop.id.id and prop.id.name='member' order by bobject.number");
+            query2.setText("name", doc.getFullName());
+            @SuppressWarnings("unchecked")
+            Iterator<Object[]> it2 = query2.list().iterator();
+            while (it2.hasNext()) {
+                Object[] result = it2.next();
+                Integer number = (Integer) result[0];
+                String member = (String) result[1];
+                BaseObject obj = BaseClass.newCustomClassInstance(groupsDocumentReference, context);
+                obj.setDocumentReference(doc.getDocumentReference());
+                obj.setXClassReference(localGroupEntityReference);
+                obj.setNumber(number.intValue());
+                obj.setStringValue("member", member);
+                doc.setXObject(obj.getNumber(), obj);
+            }
+        }
+    }
+
     @Override
     public void deleteXWikiDoc(XWikiDocument doc, XWikiContext inputxcontext) throws XWikiException
     {
@@ -1356,55 +1601,8 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
                         continue;
                     }
                     String classType = (String) result[1];
-                    BaseProperty property = null;
 
-                    try {
-                        property = (BaseProperty) Class.forName(classType).newInstance();
-                        property.setObject(object);
-                        property.setName(name);
-                        loadXWikiProperty(property, context, false);
-                    } catch (Exception e) {
-                        // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
-                        try {
-                            if (property instanceof StringProperty) {
-                                LargeStringProperty property2 = new LargeStringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof TextAreaClass) {
-                                        property = property2;
-                                    }
-                                }
-
-                            } else if (property instanceof LargeStringProperty) {
-                                StringProperty property2 = new StringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof StringClass) {
-                                        property = property2;
-                                    }
-                                }
-                            } else {
-                                throw e;
-                            }
-                        } catch (Throwable e2) {
-                            Object[] args =
-                                { object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name };
-                            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
-                                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
-                                "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'",
-                                e, args);
-                        }
-                    }
-
-                    object.addField(name, property);
+                    object.addField(name, loadXWikiProperty(object, bclass, name, classType, context));
                 }
             }
 
@@ -1428,6 +1626,289 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
 
     }
 
+    /**
+     * @return true if the properties of all the objects of a document should be loaded with one query per property
+     *         table instead of one query per property
+     */
+    private boolean isBatchObjectLoadingEnabled(XWikiContext context)
+    {
+        return context.getWiki() != null
+            && context.getWiki().ParamAsLong("xwiki.store.hibernate.batchobjectloading", 1) == 1;
+    }
+
+    private BaseClass getXClass(BaseCollection object, XWikiDocument doc, XWikiContext context)
+    {
+        if (!object.getXClassReference().equals(object.getDocumentReference())) {
+            return object.getXClass(context);
+        }
+
+        // We need to get it from the document otherwise we will go in an endless loop
+        return doc != null ? doc.getXClass() : null;
+    }
+
+    /**
+     * Load the properties of several objects using one query per property table instead of one query per property.
+     * The objects are expected to already be loaded.
+     *
+     * @param objects the objects for which to load the properties
+     * @param documents the documents containing the objects
+     * @param context the XWiki context
+     * @throws XWikiException when failing to load the properties
+     */
+    void loadXWikiCollectionsInternal(List<BaseObject> objects, Collection<XWikiDocument> documents,
+        XWikiContext context) throws XWikiException
+    {
+        Session session = getSession(context);
+
+        Map<DocumentReference, XWikiDocument> documentsByReference = new HashMap<>();
+        for (XWikiDocument document : documents) {
+            documentsByReference.put(document.getDocumentReference(), document);
+        }
+
+        Map<Long, BaseObject> objectsById = new HashMap<>();
+        Map<Long, BaseClass> classesById = new HashMap<>();
+        Map<Long, List<String>> handledPropsById = new HashMap<>();
+        Map<DocumentReference, List<BaseObject>> objectsByClass = new HashMap<>();
+        for (BaseObject object : objects) {
+            if (object.getXClassReference() != null) {
+                objectsById.put(object.getId(), object);
+                BaseClass bclass =
+                    getXClass(object, documentsByReference.get(object.getDocumentReference()), context);
+                if (bclass != null) {
+                    classesById.put(object.getId(), bclass);
+                }
+                List<BaseObject> classObjects = objectsByClass.get(object.getXClassReference());
+                if (classObjects == null) {
+                    classObjects = new ArrayList<>();
+                    objectsByClass.put(object.getXClassReference(), classObjects);
+                }
+                classObjects.add(object);
+            }
+        }
+
+        if (objectsById.isEmpty()) {
+            return;
+        }
+
+        // Load the custom mapped properties, one query per custom mapped class
+        if (context.getWiki().hasCustomMappings()) {
+            for (List<BaseObject> classObjects : objectsByClass.values()) {
+                BaseClass bclass = classesById.get(classObjects.get(0).getId());
+                if (bclass != null && bclass.hasCustomMapping()) {
+                    loadCustomMappedProperties(classObjects, bclass, handledPropsById, session, context);
+                }
+            }
+        }
+
+        try {
+            // Find the name and type of all the properties of all the objects
+            Map<String, Set<Long>> idsByClassType = new HashMap<>();
+            Map<String, String> pendingProperties = new HashMap<>();
+            for (List<Long> ids : partition(objectsById.keySet())) {
+                Query query = session.createQuery("select prop.id.id, prop.name, prop.classType"
+                    + " from BaseProperty as prop where prop.id.id in (:ids)");
+                query.setParameterList("ids", ids);
+                for (Object[] result : (List<Object[]>) query.list()) {
+                    Long id = (Long) result[0];
+                    String name = (String) result[1];
+                    String classType = (String) result[2];
+
+                    // No need to load fields already loaded from custom mapping
+                    List<String> handledProps = handledPropsById.get(id);
+                    if (handledProps != null && handledProps.contains(name)) {
+                        continue;
+                    }
+
+                    Set<Long> classTypeIds = idsByClassType.get(classType);
+                    if (classTypeIds == null) {
+                        classTypeIds = new HashSet<>();
+                        idsByClassType.put(classType, classTypeIds);
+                    }
+                    classTypeIds.add(id);
+                    pendingProperties.put(getPropertyKey(id, name), classType);
+                }
+            }
+
+            // Load the values, one query per property table
+            for (Map.Entry<String, Set<Long>> entry : idsByClassType.entrySet()) {
+                String classType = entry.getKey();
+                StringBuilder statement = new StringBuilder("select prop from " + classType + " as prop");
+                if (DBStringListProperty.class.getName().equals(classType)) {
+                    // Also fetch the list items to avoid one query per list
+                    statement.append(" left join fetch prop.list");
+                }
+                statement.append(" where prop.id.id in (:ids) and prop.classType = :classType");
+                for (List<Long> ids : partition(entry.getValue())) {
+                    Query query = session.createQuery(statement.toString());
+                    query.setParameterList("ids", ids);
+                    query.setString("classType", classType);
+                    for (BaseProperty property : (List<BaseProperty>) query.list()) {
+                        BaseObject object = objectsById.get(property.getId());
+                        String propertyKey = getPropertyKey(property.getId(), property.getName());
+                        if (object == null || pendingProperties.remove(propertyKey) == null) {
+                            // Unknown or duplicated (because of the fetch join) property
+                            continue;
+                        }
+
+                        // In Oracle, empty string are converted to NULL. Since an undefined property is not found at
+                        // all, it is safe to assume that a retrieved NULL value should actually be an empty string.
+                        if (property instanceof BaseStringProperty) {
+                            BaseStringProperty stringProperty = (BaseStringProperty) property;
+                            if (stringProperty.getValue() == null) {
+                                stringProperty.setValue("");
+                            }
+                        }
+                        if (property instanceof ListProperty) {
+                            ((ListProperty) property).getList();
+                        }
+                        property.setObject(object);
+                        property.setValueDirty(false);
+
+                        object.addField(property.getName(), property);
+                    }
+                }
+            }
+
+            // Fallback on the property by property loading for what could not be found in the expected table (like
+            // mismatches between StringProperty and LargeStringProperty)
+            for (Map.Entry<String, String> entry : pendingProperties.entrySet()) {
+                String propertyKey = entry.getKey();
+                int index = propertyKey.indexOf(':');
+                Long id = Long.valueOf(propertyKey.substring(0, index));
+                String name = propertyKey.substring(index + 1);
+                BaseObject object = objectsById.get(id);
+
+                object.addField(name, loadXWikiProperty(object, classesById.get(id), name, entry.getValue(), context));
+            }
+        } catch (XWikiException e) {
+            throw e;
+        } catch (Exception e) {
+            Object[] args = { documentsByReference.keySet() };
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
+                "Exception while loading the objects of documents {0}", e, args);
+        }
+    }
+
+    private void loadCustomMappedProperties(List<BaseObject> objects, BaseClass bclass,
+        Map<Long, List<String>> handledPropsById, Session session, XWikiContext context)
+    {
+        Map<Long, BaseObject> objectsById = new HashMap<>();
+        for (BaseObject object : objects) {
+            objectsById.put(object.getId(), object);
+        }
+
+        try {
+            Session dynamicSession = session.getSession(EntityMode.MAP);
+            List<String> customMappingProperties = bclass.getCustomMappingPropertyList(context);
+            for (List<Long> ids : partition(objectsById.keySet())) {
+                Query query =
+                    dynamicSession.createQuery("from " + bclass.getName() + " as obj where obj.id in (:ids)");
+                query.setParameterList("ids", ids);
+                for (Map<String, ?> map : (List<Map<String, ?>>) query.list()) {
+                    Long id = (Long) map.get("id");
+                    BaseObject object = objectsById.get(id);
+                    if (object != null) {
+                        // Let's make sure to look for null fields in the dynamic mapping
+                        bclass.fromValueMap(map, object);
+                        List<String> handledProps = new ArrayList<>();
+                        for (String prop : customMappingProperties) {
+                            if (map.get(prop) != null) {
+                                handledProps.add(prop);
+                            }
+                        }
+                        handledPropsById.put(id, handledProps);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // Same as when loading a single object: the properties which could not be loaded from the custom mapping
+            // are loaded from the standard property tables
+            this.logger.debug("Failed to load custom mapped properties of class [{}]", bclass.getName(), e);
+        }
+    }
+
+    private String getPropertyKey(long id, String name)
+    {
+        return id + ":" + name;
+    }
+
+    /**
+     * Split the passed values in lists small enough to be used in a IN clause on any database.
+     */
+    private <T> List<List<T>> partition(Collection<T> values)
+    {
+        List<List<T>> partitions = new ArrayList<>();
+        List<T> partition = null;
+        for (T value : values) {
+            if (partition == null || partition.size() == MAX_IN_PARAMETERS) {
+                partition = new ArrayList<>();
+                partitions.add(partition);
+            }
+            partition.add(value);
+        }
+
+        return partitions;
+    }
+
+    /**
+     * Load a single property of an object, working around the mismatches between {@link StringProperty} and
+     * {@link LargeStringProperty} which can be found in the database.
+     */
+    private BaseProperty loadXWikiProperty(BaseCollection object, BaseClass bclass, String name, String classType,
+        XWikiContext context) throws XWikiException
+    {
+        BaseProperty property = null;
+
+        try {
+            property = (BaseProperty) Class.forName(classType).newInstance();
+            property.setObject(object);
+            property.setName(name);
+            loadXWikiProperty(property, context, false);
+        } catch (Exception e) {
+            // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
+            try {
+                if (property instanceof StringProperty) {
+                    LargeStringProperty property2 = new LargeStringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof TextAreaClass) {
+                            property = property2;
+                        }
+                    }
+
+                } else if (property instanceof LargeStringProperty) {
+                    StringProperty property2 = new StringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof StringClass) {
+                            property = property2;
+                        }
+                    }
+                } else {
+                    throw e;
+                }
+            } catch (Throwable e2) {
+                Object[] args =
+                    { object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name };
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
+                    "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'",
+                    e, args);
+            }
+        }
+
+        return property;
+    }
+
     /**
      * @deprecated This is internal to XWikiHibernateStore and may be removed in the future.
      */
@@ -2661,7 +3142,8 @@ public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbyla
 
         // Resolve documents. We use two separated sessions because rights service could need to switch database to
         // check rights
-        List<XWikiDocument> documents = new ArrayList<XWikiDocument>();
+        List<DocumentReference> documentReferences = new ArrayList<>(documentDatas.size());
+        List<Locale> locales = new ArrayList<>(documentDatas.size());
         WikiReference currentWikiReference = new WikiReference(context.getWikiId());
         for (Object result : documentDatas) {
             String fullName;
@@ -2684,16 +3166,33 @@ public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbyla
                 }
             }
 
-            DocumentReference documentReference = doc.getDocumentReference();
-            if (distinctbylanguage) {
-                XWikiDocument document = context.getWiki().getDocument(documentReference, context);
-                if (StringUtils.isEmpty(locale)) {
-                    documents.add(document);
-                } else {
-                    documents.add(document.getTranslatedDocument(locale, context));
+            documentReferences.add(doc.getDocumentReference());
+            locales.add(StringUtils.isEmpty(locale) ? null : LocaleUtils.toLocale(locale, Locale.ROOT));
+        }
+
+        // Load all the documents at once instead of one by one
+        List<XWikiDocument> documents = context.getWiki().getDocuments(documentReferences, context);
+
+        // Load all the requested translations at once
+        List<DocumentReference> translationReferences = new ArrayList<>();
+        List<Integer> translationIndexes = new ArrayList<>();
+        for (int i = 0; i < documents.size(); ++i) {
+            Locale locale = locales.get(i);
+            XWikiDocument document = documents.get(i);
+            if (locale != null && !locale.equals(Locale.ROOT) && !locale.equals(document.getDefaultLocale())) {
+                translationReferences.add(new DocumentReference(document.getDocumentReference(), locale));
+                translationIndexes.add(i);
+            }
+        }
+        if (!translationReferences.isEmpty()) {
+            List<XWikiDocument> translations = context.getWiki().getDocuments(translationReferences, context);
+            for (int i = 0; i < translations.size(); ++i) {
+                XWikiDocument translation = translations.get(i);
+                // Fallback on the default document when the translation does not exist, see
+                // XWikiDocument#getTranslatedDocument(Locale, XWikiContext)
+                if (!translation.isNew()) {
+                    documents.set(translationIndexes.get(i), translation);
                 }
-            } else {
-                documents.add(context.getWiki().getDocument(documentReference, context));
             }
         }
 
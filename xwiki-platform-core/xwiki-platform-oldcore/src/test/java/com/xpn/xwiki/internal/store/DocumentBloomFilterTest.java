@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link DocumentBloomFilter}.
+ *
+ * @version $Id$
+ */
+public class DocumentBloomFilterTest
+{
+    @Test
+    public void mightContain()
+    {
+        DocumentBloomFilter filter = new DocumentBloomFilter(1000, 0.01);
+
+        Random random = new Random(42);
+        long[] ids = new long[1000];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = random.nextLong();
+            filter.put(ids[i]);
+        }
+
+        // No false negative
+        for (long id : ids) {
+            assertTrue(filter.mightContain(id));
+        }
+
+        // Few false positives
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; ++i) {
+            if (filter.mightContain(random.nextLong())) {
+                ++falsePositives;
+            }
+        }
+        assertTrue("Too many false positives: " + falsePositives, falsePositives < 300);
+
+        assertFalse(new DocumentBloomFilter(1000, 0.01).mightContain(ids[0]));
+    }
+}
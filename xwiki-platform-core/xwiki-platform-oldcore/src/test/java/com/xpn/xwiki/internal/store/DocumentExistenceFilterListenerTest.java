@@ -0,0 +1,97 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DocumentExistenceFilterListener}.
+ *
+ * @version $Id$
+ */
+public class DocumentExistenceFilterListenerTest
+{
+    @Rule
+    public MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<>(DocumentExistenceFilterListener.class);
+
+    private DocumentExistenceFilter filter;
+
+    private XWikiDocument document = new XWikiDocument(new DocumentReference("wiki", "Space", "Page"));
+
+    @Before
+    public void before() throws Exception
+    {
+        this.filter = this.mocker.getInstance(DocumentExistenceFilter.class);
+        when(this.filter.isEnabled()).thenReturn(true);
+    }
+
+    @Test
+    public void createdDocumentIsAdded() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onEvent(new DocumentCreatedEvent(), this.document, null);
+
+        verify(this.filter).add("wiki", this.document.getId());
+    }
+
+    @Test
+    public void deletedDocumentIsCounted() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onEvent(new DocumentDeletedEvent(), this.document, null);
+
+        verify(this.filter).remove("wiki");
+    }
+
+    @Test
+    public void deletedWikiIsInvalidated() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onEvent(new WikiDeletedEvent("wiki"), null, null);
+
+        verify(this.filter).invalidate("wiki");
+    }
+
+    @Test
+    public void disabledFilterIsNotTouched() throws Exception
+    {
+        when(this.filter.isEnabled()).thenReturn(false);
+
+        this.mocker.getComponentUnderTest().onEvent(new DocumentCreatedEvent(), this.document, null);
+        this.mocker.getComponentUnderTest().onEvent(new DocumentDeletedEvent(), this.document, null);
+        this.mocker.getComponentUnderTest().onEvent(new WikiDeletedEvent("wiki"), null, null);
+
+        verify(this.filter, times(3)).isEnabled();
+        verifyNoMoreInteractions(this.filter);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.internal.XWikiCfgConfigurationSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DocumentExistenceFilter}.
+ *
+ * @version $Id$
+ */
+public class DocumentExistenceFilterTest
+{
+    @Rule
+    public MockitoComponentMockingRule<DocumentExistenceFilter> mocker =
+        new MockitoComponentMockingRule<>(DocumentExistenceFilter.class);
+
+    private ConfigurationSource configuration;
+
+    @Before
+    public void before() throws Exception
+    {
+        this.configuration = this.mocker.getInstance(ConfigurationSource.class, XWikiCfgConfigurationSource.ROLEHINT);
+        when(this.configuration.getProperty(DocumentExistenceFilter.CONFIGURATION_ENABLED, 0)).thenReturn(1);
+
+        QueryManager queryManager = this.mocker.getInstance(QueryManager.class);
+
+        Query countQuery = mock(Query.class, "count");
+        when(queryManager.createQuery("select count(doc.id) from XWikiDocument doc", Query.HQL))
+            .thenReturn(countQuery);
+        when(countQuery.setWiki("wiki")).thenReturn(countQuery);
+        when(countQuery.execute()).thenReturn(Collections.singletonList(2L));
+
+        Query idsQuery = mock(Query.class, "ids");
+        when(queryManager.createQuery(
+            "select doc.id from XWikiDocument doc where doc.id > :lastId order by doc.id", Query.HQL))
+            .thenReturn(idsQuery);
+        when(idsQuery.setWiki("wiki")).thenReturn(idsQuery);
+        when(idsQuery.setLimit(anyInt())).thenReturn(idsQuery);
+        when(idsQuery.bindValue(eq("lastId"), eq(Long.MIN_VALUE))).thenReturn(idsQuery);
+        when(idsQuery.execute()).thenReturn(Arrays.asList(1L, 2L));
+    }
+
+    private int countMightExist(String wiki, long from, long to) throws Exception
+    {
+        int count = 0;
+        for (long id = from; id < to; ++id) {
+            if (this.mocker.getComponentUnderTest().mightExist(wiki, id)) {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    @Test
+    public void mightExistBeforeBuild() throws Exception
+    {
+        assertEquals(100, countMightExist("wiki", 3, 103));
+        assertEquals(0, this.mocker.getComponentUnderTest().getNegativeCount());
+        assertEquals(0, this.mocker.getComponentUnderTest().getReadyWikiCount());
+    }
+
+    @Test
+    public void mightExistAfterBuild() throws Exception
+    {
+        DocumentExistenceFilter filter = this.mocker.getComponentUnderTest();
+
+        filter.rebuild("wiki");
+
+        assertEquals(1, filter.getReadyWikiCount());
+        assertTrue(filter.mightExist("wiki", 1L));
+        assertTrue(filter.mightExist("wiki", 2L));
+
+        // Most of the other documents are known to not exist
+        int falsePositives = countMightExist("wiki", 3, 103);
+        assertTrue("Too many false positives: " + falsePositives, falsePositives < 10);
+        assertEquals(100 - falsePositives, filter.getNegativeCount());
+
+        // The other wikis are not filtered
+        assertEquals(100, countMightExist("otherwiki", 3, 103));
+    }
+
+    @Test
+    public void addedDocumentExistsRightAway() throws Exception
+    {
+        DocumentExistenceFilter filter = this.mocker.getComponentUnderTest();
+        filter.rebuild("wiki");
+
+        for (long id = 3; id < 103; ++id) {
+            filter.add("wiki", id);
+        }
+
+        assertEquals(100, countMightExist("wiki", 3, 103));
+    }
+
+    @Test
+    public void invalidate() throws Exception
+    {
+        DocumentExistenceFilter filter = this.mocker.getComponentUnderTest();
+        filter.rebuild("wiki");
+
+        filter.invalidate("wiki");
+
+        assertEquals(0, filter.getReadyWikiCount());
+        assertEquals(100, countMightExist("wiki", 3, 103));
+    }
+
+    @Test
+    public void needsRebuildAfterManyDeletions() throws Exception
+    {
+        DocumentExistenceFilter filter = this.mocker.getComponentUnderTest();
+        filter.rebuild("wiki");
+
+        assertFalse(filter.needsRebuild("wiki"));
+
+        // The filter of 2 documents has a headroom of 10000 documents
+        for (int i = 0; i <= 1001; ++i) {
+            filter.remove("wiki");
+        }
+
+        assertTrue(filter.needsRebuild("wiki"));
+    }
+
+    @Test
+    public void disabled() throws Exception
+    {
+        when(this.configuration.getProperty(DocumentExistenceFilter.CONFIGURATION_ENABLED, 0)).thenReturn(0);
+
+        assertFalse(this.mocker.getComponentUnderTest().isEnabled());
+    }
+}
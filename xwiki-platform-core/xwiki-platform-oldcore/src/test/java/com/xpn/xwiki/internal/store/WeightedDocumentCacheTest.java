@@ -0,0 +1,202 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link WeightedDocumentCache}.
+ *
+ * @version $Id$
+ */
+public class WeightedDocumentCacheTest
+{
+    private Cache<XWikiDocument> wrappedCache;
+
+    @Before
+    public void before()
+    {
+        this.wrappedCache = mock(Cache.class);
+    }
+
+    private XWikiDocument mockDocument(int contentLength)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getContent()).thenReturn(StringUtils.repeat('a', contentLength));
+        when(document.getXObjects()).thenReturn(Collections.emptyMap());
+        when(document.getAttachmentList()).thenReturn(Collections.emptyList());
+
+        return document;
+    }
+
+    @Test
+    public void weigh()
+    {
+        long smallWeight = WeightedDocumentCache.weigh(mockDocument(10));
+        long bigWeight = WeightedDocumentCache.weigh(mockDocument(100010));
+
+        assertEquals(200000, bigWeight - smallWeight);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedWhenOverWeight()
+    {
+        XWikiDocument document1 = mockDocument(10000);
+        XWikiDocument document2 = mockDocument(10000);
+        XWikiDocument document3 = mockDocument(10000);
+        long weight = WeightedDocumentCache.weigh(document1);
+
+        WeightedDocumentCache cache = new WeightedDocumentCache(this.wrappedCache, weight * 2);
+
+        cache.set("1", document1);
+        cache.set("2", document2);
+
+        assertEquals(weight * 2, cache.getTotalWeight());
+        assertEquals(2, cache.getSize());
+
+        // Access the first document so that the second one becomes the least recently used
+        when(this.wrappedCache.get("1")).thenReturn(document1);
+        assertSame(document1, cache.get("1"));
+
+        cache.set("3", document3);
+
+        verify(this.wrappedCache).remove("2");
+        verify(this.wrappedCache, never()).remove("1");
+        assertEquals(weight * 2, cache.getTotalWeight());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.getHitCount());
+
+        assertEquals(null, cache.get("2"));
+        assertEquals(1, cache.getMissCount());
+
+        cache.remove("1");
+        assertEquals(weight, cache.getTotalWeight());
+
+        cache.removeAll();
+        assertEquals(0, cache.getTotalWeight());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void removalOfReplacedDocumentKeepsWeightOfNewDocument()
+    {
+        ArgumentCaptor<CacheEntryListener> captor = ArgumentCaptor.forClass(CacheEntryListener.class);
+        WeightedDocumentCache cache = new WeightedDocumentCache(this.wrappedCache, Long.MAX_VALUE);
+        verify(this.wrappedCache).addCacheEntryListener(captor.capture());
+        CacheEntryListener<XWikiDocument> listener = captor.getValue();
+
+        XWikiDocument oldDocument = mockDocument(10);
+        XWikiDocument newDocument = mockDocument(100);
+        cache.set("1", oldDocument);
+        cache.set("1", newDocument);
+
+        // The wrapped cache notifies the removal of the old document after it has been replaced
+        listener.cacheEntryRemoved(mockEvent("1", oldDocument));
+
+        assertEquals(1, cache.getSize());
+        assertEquals(WeightedDocumentCache.weigh(newDocument), cache.getTotalWeight());
+
+        // The wrapped cache evicts the new document by itself
+        listener.cacheEntryRemoved(mockEvent("1", newDocument));
+
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getTotalWeight());
+    }
+
+    @Test
+    public void concurrentSetsKeepWeightsInSync() throws Exception
+    {
+        Map<String, XWikiDocument> entries = new ConcurrentHashMap<>();
+        doAnswer(invocation -> entries.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(this.wrappedCache).set(anyString(), any(XWikiDocument.class));
+        doAnswer(invocation -> entries.remove(invocation.getArgument(0))).when(this.wrappedCache)
+            .remove(anyString());
+
+        XWikiDocument document = mockDocument(100);
+        long weight = WeightedDocumentCache.weigh(document);
+        WeightedDocumentCache cache = new WeightedDocumentCache(this.wrappedCache, weight * 10);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; ++thread) {
+                int offset = thread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; ++i) {
+                        cache.set(String.valueOf((i * 4 + offset) % 50), document);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every tracked document is in the wrapped cache and the other way around
+        assertEquals(entries.size(), cache.getSize());
+        assertEquals(weight * entries.size(), cache.getTotalWeight());
+        assertTrue(cache.getTotalWeight() <= weight * 10);
+    }
+
+    @SuppressWarnings("unchecked")
+    private CacheEntryEvent<XWikiDocument> mockEvent(String key, XWikiDocument document)
+    {
+        CacheEntry<XWikiDocument> entry = mock(CacheEntry.class);
+        when(entry.getKey()).thenReturn(key);
+        when(entry.getValue()).thenReturn(document);
+        CacheEntryEvent<XWikiDocument> event = mock(CacheEntryEvent.class);
+        when(event.getEntry()).thenReturn(entry);
+
+        return event;
+    }
+}
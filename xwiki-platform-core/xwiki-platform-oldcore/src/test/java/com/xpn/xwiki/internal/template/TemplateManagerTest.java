@@ -20,11 +20,14 @@
 package com.xpn.xwiki.internal.template;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.velocity.VelocityContext;
 import org.junit.Before;
 import org.junit.Rule;
@@ -35,9 +38,11 @@
 import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.configuration.internal.MemoryConfigurationSource;
 import org.xwiki.environment.Environment;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.rendering.transformation.TransformationManager;
 import org.xwiki.security.authorization.ContextualAuthorizationManager;
 import org.xwiki.template.TemplateManager;
+import org.xwiki.template.event.TemplateUpdatedEvent;
 import org.xwiki.test.annotation.AfterComponent;
 import org.xwiki.test.annotation.AllComponents;
 import org.xwiki.test.internal.MockConfigurationSource;
@@ -49,6 +54,8 @@
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -131,6 +138,40 @@ public void testRenderWiki() throws Exception
         assertEquals("<p>first line<br/>second line</p>", mocker.getComponentUnderTest().render("template"));
     }
 
+    @Test
+    public void testRenderReusesUnmodifiedContent() throws Exception
+    {
+        mockVelocity("source", "OK");
+
+        File file = new File("target/test-" + getClass().getSimpleName() + "/template");
+        FileUtils.write(file, "source", StandardCharsets.UTF_8);
+        when(this.environmentMock.getResource("/templates/template")).thenReturn(file.toURI().toURL());
+        when(this.environmentMock.getResourceAsStream("/templates/template"))
+            .thenReturn(new ByteArrayInputStream("source".getBytes("UTF8")));
+
+        assertEquals("OK", this.mocker.getComponentUnderTest().render("template"));
+        assertEquals("OK", this.mocker.getComponentUnderTest().render("template"));
+
+        verify(this.environmentMock, times(1)).getResourceAsStream("/templates/template");
+
+        // Modify the template file
+        mockVelocity("modified", "MODIFIED");
+        when(this.environmentMock.getResourceAsStream("/templates/template"))
+            .thenReturn(new ByteArrayInputStream("modified".getBytes("UTF8")));
+        file.setLastModified(file.lastModified() - 10000);
+
+        assertEquals("MODIFIED", this.mocker.getComponentUnderTest().render("template"));
+
+        // Notify a template modification
+        mockVelocity("notified", "NOTIFIED");
+        when(this.environmentMock.getResourceAsStream("/templates/template"))
+            .thenReturn(new ByteArrayInputStream("notified".getBytes("UTF8")));
+        this.mocker.<ObservationManager>getInstance(ObservationManager.class)
+            .notify(new TemplateUpdatedEvent("/templates/template"), null);
+
+        assertEquals("NOTIFIED", this.mocker.getComponentUnderTest().render("template"));
+    }
+
     @Test
     public void testRenderClassloaderTemplate() throws ComponentLookupException, Exception
     {
@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.stats.impl.xwiki;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.xpn.xwiki.stats.impl.StatsUtil.PeriodType;
+import com.xpn.xwiki.stats.impl.xwiki.DocumentStatsCounters.Counter;
+import com.xpn.xwiki.stats.impl.xwiki.DocumentStatsCounters.Key;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link DocumentStatsCounters}.
+ *
+ * @version $Id$
+ */
+public class DocumentStatsCountersTest
+{
+    private DocumentStatsCounters counters = new DocumentStatsCounters();
+
+    private Date date = new Calendar.Builder().setDate(2017, Calendar.APRIL, 12).build().getTime();
+
+    @Test
+    public void addAggregatesByKey()
+    {
+        this.counters.add("wiki", "Space.Page", "view", this.date, PeriodType.MONTH, true);
+        this.counters.add("wiki", "Space.Page", "view", this.date, PeriodType.MONTH, false);
+        this.counters.add("wiki", "Space.Page", "save", this.date, PeriodType.MONTH, false);
+        this.counters.add("otherwiki", "Space.Page", "view", this.date, PeriodType.MONTH, false);
+
+        Map<Key, Counter> flushed = this.counters.startFlush();
+
+        assertEquals(3, flushed.size());
+        Counter counter = flushed.get(new Key("wiki", "Space.Page", "view", PeriodType.MONTH, 201704));
+        assertEquals(2, counter.getPageViews());
+        assertEquals(1, counter.getVisits());
+        assertEquals(this.date, counter.getPeriodDate());
+        assertTrue(this.counters.isEmpty());
+    }
+
+    @Test
+    public void getPageViews()
+    {
+        this.counters.add("wiki", "Space.Page", "view", this.date, PeriodType.DAY, false);
+        this.counters.add("wiki", "Space.Page", "view", this.date, PeriodType.DAY, false);
+        this.counters.add("wiki", "Space", "view", this.date, PeriodType.DAY, false);
+        this.counters.add("wiki", "Other.Page", "save", this.date, PeriodType.DAY, false);
+        this.counters.add("otherwiki", "Space.Page", "view", this.date, PeriodType.DAY, false);
+
+        Map<String, Integer> pageViews =
+            this.counters.getPageViews("wiki", "view", name -> name.contains("."), 20170401, 20170501);
+        assertEquals(Collections.singletonMap("Space.Page", 2), pageViews);
+
+        assertTrue(this.counters.getPageViews("wiki", "view", name -> true, 20170501, 20170601).isEmpty());
+    }
+
+    @Test
+    public void countersBeingFlushedAreStillRead()
+    {
+        this.counters.add("wiki", "Space.Page", "view", this.date, PeriodType.MONTH, false);
+        this.counters.startFlush();
+        this.counters.add("wiki", "Space.Page", "view", this.date, PeriodType.MONTH, false);
+
+        assertEquals(Collections.singletonMap("Space.Page", 2),
+            this.counters.getPageViews("wiki", "view", name -> true, 201704, 201705));
+
+        this.counters.endFlush(Collections.emptyMap());
+
+        assertEquals(Collections.singletonMap("Space.Page", 1),
+            this.counters.getPageViews("wiki", "view", name -> true, 201704, 201705));
+    }
+
+    @Test
+    public void countersNotStoredAreKeptForNextFlush()
+    {
+        this.counters.add("wiki", "Space.Page", "view", this.date, PeriodType.MONTH, true);
+        Map<Key, Counter> flushed = this.counters.startFlush();
+        this.counters.add("wiki", "Space.Page", "view", this.date, PeriodType.MONTH, false);
+
+        this.counters.endFlush(flushed);
+
+        assertFalse(this.counters.isEmpty());
+        Counter counter =
+            this.counters.startFlush().get(new Key("wiki", "Space.Page", "view", PeriodType.MONTH, 201704));
+        assertEquals(2, counter.getPageViews());
+        assertEquals(1, counter.getVisits());
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.stats.impl.xwiki;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.criteria.impl.Period;
+import com.xpn.xwiki.criteria.impl.PeriodFactory;
+import com.xpn.xwiki.criteria.impl.RangeFactory;
+import com.xpn.xwiki.criteria.impl.ScopeFactory;
+import com.xpn.xwiki.stats.impl.DocumentStats;
+import com.xpn.xwiki.stats.impl.StatsUtil.PeriodType;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.test.MockitoOldcoreRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link XWikiStatsReader}.
+ *
+ * @version $Id$
+ */
+public class XWikiStatsReaderTest
+{
+    private static final String STATS_QUERY = "select name, sum(pageViews) from DocumentStats where (";
+
+    private static final String NAMES_QUERY = "select name, sum(pageViews) from DocumentStats where name in (";
+
+    @Rule
+    public MockitoOldcoreRule oldcore = new MockitoOldcoreRule();
+
+    private DocumentStatsCounters counters = new DocumentStatsCounters();
+
+    private XWikiStatsReader reader;
+
+    private XWikiHibernateStore store;
+
+    private Date date = new Calendar.Builder().setDate(2017, Calendar.APRIL, 12).build().getTime();
+
+    private Period period = PeriodFactory.createPeriod("20170401", "20170501");
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.oldcore.getMocker().registerMockComponent(EntityReferenceSerializer.TYPE_STRING, "compactwiki");
+
+        this.store = (XWikiHibernateStore) this.oldcore.getMockStore();
+
+        this.reader = new XWikiStatsReader(this.counters);
+    }
+
+    private void addPageViews(String name, int pageViews)
+    {
+        for (int i = 0; i < pageViews; ++i) {
+            this.counters.add(this.oldcore.getXWikiContext().getWikiId(), name, "view", this.date, PeriodType.MONTH,
+                false);
+        }
+    }
+
+    private static List<Object[]> rows(Object... values)
+    {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < values.length; i += 2) {
+            rows.add(new Object[] { values[i], values[i + 1] });
+        }
+
+        return rows;
+    }
+
+    private static void assertStats(List<DocumentStats> stats, Object... expected)
+    {
+        List<Object> actual = new ArrayList<>();
+        for (DocumentStats documentStats : stats) {
+            actual.add(documentStats.getName());
+            actual.add(documentStats.getPageViews());
+        }
+
+        assertEquals(Arrays.asList(expected), actual);
+    }
+
+    @Test
+    public void getDocumentStatisticsWithoutPendingPageViews() throws Exception
+    {
+        when(this.store.<Object[]>search(startsWith(STATS_QUERY), eq(2), eq(1), anyList(), any(XWikiContext.class)))
+            .thenReturn(rows("Space.B", 8, "Space.C", 5));
+
+        assertStats(this.reader.getDocumentStatistics("view", ScopeFactory.ALL_PAGES, this.period,
+            RangeFactory.createRange(1, 2), this.oldcore.getXWikiContext()), "Space.B", 8, "Space.C", 5);
+    }
+
+    @Test
+    public void getDocumentStatisticsMergesPendingPageViews() throws Exception
+    {
+        // Stored: A=10, B=8, C=5, F=4, G=3, D=1
+        when(this.store.<Object[]>search(contains(" desc"), eq(4), eq(0), anyList(), any(XWikiContext.class)))
+            .thenReturn(rows("Space.A", 10, "Space.B", 8, "Space.C", 5, "Space.F", 4));
+        when(this.store.<Object[]>search(startsWith(NAMES_QUERY + "?, ?)"), eq(0), eq(0), anyList(),
+            any(XWikiContext.class))).thenReturn(rows("Space.D", 1));
+        // Pending: D=8, E=6 (not stored yet), and a space which is not in the scope
+        addPageViews("Space.D", 8);
+        addPageViews("Space.E", 6);
+        addPageViews("Space", 20);
+
+        // Merged: A=10, D=9, B=8, E=6, C=5, F=4, G=3
+        assertStats(this.reader.getDocumentStatistics("view", ScopeFactory.ALL_PAGES, this.period,
+            RangeFactory.createRange(0, 2), this.oldcore.getXWikiContext()), "Space.A", 10, "Space.D", 9);
+    }
+
+    @Test
+    public void getDocumentStatisticsPageWithPendingPageViews() throws Exception
+    {
+        // Stored: A=10, B=8, C=5, F=4, G=3, D=1
+        when(this.store.<Object[]>search(contains(" desc"), eq(5), eq(0), anyList(), any(XWikiContext.class)))
+            .thenReturn(rows("Space.A", 10, "Space.B", 8, "Space.C", 5, "Space.F", 4, "Space.G", 3));
+        when(this.store.<Object[]>search(contains(" desc"), eq(7), eq(0), anyList(), any(XWikiContext.class)))
+            .thenReturn(rows("Space.A", 10, "Space.B", 8, "Space.C", 5, "Space.F", 4, "Space.G", 3, "Space.D", 1));
+        when(this.store.<Object[]>search(startsWith(NAMES_QUERY + "?, ?)"), eq(0), eq(0), anyList(),
+            any(XWikiContext.class))).thenReturn(rows("Space.D", 1));
+        // Pending: D=8, E=6 (not stored yet)
+        addPageViews("Space.D", 8);
+        addPageViews("Space.E", 6);
+
+        // Merged: A=10, D=9, B=8, E=6, C=5, F=4, G=3
+        assertStats(this.reader.getDocumentStatistics("view", ScopeFactory.ALL_PAGES, this.period,
+            RangeFactory.createRange(1, 2), this.oldcore.getXWikiContext()), "Space.D", 9, "Space.B", 8);
+        assertStats(this.reader.getDocumentStatistics("view", ScopeFactory.ALL_PAGES, this.period,
+            RangeFactory.createRange(3, 2), this.oldcore.getXWikiContext()), "Space.E", 6, "Space.C", 5);
+    }
+
+    @Test
+    public void getDocumentStatisticsTailWithPendingPageViews() throws Exception
+    {
+        // Stored, least viewed first: D=1, G=3, F=4, C=5, B=8, A=10
+        when(this.store.<Object[]>search(contains(" asc"), eq(4), eq(0), anyList(), any(XWikiContext.class)))
+            .thenReturn(rows("Space.D", 1, "Space.G", 3, "Space.F", 4, "Space.C", 5));
+        // Pending: D=8, E=6 (not stored yet)
+        addPageViews("Space.D", 8);
+        addPageViews("Space.E", 6);
+
+        // Merged, least viewed first: G=3, F=4, C=5, E=6, D=9
+        assertStats(this.reader.getDocumentStatistics("view", ScopeFactory.ALL_PAGES, this.period,
+            RangeFactory.createRange(0, -2), this.oldcore.getXWikiContext()), "Space.F", 4, "Space.G", 3);
+    }
+
+    @Test
+    public void getDocumentStatisticsAllWithPendingPageViews() throws Exception
+    {
+        when(this.store.<Object[]>search(contains(" desc"), eq(0), eq(0), anyList(), any(XWikiContext.class)))
+            .thenReturn(rows("Space.A", 10, "Space.B", 8, "Space.D", 1));
+        addPageViews("Space.D", 8);
+        addPageViews("Space.E", 6);
+
+        assertStats(this.reader.getDocumentStatistics("view", ScopeFactory.ALL_PAGES, this.period,
+            RangeFactory.ALL, this.oldcore.getXWikiContext()), "Space.A", 10, "Space.D", 9, "Space.B", 8, "Space.E",
+            6);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.stats.impl.xwiki;
+
+import java.util.Calendar;
+import java.util.Date;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.stats.impl.DocumentStats;
+import com.xpn.xwiki.stats.impl.StatsUtil.PeriodType;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.test.MockitoOldcoreRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the document statistics flush of {@link XWikiStatsStoreService}.
+ *
+ * @version $Id$
+ */
+public class XWikiStatsStoreServiceTest
+{
+    @Rule
+    public MockitoOldcoreRule oldcore = new MockitoOldcoreRule();
+
+    private DocumentStatsCounters counters = new DocumentStatsCounters();
+
+    private XWikiStatsStoreService storeService;
+
+    private XWikiHibernateStore store;
+
+    private Session session;
+
+    private Query updateQuery;
+
+    private Date date = new Calendar.Builder().setDate(2017, Calendar.APRIL, 12).build().getTime();
+
+    private long storedId;
+
+    private long currentId;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        this.store = (XWikiHibernateStore) this.oldcore.getMockStore();
+        this.session = mock(Session.class);
+        doAnswer(invocation -> ((HibernateCallback<?>) invocation.getArgument(1)).doInHibernate(this.session))
+            .when(this.store).executeWrite(any(XWikiContext.class), any(HibernateCallback.class));
+
+        // Only the statistics of Space.Stored exist in the database
+        this.storedId = new DocumentStats("Space.Stored", "view", this.date, PeriodType.MONTH).getId();
+        this.updateQuery = mock(Query.class);
+        when(this.session.createQuery(anyString())).thenReturn(this.updateQuery);
+        when(this.updateQuery.setInteger(anyString(), anyInt())).thenReturn(this.updateQuery);
+        when(this.updateQuery.setLong(eq("id"), anyLong())).then(invocation -> {
+            this.currentId = invocation.getArgument(1);
+            return this.updateQuery;
+        });
+        when(this.updateQuery.executeUpdate()).then(invocation -> this.currentId == this.storedId ? 1 : 0);
+
+        this.storeService = new XWikiStatsStoreService(this.oldcore.getXWikiContext(), this.counters);
+    }
+
+    private void addPageView(String name, boolean isVisit)
+    {
+        this.counters.add("xwiki", name, "view", this.date, PeriodType.MONTH, isVisit);
+    }
+
+    @Test
+    public void flushIncrementsStoredStatistics() throws Exception
+    {
+        addPageView("Space.Stored", true);
+        addPageView("Space.Stored", false);
+        addPageView("Space.Stored", false);
+
+        this.storeService.flushDocumentStats();
+
+        verify(this.session).createQuery("update DocumentStats set pageViews = coalesce(pageViews, 0) + :pageViews,"
+            + " visits = coalesce(visits, 0) + :visits where id = :id");
+        verify(this.updateQuery).setInteger("pageViews", 3);
+        verify(this.updateQuery).setInteger("visits", 1);
+        verify(this.updateQuery).setLong("id", this.storedId);
+        verify(this.updateQuery).executeUpdate();
+        verify(this.session, never()).save(any());
+
+        assertTrue(this.counters.isEmpty());
+        assertTrue(this.counters.getPageViews("xwiki", "view", name -> true, 201704, 201705).isEmpty());
+    }
+
+    @Test
+    public void flushInsertsMissingStatistics() throws Exception
+    {
+        addPageView("Space.Stored", false);
+        addPageView("Space.New", true);
+        addPageView("Space.New", false);
+
+        this.storeService.flushDocumentStats();
+
+        // Both are updated but only the statistics not updated are inserted
+        verify(this.updateQuery, times(2)).executeUpdate();
+        verify(this.session).save(argThat(object -> object instanceof DocumentStats
+            && "Space.New".equals(((DocumentStats) object).getName())
+            && ((DocumentStats) object).getPageViews() == 2 && ((DocumentStats) object).getVisits() == 1
+            && ((DocumentStats) object).getPeriod() == 201704));
+        verify(this.session, times(1)).save(any());
+
+        assertTrue(this.counters.isEmpty());
+    }
+
+    @Test
+    public void flushKeepsStatisticsFailingToBeStored() throws Exception
+    {
+        doThrow(XWikiException.class).when(this.store).executeWrite(any(XWikiContext.class),
+            any(HibernateCallback.class));
+
+        addPageView("Space.Stored", false);
+
+        this.storeService.flushDocumentStats();
+
+        assertFalse(this.counters.isEmpty());
+        assertEquals(1, this.counters.getPageViews("xwiki", "view", name -> true, 201704, 201705)
+            .get("Space.Stored").intValue());
+        assertEquals("xwiki", this.oldcore.getXWikiContext().getWikiId());
+    }
+}
@@ -19,9 +19,23 @@
  */
 package com.xpn.xwiki.store;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.InOrder;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.model.internal.reference.UidStringEntityReferenceSerializer;
@@ -30,15 +44,24 @@
 import org.xwiki.observation.remote.RemoteObservationManagerContext;
 import org.xwiki.test.annotation.ComponentList;
 
+import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.store.DocumentExistenceFilter;
 import com.xpn.xwiki.test.MockitoOldcoreRule;
 
 import static com.xpn.xwiki.test.mockito.OldcoreMatchers.isCacheConfiguration;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -115,4 +138,372 @@ public void testLoadXWikiDoc() throws Exception
         verifyNoMoreInteractions(this.cache);
         verifyNoMoreInteractions(this.existCache);
     }
+
+    @Test
+    public void loadXWikiDocCoalescesConcurrentMisses() throws Exception
+    {
+        this.oldcore.getXWikiContext().setWikiId("wiki");
+
+        DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        XWikiDocument storedDocument = new XWikiDocument(reference);
+        storedDocument.setNew(false);
+
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+
+        XWikiStoreInterface store = mock(XWikiStoreInterface.class);
+        when(store.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).then(invocation -> {
+            loadStarted.countDown();
+            releaseLoad.await();
+
+            return storedDocument;
+        });
+
+        XWikiCacheStore cacheStore = new XWikiCacheStore(store, this.oldcore.getXWikiContext());
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<XWikiDocument> first =
+                executor.submit(() -> cacheStore.loadXWikiDoc(new XWikiDocument(reference), xcontext));
+
+            loadStarted.await();
+
+            Future<XWikiDocument> second =
+                executor.submit(() -> cacheStore.loadXWikiDoc(new XWikiDocument(reference), xcontext));
+
+            // Wait for the second load to be registered as waiting on the first one
+            while (cacheStore.getCoalescedLoadCount() == 0) {
+                Thread.sleep(10);
+            }
+
+            releaseLoad.countDown();
+
+            assertSame(storedDocument, first.get(10, TimeUnit.SECONDS));
+            assertSame(storedDocument, second.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(store, times(1)).loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+        verify(this.cache).set(eq("4:wiki5:space4:page"), same(storedDocument));
+
+        assertEquals(1, cacheStore.getIssuedLoadCount());
+        assertEquals(1, cacheStore.getCoalescedLoadCount());
+    }
+
+    @Test
+    public void loadXWikiDocDoesNotShareOrCacheLoadSupersededBySave() throws Exception
+    {
+        this.oldcore.getXWikiContext().setWikiId("wiki");
+
+        DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        XWikiDocument staleDocument = new XWikiDocument(reference);
+        staleDocument.setNew(false);
+        XWikiDocument savedDocument = new XWikiDocument(reference);
+        savedDocument.setNew(false);
+
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+
+        XWikiStoreInterface store = mock(XWikiStoreInterface.class);
+        when(store.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).then(invocation -> {
+            if (loads.getAndIncrement() == 0) {
+                loadStarted.countDown();
+                releaseLoad.await();
+
+                return staleDocument;
+            }
+
+            return savedDocument;
+        });
+
+        XWikiCacheStore cacheStore = new XWikiCacheStore(store, this.oldcore.getXWikiContext());
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<XWikiDocument> first =
+                executor.submit(() -> cacheStore.loadXWikiDoc(new XWikiDocument(reference), xcontext));
+
+            loadStarted.await();
+
+            cacheStore.saveXWikiDoc(new XWikiDocument(reference), xcontext);
+
+            // A miss issued after the save must not join the load started before it
+            assertSame(savedDocument, cacheStore.loadXWikiDoc(new XWikiDocument(reference), xcontext));
+
+            releaseLoad.countDown();
+
+            assertSame(staleDocument, first.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(2, cacheStore.getIssuedLoadCount());
+        assertEquals(0, cacheStore.getCoalescedLoadCount());
+
+        // The outdated document is removed from the cache right after being put in it
+        InOrder inOrder = inOrder(this.cache);
+        inOrder.verify(this.cache).set("4:wiki5:space4:page", staleDocument);
+        inOrder.verify(this.cache).remove("4:wiki5:space4:page");
+    }
+
+    @Test
+    public void loadXWikiDocDoesNotCacheLoadSupersededByRemoteEvent() throws Exception
+    {
+        this.oldcore.getXWikiContext().setWikiId("wiki");
+
+        DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        XWikiDocument staleDocument = new XWikiDocument(reference);
+        staleDocument.setNew(false);
+
+        RemoteObservationManagerContext remoteContext =
+            this.oldcore.getMocker().getInstance(RemoteObservationManagerContext.class);
+        when(remoteContext.isRemoteState()).thenReturn(true);
+
+        XWikiStoreInterface store = mock(XWikiStoreInterface.class);
+        XWikiCacheStore cacheStore = new XWikiCacheStore(store, this.oldcore.getXWikiContext());
+
+        when(store.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).then(invocation -> {
+            // Simulate the document being modified on another cluster member while it's loaded
+            cacheStore.onEvent(new DocumentUpdatedEvent(reference), new XWikiDocument(reference), null);
+
+            return staleDocument;
+        });
+
+        assertSame(staleDocument,
+            cacheStore.loadXWikiDoc(new XWikiDocument(reference), this.oldcore.getXWikiContext()));
+
+        InOrder inOrder = inOrder(this.cache, this.existCache);
+        inOrder.verify(this.cache).set("4:wiki5:space4:page", staleDocument);
+        inOrder.verify(this.existCache).set("4:wiki5:space4:page", Boolean.TRUE);
+        inOrder.verify(this.cache).remove("4:wiki5:space4:page");
+        inOrder.verify(this.existCache).remove("4:wiki5:space4:page");
+    }
+
+    @Test
+    public void loadXWikiDocsServesCacheHitsAndLoadsMissesAtOnce() throws Exception
+    {
+        DocumentReference cachedReference = new DocumentReference("wiki", "space", "cached");
+        DocumentReference storedReference = new DocumentReference("wiki", "space", "stored");
+        DocumentReference missingReference = new DocumentReference("wiki", "space", "missing");
+
+        XWikiDocument cachedDocument = new XWikiDocument(cachedReference);
+        when(this.cache.get("4:wiki5:space6:cached")).thenReturn(cachedDocument);
+
+        XWikiDocument storedDocument = new XWikiDocument(storedReference);
+        storedDocument.setNew(false);
+        XWikiDocument missingDocument = new XWikiDocument(missingReference);
+        missingDocument.setNew(true);
+
+        XWikiStoreInterface store = mock(XWikiStoreInterface.class);
+        when(store.loadXWikiDocs(Arrays.asList(storedReference, missingReference), this.oldcore.getXWikiContext()))
+            .thenReturn(Arrays.asList(storedDocument, missingDocument));
+
+        XWikiCacheStore cacheStore = new XWikiCacheStore(store, this.oldcore.getXWikiContext());
+
+        List<XWikiDocument> documents = cacheStore.loadXWikiDocs(
+            Arrays.asList(cachedReference, storedReference, missingReference), this.oldcore.getXWikiContext());
+
+        assertEquals(Arrays.asList(cachedDocument, storedDocument, missingDocument), documents);
+        assertTrue(cachedDocument.isFromCache());
+
+        verify(this.cache).set("4:wiki5:space6:stored", storedDocument);
+        verify(this.existCache).set("4:wiki5:space6:stored", Boolean.TRUE);
+        verify(this.existCache).set("4:wiki5:space7:missing", Boolean.FALSE);
+
+        // A document known to not exist is not asked to the store
+        when(this.existCache.get("4:wiki5:space7:missing")).thenReturn(Boolean.FALSE);
+
+        documents = cacheStore.loadXWikiDocs(Collections.singletonList(missingReference),
+            this.oldcore.getXWikiContext());
+
+        assertTrue(documents.get(0).isNew());
+        verify(store).loadXWikiDocs(any(), any(XWikiContext.class));
+    }
+
+    @Test
+    public void loadXWikiDocsDoesNotCacheLoadSupersededBySave() throws Exception
+    {
+        this.oldcore.getXWikiContext().setWikiId("wiki");
+
+        DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        XWikiDocument staleDocument = new XWikiDocument(reference);
+        staleDocument.setNew(false);
+
+        XWikiStoreInterface store = mock(XWikiStoreInterface.class);
+        XWikiCacheStore cacheStore = new XWikiCacheStore(store, this.oldcore.getXWikiContext());
+
+        when(store.loadXWikiDocs(Collections.singletonList(reference), this.oldcore.getXWikiContext()))
+            .then(invocation -> {
+                // Simulate the document being saved while it's loaded
+                cacheStore.saveXWikiDoc(new XWikiDocument(reference), this.oldcore.getXWikiContext());
+
+                return Collections.singletonList(staleDocument);
+            });
+
+        assertEquals(Collections.singletonList(staleDocument),
+            cacheStore.loadXWikiDocs(Collections.singletonList(reference), this.oldcore.getXWikiContext()));
+
+        // The outdated document is removed from the cache right after being put in it
+        InOrder inOrder = inOrder(this.cache);
+        inOrder.verify(this.cache).set("4:wiki5:space4:page", staleDocument);
+        inOrder.verify(this.cache).remove("4:wiki5:space4:page");
+    }
+
+    @Test
+    public void loadXWikiDocsWaitsForLoadInProgress() throws Exception
+    {
+        this.oldcore.getXWikiContext().setWikiId("wiki");
+
+        DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        DocumentReference otherReference = new DocumentReference("wiki", "space", "other");
+        XWikiDocument storedDocument = new XWikiDocument(reference);
+        storedDocument.setNew(false);
+        XWikiDocument otherDocument = new XWikiDocument(otherReference);
+        otherDocument.setNew(false);
+
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+
+        XWikiStoreInterface store = mock(XWikiStoreInterface.class);
+        when(store.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).then(invocation -> {
+            loadStarted.countDown();
+            releaseLoad.await();
+
+            return storedDocument;
+        });
+        when(store.loadXWikiDocs(Collections.singletonList(otherReference), this.oldcore.getXWikiContext()))
+            .thenReturn(Collections.singletonList(otherDocument));
+
+        XWikiCacheStore cacheStore = new XWikiCacheStore(store, this.oldcore.getXWikiContext());
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<XWikiDocument> single =
+                executor.submit(() -> cacheStore.loadXWikiDoc(new XWikiDocument(reference), xcontext));
+
+            loadStarted.await();
+
+            Future<List<XWikiDocument>> bulk =
+                executor.submit(() -> cacheStore.loadXWikiDocs(Arrays.asList(reference, otherReference), xcontext));
+
+            // Wait for the bulk load to be registered as waiting on the single one
+            while (cacheStore.getCoalescedLoadCount() == 0) {
+                Thread.sleep(10);
+            }
+
+            releaseLoad.countDown();
+
+            assertSame(storedDocument, single.get(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(storedDocument, otherDocument), bulk.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Only the document which was not already being loaded is asked to the store by the bulk load
+        verify(store, times(1)).loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+        verify(store).loadXWikiDocs(Collections.singletonList(otherReference), xcontext);
+        assertEquals(2, cacheStore.getIssuedLoadCount());
+    }
+
+    private Set<Long> enableExistenceFilter() throws Exception
+    {
+        this.oldcore.getMockXWikiCfg().setProperty(DocumentExistenceFilter.CONFIGURATION_ENABLED, 1L);
+
+        // Simulate a filter built for a wiki without any document
+        Set<Long> existingIds = ConcurrentHashMap.newKeySet();
+        DocumentExistenceFilter filter = this.oldcore.getMocker().registerMockComponent(DocumentExistenceFilter.class);
+        when(filter.mightExist(eq("wiki"), anyLong()))
+            .then(invocation -> existingIds.contains(invocation.getArgument(1)));
+        doAnswer(invocation -> existingIds.add(invocation.getArgument(1))).when(filter).add(eq("wiki"), anyLong());
+
+        return existingIds;
+    }
+
+    @Test
+    public void loadXWikiDocSkipsStoreForDocumentFilteredOut() throws Exception
+    {
+        this.oldcore.getXWikiContext().setWikiId("wiki");
+        enableExistenceFilter();
+
+        DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        XWikiStoreInterface store = mock(XWikiStoreInterface.class);
+        XWikiCacheStore cacheStore = new XWikiCacheStore(store, this.oldcore.getXWikiContext());
+
+        assertTrue(cacheStore.loadXWikiDoc(new XWikiDocument(reference), this.oldcore.getXWikiContext()).isNew());
+        assertTrue(cacheStore
+            .loadXWikiDocs(Collections.singletonList(reference), this.oldcore.getXWikiContext()).get(0).isNew());
+
+        verify(store, never()).loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+        verify(store, never()).loadXWikiDocs(any(), any(XWikiContext.class));
+    }
+
+    @Test
+    public void savedDocumentIsVisibleRightAwayWithExistenceFilter() throws Exception
+    {
+        this.oldcore.getXWikiContext().setWikiId("wiki");
+        Set<Long> existingIds = enableExistenceFilter();
+
+        DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        XWikiDocument storedDocument = new XWikiDocument(reference);
+        storedDocument.setNew(false);
+
+        XWikiStoreInterface store = mock(XWikiStoreInterface.class);
+        when(store.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).thenReturn(storedDocument);
+        XWikiCacheStore cacheStore = new XWikiCacheStore(store, this.oldcore.getXWikiContext());
+
+        cacheStore.saveXWikiDoc(new XWikiDocument(reference), this.oldcore.getXWikiContext());
+
+        assertTrue(existingIds.contains(new XWikiDocument(reference).getId()));
+        assertSame(storedDocument,
+            cacheStore.loadXWikiDoc(new XWikiDocument(reference), this.oldcore.getXWikiContext()));
+    }
+
+    @Test
+    public void createdDocumentIsVisibleRightAwayWithExistenceFilter() throws Exception
+    {
+        this.oldcore.getXWikiContext().setWikiId("wiki");
+        Set<Long> existingIds = enableExistenceFilter();
+
+        DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        XWikiDocument storedDocument = new XWikiDocument(reference);
+        storedDocument.setNew(false);
+
+        XWikiStoreInterface store = mock(XWikiStoreInterface.class);
+        when(store.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).thenReturn(storedDocument);
+        XWikiCacheStore cacheStore = new XWikiCacheStore(store, this.oldcore.getXWikiContext());
+
+        assertTrue(cacheStore.loadXWikiDoc(new XWikiDocument(reference), this.oldcore.getXWikiContext()).isNew());
+
+        // The document is created by another cluster member, the filter listener adds it
+        existingIds.add(storedDocument.getId());
+
+        assertSame(storedDocument,
+            cacheStore.loadXWikiDoc(new XWikiDocument(reference), this.oldcore.getXWikiContext()));
+    }
+
+    @Test
+    public void disabledExistenceFilterIsNotUsed() throws Exception
+    {
+        this.oldcore.getXWikiContext().setWikiId("wiki");
+        DocumentExistenceFilter filter = this.oldcore.getMocker().registerMockComponent(DocumentExistenceFilter.class);
+
+        DocumentReference reference = new DocumentReference("wiki", "space", "page");
+        XWikiDocument storedDocument = new XWikiDocument(reference);
+        storedDocument.setNew(false);
+
+        XWikiStoreInterface store = mock(XWikiStoreInterface.class);
+        when(store.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).thenReturn(storedDocument);
+        XWikiCacheStore cacheStore = new XWikiCacheStore(store, this.oldcore.getXWikiContext());
+
+        assertSame(storedDocument,
+            cacheStore.loadXWikiDoc(new XWikiDocument(reference), this.oldcore.getXWikiContext()));
+        cacheStore.saveXWikiDoc(new XWikiDocument(reference), this.oldcore.getXWikiContext());
+
+        verifyNoMoreInteractions(filter);
+    }
 }
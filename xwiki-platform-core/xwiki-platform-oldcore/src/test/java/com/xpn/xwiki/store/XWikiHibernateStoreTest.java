@@ -19,15 +19,20 @@
  */
 package com.xpn.xwiki.store;
 
+import java.io.Serializable;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
+import org.hibernate.EntityMode;
 import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
+import org.hibernate.ObjectNotFoundException;
 import org.hibernate.Query;
 import org.hibernate.SQLQuery;
 import org.hibernate.Session;
@@ -38,6 +43,7 @@
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
 import org.xwiki.bridge.event.ActionExecutingEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
@@ -51,6 +57,7 @@
 import com.xpn.xwiki.objects.BaseProperty;
 import com.xpn.xwiki.objects.LargeStringProperty;
 import com.xpn.xwiki.objects.StringProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
 import com.xpn.xwiki.store.migration.DataMigrationManager;
 
@@ -358,4 +365,186 @@ public void getTranslationList() throws Exception
         verify(query).bindValue("space", "Path.To");
         verify(query).bindValue("name", documentReference.getName());
     }
+
+    @Test
+    public void loadXWikiCollectionsOfSeveralClassesWithOneQueryPerPropertyTable() throws Exception
+    {
+        when(context.get("hibsession")).thenReturn(session);
+
+        DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+        BaseObject firstObject = mock(BaseObject.class);
+        when(firstObject.getId()).thenReturn(1L);
+        when(firstObject.getDocumentReference()).thenReturn(documentReference);
+        when(firstObject.getXClassReference()).thenReturn(new DocumentReference("wiki", "Space", "FirstClass"));
+        BaseObject secondObject = mock(BaseObject.class);
+        when(secondObject.getId()).thenReturn(2L);
+        when(secondObject.getDocumentReference()).thenReturn(documentReference);
+        when(secondObject.getXClassReference()).thenReturn(new DocumentReference("wiki", "Space", "SecondClass"));
+
+        Query propertiesQuery = mock(Query.class);
+        when(session.createQuery(
+            "select prop.id.id, prop.name, prop.classType from BaseProperty as prop where prop.id.id in (:ids)"))
+                .thenReturn(propertiesQuery);
+        when(propertiesQuery.list()).thenReturn(Arrays.asList(
+            new Object[] {1L, "title", StringProperty.class.getName()},
+            new Object[] {1L, "missing", StringProperty.class.getName()},
+            new Object[] {2L, "title", StringProperty.class.getName()},
+            new Object[] {2L, "description", LargeStringProperty.class.getName()}));
+
+        StringProperty firstTitle = new StringProperty();
+        firstTitle.setId(1L);
+        firstTitle.setName("title");
+        firstTitle.setValue("first");
+        StringProperty secondTitle = new StringProperty();
+        secondTitle.setId(2L);
+        secondTitle.setName("title");
+        secondTitle.setValue("second");
+
+        Query stringQuery = mock(Query.class);
+        when(session.createQuery("select prop from " + StringProperty.class.getName()
+            + " as prop where prop.id.id in (:ids) and prop.classType = :classType")).thenReturn(stringQuery);
+        when(stringQuery.list()).thenReturn(Arrays.asList(firstTitle, secondTitle));
+
+        // The description is not found in the table matching its declared type (mismatch between StringProperty and
+        // LargeStringProperty) so it has to be loaded on its own
+        Query largeStringQuery = mock(Query.class);
+        when(session.createQuery("select prop from " + LargeStringProperty.class.getName()
+            + " as prop where prop.id.id in (:ids) and prop.classType = :classType")).thenReturn(largeStringQuery);
+        when(largeStringQuery.list()).thenReturn(Collections.emptyList());
+        doAnswer(invocation -> {
+            ((LargeStringProperty) invocation.getArgument(0)).setValue("description");
+            return null;
+        }).when(session).load(any(LargeStringProperty.class), any(Serializable.class));
+
+        // The missing property cannot be found at all
+        doThrow(new ObjectNotFoundException(1L, StringProperty.class.getName())).when(session)
+            .load(argThat((ArgumentMatcher<Object>) property -> property instanceof StringProperty
+                && "missing".equals(((StringProperty) property).getName())), any(Serializable.class));
+
+        this.store.loadXWikiCollectionsInternal(Arrays.asList(firstObject, secondObject),
+            Collections.<XWikiDocument>emptyList(), context);
+
+        verify(propertiesQuery).setParameterList("ids", Arrays.asList(1L, 2L));
+        verify(stringQuery).setString("classType", StringProperty.class.getName());
+        verify(largeStringQuery).setString("classType", LargeStringProperty.class.getName());
+
+        verify(firstObject).addField("title", firstTitle);
+        verify(secondObject).addField("title", secondTitle);
+        assertSame(firstObject, firstTitle.getObject());
+        assertFalse(firstTitle.isValueDirty());
+
+        verify(secondObject).addField(eq("description"), argThat(property -> property instanceof LargeStringProperty
+            && "description".equals(((LargeStringProperty) property).getValue())));
+
+        verify(firstObject).addField(eq("missing"), argThat(property -> property instanceof StringProperty
+            && ((StringProperty) property).getValue() == null));
+        verify(this.mocker.getMockedLogger()).error("No data for property [{}] of object id [{}]", "missing", 1L);
+    }
+
+    @Test
+    public void loadXWikiCollectionsOfCustomMappedClass() throws Exception
+    {
+        when(context.get("hibsession")).thenReturn(session);
+        when(context.getWiki().hasCustomMappings()).thenReturn(true);
+
+        BaseClass mappedClass = mock(BaseClass.class);
+        when(mappedClass.hasCustomMapping()).thenReturn(true);
+        when(mappedClass.getName()).thenReturn("Space.MappedClass");
+        when(mappedClass.getCustomMappingPropertyList(context)).thenReturn(Arrays.asList("mapped", "empty"));
+
+        BaseObject object = mock(BaseObject.class);
+        when(object.getId()).thenReturn(1L);
+        when(object.getDocumentReference()).thenReturn(new DocumentReference("wiki", "Space", "Page"));
+        when(object.getXClassReference()).thenReturn(new DocumentReference("wiki", "Space", "MappedClass"));
+        when(object.getXClass(context)).thenReturn(mappedClass);
+
+        // The custom mapped properties of all the objects of the class are loaded with one query
+        Session dynamicSession = mock(Session.class);
+        when(session.getSession(EntityMode.MAP)).thenReturn(dynamicSession);
+        Query mappedQuery = mock(Query.class);
+        when(dynamicSession.createQuery("from Space.MappedClass as obj where obj.id in (:ids)"))
+            .thenReturn(mappedQuery);
+        Map<String, Object> values = new HashMap<>();
+        values.put("id", 1L);
+        values.put("mapped", "value");
+        when(mappedQuery.list()).thenReturn(Collections.singletonList(values));
+
+        // The properties not found in the custom mapping table are loaded from the standard property tables
+        Query propertiesQuery = mock(Query.class);
+        when(session.createQuery(
+            "select prop.id.id, prop.name, prop.classType from BaseProperty as prop where prop.id.id in (:ids)"))
+                .thenReturn(propertiesQuery);
+        when(propertiesQuery.list()).thenReturn(Arrays.asList(
+            new Object[] {1L, "mapped", StringProperty.class.getName()},
+            new Object[] {1L, "empty", StringProperty.class.getName()}));
+
+        StringProperty emptyProperty = new StringProperty();
+        emptyProperty.setId(1L);
+        emptyProperty.setName("empty");
+
+        Query stringQuery = mock(Query.class);
+        when(session.createQuery("select prop from " + StringProperty.class.getName()
+            + " as prop where prop.id.id in (:ids) and prop.classType = :classType")).thenReturn(stringQuery);
+        when(stringQuery.list()).thenReturn(Collections.singletonList(emptyProperty));
+
+        this.store.loadXWikiCollectionsInternal(Collections.singletonList(object),
+            Collections.<XWikiDocument>emptyList(), context);
+
+        verify(mappedQuery).setParameterList("ids", Collections.singletonList(1L));
+        verify(mappedClass).fromValueMap(values, object);
+
+        verify(object).addField("empty", emptyProperty);
+        // In Oracle empty strings are stored as NULL
+        assertEquals("", emptyProperty.getValue());
+        verify(object, never()).addField(eq("mapped"), any());
+    }
+
+    @Test
+    public void loadXWikiDocsPreservesOrderAndLocales() throws Exception
+    {
+        when(context.get("hibsession")).thenReturn(session);
+        when(context.getWikiId()).thenReturn("wiki");
+
+        DocumentReference pageReference = new DocumentReference("wiki", "Space", "Page");
+        DocumentReference translationReference =
+            new DocumentReference(new DocumentReference("wiki", "Space", "Translated"), Locale.FRENCH);
+        DocumentReference missingReference = new DocumentReference("wiki", "Space", "Missing");
+
+        XWikiDocument page = new XWikiDocument(pageReference);
+        page.setElements(0);
+        XWikiDocument translation = new XWikiDocument(new DocumentReference(translationReference, null), Locale.FRENCH);
+        translation.setElements(0);
+        long missingId = new XWikiDocument(missingReference).getId();
+
+        // The database returns the documents in its own order
+        Query query = mock(Query.class);
+        when(session.createQuery("from XWikiDocument as doc where doc.id in (:ids)")).thenReturn(query);
+        when(query.list()).thenReturn(Arrays.asList(page, translation));
+
+        List<XWikiDocument> documents = this.store.loadXWikiDocs(
+            Arrays.asList(translationReference, missingReference, pageReference), context);
+
+        // All the documents are loaded with one query
+        verify(query).setParameterList("ids", Arrays.asList(translation.getId(), missingId, page.getId()));
+        verify(session).createQuery("from XWikiDocument as doc where doc.id in (:ids)");
+
+        assertEquals(3, documents.size());
+
+        assertSame(translation, documents.get(0));
+        assertEquals(Locale.FRENCH, documents.get(0).getLocale());
+        assertFalse(documents.get(0).isNew());
+
+        XWikiDocument missing = documents.get(1);
+        assertEquals(missingReference, missing.getDocumentReference());
+        assertEquals(Locale.ROOT, missing.getLocale());
+        assertTrue(missing.isNew());
+        assertNotNull(missing.getOriginalDocument());
+
+        assertSame(page, documents.get(2));
+        assertFalse(documents.get(2).isNew());
+        assertSame(this.store, documents.get(2).getStore());
+
+        // The wiki of the documents is set and the current wiki restored
+        verify(context, times(2)).setWikiId("wiki");
+    }
 }
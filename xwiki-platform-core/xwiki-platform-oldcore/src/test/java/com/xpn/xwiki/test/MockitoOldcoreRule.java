@@ -21,6 +21,7 @@
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -446,6 +447,21 @@ public XWikiDocument answer(InvocationOnMock invocation) throws Throwable
                 return getSpyXWiki().getDocument(target.getDocumentReferenceWithLocale(), invocation.getArgument(1));
             }
         }).when(getSpyXWiki()).getDocument(anyXWikiDocument(), any(XWikiContext.class));
+        doAnswer(new Answer<List<XWikiDocument>>()
+        {
+            @Override
+            public List<XWikiDocument> answer(InvocationOnMock invocation) throws Throwable
+            {
+                Collection<DocumentReference> targets = invocation.getArgument(0);
+
+                List<XWikiDocument> result = new ArrayList<>(targets.size());
+                for (DocumentReference target : targets) {
+                    result.add(getSpyXWiki().getDocument(target, invocation.getArgument(1)));
+                }
+
+                return result;
+            }
+        }).when(getSpyXWiki()).getDocuments(any(), anyXWikiContext());
         doAnswer(new Answer<Boolean>()
         {
             @Override
@@ -39,14 +39,31 @@
      */
     private int maxEntries;
 
+    /**
+     * @see #getStaleTimeToLive()
+     */
+    private int staleTimeToLive;
+
     /**
      * @param timeToLive see {@link #getTimeToLive()}
      * @param maxEntries see {@link #getMaxEntries()}
      */
     public CacheKey(int timeToLive, int maxEntries)
+    {
+        this(timeToLive, maxEntries, 0);
+    }
+
+    /**
+     * @param timeToLive see {@link #getTimeToLive()}
+     * @param maxEntries see {@link #getMaxEntries()}
+     * @param staleTimeToLive see {@link #getStaleTimeToLive()}
+     * @since 9.4RC1
+     */
+    public CacheKey(int timeToLive, int maxEntries, int staleTimeToLive)
     {
         this.timeToLive = timeToLive;
         this.maxEntries = maxEntries;
+        this.staleTimeToLive = staleTimeToLive;
     }
 
     /**
@@ -65,6 +82,15 @@ public int getMaxEntries()
         return this.maxEntries;
     }
 
+    /**
+     * @return the number of seconds during which expired content is still served while it's being recomputed
+     * @since 9.4RC1
+     */
+    public int getStaleTimeToLive()
+    {
+        return this.staleTimeToLive;
+    }
+
     @Override
     public boolean equals(Object object)
     {
@@ -79,7 +105,8 @@ public boolean equals(Object object)
             } else {
                 // object must be Syntax at this point
                 CacheKey cacheKey = (CacheKey) object;
-                result = (getTimeToLive() == cacheKey.getTimeToLive() && getMaxEntries() == cacheKey.getMaxEntries());
+                result = (getTimeToLive() == cacheKey.getTimeToLive() && getMaxEntries() == cacheKey.getMaxEntries()
+                    && getStaleTimeToLive() == cacheKey.getStaleTimeToLive());
             }
         }
         return result;
@@ -93,12 +120,17 @@ public int hashCode()
         int hash = 9;
         hash = 31 * hash + getTimeToLive();
         hash = 31 * hash + getMaxEntries();
+        hash = 31 * hash + getStaleTimeToLive();
         return hash;
     }
 
     @Override
     public String toString()
     {
-        return getTimeToLive() + "s-" + getMaxEntries();
+        String result = getTimeToLive() + "s-" + getMaxEntries();
+        if (getStaleTimeToLive() > 0) {
+            result += "-" + getStaleTimeToLive() + "s";
+        }
+        return result;
     }
 }
@@ -19,19 +19,18 @@
  */
 package org.xwiki.rendering.internal.macro.cache;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import org.xwiki.cache.Cache;
-import org.xwiki.cache.CacheException;
-import org.xwiki.cache.CacheManager;
-import org.xwiki.cache.config.LRUCacheConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.macro.AbstractMacro;
 import org.xwiki.rendering.macro.MacroContentParser;
@@ -65,10 +64,17 @@ public class CacheMacro extends AbstractMacro<CacheMacroParameters>
     private static final String CONTENT_DESCRIPTION = "the content to cache.";
 
     /**
-     * Used to create the macro content cache.
+     * Holds the macro content caches.
      */
     @Inject
-    private CacheManager cacheManager;
+    private ContentCacheManager contentCacheManager;
+
+    /**
+     * Used to resolve the references of the documents the cached content depends on.
+     */
+    @Inject
+    @Named("macro")
+    private DocumentReferenceResolver<String> macroDocumentReferenceResolver;
 
     /**
      * The parser used to parse the content (when not cached).
@@ -83,12 +89,6 @@ public class CacheMacro extends AbstractMacro<CacheMacroParameters>
     @Named("plain/1.0")
     private BlockRenderer plainTextBlockRenderer;
 
-    /**
-     * Map of all caches. There's one cache per timeToLive/maxEntry combination since currently we cannot set these
-     * configuration values at the cache entry level but only for the whole cache.
-     */
-    private Map<CacheKey, Cache<List<Block>>> contentCacheMap = new ConcurrentHashMap<>();
-
     /**
      * Create and initialize the descriptor of the macro.
      */
@@ -122,51 +122,28 @@ public List<Block> execute(CacheMacroParameters parameters, String content, Macr
             cacheKey = content;
         }
 
-        Cache<List<Block>> contentCache = getContentCache(parameters.getTimeToLive(), parameters.getMaxEntries());
-        List<Block> result = contentCache.get(cacheKey);
-        if (result == null) {
-            // Run the parser for the syntax on the content
-            // We run the current transformation on the cache macro content. We need to do this since we want to cache
-            // the XDOM resulting from the execution of Macros because that's where lengthy processing happens.
-            result = this.contentParser.parse(content, context, true, context.isInline()).getChildren();
-            contentCache.set(cacheKey, result);
-        }
+        ContentCache contentCache = this.contentCacheManager.getContentCache(
+            new CacheKey(parameters.getTimeToLive(), parameters.getMaxEntries(), parameters.getStaleTimeToLive()));
 
-        return result;
+        // Run the parser for the syntax on the content
+        // We run the current transformation on the cache macro content. We need to do this since we want to cache
+        // the XDOM resulting from the execution of Macros because that's where lengthy processing happens.
+        return contentCache.get(cacheKey, getDocuments(parameters, context),
+            () -> this.contentParser.parse(content, context, true, context.isInline()).getChildren());
     }
 
-    /**
-     * Get a cache matching the passed time to live and max entries.
-     * <p>
-     * Note that whenever a new cache is created it currently means a new thread is used too (since the JBoss cache used
-     * underneath uses a thread for evicting entries from the cache). We need to modify our xwiki-cache module to allow
-     * setting time to live on cache items, see https://jira.xwiki.org/browse/XWIKI-5907
-     * </p>
-     *
-     * @param lifespan the number of seconds to cache the content
-     * @param maxEntries the maximum number of entries in the cache (Least Recently Used entries are ejected)
-     * @return the matching cache (a new cache is created if no existing one is found)
-     * @throws MacroExecutionException in case we fail to create the new cache
-     */
-    Cache<List<Block>> getContentCache(int lifespan, int maxEntries) throws MacroExecutionException
+    private Collection<DocumentReference> getDocuments(CacheMacroParameters parameters,
+        MacroTransformationContext context)
     {
-        CacheKey cacheKey = new CacheKey(lifespan, maxEntries);
-        Cache<List<Block>> contentCache = this.contentCacheMap.get(cacheKey);
-        if (contentCache == null) {
-            // Create Cache
-            LRUCacheConfiguration configuration =
-                new LRUCacheConfiguration(String.format("cacheMacro.%s", cacheKey.toString()), maxEntries);
-            configuration.getLRUEvictionConfiguration().setLifespan(lifespan);
-
-            try {
-                contentCache = this.cacheManager.createNewLocalCache(configuration);
-            } catch (CacheException e) {
-                throw new MacroExecutionException("Failed to create content cache", e);
-            }
-
-            this.contentCacheMap.put(cacheKey, contentCache);
+        if (parameters.getDocuments() == null || parameters.getDocuments().length == 0) {
+            return Collections.emptyList();
+        }
+
+        List<DocumentReference> documents = new ArrayList<>(parameters.getDocuments().length);
+        for (String document : parameters.getDocuments()) {
+            documents.add(this.macroDocumentReferenceResolver.resolve(document, context.getCurrentMacroBlock()));
         }
 
-        return contentCache;
+        return documents;
     }
 }
@@ -0,0 +1,316 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.macro.MacroExecutionException;
+
+/**
+ * Wraps the cache used for a given {@link CacheKey} and makes sure that only one request computes the content of a
+ * given entry at a time, the other requests waiting for the result (or getting the stale content when allowed).
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class ContentCache
+{
+    /**
+     * Computes the content to cache.
+     *
+     * @version $Id$
+     */
+    @FunctionalInterface
+    public interface ContentProvider
+    {
+        /**
+         * @return the content to cache
+         * @throws MacroExecutionException when failing to compute the content
+         */
+        List<Block> get() throws MacroExecutionException;
+    }
+
+    /**
+     * The keys of the entries depending on a document. A new instance is indexed each time the document is modified
+     * so that a computation can tell if one of its documents has been modified since it started.
+     *
+     * @version $Id$
+     */
+    private static class DocumentKeys
+    {
+        /**
+         * The keys of the entries, associated with the computation which indexed them.
+         */
+        private final ConcurrentMap<String, Object> keys = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * An entry of the cache.
+     *
+     * @version $Id$
+     */
+    static class CachedContent
+    {
+        private final List<Block> blocks;
+
+        private final long expirationDate;
+
+        private final Collection<DocumentReference> documents;
+
+        private final Object computation;
+
+        CachedContent(List<Block> blocks, long expirationDate, Collection<DocumentReference> documents,
+            Object computation)
+        {
+            this.blocks = blocks;
+            this.expirationDate = expirationDate;
+            this.documents = documents;
+            this.computation = computation;
+        }
+
+        List<Block> getBlocks()
+        {
+            return this.blocks;
+        }
+
+        boolean isExpired(long now)
+        {
+            return now >= this.expirationDate;
+        }
+
+        Collection<DocumentReference> getDocuments()
+        {
+            return this.documents;
+        }
+
+        Object getComputation()
+        {
+            return this.computation;
+        }
+    }
+
+    private final Cache<CachedContent> cache;
+
+    private final long timeToLive;
+
+    private final boolean allowStale;
+
+    /**
+     * The contents being computed, indexed by cache key.
+     */
+    private final ConcurrentMap<String, CompletableFuture<List<Block>>> computations = new ConcurrentHashMap<>();
+
+    /**
+     * The keys of the entries depending on a given document.
+     */
+    private final ConcurrentMap<DocumentReference, DocumentKeys> keysByDocument = new ConcurrentHashMap<>();
+
+    /**
+     * @param cache the cache where to store the content, its lifespan must include the stale time to live
+     * @param timeToLive the number of seconds during which the content is returned without being recomputed
+     * @param staleTimeToLive the number of seconds during which the expired content is still returned while it's
+     *            being recomputed
+     */
+    ContentCache(Cache<CachedContent> cache, int timeToLive, int staleTimeToLive)
+    {
+        this.cache = cache;
+        this.timeToLive = timeToLive * 1000L;
+        this.allowStale = staleTimeToLive > 0;
+
+        this.cache.addCacheEntryListener(new CacheEntryListener<CachedContent>()
+        {
+            @Override
+            public void cacheEntryAdded(CacheEntryEvent<CachedContent> event)
+            {
+                // Nothing to do, the documents are indexed when setting the entry
+            }
+
+            @Override
+            public void cacheEntryRemoved(CacheEntryEvent<CachedContent> event)
+            {
+                CachedContent content = event.getEntry().getValue();
+                if (content != null) {
+                    unindex(event.getEntry().getKey(), content);
+                }
+            }
+
+            @Override
+            public void cacheEntryModified(CacheEntryEvent<CachedContent> event)
+            {
+                // Nothing to do, the documents are indexed when setting the entry
+            }
+        });
+    }
+
+    /**
+     * @param key the key of the entry
+     * @param documents the documents the content depends on
+     * @param provider used to compute the content when it's not cached or expired
+     * @return the cached content, or the content computed by the provider
+     * @throws MacroExecutionException when failing to compute the content
+     */
+    public List<Block> get(String key, Collection<DocumentReference> documents, ContentProvider provider)
+        throws MacroExecutionException
+    {
+        CachedContent content = this.cache.get(key);
+
+        if (content != null) {
+            if (!content.isExpired(System.currentTimeMillis())) {
+                return content.getBlocks();
+            }
+
+            if (this.allowStale) {
+                // Only one request recomputes the content, the others get the expired content in the meantime
+                CompletableFuture<List<Block>> future = new CompletableFuture<>();
+                if (this.computations.putIfAbsent(key, future) == null) {
+                    return compute(key, documents, provider, future);
+                }
+
+                return content.getBlocks();
+            }
+        }
+
+        while (true) {
+            CompletableFuture<List<Block>> future = new CompletableFuture<>();
+            CompletableFuture<List<Block>> currentFuture = this.computations.putIfAbsent(key, future);
+            if (currentFuture == null) {
+                // The content might have been computed between the lookup and the registration of the computation
+                content = this.cache.get(key);
+                if (content != null && !content.isExpired(System.currentTimeMillis())) {
+                    this.computations.remove(key, future);
+                    future.complete(content.getBlocks());
+
+                    return content.getBlocks();
+                }
+
+                return compute(key, documents, provider, future);
+            }
+
+            try {
+                return currentFuture.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new MacroExecutionException("Interrupted while waiting for the content to be computed", e);
+            } catch (ExecutionException e) {
+                // The request computing the content failed, try to compute it ourself
+            }
+        }
+    }
+
+    private List<Block> compute(String key, Collection<DocumentReference> documents, ContentProvider provider,
+        CompletableFuture<List<Block>> future) throws MacroExecutionException
+    {
+        // Index the entry before computing it so that a modification of one of the documents during the computation
+        // is taken into account
+        List<DocumentKeys> indexedKeys = new ArrayList<>(documents.size());
+        for (DocumentReference document : documents) {
+            indexedKeys.add(this.keysByDocument.compute(document, (k, documentKeys) -> {
+                DocumentKeys result = documentKeys != null ? documentKeys : new DocumentKeys();
+                result.keys.put(key, future);
+
+                return result;
+            }));
+        }
+
+        try {
+            List<Block> blocks = provider.get();
+
+            // Don't cache a content which might have been computed from a document modified in the meantime
+            if (isUpToDate(documents, indexedKeys)) {
+                this.cache.set(key,
+                    new CachedContent(blocks, System.currentTimeMillis() + this.timeToLive, documents, future));
+
+                // One of the documents might have been modified while the content was being stored
+                if (!isUpToDate(documents, indexedKeys)) {
+                    this.cache.remove(key);
+                }
+            }
+
+            future.complete(blocks);
+
+            return blocks;
+        } catch (MacroExecutionException | RuntimeException e) {
+            future.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            this.computations.remove(key, future);
+        }
+    }
+
+    private boolean isUpToDate(Collection<DocumentReference> documents, List<DocumentKeys> indexedKeys)
+    {
+        int index = 0;
+        for (DocumentReference document : documents) {
+            if (this.keysByDocument.get(document) != indexedKeys.get(index++)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove from the cache all the entries depending on the passed document.
+     *
+     * @param document the reference of the modified document
+     */
+    public void invalidate(DocumentReference document)
+    {
+        DocumentKeys documentKeys = this.keysByDocument.remove(document);
+        if (documentKeys != null) {
+            for (String key : documentKeys.keys.keySet()) {
+                this.cache.remove(key);
+            }
+        }
+    }
+
+    private void unindex(String key, CachedContent content)
+    {
+        for (DocumentReference document : content.getDocuments()) {
+            this.keysByDocument.computeIfPresent(document, (k, documentKeys) -> {
+                // Don't unindex the entry if it has been computed again in the meantime
+                documentKeys.keys.remove(key, content.getComputation());
+
+                return documentKeys.keys.isEmpty() ? null : documentKeys;
+            });
+        }
+    }
+
+    /**
+     * Release the resources used by the cache.
+     */
+    public void dispose()
+    {
+        this.cache.dispose();
+    }
+}
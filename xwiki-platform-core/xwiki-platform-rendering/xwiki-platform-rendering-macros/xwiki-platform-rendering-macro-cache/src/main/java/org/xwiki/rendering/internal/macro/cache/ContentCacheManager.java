@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.internal.macro.cache.ContentCache.CachedContent;
+import org.xwiki.rendering.macro.MacroExecutionException;
+
+/**
+ * Holds the caches used by the Cache macro.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Component(roles = ContentCacheManager.class)
+@Singleton
+public class ContentCacheManager implements Disposable
+{
+    /**
+     * Used to create the macro content caches.
+     */
+    @Inject
+    private CacheManager cacheManager;
+
+    /**
+     * Map of all caches. There's one cache per timeToLive/maxEntry/staleTimeToLive combination since currently we
+     * cannot set these configuration values at the cache entry level but only for the whole cache.
+     */
+    private final Map<CacheKey, ContentCache> contentCacheMap = new ConcurrentHashMap<>();
+
+    /**
+     * Get a cache matching the passed configuration.
+     * <p>
+     * Note that whenever a new cache is created it currently means a new thread is used too (since the JBoss cache used
+     * underneath uses a thread for evicting entries from the cache). We need to modify our xwiki-cache module to allow
+     * setting time to live on cache items, see https://jira.xwiki.org/browse/XWIKI-5907
+     * </p>
+     *
+     * @param cacheKey the configuration of the cache
+     * @return the matching cache (a new cache is created if no existing one is found)
+     * @throws MacroExecutionException in case we fail to create the new cache
+     */
+    public ContentCache getContentCache(CacheKey cacheKey) throws MacroExecutionException
+    {
+        ContentCache contentCache = this.contentCacheMap.get(cacheKey);
+        if (contentCache == null) {
+            synchronized (this.contentCacheMap) {
+                contentCache = this.contentCacheMap.get(cacheKey);
+                if (contentCache == null) {
+                    contentCache = createContentCache(cacheKey);
+                    this.contentCacheMap.put(cacheKey, contentCache);
+                }
+            }
+        }
+
+        return contentCache;
+    }
+
+    private ContentCache createContentCache(CacheKey cacheKey) throws MacroExecutionException
+    {
+        LRUCacheConfiguration configuration =
+            new LRUCacheConfiguration(String.format("cacheMacro.%s", cacheKey.toString()), cacheKey.getMaxEntries());
+        // Keep the expired entries in the cache during the stale time to live
+        configuration.getLRUEvictionConfiguration()
+            .setLifespan(cacheKey.getTimeToLive() + cacheKey.getStaleTimeToLive());
+
+        Cache<CachedContent> cache;
+        try {
+            cache = this.cacheManager.createNewLocalCache(configuration);
+        } catch (CacheException e) {
+            throw new MacroExecutionException("Failed to create content cache", e);
+        }
+
+        return new ContentCache(cache, cacheKey.getTimeToLive(), cacheKey.getStaleTimeToLive());
+    }
+
+    /**
+     * Remove from all the caches the entries depending on the passed document.
+     *
+     * @param document the reference of the modified document
+     */
+    public void invalidate(DocumentReference document)
+    {
+        for (ContentCache contentCache : this.contentCacheMap.values()) {
+            contentCache.invalidate(document);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        for (ContentCache contentCache : this.contentCacheMap.values()) {
+            contentCache.dispose();
+        }
+        this.contentCacheMap.clear();
+    }
+}
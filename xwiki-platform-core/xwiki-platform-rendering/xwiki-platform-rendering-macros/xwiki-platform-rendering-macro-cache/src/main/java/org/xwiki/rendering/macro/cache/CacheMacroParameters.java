@@ -44,6 +44,16 @@
      */
     private int maxEntries = 1000;
 
+    /**
+     * @see #getStaleTimeToLive()
+     */
+    private int staleTimeToLive;
+
+    /**
+     * @see #getDocuments()
+     */
+    private String[] documents;
+
     /**
      * @return the optional unique id to use to cache the content. If not defined then use the content itself as the id
      *         but this doesn't guarantee unicity since the same content could be located on several pages with
@@ -97,4 +107,47 @@ public void setMaxEntries(int maxEntries)
     {
         this.maxEntries = maxEntries;
     }
+
+    /**
+     * @return the number of seconds during which the expired content is still returned while a single request is
+     *         computing the new content. 0 (the default) means that expired content is never returned.
+     * @since 9.4RC1
+     */
+    public int getStaleTimeToLive()
+    {
+        return this.staleTimeToLive;
+    }
+
+    /**
+     * @param staleTimeToLive refer to {@link #getStaleTimeToLive()}
+     * @since 9.4RC1
+     */
+    @PropertyDescription("the number of seconds during which the expired content is still returned while it's being "
+        + "recomputed")
+    public void setStaleTimeToLive(int staleTimeToLive)
+    {
+        this.staleTimeToLive = staleTimeToLive;
+    }
+
+    /**
+     * @return the references of the documents the cached content depends on. The cached content is removed from the
+     *         cache as soon as one of these documents is modified or deleted. Relative references are resolved
+     *         against the document containing the macro.
+     * @since 9.4RC1
+     */
+    public String[] getDocuments()
+    {
+        return this.documents;
+    }
+
+    /**
+     * @param documents refer to {@link #getDocuments()}
+     * @since 9.4RC1
+     */
+    @PropertyDescription("the references of the documents which, when modified or deleted, remove the content from the "
+        + "cache")
+    public void setDocuments(String[] documents)
+    {
+        this.documents = documents;
+    }
 }
@@ -37,4 +37,18 @@ public void verifyToString()
         CacheKey key = new CacheKey(300, 1000);
         assertEquals("300s-1000", key.toString());
     }
+
+    @Test
+    public void verifyToStringWithStaleTimeToLive()
+    {
+        CacheKey key = new CacheKey(300, 1000, 60);
+        assertEquals("300s-1000-60s", key.toString());
+    }
+
+    @Test
+    public void verifyEqualsWithStaleTimeToLive()
+    {
+        assertEquals(new CacheKey(300, 1000), new CacheKey(300, 1000, 0));
+        assertNotEquals(new CacheKey(300, 1000), new CacheKey(300, 1000, 60));
+    }
 }
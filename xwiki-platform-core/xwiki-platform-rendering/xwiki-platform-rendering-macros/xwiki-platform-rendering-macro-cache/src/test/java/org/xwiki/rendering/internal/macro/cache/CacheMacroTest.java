@@ -22,7 +22,13 @@
 import java.io.StringWriter;
 import java.util.List;
 
+import org.jmock.Expectations;
 import org.junit.Test;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.observation.EventListener;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.internal.transformation.macro.MacroTransformation;
 import org.xwiki.rendering.macro.Macro;
@@ -52,12 +58,16 @@ public class CacheMacroTest extends AbstractComponentTestCase
 
     private PrintRendererFactory rendererFactory;
 
+    private DocumentReferenceResolver<String> mockDocumentReferenceResolver;
+
     @Override
     protected void registerComponents() throws Exception
     {
         super.registerComponents();
 
         this.mockSetup = new ScriptMockSetup(getMockery(), getComponentManager());
+        this.mockDocumentReferenceResolver =
+            registerMockComponent(DocumentReferenceResolver.TYPE_STRING, "macro", "macroDocumentReferenceResolver");
         this.cacheMacro = getComponentManager().getInstance(Macro.class, "cache");
         this.rendererFactory = getComponentManager().getInstance(PrintRendererFactory.class, "event/1.0");
     }
@@ -215,6 +225,38 @@ public void executeWithDifferentMaxEntries() throws Exception
         assertFalse(result2.equals(result1));
     }
 
+    @Test
+    public void executeWithDocumentsWhenDocumentIsUpdated() throws Exception
+    {
+        final DocumentReference documentReference = new DocumentReference("wiki", "space", "page");
+        final DocumentModelBridge document = getMockery().mock(DocumentModelBridge.class);
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(mockDocumentReferenceResolver).resolve("space.page", new Object[] {null});
+                will(returnValue(documentReference));
+                allowing(document).getDocumentReference();
+                will(returnValue(documentReference));
+            }
+        });
+
+        CacheMacroParameters params = new CacheMacroParameters();
+        MacroTransformationContext context = createMacroTransformationContext();
+
+        params.setId("documents");
+        params.setDocuments(new String[] {"space.page"});
+        List<Block> result1 = this.cacheMacro.execute(params, "content1", context);
+
+        // The content is cached as long as the document is not modified
+        assertEquals(result1, this.cacheMacro.execute(params, "content2", context));
+
+        EventListener listener = getComponentManager().getInstance(EventListener.class, CacheMacroDocumentListener.NAME);
+        listener.onEvent(new DocumentUpdatedEvent(), document, null);
+
+        List<Block> result2 = this.cacheMacro.execute(params, "content2", context);
+        assertFalse(result2.equals(result1));
+    }
+
     private MacroTransformationContext createMacroTransformationContext() throws Exception
     {
         MacroTransformation macroTransformation = getComponentManager().getInstance(Transformation.class, "macro");
@@ -0,0 +1,240 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.internal.macro.cache.ContentCache.CachedContent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ContentCache}.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class ContentCacheTest
+{
+    private Map<String, CachedContent> entries = new ConcurrentHashMap<>();
+
+    private Cache<CachedContent> cache;
+
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private CountDownLatch lookup;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp()
+    {
+        this.cache = mock(Cache.class);
+        Thread testThread = Thread.currentThread();
+        when(this.cache.get(anyString())).then(invocation -> {
+            if (this.lookup != null && Thread.currentThread() == testThread) {
+                this.lookup.countDown();
+            }
+            return this.entries.get(invocation.getArgument(0));
+        });
+        doAnswer(invocation -> this.entries.put(invocation.getArgument(0), invocation.getArgument(1))).when(this.cache)
+            .set(anyString(), any(CachedContent.class));
+        doAnswer(invocation -> this.entries.remove(invocation.getArgument(0))).when(this.cache).remove(anyString());
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void getComputesContentOnce() throws Exception
+    {
+        ContentCache contentCache = new ContentCache(this.cache, 300, 0);
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch computing = new CountDownLatch(1);
+        // The first computation ends once the second request has looked up the cache, whether the second request then
+        // waits for it or finds its result in the cache
+        this.lookup = new CountDownLatch(1);
+
+        Future<List<Block>> first = this.executor.submit(() -> contentCache.get("key", Collections.emptyList(), () -> {
+            computations.incrementAndGet();
+            computing.countDown();
+            this.lookup.await();
+            return words("content");
+        }));
+
+        assertTrue(computing.await(10, TimeUnit.SECONDS));
+
+        List<Block> second = contentCache.get("key", Collections.emptyList(), () -> {
+            computations.incrementAndGet();
+            return words("other");
+        });
+
+        assertSame(first.get(10, TimeUnit.SECONDS), second);
+        assertEquals(1, computations.get());
+    }
+
+    @Test
+    public void getReturnsStaleContentWhileComputing() throws Exception
+    {
+        // Content expires immediately but is kept in the cache during the stale time to live
+        ContentCache contentCache = new ContentCache(this.cache, 0, 60);
+        List<Block> staleBlocks = contentCache.get("key", Collections.emptyList(), () -> words("stale"));
+
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<List<Block>> refresh = this.executor.submit(() -> contentCache.get("key", Collections.emptyList(), () -> {
+            computing.countDown();
+            release.await();
+            return words("fresh");
+        }));
+
+        computing.await(10, TimeUnit.SECONDS);
+
+        assertSame(staleBlocks, contentCache.get("key", Collections.emptyList(), () -> words("other")));
+
+        release.countDown();
+        assertEquals(words("fresh"), refresh.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void invalidate() throws Exception
+    {
+        DocumentReference document = new DocumentReference("wiki", "space", "page");
+        ContentCache contentCache = new ContentCache(this.cache, 300, 0);
+
+        contentCache.get("key", Arrays.asList(document), () -> words("content"));
+        contentCache.get("other", Collections.emptyList(), () -> words("other"));
+
+        contentCache.invalidate(new DocumentReference("wiki", "space", "otherpage"));
+        assertEquals(words("content"), contentCache.get("key", Arrays.asList(document), () -> words("new")));
+
+        contentCache.invalidate(document);
+        assertEquals(words("new"), contentCache.get("key", Arrays.asList(document), () -> words("new")));
+        assertEquals(words("other"), contentCache.get("other", Collections.emptyList(), () -> words("new")));
+    }
+
+    @Test
+    public void invalidateWhileComputing() throws Exception
+    {
+        DocumentReference document = new DocumentReference("wiki", "space", "page");
+        ContentCache contentCache = new ContentCache(this.cache, 300, 0);
+
+        contentCache.get("key", Arrays.asList(document), () -> {
+            contentCache.invalidate(document);
+            return words("content");
+        });
+
+        // The content computed while the document was modified is not cached
+        assertEquals(words("new"), contentCache.get("key", Arrays.asList(document), () -> words("new")));
+    }
+
+    @Test
+    public void invalidateWhileStoring() throws Exception
+    {
+        DocumentReference document = new DocumentReference("wiki", "space", "page");
+        ContentCache contentCache = new ContentCache(this.cache, 300, 0);
+
+        // The document is modified after the computation ended but before the content is stored
+        doAnswer(invocation -> {
+            contentCache.invalidate(document);
+            this.entries.put(invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(this.cache).set(anyString(), any(CachedContent.class));
+
+        contentCache.get("key", Arrays.asList(document), () -> words("content"));
+
+        assertFalse(this.entries.containsKey("key"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void removalOfStaleEntryDoesNotUnindexRecomputedEntry() throws Exception
+    {
+        DocumentReference document = new DocumentReference("wiki", "space", "page");
+        ContentCache contentCache = new ContentCache(this.cache, 0, 60);
+        ArgumentCaptor<CacheEntryListener<CachedContent>> listenerCaptor =
+            ArgumentCaptor.forClass(CacheEntryListener.class);
+        verify(this.cache).addCacheEntryListener(listenerCaptor.capture());
+
+        contentCache.get("key", Arrays.asList(document), () -> words("stale"));
+        CachedContent staleContent = this.entries.get("key");
+
+        // The stale entry is evicted while the content is computed again
+        contentCache.get("key", Arrays.asList(document), () -> {
+            this.entries.remove("key");
+            listenerCaptor.getValue().cacheEntryRemoved(removedEvent("key", staleContent));
+            return words("fresh");
+        });
+        assertEquals(words("fresh"), this.entries.get("key").getBlocks());
+
+        // The recomputed entry is still invalidated when the document is modified
+        contentCache.invalidate(document);
+        assertFalse(this.entries.containsKey("key"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private CacheEntryEvent<CachedContent> removedEvent(String key, CachedContent content)
+    {
+        CacheEntry<CachedContent> entry = mock(CacheEntry.class);
+        when(entry.getKey()).thenReturn(key);
+        when(entry.getValue()).thenReturn(content);
+        CacheEntryEvent<CachedContent> event = mock(CacheEntryEvent.class);
+        when(event.getEntry()).thenReturn(entry);
+
+        return event;
+    }
+
+    private List<Block> words(String word)
+    {
+        return Arrays.<Block>asList(new WordBlock(word));
+    }
+}
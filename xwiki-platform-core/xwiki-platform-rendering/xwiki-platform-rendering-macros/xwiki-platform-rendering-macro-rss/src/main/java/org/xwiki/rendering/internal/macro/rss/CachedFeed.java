@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.rss;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+
+/**
+ * A fetched feed along with what is needed to check later if it was modified.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class CachedFeed
+{
+    private final SyndFeed feed;
+
+    private final String eTag;
+
+    private final String lastModified;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile long checkDate = System.currentTimeMillis();
+
+    /**
+     * @param feed the feed's data
+     * @param eTag the value of the ETag header sent with the feed, {@code null} if none
+     * @param lastModified the value of the Last-Modified header sent with the feed, {@code null} if none
+     */
+    public CachedFeed(SyndFeed feed, String eTag, String lastModified)
+    {
+        this.feed = feed;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the feed's data
+     */
+    public SyndFeed getFeed()
+    {
+        return this.feed;
+    }
+
+    /**
+     * @return the value of the ETag header sent with the feed, {@code null} if none
+     */
+    public String getETag()
+    {
+        return this.eTag;
+    }
+
+    /**
+     * @return the value of the Last-Modified header sent with the feed, {@code null} if none
+     */
+    public String getLastModified()
+    {
+        return this.lastModified;
+    }
+
+    /**
+     * @param now the current date
+     * @param refreshInterval the number of milliseconds after which the feed should be checked again
+     * @return {@code true} if the feed should be refreshed and no refresh is running yet, in which case the caller is
+     *         in charge of the refresh
+     */
+    boolean startRefresh(long now, long refreshInterval)
+    {
+        return now - this.checkDate >= refreshInterval && this.refreshing.compareAndSet(false, true);
+    }
+
+    /**
+     * Mark the refresh as finished without replacing the feed (e.g. because it failed), the feed won't be checked
+     * again before the refresh interval.
+     */
+    void endRefresh()
+    {
+        this.checkDate = System.currentTimeMillis();
+        this.refreshing.set(false);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.rss;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.rendering.macro.MacroExecutionException;
+import org.xwiki.rendering.macro.rss.RssMacroParameters;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+
+/**
+ * Factory keeping the fetched feeds in memory. A feed is fetched synchronously only the first time it's requested,
+ * after that the last fetched version is returned while the feed is refreshed in the background.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class CachedRomeFeedFactory extends DefaultRomeFeedFactory
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachedRomeFeedFactory.class);
+
+    /**
+     * The default number of milliseconds after which a feed is refreshed.
+     */
+    private static final long DEFAULT_REFRESH_INTERVAL = 60000L;
+
+    /**
+     * The maximum number of feeds kept in memory.
+     */
+    private static final int MAX_FEEDS = 100;
+
+    /**
+     * The maximum number of feeds fetched at the same time from the same host.
+     */
+    private static final int MAX_FETCHES_PER_HOST = 2;
+
+    /**
+     * The number of threads used to refresh the feeds.
+     */
+    private static final int REFRESH_THREADS = 4;
+
+    private final long refreshInterval;
+
+    /**
+     * The fetched feeds, indexed by URL. The least recently used feeds are removed first.
+     */
+    private final Map<String, CachedFeed> feeds = Collections.synchronizedMap(new LinkedHashMap<String, CachedFeed>(
+        16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedFeed> eldest)
+        {
+            return size() > MAX_FEEDS;
+        }
+    });
+
+    /**
+     * The feeds being fetched for the first time, so that they are fetched only once.
+     */
+    private final ConcurrentMap<String, CompletableFuture<CachedFeed>> loadingFeeds = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    private ExecutorService refreshExecutor;
+
+    /**
+     * Default constructor.
+     */
+    public CachedRomeFeedFactory()
+    {
+        this(DEFAULT_REFRESH_INTERVAL);
+    }
+
+    /**
+     * @param refreshInterval the number of milliseconds after which a feed is refreshed
+     */
+    public CachedRomeFeedFactory(long refreshInterval)
+    {
+        this.refreshInterval = refreshInterval;
+    }
+
+    @Override
+    public SyndFeed createFeed(RssMacroParameters parameters) throws MacroExecutionException
+    {
+        checkParameters(parameters);
+
+        URL feedURL = parameters.getFeedURL();
+        String key = feedURL.toString();
+
+        CachedFeed cachedFeed = this.feeds.get(key);
+        if (cachedFeed == null) {
+            return load(key, feedURL).getFeed();
+        }
+
+        if (cachedFeed.startRefresh(System.currentTimeMillis(), this.refreshInterval)) {
+            try {
+                getRefreshExecutor().execute(() -> refresh(key, feedURL, cachedFeed));
+            } catch (RejectedExecutionException e) {
+                // The factory is being disposed, the feed will be refreshed by a later request
+                LOGGER.debug("Failed to schedule the refresh of the feed [{}]: {}", key, e.getMessage());
+
+                cachedFeed.endRefresh();
+            }
+        }
+
+        return cachedFeed.getFeed();
+    }
+
+    private CachedFeed load(String key, URL feedURL) throws MacroExecutionException
+    {
+        CompletableFuture<CachedFeed> future = new CompletableFuture<>();
+        CompletableFuture<CachedFeed> currentFuture = this.loadingFeeds.putIfAbsent(key, future);
+        if (currentFuture != null) {
+            // The feed is already being fetched by another request
+            try {
+                return currentFuture.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new MacroExecutionException("Interrupted while waiting for the feed to be fetched", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof MacroExecutionException) {
+                    throw (MacroExecutionException) e.getCause();
+                }
+
+                throw new MacroExecutionException("Failed to fetch the feed", e.getCause());
+            }
+        }
+
+        try {
+            CachedFeed cachedFeed = fetchWithPermit(feedURL, null);
+            this.feeds.put(key, cachedFeed);
+            future.complete(cachedFeed);
+
+            return cachedFeed;
+        } catch (MacroExecutionException | RuntimeException e) {
+            future.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            this.loadingFeeds.remove(key, future);
+        }
+    }
+
+    private void refresh(String key, URL feedURL, CachedFeed cachedFeed)
+    {
+        try {
+            this.feeds.put(key, fetchWithPermit(feedURL, cachedFeed));
+        } catch (MacroExecutionException e) {
+            // Keep serving the last fetched version
+            LOGGER.warn("Failed to refresh the feed [{}]: {}", key, e.getMessage());
+        } finally {
+            cachedFeed.endRefresh();
+        }
+    }
+
+    private CachedFeed fetchWithPermit(URL feedURL, CachedFeed previous) throws MacroExecutionException
+    {
+        String host = feedURL.getHost() != null ? feedURL.getHost() : "";
+        Semaphore permits = this.hostPermits.computeIfAbsent(host, k -> new Semaphore(MAX_FETCHES_PER_HOST));
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new MacroExecutionException("Interrupted while waiting to fetch the feed", e);
+        }
+
+        try {
+            return fetch(feedURL, previous);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private synchronized ExecutorService getRefreshExecutor()
+    {
+        if (this.refreshExecutor == null) {
+            this.refreshExecutor = Executors.newFixedThreadPool(REFRESH_THREADS, new BasicThreadFactory.Builder()
+                .namingPattern("XWiki RSS feed refresh thread %d").daemon(true).build());
+        }
+
+        return this.refreshExecutor;
+    }
+
+    /**
+     * Stop the background refresh of the feeds.
+     */
+    public synchronized void dispose()
+    {
+        if (this.refreshExecutor != null) {
+            this.refreshExecutor.shutdownNow();
+            this.refreshExecutor = null;
+        }
+    }
+}
@@ -19,8 +19,9 @@
  */
 package org.xwiki.rendering.internal.macro.rss;
 
-import javax.net.ssl.HttpsURLConnection;
+import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
+import java.net.URL;
 import java.net.URLConnection;
 import java.text.MessageFormat;
 
@@ -44,45 +45,87 @@ public class DefaultRomeFeedFactory implements RomeFeedFactory
      * The maximum number of milliseconds to wait when inquiring the RSS feed provider.
      */
     private static final int TIMEOUT_MILLISECONDS = 5000;
+
+    /**
+     * The maximum number of milliseconds to wait for the RSS feed provider to send data once connected.
+     */
+    private static final int READ_TIMEOUT_MILLISECONDS = 30000;
+
     private static final String USER_AGENT_HEADER = "User-Agent";
     private static final String VERSION = DefaultRomeFeedFactory.class.getPackage().getImplementationVersion();
     private static final String USER_AGENT = "XWiki/" + VERSION;
 
     @Override
     public SyndFeed createFeed(RssMacroParameters parameters) throws MacroExecutionException
+    {
+        checkParameters(parameters);
+
+        return fetch(parameters.getFeedURL(), null).getFeed();
+    }
+
+    /**
+     * @param parameters the Rss macro's parameters
+     * @throws MacroExecutionException when the required parameters are missing
+     * @since 9.4RC1
+     */
+    protected void checkParameters(RssMacroParameters parameters) throws MacroExecutionException
     {
         if (StringUtils.isEmpty(parameters.getFeed())) {
             throw new MacroExecutionException("The required 'feed' parameter is missing");
         }
+    }
 
+    /**
+     * Fetch the feed located at the passed URL. When a previous version of the feed is passed and the feed is served
+     * over HTTP, the request is conditional and the previous version is reused if the feed was not modified.
+     *
+     * @param feedURL the URL of the feed
+     * @param previous the previously fetched version of the feed, {@code null} if none
+     * @return the fetched feed
+     * @throws MacroExecutionException in case the feed cannot be read
+     * @since 9.4RC1
+     */
+    protected CachedFeed fetch(URL feedURL, CachedFeed previous) throws MacroExecutionException
+    {
         SyndFeedInput syndFeedInput = new SyndFeedInput();
 
-        SyndFeed feed;
+        CachedFeed result;
         try {
-            if (StringUtils.startsWith(parameters.getFeed().toLowerCase(), "https")) {
-                HttpsURLConnection httpsURLConnection = (HttpsURLConnection) parameters.getFeedURL().openConnection();
-                httpsURLConnection.setConnectTimeout(TIMEOUT_MILLISECONDS);
-                httpsURLConnection.setRequestProperty(USER_AGENT_HEADER, USER_AGENT);
-                feed = syndFeedInput.build(new XmlReader(httpsURLConnection));
-
-            } else {
-                URLConnection httpURLConnection = parameters.getFeedURL().openConnection();
-                httpURLConnection.setConnectTimeout(TIMEOUT_MILLISECONDS);
-                httpURLConnection.setRequestProperty(USER_AGENT_HEADER, USER_AGENT);
-                feed = syndFeedInput.build(new XmlReader(httpURLConnection));
+            URLConnection connection = feedURL.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLISECONDS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLISECONDS);
+            connection.setRequestProperty(USER_AGENT_HEADER, USER_AGENT);
+
+            if (connection instanceof HttpURLConnection && previous != null) {
+                if (previous.getETag() != null) {
+                    connection.setRequestProperty("If-None-Match", previous.getETag());
+                }
+                if (previous.getLastModified() != null) {
+                    connection.setRequestProperty("If-Modified-Since", previous.getLastModified());
+                }
+
+                if (((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    return new CachedFeed(previous.getFeed(), previous.getETag(), previous.getLastModified());
+                }
+            }
+
+            SyndFeed feed = syndFeedInput.build(new XmlReader(connection));
+            if (feed == null) {
+                throw new MacroExecutionException(MessageFormat.format("No feed found at [{0}]", feedURL));
             }
+
+            result = new CachedFeed(feed, connection.getHeaderField("ETag"),
+                connection.getHeaderField("Last-Modified"));
+        } catch (MacroExecutionException ex) {
+            throw ex;
         } catch (SocketTimeoutException ex) {
             throw new MacroExecutionException(MessageFormat.format("Connection timeout when trying to reach [{0}]",
-                    parameters.getFeedURL()));
+                    feedURL));
         } catch (Exception ex) {
-            throw new MacroExecutionException(MessageFormat.format("Error processing [{0}] : {1}", parameters
-                    .getFeedURL(), ex.getMessage()), ex);
-        }
-        if (feed == null) {
-            throw new MacroExecutionException(MessageFormat.format("No feed found at [{0}]",
-                    parameters.getFeedURL()));
+            throw new MacroExecutionException(MessageFormat.format("Error processing [{0}] : {1}", feedURL,
+                    ex.getMessage()), ex);
         }
 
-        return feed;
+        return result;
     }
 }
@@ -31,6 +31,8 @@
 import org.apache.commons.lang3.StringUtils;
 import org.xwiki.bridge.SkinAccessBridge;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.GroupBlock;
 import org.xwiki.rendering.block.ImageBlock;
@@ -61,7 +63,7 @@
 @Component
 @Named("rss")
 @Singleton
-public class RssMacro extends AbstractMacro<RssMacroParameters>
+public class RssMacro extends AbstractMacro<RssMacroParameters> implements Disposable
 {
     /**
      * The name of the CSS class attribute.
@@ -100,10 +102,15 @@ public class RssMacro extends AbstractMacro<RssMacroParameters>
     @Named("plain/1.0")
     private Parser plainTextParser;
 
+    /**
+     * Keeps the fetched feeds in memory and refreshes them in the background.
+     */
+    private CachedRomeFeedFactory cachedFeedFactory = new CachedRomeFeedFactory();
+
     /**
      * Create a Feed object from a feed specified as a URL.
      */
-    private RomeFeedFactory romeFeedFactory = new DefaultRomeFeedFactory();
+    private RomeFeedFactory romeFeedFactory = this.cachedFeedFactory;
 
     /**
      * Create and initialize the descriptor of the macro.
@@ -236,6 +243,12 @@ protected void setFeedFactory(RomeFeedFactory romeFeedFactory)
         this.romeFeedFactory = romeFeedFactory;
     }
 
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cachedFeedFactory.dispose();
+    }
+
     /**
      * Convenience method to not have to handle exceptions in several places.
      * 
@@ -0,0 +1,159 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.rss;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.rendering.macro.rss.RssMacroParameters;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.syndication.feed.synd.SyndFeed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link CachedRomeFeedFactory}, using a local HTTP server.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class CachedRomeFeedFactoryTest
+{
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+
+    /**
+     * The status codes to send, in order. The feed is sent with a 200 status code.
+     */
+    private BlockingQueue<Integer> statusCodes = new LinkedBlockingQueue<>();
+
+    /**
+     * The value of the If-None-Match header of each received request.
+     */
+    private BlockingQueue<String> receivedETags = new LinkedBlockingQueue<>();
+
+    private List<String> requests = new CopyOnWriteArrayList<>();
+
+    private CachedRomeFeedFactory factory;
+
+    private RssMacroParameters parameters = new RssMacroParameters();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/feed.xml", this::handle);
+        this.server.start();
+
+        this.parameters.setFeed("http://localhost:" + this.server.getAddress().getPort() + "/feed.xml");
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.factory.dispose();
+        this.server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        this.requests.add(exchange.getRequestURI().toString());
+        String eTag = exchange.getRequestHeaders().getFirst("If-None-Match");
+
+        Integer statusCode = this.statusCodes.poll();
+        if (statusCode == null || statusCode == HttpURLConnection.HTTP_OK) {
+            byte[] content;
+            try {
+                content = Files.readAllBytes(Paths.get(getClass().getResource("/feed1.xml").toURI()));
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/rss+xml");
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, content.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content);
+            }
+        } else {
+            exchange.sendResponseHeaders(statusCode, -1);
+            exchange.close();
+        }
+
+        this.receivedETags.add(eTag != null ? eTag : "");
+    }
+
+    @Test
+    public void createFeedFetchesOnce() throws Exception
+    {
+        this.factory = new CachedRomeFeedFactory(60000L);
+
+        SyndFeed feed = this.factory.createFeed(this.parameters);
+        assertSame(feed, this.factory.createFeed(this.parameters));
+        assertSame(feed, this.factory.createFeed(this.parameters));
+
+        assertEquals(1, this.requests.size());
+    }
+
+    @Test
+    public void createFeedRefreshesWithConditionalRequest() throws Exception
+    {
+        this.factory = new CachedRomeFeedFactory(0L);
+
+        SyndFeed feed = this.factory.createFeed(this.parameters);
+        assertEquals("", this.receivedETags.poll(10, TimeUnit.SECONDS));
+
+        // The feed is not modified: the last fetched version is returned and refreshed in the background
+        this.statusCodes.add(HttpURLConnection.HTTP_NOT_MODIFIED);
+        assertSame(feed, this.factory.createFeed(this.parameters));
+        assertEquals(ETAG, this.receivedETags.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void createFeedWhenRefreshFails() throws Exception
+    {
+        this.factory = new CachedRomeFeedFactory(0L);
+
+        SyndFeed feed = this.factory.createFeed(this.parameters);
+        assertEquals("", this.receivedETags.poll(10, TimeUnit.SECONDS));
+
+        this.statusCodes.add(HttpURLConnection.HTTP_INTERNAL_ERROR);
+        assertSame(feed, this.factory.createFeed(this.parameters));
+        assertEquals(ETAG, this.receivedETags.poll(10, TimeUnit.SECONDS));
+
+        // The last fetched version is still returned after the failed refresh
+        assertSame(feed, this.factory.createFeed(this.parameters));
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.search.solr.internal;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A bounded blocking FIFO queue in which adding an element with the same key as an element still waiting in the queue
+ * replaces this element (at its position in the queue) instead of adding a new one.
+ * <p>
+ * Elements without key (i.e. for which the key function returns {@code null}) are never replaced and act as barriers:
+ * elements added after them are never merged with elements added before them.
+ *
+ * @param <K> the type of the keys
+ * @param <E> the type of the elements
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class CoalescingBlockingQueue<K, E>
+{
+    /**
+     * A position in the queue.
+     *
+     * @param <E> the type of the element
+     */
+    private static class Slot<E>
+    {
+        private E element;
+
+        Slot(E element)
+        {
+            this.element = element;
+        }
+    }
+
+    private final int capacity;
+
+    private final Function<E, K> keyFunction;
+
+    private final Consumer<E> replacedConsumer;
+
+    private final Deque<Slot<E>> slots = new ArrayDeque<>();
+
+    /**
+     * The slots which can still be reused, indexed by key.
+     */
+    private final Map<K, Slot<E>> keyedSlots = new HashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = this.lock.newCondition();
+
+    private final Condition notFull = this.lock.newCondition();
+
+    private long coalescedCount;
+
+    /**
+     * @param capacity the maximum number of elements in the queue
+     * @param keyFunction the function used to get the key of an element
+     */
+    public CoalescingBlockingQueue(int capacity, Function<E, K> keyFunction)
+    {
+        this(capacity, keyFunction, null);
+    }
+
+    /**
+     * @param capacity the maximum number of elements in the queue
+     * @param keyFunction the function used to get the key of an element
+     * @param replacedConsumer called (while the queue is locked) with the elements which have been replaced by a more
+     *            recent element with the same key, can be {@code null}
+     */
+    public CoalescingBlockingQueue(int capacity, Function<E, K> keyFunction, Consumer<E> replacedConsumer)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the queue must be greater than 0");
+        }
+
+        this.capacity = capacity;
+        this.keyFunction = keyFunction;
+        this.replacedConsumer = replacedConsumer;
+    }
+
+    /**
+     * Add the passed element to the queue or replace the waiting element with the same key, waiting if necessary for
+     * space to become available.
+     *
+     * @param element the element to add
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void put(E element) throws InterruptedException
+    {
+        this.lock.lockInterruptibly();
+        try {
+            if (coalesce(element)) {
+                return;
+            }
+
+            while (this.slots.size() >= this.capacity) {
+                this.notFull.await();
+            }
+
+            add(element);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Add the passed element to the queue or replace the waiting element with the same key, without waiting.
+     *
+     * @param element the element to add
+     * @return {@code false} if the queue is full
+     */
+    public boolean offer(E element)
+    {
+        this.lock.lock();
+        try {
+            if (coalesce(element)) {
+                return true;
+            }
+
+            if (this.slots.size() >= this.capacity) {
+                return false;
+            }
+
+            add(element);
+
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieve and remove the head of the queue, waiting if necessary until an element becomes available.
+     *
+     * @return the head of the queue
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public E take() throws InterruptedException
+    {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.slots.isEmpty()) {
+                this.notEmpty.await();
+            }
+
+            return remove();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieve and remove the head of the queue without waiting.
+     *
+     * @return the head of the queue or {@code null} if the queue is empty
+     */
+    public E poll()
+    {
+        this.lock.lock();
+        try {
+            return this.slots.isEmpty() ? null : remove();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all the elements from the queue.
+     */
+    public void clear()
+    {
+        this.lock.lock();
+        try {
+            this.slots.clear();
+            this.keyedSlots.clear();
+
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of elements in the queue
+     */
+    public int size()
+    {
+        this.lock.lock();
+        try {
+            return this.slots.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of elements which replaced an element already waiting in the queue instead of being added
+     */
+    public long getCoalescedCount()
+    {
+        this.lock.lock();
+        try {
+            return this.coalescedCount;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean coalesce(E element)
+    {
+        K key = this.keyFunction.apply(element);
+
+        if (key != null) {
+            Slot<E> slot = this.keyedSlots.get(key);
+
+            if (slot != null) {
+                E replacedElement = slot.element;
+                slot.element = element;
+                ++this.coalescedCount;
+
+                if (this.replacedConsumer != null) {
+                    this.replacedConsumer.accept(replacedElement);
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void add(E element)
+    {
+        Slot<E> slot = new Slot<>(element);
+
+        K key = this.keyFunction.apply(element);
+        if (key != null) {
+            this.keyedSlots.put(key, slot);
+        } else {
+            // Make sure elements added after this one are never moved before it
+            this.keyedSlots.clear();
+        }
+
+        this.slots.add(slot);
+
+        this.notEmpty.signal();
+    }
+
+    private E remove()
+    {
+        Slot<E> slot = this.slots.poll();
+
+        K key = this.keyFunction.apply(slot.element);
+        if (key != null) {
+            this.keyedSlots.remove(key, slot);
+        }
+
+        this.notFull.signal();
+
+        return slot.element;
+    }
+}
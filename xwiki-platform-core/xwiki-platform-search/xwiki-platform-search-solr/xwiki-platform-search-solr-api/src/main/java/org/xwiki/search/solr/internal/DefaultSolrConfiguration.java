@@ -104,6 +104,26 @@ public class DefaultSolrConfiguration implements SolrConfiguration
      */
     public static final int SOLR_INDEXER_QUEUE_CAPACITY_DEFAULT = 100000;
 
+    /**
+     * The name of the configuration property containing the number of metadata extraction threads.
+     */
+    public static final String SOLR_INDEXER_THREADS_PROPERTY = "solr.indexer.threads";
+
+    /**
+     * The default number of metadata extraction threads.
+     */
+    public static final int SOLR_INDEXER_THREADS_DEFAULT = 1;
+
+    /**
+     * The name of the configuration property indicating if the indexer queue should be saved on disk.
+     */
+    public static final String SOLR_INDEXER_JOURNAL_PROPERTY = "solr.indexer.journal";
+
+    /**
+     * Indicate if the indexer queue should be saved on disk by default.
+     */
+    public static final boolean SOLR_INDEXER_JOURNAL_DEFAULT = true;
+
     /**
      * The name of the configuration property indicating if a synchronization should be run at startup.
      */
@@ -160,6 +180,18 @@ public int getIndexerQueueCapacity()
             .getProperty(SOLR_INDEXER_QUEUE_CAPACITY_PROPERTY, SOLR_INDEXER_QUEUE_CAPACITY_DEFAULT);
     }
 
+    @Override
+    public int getIndexerThreads()
+    {
+        return this.configuration.getProperty(SOLR_INDEXER_THREADS_PROPERTY, SOLR_INDEXER_THREADS_DEFAULT);
+    }
+
+    @Override
+    public boolean isIndexerJournalEnabled()
+    {
+        return this.configuration.getProperty(SOLR_INDEXER_JOURNAL_PROPERTY, SOLR_INDEXER_JOURNAL_DEFAULT);
+    }
+
     @Override
     public boolean synchronizeAtStartup()
     {
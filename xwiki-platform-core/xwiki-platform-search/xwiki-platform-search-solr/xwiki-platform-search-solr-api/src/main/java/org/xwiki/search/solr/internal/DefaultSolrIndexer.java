@@ -19,14 +19,25 @@
  */
 package org.xwiki.search.solr.internal;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.solr.common.SolrInputDocument;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
@@ -62,7 +73,8 @@
  * <p>
  * This implementation does not directly process the given leaf-references, but adds them to a processing queue, in the
  * order they were received. The {@link Runnable} part of this implementation is the one that sequentially reads and
- * processes the queue.
+ * processes the queue. The metadata of the entities to index can be extracted in parallel by a pool of threads (see
+ * {@link SolrConfiguration#getIndexerThreads()}) but the operations are still sent to Solr in the queue order.
  * 
  * @version $Id$
  * @since 5.1M2
@@ -97,24 +109,33 @@ public class DefaultSolrIndexer implements SolrIndexer, Initializable, Disposabl
          */
         public IndexOperation operation;
 
+        /**
+         * The sequence number of the journaled operation from which this entry was resolved.
+         */
+        public long sequence;
+
         /**
          * @param indexReference the reference of the entity to index.
          * @param operation the indexing operation to perform.
+         * @param sequence the sequence number of the journaled operation from which this entry was resolved
          */
-        public IndexQueueEntry(EntityReference indexReference, IndexOperation operation)
+        public IndexQueueEntry(EntityReference indexReference, IndexOperation operation, long sequence)
         {
             this.reference = indexReference;
             this.operation = operation;
+            this.sequence = sequence;
         }
 
         /**
          * @param deleteQuery the query used to filter entries to delete.
          * @param operation the indexing operation to perform.
+         * @param sequence the sequence number of the journaled operation from which this entry was resolved
          */
-        public IndexQueueEntry(String deleteQuery, IndexOperation operation)
+        public IndexQueueEntry(String deleteQuery, IndexOperation operation, long sequence)
         {
             this.deleteQuery = deleteQuery;
             this.operation = operation;
+            this.sequence = sequence;
         }
 
         @Override
@@ -163,16 +184,53 @@ public String toString()
          */
         public IndexOperation operation;
 
+        /**
+         * The sequence number of the operation in the journal.
+         */
+        public long sequence;
+
         /**
          * @param reference the reference of the entity to index.
          * @param recurse also apply operation to reference children.
          * @param operation the indexing operation to perform.
+         * @param sequence the sequence number of the operation in the journal
          */
-        public ResolveQueueEntry(EntityReference reference, boolean recurse, IndexOperation operation)
+        public ResolveQueueEntry(EntityReference reference, boolean recurse, IndexOperation operation,
+            long sequence)
         {
             this.reference = reference;
             this.recurse = recurse;
             this.operation = operation;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * An entry taken from the index queue and waiting to be sent to Solr.
+     * 
+     * @version $Id$
+     */
+    private static class PendingEntry
+    {
+        /**
+         * The entry taken from the index queue.
+         */
+        public final IndexQueueEntry entry;
+
+        /**
+         * The metadata being extracted in the background, {@code null} when they should be extracted in the index
+         * thread.
+         */
+        public final Future<LengthSolrInputDocument> solrDocument;
+
+        /**
+         * @param entry the entry taken from the index queue
+         * @param solrDocument the metadata being extracted in the background
+         */
+        public PendingEntry(IndexQueueEntry entry, Future<LengthSolrInputDocument> solrDocument)
+        {
+            this.entry = entry;
+            this.solrDocument = solrDocument;
         }
     }
 
@@ -214,37 +272,49 @@ public void runInternal()
                         }
 
                         for (EntityReference reference : references) {
-                            indexQueue.put(new IndexQueueEntry(reference, queueEntry.operation));
+                            putInIndexQueue(new IndexQueueEntry(reference, queueEntry.operation,
+                                queueEntry.sequence));
                         }
                     } else {
                         if (queueEntry.recurse) {
-                            indexQueue.put(new IndexQueueEntry(solrRefereceResolver.getQuery(queueEntry.reference),
-                                queueEntry.operation));
+                            putInIndexQueue(new IndexQueueEntry(solrRefereceResolver.getQuery(queueEntry.reference),
+                                queueEntry.operation, queueEntry.sequence));
                         } else if (queueEntry.reference != null) {
-                            indexQueue.put(new IndexQueueEntry(queueEntry.reference, queueEntry.operation));
+                            putInIndexQueue(
+                                new IndexQueueEntry(queueEntry.reference, queueEntry.operation, queueEntry.sequence));
                         }
                     }
                 } catch (Throwable e) {
                     logger.warn("Failed to apply operation [{}] on root reference [{}]", queueEntry.operation,
                         queueEntry.reference, e);
+                } finally {
+                    // The operation is now tracked through the index queue entries resolved from it
+                    journal.release(queueEntry.sequence);
                 }
             }
 
             logger.debug("Stop SOLR resolver thread");
         }
+
+        private void putInIndexQueue(IndexQueueEntry entry) throws InterruptedException
+        {
+            journal.acquire(entry.sequence);
+
+            indexQueue.put(entry);
+        }
     }
 
     /**
      * Stop resolver thread.
      */
     private static final ResolveQueueEntry RESOLVE_QUEUE_ENTRY_STOP =
-        new ResolveQueueEntry(null, false, IndexOperation.STOP);
+        new ResolveQueueEntry(null, false, IndexOperation.STOP, 0);
 
     /**
      * Stop indexer thread.
      */
     private static final IndexQueueEntry INDEX_QUEUE_ENTRY_STOP =
-        new IndexQueueEntry((String) null, IndexOperation.STOP);
+        new IndexQueueEntry((String) null, IndexOperation.STOP, 0);
 
     /**
      * Logging framework.
@@ -286,9 +356,16 @@ public void runInternal()
     private JobExecutor jobs;
 
     /**
-     * The queue of index operation to perform.
+     * Keep the operations on disk until they are committed.
      */
-    private BlockingQueue<IndexQueueEntry> indexQueue;
+    @Inject
+    private SolrIndexQueueJournal journal;
+
+    /**
+     * The queue of index operation to perform. An operation on an entity replaces the operation on the same entity
+     * still waiting in the queue, if any, so that only its latest state is extracted and sent to Solr.
+     */
+    private CoalescingBlockingQueue<EntityReference, IndexQueueEntry> indexQueue;
 
     /**
      * The queue of resolve references and add them to the index queue.
@@ -310,17 +387,57 @@ public void runInternal()
      */
     private boolean disposed;
 
+    /**
+     * The threads in which the metadata of the entities to index are extracted, {@code null} when they are extracted
+     * in the index thread.
+     */
+    private ExecutorService extractionExecutor;
+
+    /**
+     * The maximum number of entries taken from the index queue for which metadata are extracted in the background.
+     */
+    private int pendingCapacity;
+
+    /**
+     * The number of entries taken from the index queue and not yet added to the batch.
+     */
+    private volatile int pendingSize;
+
     /**
      * The size of the not yet sent batch.
      */
     private volatile int batchSize;
 
+    /**
+     * The length of the not yet sent batch.
+     */
+    private int batchLength;
+
+    /**
+     * The sequence numbers of the journaled operations from which the not yet sent batch entries were resolved.
+     */
+    private final List<Long> batchSequences = new ArrayList<>();
+
     @Override
     public void initialize() throws InitializationException
     {
         // Initialize the queues before starting the threads.
         this.resolveQueue = new LinkedBlockingQueue<>();
-        this.indexQueue = new LinkedBlockingQueue<>(this.configuration.getIndexerQueueCapacity());
+        // Delete by query entries don't have any reference and are never merged with other entries
+        this.indexQueue = new CoalescingBlockingQueue<>(this.configuration.getIndexerQueueCapacity(),
+            entry -> entry.reference, entry -> this.journal.release(entry.sequence));
+
+        // Create the metadata extraction threads
+        int extractionThreads = this.configuration.getIndexerThreads();
+        if (extractionThreads > 1) {
+            BasicThreadFactory factory = new BasicThreadFactory.Builder()
+                .namingPattern("XWiki Solr extraction thread %d").daemon(true).priority(Thread.NORM_PRIORITY - 1)
+                .build();
+            this.extractionExecutor = Executors.newFixedThreadPool(extractionThreads, factory);
+            // Extract more entries than there are threads so that the threads are not idle while the index thread is
+            // waiting for the oldest extraction
+            this.pendingCapacity = extractionThreads * 2;
+        }
 
         // Launch the resolve thread
         this.resolveThread = new Thread(new Resolver());
@@ -335,6 +452,33 @@ public void initialize() throws InitializationException
         this.indexThread.setDaemon(true);
         this.indexThread.start();
         this.indexThread.setPriority(Thread.NORM_PRIORITY - 1);
+
+        // Apply again the operations which were not committed before XWiki was stopped
+        if (this.configuration.isIndexerJournalEnabled()) {
+            replayJournal();
+        }
+    }
+
+    private void replayJournal()
+    {
+        List<SolrIndexQueueJournal.Record> records;
+        try {
+            records = this.journal.open();
+        } catch (IOException e) {
+            this.logger.warn("Failed to open the Solr index queue journal, the queue won't be saved on disk: {}",
+                ExceptionUtils.getRootCauseMessage(e));
+
+            return;
+        }
+
+        if (!records.isEmpty()) {
+            this.logger.info("Adding back [{}] operations which were not committed to the Solr index queue",
+                records.size());
+
+            for (SolrIndexQueueJournal.Record record : records) {
+                addToQueue(record.getReference(), record.isRecurse(), record.getOperation());
+            }
+        }
     }
 
     @Override
@@ -379,6 +523,10 @@ public void run()
             }
         }
 
+        if (this.extractionExecutor != null) {
+            this.extractionExecutor.shutdownNow();
+        }
+
         this.logger.debug("Stop SOLR indexer thread");
     }
 
@@ -391,60 +539,125 @@ public void run()
      */
     private boolean processBatch(IndexQueueEntry queueEntry)
     {
-        SolrInstance solrInstance = this.solrInstanceProvider.get();
-
-        int length = 0;
+        Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
 
         for (IndexQueueEntry batchEntry = queueEntry; batchEntry != null; batchEntry = this.indexQueue.poll()) {
             if (batchEntry == INDEX_QUEUE_ENTRY_STOP) {
-                // Discard the current batch and stop the indexing thread.
+                // Discard the current batch and stop the indexing thread. The discarded operations are kept in the
+                // journal so they will be applied again at next startup.
+                for (PendingEntry pendingEntry : pendingEntries) {
+                    if (pendingEntry.solrDocument != null) {
+                        pendingEntry.solrDocument.cancel(true);
+                    }
+                }
+
                 return false;
             }
 
-            IndexOperation operation = batchEntry.operation;
+            pendingEntries.add(new PendingEntry(batchEntry, startExtraction(batchEntry)));
+            this.pendingSize = pendingEntries.size();
 
-            // For the current contiguous operations queue, group the changes
-            try {
-                this.ecim.initialize(new ExecutionContext());
-
-                if (IndexOperation.INDEX.equals(operation)) {
-                    LengthSolrInputDocument solrDocument = getSolrDocument(batchEntry.reference);
-                    if (solrDocument != null) {
-                        solrInstance.add(solrDocument);
-                        length += solrDocument.getLength();
-                        ++this.batchSize;
-                    }
-                } else if (IndexOperation.DELETE.equals(operation)) {
-                    if (batchEntry.reference == null) {
-                        solrInstance.deleteByQuery(batchEntry.deleteQuery);
-                    } else {
-                        solrInstance.delete(this.solrRefereceResolver.getId(batchEntry.reference));
-                    }
-
-                    ++this.batchSize;
-                }
-            } catch (Throwable e) {
-                this.logger.error("Failed to process entry [{}]", batchEntry, e);
-            } finally {
-                this.execution.removeContext();
+            // Process the entries in the order they were queued so that an index operation is never overtaken by an
+            // older one or by an older delete operation
+            while (pendingEntries.size() > this.pendingCapacity) {
+                processEntry(pendingEntries.poll());
+                this.pendingSize = pendingEntries.size();
             }
+        }
 
-            // Commit the index changes so that they become available to queries. This is a costly operation and that is
-            // the reason why we perform it at the end of the batch.
-            if (shouldCommit(length, this.batchSize)) {
-                commit();
-                length = 0;
-            }
+        // Process what's left
+        while (!pendingEntries.isEmpty()) {
+            processEntry(pendingEntries.poll());
+            this.pendingSize = pendingEntries.size();
         }
 
         // Commit what's left
         if (this.batchSize > 0) {
             commit();
+        } else {
+            // Nothing to send to Solr, the operations are done
+            releaseBatchSequences();
         }
 
         return true;
     }
 
+    /**
+     * @param queueEntry the entry taken from the index queue
+     * @return the metadata being extracted in the background or {@code null} if they should be extracted in the index
+     *         thread
+     */
+    private Future<LengthSolrInputDocument> startExtraction(IndexQueueEntry queueEntry)
+    {
+        if (this.extractionExecutor != null && IndexOperation.INDEX.equals(queueEntry.operation)) {
+            return this.extractionExecutor.submit(() -> {
+                try {
+                    this.ecim.initialize(new ExecutionContext());
+
+                    return getSolrDocument(queueEntry.reference);
+                } finally {
+                    this.execution.removeContext();
+                }
+            });
+        }
+
+        return null;
+    }
+
+    /**
+     * Add the passed entry to the current batch and commits the batch if it's full.
+     * 
+     * @param pendingEntry the entry to process
+     */
+    private void processEntry(PendingEntry pendingEntry)
+    {
+        SolrInstance solrInstance = this.solrInstanceProvider.get();
+
+        IndexQueueEntry batchEntry = pendingEntry.entry;
+        IndexOperation operation = batchEntry.operation;
+
+        // For the current contiguous operations queue, group the changes
+        try {
+            this.ecim.initialize(new ExecutionContext());
+
+            if (IndexOperation.INDEX.equals(operation)) {
+                LengthSolrInputDocument solrDocument = pendingEntry.solrDocument != null
+                    ? pendingEntry.solrDocument.get() : getSolrDocument(batchEntry.reference);
+                if (solrDocument != null) {
+                    solrInstance.add(solrDocument);
+                    this.batchLength += solrDocument.getLength();
+                    ++this.batchSize;
+                }
+            } else if (IndexOperation.DELETE.equals(operation)) {
+                if (batchEntry.reference == null) {
+                    solrInstance.deleteByQuery(batchEntry.deleteQuery);
+                } else {
+                    solrInstance.delete(this.solrRefereceResolver.getId(batchEntry.reference));
+                }
+
+                ++this.batchSize;
+            }
+        } catch (InterruptedException e) {
+            this.logger.warn("The SOLR index thread has been interrupted while processing entry [{}]", batchEntry, e);
+
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            this.logger.error("Failed to process entry [{}]", batchEntry, e.getCause());
+        } catch (Throwable e) {
+            this.logger.error("Failed to process entry [{}]", batchEntry, e);
+        } finally {
+            this.execution.removeContext();
+        }
+
+        this.batchSequences.add(batchEntry.sequence);
+
+        // Commit the index changes so that they become available to queries. This is a costly operation and that is
+        // the reason why we perform it at the end of the batch.
+        if (shouldCommit(this.batchLength, this.batchSize)) {
+            commit();
+        }
+    }
+
     /**
      * Commit.
      */
@@ -466,6 +679,18 @@ private void commit()
         }
 
         this.batchSize = 0;
+        this.batchLength = 0;
+
+        releaseBatchSequences();
+    }
+
+    private void releaseBatchSequences()
+    {
+        for (long sequence : this.batchSequences) {
+            this.journal.release(sequence);
+        }
+
+        this.batchSequences.clear();
     }
 
     /**
@@ -547,7 +772,9 @@ private void addToQueue(EntityReference reference, boolean recurse, IndexOperati
         if (!this.disposed) {
             // Don't block because the capacity of the resolver queue is not limited.
             try {
-                this.resolveQueue.put(new ResolveQueueEntry(reference, recurse, operation));
+                long sequence = this.journal.append(reference, recurse, operation);
+
+                this.resolveQueue.put(new ResolveQueueEntry(reference, recurse, operation, sequence));
             } catch (InterruptedException e) {
                 this.logger.error("Failed to add reference [{}] to Solr indexing queue", reference, e);
             }
@@ -557,7 +784,13 @@ private void addToQueue(EntityReference reference, boolean recurse, IndexOperati
     @Override
     public int getQueueSize()
     {
-        return this.indexQueue.size() + this.resolveQueue.size() + this.batchSize;
+        return this.indexQueue.size() + this.resolveQueue.size() + this.pendingSize + this.batchSize;
+    }
+
+    @Override
+    public long getCoalescedOperationCount()
+    {
+        return this.indexQueue.getCoalescedCount();
     }
 
     @Override
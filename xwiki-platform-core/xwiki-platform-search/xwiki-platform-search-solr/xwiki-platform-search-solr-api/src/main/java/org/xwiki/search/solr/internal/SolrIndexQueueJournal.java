@@ -0,0 +1,474 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.search.solr.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.LocaleUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+/**
+ * Append-only, memory-mapped journal of the operations added to the {@link DefaultSolrIndexer} queue, used to replay
+ * at startup the operations which were not committed to Solr before a restart or a crash.
+ * <p>
+ * Each operation gets a sequence number. The indexer indicates which operations are in progress (see
+ * {@link #acquire(long)} and {@link #release(long)}) and the journal keeps track of the highest sequence number below
+ * which all operations have been committed. When no operation is in progress anymore the journal is rewound to its
+ * beginning. When it's full the committed operations are removed from it before making it larger, so that it never
+ * grows larger than the backlog of the indexer (and never larger than 1GB).
+ * <p>
+ * To not slow down the indexer the journal is not synchronized with the disk on each write but at a regular interval.
+ * 
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Component(roles = SolrIndexQueueJournal.class)
+@Singleton
+public class SolrIndexQueueJournal implements Disposable
+{
+    /**
+     * An operation read from the journal.
+     * 
+     * @version $Id$
+     */
+    public static class Record
+    {
+        private final EntityReference reference;
+
+        private final boolean recurse;
+
+        private final IndexOperation operation;
+
+        /**
+         * @param reference the reference of the entity
+         * @param recurse true if the operation should also be applied to the children of the entity
+         * @param operation the operation to apply
+         */
+        public Record(EntityReference reference, boolean recurse, IndexOperation operation)
+        {
+            this.reference = reference;
+            this.recurse = recurse;
+            this.operation = operation;
+        }
+
+        /**
+         * @return the reference of the entity, {@code null} for the whole farm
+         */
+        public EntityReference getReference()
+        {
+            return this.reference;
+        }
+
+        /**
+         * @return true if the operation should also be applied to the children of the entity
+         */
+        public boolean isRecurse()
+        {
+            return this.recurse;
+        }
+
+        /**
+         * @return the operation to apply
+         */
+        public IndexOperation getOperation()
+        {
+            return this.operation;
+        }
+    }
+
+    private static final String JOURNAL_FILE = "solr-indexer/queue.journal";
+
+    private static final int MAGIC = 0x58534a31;
+
+    /**
+     * Magic number, followed by the sequence number below which all the operations have been committed.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    private static final int WATERMARK_POSITION = 4;
+
+    /**
+     * Length, sequence number, operation, recurse flag, reference type, reference and locale lengths.
+     */
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 1 + 1 + 1 + 4 + 4;
+
+    private static final int INITIAL_SIZE = 1024 * 1024;
+
+    private static final long MAX_SIZE = 1024L * 1024 * 1024;
+
+    private static final long SYNC_INTERVAL = 1000;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private EntityReferenceResolver<String> resolver;
+
+    @Inject
+    private Logger logger;
+
+    private FileChannel channel;
+
+    private volatile MappedByteBuffer buffer;
+
+    private ScheduledExecutorService syncExecutor;
+
+    /**
+     * The position where to write the next record.
+     */
+    private int position;
+
+    private long lastSequence;
+
+    /**
+     * The number of records between the beginning of the journal and {@link #position}.
+     */
+    private int recordCount;
+
+    /**
+     * The number of references on the operations in progress, indexed by sequence number.
+     */
+    private final SortedMap<Long, Integer> inProgress = new TreeMap<>();
+
+    /**
+     * Open the journal and return the operations which were not committed when it was last used. The caller is
+     * expected to add them again to the indexer queue.
+     * 
+     * @return the operations to replay
+     * @throws IOException when failing to open the journal
+     */
+    public synchronized List<Record> open() throws IOException
+    {
+        File file = new File(this.environment.getPermanentDirectory(), JOURNAL_FILE);
+        file.getParentFile().mkdirs();
+
+        this.lastSequence = 0;
+        this.inProgress.clear();
+
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+            Math.max(INITIAL_SIZE, this.channel.size()));
+
+        List<Record> records;
+        if (this.buffer.getInt(0) == MAGIC) {
+            records = read(this.buffer.getLong(WATERMARK_POSITION));
+        } else {
+            records = new ArrayList<>();
+            this.buffer.putInt(0, MAGIC);
+            this.buffer.putLong(WATERMARK_POSITION, 0);
+            this.buffer.putInt(HEADER_SIZE, 0);
+            this.position = HEADER_SIZE;
+            this.recordCount = 0;
+        }
+
+        // All the records which are going to be replayed will get a new sequence number
+        this.buffer.putLong(WATERMARK_POSITION, this.lastSequence);
+
+        BasicThreadFactory factory = new BasicThreadFactory.Builder().namingPattern("XWiki Solr journal sync thread")
+            .daemon(true).priority(Thread.NORM_PRIORITY - 1).build();
+        this.syncExecutor = Executors.newSingleThreadScheduledExecutor(factory);
+        this.syncExecutor.scheduleWithFixedDelay(this::sync, SYNC_INTERVAL, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+
+        return records;
+    }
+
+    private List<Record> read(long watermark)
+    {
+        List<Record> records = new ArrayList<>();
+
+        this.position = HEADER_SIZE;
+        this.recordCount = 0;
+        try {
+            for (int length = this.buffer.getInt(this.position); length > 0; length =
+                this.buffer.getInt(this.position)) {
+                this.buffer.position(this.position + 4);
+
+                long sequence = this.buffer.getLong();
+                IndexOperation operation = IndexOperation.values()[this.buffer.get()];
+                boolean recurse = this.buffer.get() == 1;
+                byte type = this.buffer.get();
+                String reference = readString();
+                String locale = readString();
+
+                if (sequence > watermark) {
+                    records.add(new Record(resolve(reference, type, locale), recurse, operation));
+                }
+
+                this.lastSequence = Math.max(this.lastSequence, sequence);
+                this.position += length;
+                this.recordCount++;
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            this.logger.warn("The Solr index queue journal is corrupted after position [{}]", this.position);
+        }
+
+        return records;
+    }
+
+    private String readString()
+    {
+        int length = this.buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        this.buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private EntityReference resolve(String reference, byte type, String locale)
+    {
+        if (reference == null) {
+            return null;
+        }
+
+        EntityReference entityReference = this.resolver.resolve(reference, EntityType.values()[type]);
+        if (locale != null) {
+            entityReference = new DocumentReference(entityReference, LocaleUtils.toLocale(locale));
+        }
+
+        return entityReference;
+    }
+
+    /**
+     * Append an operation to the journal.
+     * 
+     * @param reference the reference of the entity, {@code null} for the whole farm
+     * @param recurse true if the operation should also be applied to the children of the entity
+     * @param operation the operation to apply
+     * @return the sequence number of the operation, or 0 if the journal is not open. The operation is considered in
+     *         progress until {@link #release(long)} is called.
+     */
+    public synchronized long append(EntityReference reference, boolean recurse, IndexOperation operation)
+    {
+        if (this.buffer == null) {
+            return 0;
+        }
+
+        byte[] referenceBytes = reference != null
+            ? this.serializer.serialize(reference).getBytes(StandardCharsets.UTF_8) : null;
+        Locale locale = reference instanceof DocumentReference ? ((DocumentReference) reference).getLocale() : null;
+        byte[] localeBytes = locale != null ? locale.toString().getBytes(StandardCharsets.UTF_8) : null;
+
+        int length = RECORD_HEADER_SIZE + (referenceBytes != null ? referenceBytes.length : 0)
+            + (localeBytes != null ? localeBytes.length : 0);
+
+        try {
+            ensureCapacity(length);
+        } catch (IOException e) {
+            this.logger.warn("Failed to extend the Solr index queue journal, operation on [{}] won't be journaled",
+                reference, e);
+
+            return 0;
+        }
+
+        long sequence = ++this.lastSequence;
+
+        // Write the end marker first and the length of the record last so that a partially written record is ignored
+        this.buffer.putInt(this.position + length, 0);
+        this.buffer.position(this.position + 4);
+        this.buffer.putLong(sequence);
+        this.buffer.put((byte) operation.ordinal());
+        this.buffer.put((byte) (recurse ? 1 : 0));
+        this.buffer.put((byte) (reference != null ? reference.getType().ordinal() : 0));
+        writeBytes(referenceBytes);
+        writeBytes(localeBytes);
+        this.buffer.putInt(this.position, length);
+
+        this.position += length;
+        this.recordCount++;
+
+        this.inProgress.put(sequence, 1);
+
+        return sequence;
+    }
+
+    private void writeBytes(byte[] bytes)
+    {
+        if (bytes != null) {
+            this.buffer.putInt(bytes.length);
+            this.buffer.put(bytes);
+        } else {
+            this.buffer.putInt(-1);
+        }
+    }
+
+    /**
+     * Make sure there is enough space after the last record for a new record and the end marker.
+     * 
+     * @param length the length of the record to append
+     * @throws IOException when the journal cannot be extended
+     */
+    private void ensureCapacity(int length) throws IOException
+    {
+        if ((long) this.position + length + 4 > this.buffer.capacity()) {
+            // Get rid of the operations committed since the journal was last rewound before making it larger
+            if (this.recordCount > this.inProgress.size()) {
+                compact();
+            }
+
+            long capacity = (long) this.position + length + 4;
+            if (capacity > this.buffer.capacity()) {
+                if (capacity > MAX_SIZE) {
+                    throw new IOException(
+                        String.format("The journal contains more than [%d] bytes of pending operations", MAX_SIZE));
+                }
+
+                long size = this.buffer.capacity();
+                while (size < capacity) {
+                    size *= 2;
+                }
+
+                this.buffer.force();
+                this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(size, MAX_SIZE));
+            }
+        }
+    }
+
+    /**
+     * Move the records of the operations still in progress to the beginning of the journal, overwriting the records of
+     * the committed operations. Records are only moved backward and in order so a record is never overwritten before
+     * being moved.
+     */
+    private void compact()
+    {
+        int readPosition = HEADER_SIZE;
+        int writePosition = HEADER_SIZE;
+        int liveRecords = 0;
+        while (readPosition < this.position) {
+            int length = this.buffer.getInt(readPosition);
+            long sequence = this.buffer.getLong(readPosition + 4);
+
+            if (this.inProgress.containsKey(sequence)) {
+                if (writePosition != readPosition) {
+                    byte[] bytes = new byte[length];
+                    this.buffer.position(readPosition);
+                    this.buffer.get(bytes);
+                    this.buffer.position(writePosition);
+                    this.buffer.put(bytes);
+                }
+                writePosition += length;
+                liveRecords++;
+            }
+
+            readPosition += length;
+        }
+
+        this.buffer.putInt(writePosition, 0);
+        this.position = writePosition;
+        this.recordCount = liveRecords;
+    }
+
+    /**
+     * Indicate that a new part of an operation is in progress (e.g. one of the entities resolved from the entity of
+     * the operation has been added to the index queue).
+     * 
+     * @param sequence the sequence number of the operation
+     */
+    public synchronized void acquire(long sequence)
+    {
+        if (sequence > 0) {
+            this.inProgress.merge(sequence, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Indicate that a part of an operation is not in progress anymore (e.g. it has been committed to Solr or it has
+     * been replaced by a more recent operation).
+     * 
+     * @param sequence the sequence number of the operation
+     */
+    public synchronized void release(long sequence)
+    {
+        if (sequence > 0 && this.inProgress.computeIfPresent(sequence, (key, count) -> count > 1 ? count - 1 : null)
+            == null && this.buffer != null) {
+            if (this.inProgress.isEmpty()) {
+                // Everything has been committed, rewind the journal
+                this.buffer.putLong(WATERMARK_POSITION, this.lastSequence);
+                this.buffer.putInt(HEADER_SIZE, 0);
+                this.position = HEADER_SIZE;
+                this.recordCount = 0;
+            } else {
+                this.buffer.putLong(WATERMARK_POSITION, this.inProgress.firstKey() - 1);
+            }
+        }
+    }
+
+    private void sync()
+    {
+        // Don't lock the journal while waiting for the disk
+        MappedByteBuffer currentBuffer = this.buffer;
+        if (currentBuffer != null) {
+            currentBuffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        if (this.syncExecutor != null) {
+            this.syncExecutor.shutdownNow();
+        }
+
+        if (this.buffer != null) {
+            this.buffer.force();
+            this.buffer = null;
+
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                this.logger.warn("Failed to close the Solr index queue journal", e);
+            }
+        }
+    }
+}
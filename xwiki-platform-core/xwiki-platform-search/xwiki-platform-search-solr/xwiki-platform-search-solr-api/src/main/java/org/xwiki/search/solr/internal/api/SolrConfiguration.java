@@ -73,6 +73,19 @@
      */
     int getIndexerQueueCapacity();
 
+    /**
+     * @return the number of threads used to extract in parallel the metadata of the entities to index
+     * @since 9.4RC1
+     */
+    int getIndexerThreads();
+
+    /**
+     * @return true if the operations waiting in the indexer queue should be saved on disk so that they are not lost
+     *         when XWiki is restarted
+     * @since 9.4RC1
+     */
+    boolean isIndexerJournalEnabled();
+
     /**
      * @return true if a full synchronization job between the database and SOLR index should be run when XWiki starts
      * @since 6.1M2
@@ -60,6 +60,13 @@
      */
     int getQueueSize();
 
+    /**
+     * @return the number of index/delete operations which replaced an operation on the same entity still waiting in
+     *         the queue instead of being added to the queue
+     * @since 9.4RC1
+     */
+    long getCoalescedOperationCount();
+
     /**
      * Start an indexing with specific criteria.
      * 
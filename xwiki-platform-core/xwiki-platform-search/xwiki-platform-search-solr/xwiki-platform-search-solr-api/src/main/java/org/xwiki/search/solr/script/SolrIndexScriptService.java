@@ -190,6 +190,17 @@ public int getQueueSize()
         return this.solrIndexer.getQueueSize();
     }
 
+    /**
+     * @return the number of index/delete operations which replaced a pending operation on the same entity instead of
+     *         being added to the queue
+     * @see #getQueueSize()
+     * @since 9.4RC1
+     */
+    public long getQueueCoalescedCount()
+    {
+        return this.solrIndexer.getCoalescedOperationCount();
+    }
+
     /**
      * Extract a {@link DocumentReference} from the given {@link SolrDocument} (e.g. search result).
      * 
@@ -0,0 +1,97 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.search.solr.internal;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link CoalescingBlockingQueue}.
+ * 
+ * @version $Id$
+ */
+public class CoalescingBlockingQueueTest
+{
+    /**
+     * Elements are "key:value" strings, elements without ':' don't have any key.
+     */
+    private CoalescingBlockingQueue<String, String> queue =
+        new CoalescingBlockingQueue<>(3, element -> StringUtils.substringBefore(element, ":"));
+
+    private CoalescingBlockingQueue<String, String> queueWithBarriers = new CoalescingBlockingQueue<>(10,
+        element -> element.contains(":") ? StringUtils.substringBefore(element, ":") : null);
+
+    @Test
+    public void replaceWaitingElementWithSameKey() throws Exception
+    {
+        this.queue.put("a:1");
+        this.queue.put("b:1");
+        this.queue.put("a:2");
+
+        assertEquals(2, this.queue.size());
+        assertEquals(1, this.queue.getCoalescedCount());
+
+        assertEquals("a:2", this.queue.take());
+
+        // Not waiting anymore so not replaced
+        this.queue.put("a:3");
+
+        assertEquals("b:1", this.queue.take());
+        assertEquals("a:3", this.queue.poll());
+        assertNull(this.queue.poll());
+    }
+
+    @Test
+    public void offerWhenFull()
+    {
+        assertTrue(this.queue.offer("a:1"));
+        assertTrue(this.queue.offer("b:1"));
+        assertTrue(this.queue.offer("c:1"));
+        assertFalse(this.queue.offer("d:1"));
+
+        // Replacing does not require space
+        assertTrue(this.queue.offer("c:2"));
+
+        this.queue.clear();
+
+        assertEquals(0, this.queue.size());
+        assertTrue(this.queue.offer("d:1"));
+    }
+
+    @Test
+    public void elementWithoutKeyIsABarrier() throws Exception
+    {
+        this.queueWithBarriers.put("a:1");
+        this.queueWithBarriers.put("barrier");
+        this.queueWithBarriers.put("a:2");
+        this.queueWithBarriers.put("a:3");
+
+        assertEquals(3, this.queueWithBarriers.size());
+
+        assertEquals("a:1", this.queueWithBarriers.take());
+        assertEquals("barrier", this.queueWithBarriers.take());
+        assertEquals("a:3", this.queueWithBarriers.take());
+    }
+}
@@ -20,13 +20,24 @@
 package org.xwiki.search.solr.internal;
 
 import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.InOrder;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.search.solr.internal.api.SolrConfiguration;
 import org.xwiki.search.solr.internal.api.SolrIndexer;
+import org.xwiki.search.solr.internal.api.SolrInstance;
+import org.xwiki.search.solr.internal.metadata.LengthSolrInputDocument;
+import org.xwiki.search.solr.internal.metadata.SolrMetadataExtractor;
+import org.xwiki.search.solr.internal.reference.SolrReferenceResolver;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import com.xpn.xwiki.XWiki;
@@ -35,8 +46,14 @@
 import com.xpn.xwiki.web.Utils;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -57,6 +74,12 @@
 
     private SolrConfiguration mockConfig;
 
+    private SolrInstance solrInstance;
+
+    private SolrMetadataExtractor documentExtractor;
+
+    private SolrIndexQueueJournal journal;
+
     @Before
     public void configure() throws Exception
     {
@@ -78,6 +101,39 @@ public void configure() throws Exception
         this.mockConfig = this.mocker.getInstance(SolrConfiguration.class);
         when(this.mockConfig.getInstanceConfiguration(eq(EmbeddedSolrInstance.TYPE), eq("home"), any()))
             .thenReturn(url.getPath());
+        when(this.mockConfig.getIndexerQueueCapacity()).thenReturn(100);
+        when(this.mockConfig.getIndexerBatchSize()).thenReturn(50);
+        when(this.mockConfig.getIndexerBatchMaxLengh()).thenReturn(10000);
+        // Extract the metadata in the background
+        when(this.mockConfig.getIndexerThreads()).thenReturn(2);
+
+        // Solr
+
+        this.solrInstance = mock(SolrInstance.class);
+        Provider<SolrInstance> solrInstanceProvider = this.mocker
+            .registerMockComponent(new DefaultParameterizedType(null, Provider.class, SolrInstance.class));
+        when(solrInstanceProvider.get()).thenReturn(this.solrInstance);
+
+        this.documentExtractor = this.mocker.registerMockComponent(SolrMetadataExtractor.class, "document");
+
+        this.journal = this.mocker.getInstance(SolrIndexQueueJournal.class);
+    }
+
+    /**
+     * Block the metadata extraction of the passed document until the passed latch is released.
+     */
+    private LengthSolrInputDocument slowExtraction(DocumentReference reference, CountDownLatch started,
+        CountDownLatch release) throws Exception
+    {
+        LengthSolrInputDocument solrDocument = new LengthSolrInputDocument();
+        when(this.documentExtractor.getSolrDocument(reference)).then(invocation -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+
+            return solrDocument;
+        });
+
+        return solrDocument;
     }
 
     @Test
@@ -91,4 +147,71 @@ public void testIndexEmptyWiki() throws Exception
 
         // index.index(wikiReference);
     }
+
+    @Test
+    public void indexInQueueOrder() throws Exception
+    {
+        DocumentReference first = new DocumentReference("wiki", "Space", "First");
+        DocumentReference second = new DocumentReference("wiki", "Space", "Second");
+        DocumentReference third = new DocumentReference("wiki", "Space", "Third");
+
+        // The first extraction is the slowest: it lasts until the last one is done
+        CountDownLatch thirdExtracted = new CountDownLatch(1);
+        LengthSolrInputDocument firstDocument = slowExtraction(first, new CountDownLatch(1), thirdExtracted);
+        LengthSolrInputDocument secondDocument = new LengthSolrInputDocument();
+        when(this.documentExtractor.getSolrDocument(second)).thenReturn(secondDocument);
+        LengthSolrInputDocument thirdDocument = new LengthSolrInputDocument();
+        when(this.documentExtractor.getSolrDocument(third)).then(invocation -> {
+            thirdExtracted.countDown();
+
+            return thirdDocument;
+        });
+
+        when(this.journal.append(any(), eq(false), any())).thenReturn(1L, 2L, 3L);
+
+        SolrIndexer indexer = this.mocker.getComponentUnderTest();
+        indexer.index(first, false);
+        indexer.index(second, false);
+        indexer.index(third, false);
+
+        // The operation is released once resolved and once committed
+        verify(this.journal, timeout(10000).times(2)).release(3L);
+
+        InOrder inOrder = inOrder(this.solrInstance);
+        inOrder.verify(this.solrInstance).add(same(firstDocument));
+        inOrder.verify(this.solrInstance).add(same(secondDocument));
+        inOrder.verify(this.solrInstance).add(same(thirdDocument));
+        inOrder.verify(this.solrInstance).commit();
+    }
+
+    @Test
+    public void deleteIsNotOvertakenBySlowerIndex() throws Exception
+    {
+        DocumentReference reference = new DocumentReference("wiki", "Space", "Page");
+        when(this.mocker.<SolrReferenceResolver>getInstance(SolrReferenceResolver.class).getId(reference))
+            .thenReturn("id");
+        when(this.journal.append(same(reference), eq(false), any())).thenReturn(1L, 2L);
+
+        CountDownLatch extractionStarted = new CountDownLatch(1);
+        CountDownLatch deleteQueued = new CountDownLatch(1);
+        LengthSolrInputDocument solrDocument = slowExtraction(reference, extractionStarted, deleteQueued);
+
+        SolrIndexer indexer = this.mocker.getComponentUnderTest();
+        indexer.index(reference, false);
+
+        // Queue the delete once the index operation is taken from the queue, so that the two are not merged
+        extractionStarted.await(10, TimeUnit.SECONDS);
+        indexer.delete(reference, false);
+        verify(this.journal, timeout(10000)).acquire(2L);
+        deleteQueued.countDown();
+
+        // The operation is released once resolved and once committed
+        verify(this.journal, timeout(10000).times(2)).release(2L);
+
+        InOrder inOrder = inOrder(this.solrInstance);
+        inOrder.verify(this.solrInstance).add(same(solrDocument));
+        inOrder.verify(this.solrInstance).delete("id");
+        inOrder.verify(this.solrInstance).commit();
+        verify(this.journal, times(2)).acquire(anyLong());
+    }
 }
@@ -0,0 +1,182 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.search.solr.internal;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SolrIndexQueueJournal}.
+ * 
+ * @version $Id$
+ */
+public class SolrIndexQueueJournalTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<SolrIndexQueueJournal> mocker =
+        new MockitoComponentMockingRule<>(SolrIndexQueueJournal.class);
+
+    private final File permanentDirectory = new File("target", "journal-" + new Date().getTime());
+
+    private final DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page", Locale.FRENCH);
+
+    private final WikiReference wikiReference = new WikiReference("wiki");
+
+    @Before
+    public void before() throws Exception
+    {
+        Environment environment = this.mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.permanentDirectory);
+
+        EntityReferenceSerializer<String> serializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(serializer.serialize(this.documentReference)).thenReturn("wiki:Space.Page");
+        when(serializer.serialize(this.wikiReference)).thenReturn("wiki");
+
+        EntityReferenceResolver<String> resolver = this.mocker.getInstance(EntityReferenceResolver.TYPE_STRING);
+        when(resolver.resolve("wiki:Space.Page", EntityType.DOCUMENT))
+            .thenReturn(new DocumentReference("wiki", "Space", "Page"));
+        when(resolver.resolve("wiki", EntityType.WIKI)).thenReturn(this.wikiReference);
+    }
+
+    @Test
+    public void replayNotReleasedOperations() throws Exception
+    {
+        SolrIndexQueueJournal journal = this.mocker.getComponentUnderTest();
+
+        assertTrue(journal.open().isEmpty());
+
+        long documentSequence = journal.append(this.documentReference, false, IndexOperation.INDEX);
+        journal.append(this.wikiReference, true, IndexOperation.DELETE);
+        journal.append(null, true, IndexOperation.INDEX);
+
+        assertTrue(documentSequence > 0);
+
+        journal.release(documentSequence);
+        journal.dispose();
+
+        List<SolrIndexQueueJournal.Record> records = journal.open();
+
+        assertEquals(2, records.size());
+        assertEquals(this.wikiReference, records.get(0).getReference());
+        assertTrue(records.get(0).isRecurse());
+        assertEquals(IndexOperation.DELETE, records.get(0).getOperation());
+        assertNull(records.get(1).getReference());
+        assertEquals(IndexOperation.INDEX, records.get(1).getOperation());
+
+        journal.dispose();
+
+        // The replayed operations were not added back to the journal
+        assertTrue(journal.open().isEmpty());
+
+        journal.dispose();
+    }
+
+    @Test
+    public void replayUntilFullyReleased() throws Exception
+    {
+        SolrIndexQueueJournal journal = this.mocker.getComponentUnderTest();
+
+        journal.open();
+
+        long sequence = journal.append(this.documentReference, false, IndexOperation.INDEX);
+        journal.acquire(sequence);
+        journal.release(sequence);
+        journal.dispose();
+
+        List<SolrIndexQueueJournal.Record> records = journal.open();
+
+        assertEquals(1, records.size());
+        assertEquals(this.documentReference, records.get(0).getReference());
+        assertFalse(records.get(0).isRecurse());
+
+        long newSequence = journal.append(this.documentReference, false, IndexOperation.INDEX);
+        assertTrue(newSequence > sequence);
+        journal.release(newSequence);
+        journal.dispose();
+
+        assertTrue(journal.open().isEmpty());
+
+        journal.dispose();
+    }
+
+    @Test
+    public void compactCommittedOperationsInsteadOfGrowing() throws Exception
+    {
+        SolrIndexQueueJournal journal = this.mocker.getComponentUnderTest();
+
+        journal.open();
+
+        // An operation which stays in progress prevents the journal from being rewound
+        journal.append(this.wikiReference, true, IndexOperation.INDEX);
+
+        // Write much more than the initial size of the journal
+        for (int i = 0; i < 100000; ++i) {
+            journal.release(journal.append(this.documentReference, false, IndexOperation.INDEX));
+        }
+
+        long pendingSequence = journal.append(this.documentReference, false, IndexOperation.DELETE);
+        assertTrue(pendingSequence > 100000);
+
+        journal.dispose();
+
+        assertEquals(1024 * 1024, new File(this.permanentDirectory, "solr-indexer/queue.journal").length());
+
+        List<SolrIndexQueueJournal.Record> records = journal.open();
+
+        assertEquals(2, records.size());
+        assertEquals(this.wikiReference, records.get(0).getReference());
+        assertEquals(IndexOperation.INDEX, records.get(0).getOperation());
+        assertEquals(IndexOperation.DELETE, records.get(1).getOperation());
+
+        journal.dispose();
+    }
+
+    @Test
+    public void notOpened() throws Exception
+    {
+        SolrIndexQueueJournal journal = this.mocker.getComponentUnderTest();
+
+        assertEquals(0, journal.append(this.documentReference, false, IndexOperation.INDEX));
+
+        journal.release(0);
+        journal.dispose();
+    }
+}
@@ -25,9 +25,7 @@
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashSet;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -72,14 +70,15 @@ public class DefaultSecurityCache implements SecurityCache, Initializable
     @Inject
     private Logger logger;
 
-    /** Fair read-write lock used for fair scheduling of cache access. */
-    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
-
-    /** Fair read lock. */
-    private final Lock readLock = readWriteLock.readLock();
+    /**
+     * Lock held while entries are added or removed (with their children). Readers first try an optimistic read and
+     * only wait when an entry has been added or removed during their read, so that they are never queued behind a
+     * writer waiting for the lock.
+     */
+    private final StampedLock lock = new StampedLock();
 
-    /** Fair write lock. */
-    private final Lock writeLock = readWriteLock.writeLock();
+    /** The thread holding the write lock, which reads the cache without locking since the lock is not reentrant. */
+    private Thread writer;
 
     /** The keys in the cache are generated from instances of {@link org.xwiki.model.reference.EntityReference}. */
     @Inject
@@ -539,12 +538,7 @@ private String getEntryKey(SecurityAccessEntry entry)
      */
     private SecurityCacheEntry getEntry(SecurityReference reference)
     {
-        readLock.lock();
-        try {
-            return cache.get(getEntryKey(reference));
-        } finally {
-            readLock.unlock();
-        }
+        return getCacheEntry(getEntryKey(reference));
     }
 
     /**
@@ -555,12 +549,7 @@ private SecurityCacheEntry getEntry(SecurityReference reference)
      */
     private SecurityCacheEntry getEntry(UserSecurityReference userReference, SecurityReference reference)
     {
-        readLock.lock();
-        try {
-            return cache.get(getEntryKey(userReference, reference));
-        } finally {
-            readLock.unlock();
-        }
+        return getCacheEntry(getEntryKey(userReference, reference));
     }
 
     /**
@@ -571,14 +560,57 @@ private SecurityCacheEntry getEntry(UserSecurityReference userReference, Securit
      */
     private SecurityCacheEntry getShadowEntry(SecurityReference userReference, SecurityReference wiki)
     {
-        readLock.lock();
+        return getCacheEntry(getShadowEntryKey(userReference, wiki));
+    }
+
+    /**
+     * @param key the key of the entry.
+     * @return the security cache entry with the given key, null if none is available in the cache.
+     */
+    private SecurityCacheEntry getCacheEntry(String key)
+    {
+        if (writer == Thread.currentThread()) {
+            return cache.get(key);
+        }
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            SecurityCacheEntry entry = cache.get(key);
+            if (lock.validate(stamp)) {
+                return entry;
+            }
+        }
+
+        // An entry is being added or removed, wait for the cache to be consistent again
+        stamp = lock.readLock();
         try {
-            return cache.get(getShadowEntryKey(userReference, wiki));
+            return cache.get(key);
         } finally {
-            readLock.unlock();
+            lock.unlockRead(stamp);
         }
     }
 
+    /**
+     * Acquire the write lock.
+     * @return the stamp to use to release the lock.
+     */
+    private long lockWrite()
+    {
+        long stamp = lock.writeLock();
+        writer = Thread.currentThread();
+        return stamp;
+    }
+
+    /**
+     * Release the write lock.
+     * @param stamp the stamp returned by {@link #lockWrite()}.
+     */
+    private void unlockWrite(long stamp)
+    {
+        writer = null;
+        lock.unlockWrite(stamp);
+    }
+
     /**
      * @param key the key of the cache slot to check.
      * @param entry the entry to compare to.
@@ -677,7 +709,7 @@ private void add(SecurityEntry entry, Collection<GroupSecurityReference> groups)
     {
         String key = getEntryKey(entry);
 
-        writeLock.lock();
+        long stamp = lockWrite();
         try {
             if (isAlreadyInserted(key, entry, groups)) {
                 return;
@@ -686,7 +718,7 @@ private void add(SecurityEntry entry, Collection<GroupSecurityReference> groups)
 
             logger.debug("Added rule/shadow entry [{}] into the cache.", key);
         } finally {
-            writeLock.unlock();
+            unlockWrite(stamp);
         }
     }
 
@@ -746,7 +778,7 @@ private void internalAdd(SecurityAccessEntry entry, SecurityReference wiki)
     {
         String key = getEntryKey(entry);
 
-        writeLock.lock();
+        long stamp = lockWrite();
         try {
             if (isAlreadyInserted(key, entry)) {
                 return;
@@ -756,7 +788,7 @@ private void internalAdd(SecurityAccessEntry entry, SecurityReference wiki)
             logger.debug("Added access entry [{}] into the cache.", key);
         } finally {
             newEntry = null;
-            writeLock.unlock();
+            unlockWrite(stamp);
         }
     }
 
@@ -805,7 +837,7 @@ public SecurityRuleEntry get(SecurityReference entity)
     @Override
     public void remove(UserSecurityReference user, SecurityReference entity)
     {
-        writeLock.lock();
+        long stamp = lockWrite();
         try {
             SecurityCacheEntry entry = getEntry(user, entity);
             if (entry != null) {
@@ -815,14 +847,14 @@ public void remove(UserSecurityReference user, SecurityReference entity)
                 this.cache.remove(entry.getKey());
             }
         } finally {
-            writeLock.unlock();
+            unlockWrite(stamp);
         }
     }
 
     @Override
     public void remove(SecurityReference entity)
     {
-        writeLock.lock();
+        long stamp = lockWrite();
         try {
             SecurityCacheEntry entry = getEntry(entity);
             if (entry != null) {
@@ -832,7 +864,7 @@ public void remove(SecurityReference entity)
                 this.cache.remove(entry.getKey());
             }
         } finally {
-            writeLock.unlock();
+            unlockWrite(stamp);
         }
     }
 
@@ -26,6 +26,10 @@
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -809,4 +813,55 @@ public boolean keepAccess(SecurityAccessEntry entry) {
             }
         });
     }
+
+    @Test(timeout = 60000)
+    public void testConcurrentReadsAndRemovals() throws Exception
+    {
+        // Fill the cache
+        InsertUsers();
+        InsertEntities();
+        InsertAccess();
+
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> readers = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                readers.add(executor.submit(() -> {
+                    while (!stop.get()) {
+                        for (UserSecurityReference user : userRefs) {
+                            for (SecurityReference ref : entityRefs) {
+                                SecurityAccessEntry entry = securityCache.get(user, ref);
+                                if (entry != null) {
+                                    assertThat(entry.getUserReference(), sameInstance(user));
+                                }
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            // Invalidate the rules of a document (and the access entries depending on them) while reading
+            for (int i = 0; i < 100; i++) {
+                securityCache.remove(docRef);
+                securityCache.add(mockSecurityRuleEntry(docRef));
+                for (UserSecurityReference user : userRefs) {
+                    AddAccessEntry(mockSecurityAccessEntry(docRef, user));
+                }
+            }
+        } finally {
+            stop.set(true);
+            executor.shutdown();
+        }
+
+        for (Future<?> reader : readers) {
+            reader.get();
+        }
+
+        securityCache.remove(docRef);
+        for (UserSecurityReference user : userRefs) {
+            assertThat(securityCache.get(user, docRef), nullValue());
+        }
+    }
 }
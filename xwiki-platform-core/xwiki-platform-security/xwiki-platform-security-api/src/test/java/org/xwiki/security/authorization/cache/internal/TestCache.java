@@ -20,8 +20,8 @@
 
 package org.xwiki.security.authorization.cache.internal;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheEntry;
@@ -43,7 +43,7 @@
  */
 public class TestCache<T> implements Cache<T>
 {
-    private Map<String, T> cache = new HashMap<String, T>();
+    private Map<String, T> cache = new ConcurrentHashMap<String, T>();
     private CacheEntryListener<T> listener;
     private String lastInsertedKey;
 
@@ -123,7 +123,7 @@ public T get(String key)
     @Override
     public void remove(String key)
     {
-        T value = cache.remove(key);
+        T value = (key != null) ? cache.remove(key) : null;
         if (listener != null) {
             listener.cacheEntryRemoved(getEvent(key, value));
         }
@@ -21,15 +21,19 @@
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
+import org.xwiki.skinx.internal.SxOutputCache;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.web.Utils;
 import com.xpn.xwiki.web.XWikiAction;
 import com.xpn.xwiki.web.XWikiRequest;
 import com.xpn.xwiki.web.XWikiResponse;
@@ -59,6 +63,15 @@ public abstract class AbstractSxAction extends XWikiAction
     /** What http header parameter is used to specify when the cache should expire. */
     private static final String CACHE_EXPIRES_HEADER = "Expires";
 
+    /** What http header parameter is used to send the entity tag of the content. */
+    private static final String ETAG_HEADER = "ETag";
+
+    /** What http header parameter is used by the browser to send the entity tag of the content it already has. */
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    /** What http header parameter is used by the browser to send the date of the content it already has. */
+    private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+
     /** The response will be sent to the browser as a byte array in this character set. */
     private static final String RESPONSE_CHARACTER_SET = "UTF-8";
 
@@ -86,8 +99,6 @@ public void renderExtension(SxSource sxSource, Extension sxType, XWikiContext co
         XWikiRequest request = context.getRequest();
         XWikiResponse response = context.getResponse();
 
-        String extensionContent = sxSource.getContent();
-
         response.setContentType(sxType.getContentType());
 
         if (sxSource.getLastModifiedDate() > 0) {
@@ -109,18 +120,122 @@ public void renderExtension(SxSource sxSource, Extension sxType, XWikiContext co
             response.setHeader(CACHE_CONTROL_HEADER, "no-cache, no-store, must-revalidate");
         }
 
-        if (BooleanUtils.toBoolean(StringUtils.defaultIfEmpty(
-            request.get(COMPRESS_SCRIPT_REQUEST_PARAMETER), "true"))) {
-            extensionContent = sxType.getCompressor().compress(extensionContent);
-        }
+        boolean compress = BooleanUtils.toBoolean(StringUtils.defaultIfEmpty(
+            request.get(COMPRESS_SCRIPT_REQUEST_PARAMETER), "true"));
+
+        String sourceKey = cachePolicy != CachePolicy.FORBID ? sxSource.getCacheKey() : null;
 
         try {
-            response.setContentLength(extensionContent.getBytes(RESPONSE_CHARACTER_SET).length);
-            response.getOutputStream().write(extensionContent.getBytes(RESPONSE_CHARACTER_SET));
+            if (sourceKey != null) {
+                renderCachedExtension(sxSource, sourceKey, sxType, compress, context);
+            } else {
+                String extensionContent = sxSource.getContent();
+                if (compress) {
+                    extensionContent = sxType.getCompressor().compress(extensionContent);
+                }
+
+                byte[] content = extensionContent.getBytes(RESPONSE_CHARACTER_SET);
+                response.setContentLength(content.length);
+                response.getOutputStream().write(content);
+            }
         } catch (IOException ex) {
             getLogger().warn("Failed to send SX content: [{}]", ex.getMessage());
         }
+    }
+
+    /**
+     * Send the compressed content of an extension which can be cached on the server, reusing the content produced by
+     * a previous request when possible and answering with a 304 status when the browser already has it.
+     *
+     * @param sxSource the source of the extension
+     * @param sourceKey the key identifying the current content of the source
+     * @param sxType the type of extension
+     * @param compress whether the content should be minified
+     * @param context the XWiki context when rendering the skin extension
+     * @throws IOException when failing to send the content
+     */
+    private void renderCachedExtension(SxSource sxSource, String sourceKey, Extension sxType, boolean compress,
+        XWikiContext context) throws IOException
+    {
+        XWikiRequest request = context.getRequest();
+        XWikiResponse response = context.getResponse();
+
+        SxOutputCache cache = Utils.getComponent(SxOutputCache.class);
+
+        String key = getCacheKey(sxSource, sourceKey, sxType, compress, request);
+        SxOutputCache.Output output = cache.get(key);
+        if (output == null) {
+            String extensionContent = sxSource.getContent();
+            if (compress) {
+                extensionContent = sxType.getCompressor().compress(extensionContent);
+            }
+            output = new SxOutputCache.Output(extensionContent.getBytes(RESPONSE_CHARACTER_SET),
+                cache.isGzipEnabled());
+            cache.set(key, sxSource.getDocument(), output);
+        }
+
+        boolean gzipped = false;
+        if (output.getGzipContent() != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+            String acceptEncoding = request.getHeader("Accept-Encoding");
+            gzipped = acceptEncoding != null && acceptEncoding.contains("gzip");
+        }
+
+        String etag = gzipped ? output.getGzipETag() : output.getETag();
+        response.setHeader(ETAG_HEADER, etag);
+
+        if (isNotModified(sxSource, etag, request)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] content = output.getContent();
+        if (gzipped) {
+            response.setHeader("Content-Encoding", "gzip");
+            content = output.getGzipContent();
+        }
+
+        response.setContentLength(content.length);
+        response.getOutputStream().write(content);
+    }
+
+    private String getCacheKey(SxSource sxSource, String sourceKey, Extension sxType, boolean compress,
+        XWikiRequest request)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(sxType.getClassName()).append('\n').append(sourceKey).append('\n').append(compress);
+
+        // The request parameters can be used by the extension code (e.g. when it's parsed with Velocity)
+        Map<String, String[]> parameters = new TreeMap<>(request.getParameterMap());
+        for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+            key.append('\n').append(parameter.getKey());
+            for (String value : parameter.getValue()) {
+                key.append('\n').append(value);
+            }
+        }
+
+        return key.toString();
+    }
+
+    private boolean isNotModified(SxSource sxSource, String etag, XWikiRequest request)
+    {
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH_HEADER);
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.contains(etag);
+        }
+
+        long lastModified = sxSource.getLastModifiedDate();
+        if (lastModified > 0) {
+            try {
+                long ifModifiedSince = request.getDateHeader(IF_MODIFIED_SINCE_HEADER);
+                // The HTTP dates have a precision of one second
+                return ifModifiedSince >= 0 && ifModifiedSince / 1000 >= lastModified / 1000;
+            } catch (IllegalArgumentException e) {
+                // Invalid date, send the content
+            }
+        }
 
+        return false;
     }
 
     @Override
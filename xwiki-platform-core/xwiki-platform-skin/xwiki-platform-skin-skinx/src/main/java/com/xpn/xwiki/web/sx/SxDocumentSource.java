@@ -64,6 +64,12 @@ public class SxDocumentSource implements SxSource
     /** The name of the property in the script extension object which contains the name of the object. */
     private static final String NAME_PROPERTY_NAME = "name";
 
+    /** The value of the content type property for the extensions written in LESS. */
+    private static final String LESS_CONTENT_TYPE = "LESS";
+
+    /** The separator used between the parts of the cache key. */
+    private static final char CACHE_KEY_SEPARATOR = '\n';
+
     /** Logging helper. */
     private static final Logger LOGGER = LoggerFactory.getLogger(SxDocumentSource.class);
 
@@ -129,7 +135,7 @@ public String getContent()
                 }
                 String sxContent = sxObj.getLargeStringValue(CONTENT_PROPERTY_NAME);
                 int parse = sxObj.getIntValue(PARSE_CONTENT_PROPERTY_NAME);
-                if ("LESS".equals(sxObj.getStringValue(CONTENT_TYPE_PROPERTY_NAME))) {
+                if (LESS_CONTENT_TYPE.equals(sxObj.getStringValue(CONTENT_TYPE_PROPERTY_NAME))) {
                     LESSCompiler lessCompiler = Utils.getComponent(LESSCompiler.class);
                     LESSResourceReferenceFactory lessResourceReferenceFactory =
                         Utils.getComponent(LESSResourceReferenceFactory.class);
@@ -172,4 +178,41 @@ public long getLastModifiedDate()
         return this.document.getDate().getTime();
     }
 
+    @Override
+    public String getCacheKey()
+    {
+        boolean less = false;
+        List<BaseObject> objects = this.document.getObjects(this.extension.getClassName());
+        if (objects != null) {
+            for (BaseObject sxObj : objects) {
+                if (sxObj != null) {
+                    // The result of the Velocity execution can depend on anything (current user, request, other
+                    // documents, time, etc.) so it cannot be reused safely
+                    if (sxObj.getIntValue(PARSE_CONTENT_PROPERTY_NAME) == 1) {
+                        return null;
+                    }
+                    less |= LESS_CONTENT_TYPE.equals(sxObj.getStringValue(CONTENT_TYPE_PROPERTY_NAME));
+                }
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(getDocument()).append(CACHE_KEY_SEPARATOR).append(this.document.getVersion());
+
+        // The LESS code is compiled with the variables of the current skin and color theme
+        if (less) {
+            key.append(CACHE_KEY_SEPARATOR).append(this.context.getWiki().getSkin(this.context))
+                .append(CACHE_KEY_SEPARATOR).append(this.context.getWiki().getUserPreference("colorTheme",
+                    this.context));
+        }
+
+        return key.toString();
+    }
+
+    @Override
+    public String getDocument()
+    {
+        return this.document.getPrefixedFullName();
+    }
+
 }
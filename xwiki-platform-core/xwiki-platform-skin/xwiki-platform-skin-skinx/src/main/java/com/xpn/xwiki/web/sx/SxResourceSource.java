@@ -67,6 +67,13 @@ public String getContent()
         }
     }
 
+    @Override
+    public String getCacheKey()
+    {
+        // The resources don't change while XWiki is running
+        return "resource:" + this.resourceName;
+    }
+
     @Override
     public long getLastModifiedDate()
     {
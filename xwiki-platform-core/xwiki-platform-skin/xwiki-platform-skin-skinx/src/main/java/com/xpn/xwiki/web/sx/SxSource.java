@@ -68,4 +68,24 @@
      * @return the cache policy associated with this extension source.
      */
     CachePolicy getCachePolicy();
+
+    /**
+     * @return a key identifying the current content of the extension source, used to cache the compressed content on
+     *         the server, or {@code null} if the content should not be cached on the server
+     * @since 9.4RC1
+     */
+    default String getCacheKey()
+    {
+        return null;
+    }
+
+    /**
+     * @return the serialized reference of the document holding the extension, used to invalidate the content cached
+     *         on the server, or {@code null} if the extension is not stored in a document
+     * @since 9.4RC1
+     */
+    default String getDocument()
+    {
+        return null;
+    }
 }
@@ -0,0 +1,281 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.skinx.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * Cache the compressed content sent by the skin extension actions, so that the extensions are not minified again for
+ * each request.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Component(roles = SxOutputCache.class)
+@Singleton
+public class SxOutputCache implements Initializable, Disposable
+{
+    /**
+     * The compressed content of a skin extension.
+     *
+     * @version $Id$
+     */
+    public static class Output
+    {
+        private final byte[] content;
+
+        private final byte[] gzipContent;
+
+        private final String etag;
+
+        private final String gzipETag;
+
+        /**
+         * @param content the content to send
+         * @param gzip whether to also prepare a gzipped version of the content
+         * @throws IOException when failing to gzip the content
+         */
+        public Output(byte[] content, boolean gzip) throws IOException
+        {
+            this.content = content;
+
+            String hash = DigestUtils.sha1Hex(content);
+            this.etag = '"' + hash + '"';
+
+            if (gzip) {
+                ByteArrayOutputStream stream = new ByteArrayOutputStream(content.length / 2);
+                try (GZIPOutputStream gzipStream = new GZIPOutputStream(stream)) {
+                    gzipStream.write(content);
+                }
+                this.gzipContent = stream.toByteArray();
+                // The gzipped bytes are a different representation of the content, so they need their own strong tag
+                this.gzipETag = '"' + hash + "-gzip\"";
+            } else {
+                this.gzipContent = null;
+                this.gzipETag = null;
+            }
+        }
+
+        /**
+         * @return the content to send
+         */
+        public byte[] getContent()
+        {
+            return this.content;
+        }
+
+        /**
+         * @return the gzipped content, or {@code null} if it was not prepared
+         */
+        public byte[] getGzipContent()
+        {
+            return this.gzipContent;
+        }
+
+        /**
+         * @return the strong entity tag of the content, including the quotes
+         */
+        public String getETag()
+        {
+            return this.etag;
+        }
+
+        /**
+         * @return the strong entity tag of the gzipped content, including the quotes, or {@code null} if the gzipped
+         *         content was not prepared
+         */
+        public String getGzipETag()
+        {
+            return this.gzipETag;
+        }
+    }
+
+    /**
+     * A cached output, with the document holding the extension.
+     */
+    private static class CachedOutput
+    {
+        private final String document;
+
+        private final Output output;
+
+        CachedOutput(String document, Output output)
+        {
+            this.document = document;
+            this.output = output;
+        }
+    }
+
+    private static final String CONFIGURATION_PREFIX = "skinx.cache.";
+
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private ConfigurationSource configuration;
+
+    private Cache<CachedOutput> cache;
+
+    /**
+     * The keys of the cached outputs for each document holding skin extensions, used to invalidate them when the
+     * document is modified. The keys are removed when their entry leaves the cache.
+     */
+    private final Map<String, Set<String>> documentKeys = new ConcurrentHashMap<>();
+
+    private boolean gzip;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        CacheConfiguration cacheConfiguration = new CacheConfiguration("skinx.output");
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(this.configuration.getProperty(CONFIGURATION_PREFIX + "size", DEFAULT_CACHE_SIZE));
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        try {
+            this.cache = this.cacheManager.createNewCache(cacheConfiguration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the skin extensions output cache", e);
+        }
+
+        this.cache.addCacheEntryListener(new CacheEntryListener<CachedOutput>()
+        {
+            @Override
+            public void cacheEntryAdded(CacheEntryEvent<CachedOutput> event)
+            {
+                // Nothing to do, the documents are indexed when setting the entry
+            }
+
+            @Override
+            public void cacheEntryRemoved(CacheEntryEvent<CachedOutput> event)
+            {
+                CachedOutput cachedOutput = event.getEntry().getValue();
+                if (cachedOutput != null && cachedOutput.document != null) {
+                    unindex(event.getEntry().getKey(), cachedOutput.document);
+                }
+            }
+
+            @Override
+            public void cacheEntryModified(CacheEntryEvent<CachedOutput> event)
+            {
+                // Nothing to do, the documents are indexed when setting the entry
+            }
+        });
+
+        this.gzip = this.configuration.getProperty(CONFIGURATION_PREFIX + "gzip", false);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+
+    /**
+     * @return whether the outputs should also be stored gzipped
+     */
+    public boolean isGzipEnabled()
+    {
+        return this.gzip;
+    }
+
+    /**
+     * @param key the key identifying the output
+     * @return the cached output, or {@code null} if it's not in the cache
+     */
+    public Output get(String key)
+    {
+        CachedOutput cachedOutput = this.cache.get(key);
+
+        return cachedOutput != null ? cachedOutput.output : null;
+    }
+
+    /**
+     * @param key the key identifying the output
+     * @param document the serialized reference of the document holding the extension, {@code null} if the extension
+     *            is not stored in a document
+     * @param output the output to cache
+     */
+    public void set(String key, String document, Output output)
+    {
+        if (document != null) {
+            this.documentKeys.computeIfAbsent(document, k -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+
+        this.cache.set(key, new CachedOutput(document, output));
+    }
+
+    /**
+     * Remove the outputs of the extensions stored in the passed document.
+     *
+     * @param document the serialized reference of the document
+     */
+    public void removeDocument(String document)
+    {
+        Set<String> keys = this.documentKeys.remove(document);
+        if (keys != null) {
+            keys.forEach(this.cache::remove);
+        }
+    }
+
+    private void unindex(String key, String document)
+    {
+        this.documentKeys.computeIfPresent(document, (k, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * Remove all the cached outputs.
+     */
+    public void removeAll()
+    {
+        this.documentKeys.clear();
+        this.cache.removeAll();
+    }
+}
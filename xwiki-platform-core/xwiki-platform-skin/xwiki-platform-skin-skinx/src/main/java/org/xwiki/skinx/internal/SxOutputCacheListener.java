@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.skinx.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Invalidate the cached skin extension outputs when the document holding them is modified or deleted. The whole cache
+ * is invalidated when a skin or a color theme is modified since it can change the result of the LESS extensions.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+@Component
+@Named(SxOutputCacheListener.NAME)
+@Singleton
+public class SxOutputCacheListener extends AbstractEventListener
+{
+    /**
+     * The name of this event listener.
+     */
+    public static final String NAME = "skinx.outputCache";
+
+    private static final List<LocalDocumentReference> GLOBAL_CLASSES = Arrays.asList(
+        new LocalDocumentReference("XWiki", "XWikiSkins"),
+        new LocalDocumentReference("ColorThemes", "ColorThemeClass"),
+        new LocalDocumentReference("FlamingoThemesCode", "ThemeClass"));
+
+    @Inject
+    private SxOutputCache cache;
+
+    /**
+     * Default constructor.
+     */
+    public SxOutputCacheListener()
+    {
+        super(NAME, new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+
+        XWikiDocument previousDocument = document.getOriginalDocument();
+        if (hasGlobalObject(document) || (previousDocument != null && hasGlobalObject(previousDocument))) {
+            this.cache.removeAll();
+        } else {
+            this.cache.removeDocument(document.getPrefixedFullName());
+        }
+    }
+
+    private boolean hasGlobalObject(XWikiDocument document)
+    {
+        for (LocalDocumentReference classReference : GLOBAL_CLASSES) {
+            if (document.getXObject(classReference) != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
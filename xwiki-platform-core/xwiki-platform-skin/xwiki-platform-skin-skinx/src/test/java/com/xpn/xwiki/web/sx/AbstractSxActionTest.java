@@ -0,0 +1,264 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.web.sx;
+
+import java.util.Collections;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.skinx.internal.SxOutputCache;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.SsxAction;
+import com.xpn.xwiki.web.Utils;
+import com.xpn.xwiki.web.XWikiRequest;
+import com.xpn.xwiki.web.XWikiResponse;
+import com.xpn.xwiki.web.sx.SxSource.CachePolicy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the server cache and the conditional requests of {@link AbstractSxAction}.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class AbstractSxActionTest
+{
+    private static final String DOCUMENT = "wiki:Space.Page";
+
+    @Rule
+    public MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    private SxOutputCache cache;
+
+    private XWikiContext context;
+
+    private XWikiRequest request;
+
+    private XWikiResponse response;
+
+    private ServletOutputStream outputStream;
+
+    private SxSource source;
+
+    private Extension extension;
+
+    private AbstractSxAction action = new SsxAction();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.cache = this.componentManager.registerMockComponent(SxOutputCache.class);
+        Utils.setComponentManager(this.componentManager);
+
+        this.request = mock(XWikiRequest.class);
+        when(this.request.get("minify")).thenReturn("false");
+        when(this.request.getParameterMap()).thenReturn(Collections.emptyMap());
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+
+        this.response = mock(XWikiResponse.class);
+        this.outputStream = mock(ServletOutputStream.class);
+        when(this.response.getOutputStream()).thenReturn(this.outputStream);
+
+        this.context = mock(XWikiContext.class);
+        when(this.context.getRequest()).thenReturn(this.request);
+        when(this.context.getResponse()).thenReturn(this.response);
+
+        this.source = mock(SxSource.class);
+        when(this.source.getCachePolicy()).thenReturn(CachePolicy.DEFAULT);
+        when(this.source.getCacheKey()).thenReturn(DOCUMENT + "\n1.1");
+        when(this.source.getDocument()).thenReturn(DOCUMENT);
+        when(this.source.getContent()).thenReturn("content");
+        when(this.source.getLastModifiedDate()).thenReturn(10000L);
+
+        this.extension = mock(Extension.class);
+        when(this.extension.getClassName()).thenReturn("XWiki.StyleSheetExtension");
+        when(this.extension.getContentType()).thenReturn("text/css; charset=UTF-8");
+    }
+
+    @Test
+    public void renderExtensionStoresOutput() throws Exception
+    {
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        ArgumentCaptor<SxOutputCache.Output> captor = ArgumentCaptor.forClass(SxOutputCache.Output.class);
+        verify(this.cache).set(anyString(), eq(DOCUMENT), captor.capture());
+        assertArrayEquals("content".getBytes("UTF-8"), captor.getValue().getContent());
+
+        verify(this.response).setHeader("ETag", captor.getValue().getETag());
+        verify(this.outputStream).write("content".getBytes("UTF-8"));
+    }
+
+    @Test
+    public void renderExtensionReusesCachedOutput() throws Exception
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("cached".getBytes("UTF-8"), false);
+        when(this.cache.get(anyString())).thenReturn(output);
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.source, never()).getContent();
+        verify(this.cache, never()).set(anyString(), any(), any());
+        verify(this.outputStream).write("cached".getBytes("UTF-8"));
+    }
+
+    @Test
+    public void renderExtensionNotModifiedWithETag() throws Exception
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("cached".getBytes("UTF-8"), false);
+        when(this.cache.get(anyString())).thenReturn(output);
+        when(this.request.getHeader("If-None-Match")).thenReturn(output.getETag());
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.response).setHeader("ETag", output.getETag());
+        verify(this.response, never()).getOutputStream();
+    }
+
+    @Test
+    public void renderExtensionModifiedWithOtherETag() throws Exception
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("cached".getBytes("UTF-8"), false);
+        when(this.cache.get(anyString())).thenReturn(output);
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\"");
+        // The entity tag takes precedence over the date
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(20000L);
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.outputStream).write("cached".getBytes("UTF-8"));
+    }
+
+    @Test
+    public void renderExtensionNotModifiedSince() throws Exception
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("cached".getBytes("UTF-8"), false);
+        when(this.cache.get(anyString())).thenReturn(output);
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(10999L);
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.response, never()).getOutputStream();
+    }
+
+    @Test
+    public void renderExtensionModifiedSince() throws Exception
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("cached".getBytes("UTF-8"), false);
+        when(this.cache.get(anyString())).thenReturn(output);
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(9000L);
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.outputStream).write("cached".getBytes("UTF-8"));
+    }
+
+    @Test
+    public void renderExtensionWithGzip() throws Exception
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("cached".getBytes("UTF-8"), true);
+        when(this.cache.get(anyString())).thenReturn(output);
+        when(this.request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.response).setHeader("Vary", "Accept-Encoding");
+        verify(this.response).setHeader("Content-Encoding", "gzip");
+        verify(this.response).setHeader("ETag", output.getGzipETag());
+        verify(this.response).setContentLength(output.getGzipContent().length);
+        verify(this.outputStream).write(output.getGzipContent());
+    }
+
+    @Test
+    public void renderExtensionWithGzipAndPlainETag() throws Exception
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("cached".getBytes("UTF-8"), true);
+        when(this.cache.get(anyString())).thenReturn(output);
+        when(this.request.getHeader("Accept-Encoding")).thenReturn("gzip");
+        // The browser has the uncompressed variant, it has to get the gzipped one
+        when(this.request.getHeader("If-None-Match")).thenReturn(output.getETag());
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.outputStream).write(output.getGzipContent());
+    }
+
+    @Test
+    public void renderExtensionWithGzipNotAccepted() throws Exception
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("cached".getBytes("UTF-8"), true);
+        when(this.cache.get(anyString())).thenReturn(output);
+        when(this.request.getHeader("If-None-Match")).thenReturn(output.getETag());
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.response).setHeader("Vary", "Accept-Encoding");
+        verify(this.response).setHeader("ETag", output.getETag());
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.response, never()).setHeader(eq("Content-Encoding"), anyString());
+    }
+
+    @Test
+    public void renderExtensionWithForbiddenCache() throws Exception
+    {
+        when(this.source.getCachePolicy()).thenReturn(CachePolicy.FORBID);
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.cache, never()).get(anyString());
+        verify(this.response, never()).setHeader(eq("ETag"), anyString());
+        verify(this.response).setContentLength(anyInt());
+        verify(this.outputStream).write("content".getBytes("UTF-8"));
+    }
+
+    @Test
+    public void renderExtensionWithoutCacheKey() throws Exception
+    {
+        // E.g. an extension parsed with Velocity
+        when(this.source.getCacheKey()).thenReturn(null);
+
+        this.action.renderExtension(this.source, this.extension, this.context);
+
+        verify(this.cache, never()).get(anyString());
+        verify(this.cache, never()).set(anyString(), any(), any());
+        verify(this.response, never()).setHeader(eq("ETag"), anyString());
+        verify(this.outputStream).write("content".getBytes("UTF-8"));
+    }
+}
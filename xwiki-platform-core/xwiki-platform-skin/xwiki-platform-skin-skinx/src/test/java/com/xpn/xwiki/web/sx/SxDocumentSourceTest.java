@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.web.sx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the server cache key of {@link SxDocumentSource}.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class SxDocumentSourceTest
+{
+    private static final String CLASS_NAME = "XWiki.StyleSheetExtension";
+
+    private XWikiContext context;
+
+    private XWikiDocument document;
+
+    private Extension extension;
+
+    private List<BaseObject> objects = new ArrayList<>();
+
+    @Before
+    public void setUp()
+    {
+        this.document = mock(XWikiDocument.class);
+        when(this.document.getPrefixedFullName()).thenReturn("wiki:Space.Page");
+        when(this.document.getVersion()).thenReturn("1.1");
+        when(this.document.getObjects(CLASS_NAME)).thenReturn(this.objects);
+
+        XWiki xwiki = mock(XWiki.class);
+        this.context = mock(XWikiContext.class);
+        when(this.context.getDoc()).thenReturn(this.document);
+        when(this.context.getWiki()).thenReturn(xwiki);
+        when(xwiki.getSkin(this.context)).thenReturn("XWiki.DefaultSkin");
+        when(xwiki.getUserPreference("colorTheme", this.context)).thenReturn("ColorThemes.Charcoal");
+
+        this.extension = mock(Extension.class);
+        when(this.extension.getClassName()).thenReturn(CLASS_NAME);
+    }
+
+    private void addObject(String contentType, int parse)
+    {
+        BaseObject object = mock(BaseObject.class);
+        when(object.getStringValue("contentType")).thenReturn(contentType);
+        when(object.getIntValue("parse")).thenReturn(parse);
+        this.objects.add(object);
+    }
+
+    @Test
+    public void getCacheKey()
+    {
+        addObject("CSS", 0);
+        this.objects.add(null);
+
+        assertEquals("wiki:Space.Page\n1.1", new SxDocumentSource(this.context, this.extension).getCacheKey());
+    }
+
+    @Test
+    public void getCacheKeyWithLESS()
+    {
+        addObject("CSS", 0);
+        addObject("LESS", 0);
+
+        assertEquals("wiki:Space.Page\n1.1\nXWiki.DefaultSkin\nColorThemes.Charcoal",
+            new SxDocumentSource(this.context, this.extension).getCacheKey());
+    }
+
+    @Test
+    public void getCacheKeyWhenParsed()
+    {
+        addObject("CSS", 0);
+        addObject("CSS", 1);
+
+        assertNull(new SxDocumentSource(this.context, this.extension).getCacheKey());
+    }
+
+    @Test
+    public void getCacheKeyWhenLESSIsParsed()
+    {
+        addObject("LESS", 1);
+
+        assertNull(new SxDocumentSource(this.context, this.extension).getCacheKey());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.skinx.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link SxOutputCache}.
+ *
+ * @version $Id$
+ * @since 9.4RC1
+ */
+public class SxOutputCacheTest
+{
+    @Rule
+    public MockitoComponentMockingRule<SxOutputCache> mocker =
+        new MockitoComponentMockingRule<>(SxOutputCache.class);
+
+    private Map<String, Object> entries = new HashMap<>();
+
+    private CacheEntryListener<Object> listener;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class);
+        when(configuration.getProperty("skinx.cache.size", 1000)).thenReturn(1000);
+        when(configuration.getProperty("skinx.cache.gzip", false)).thenReturn(true);
+
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).then(invocation -> this.entries.get(invocation.getArgument(0)));
+        doAnswer(invocation -> this.entries.put(invocation.getArgument(0), invocation.getArgument(1))).when(cache)
+            .set(anyString(), any());
+        doAnswer(invocation -> {
+            remove(invocation.getArgument(0));
+            return null;
+        }).when(cache).remove(anyString());
+
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        when(cacheManager.createNewCache(any(CacheConfiguration.class))).thenReturn(cache);
+
+        this.mocker.getComponentUnderTest();
+
+        ArgumentCaptor<CacheEntryListener> captor = ArgumentCaptor.forClass(CacheEntryListener.class);
+        verify(cache).addCacheEntryListener(captor.capture());
+        this.listener = captor.getValue();
+    }
+
+    /**
+     * Remove an entry from the cache, notifying the listener as the actual cache does on eviction.
+     */
+    @SuppressWarnings("unchecked")
+    private void remove(String key)
+    {
+        Object value = this.entries.remove(key);
+        if (value != null) {
+            CacheEntry<Object> entry = mock(CacheEntry.class);
+            when(entry.getKey()).thenReturn(key);
+            when(entry.getValue()).thenReturn(value);
+            CacheEntryEvent<Object> event = mock(CacheEntryEvent.class);
+            when(event.getEntry()).thenReturn(entry);
+            this.listener.cacheEntryRemoved(event);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> getDocumentKeys() throws Exception
+    {
+        Field field = SxOutputCache.class.getDeclaredField("documentKeys");
+        field.setAccessible(true);
+        return (Map<String, ?>) field.get(this.mocker.getComponentUnderTest());
+    }
+
+    @Test
+    public void setAndGet() throws Exception
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("content".getBytes("UTF-8"), false);
+        this.mocker.getComponentUnderTest().set("key", "wiki:Space.Page", output);
+
+        assertSame(output, this.mocker.getComponentUnderTest().get("key"));
+        assertNull(this.mocker.getComponentUnderTest().get("other"));
+        assertTrue(this.mocker.getComponentUnderTest().isGzipEnabled());
+    }
+
+    @Test
+    public void removeDocument() throws Exception
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("content".getBytes("UTF-8"), false);
+        this.mocker.getComponentUnderTest().set("key1", "wiki:Space.Page", output);
+        this.mocker.getComponentUnderTest().set("key2", "wiki:Space.Page", output);
+        this.mocker.getComponentUnderTest().set("key3", "wiki:Space.Other", output);
+        this.mocker.getComponentUnderTest().set("key4", null, output);
+
+        this.mocker.getComponentUnderTest().removeDocument("wiki:Space.Page");
+
+        assertNull(this.mocker.getComponentUnderTest().get("key1"));
+        assertNull(this.mocker.getComponentUnderTest().get("key2"));
+        assertSame(output, this.mocker.getComponentUnderTest().get("key3"));
+        assertSame(output, this.mocker.getComponentUnderTest().get("key4"));
+        assertFalse(getDocumentKeys().containsKey("wiki:Space.Page"));
+    }
+
+    @Test
+    public void evictedKeysAreRemovedFromTheDocumentIndex() throws Exception
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("content".getBytes("UTF-8"), false);
+        this.mocker.getComponentUnderTest().set("key1", "wiki:Space.Page", output);
+        this.mocker.getComponentUnderTest().set("key2", "wiki:Space.Page", output);
+
+        remove("key1");
+        assertTrue(getDocumentKeys().containsKey("wiki:Space.Page"));
+
+        remove("key2");
+        assertTrue(getDocumentKeys().isEmpty());
+    }
+
+    @Test
+    public void outputWithGzip() throws IOException
+    {
+        byte[] content = "content".getBytes("UTF-8");
+        SxOutputCache.Output output = new SxOutputCache.Output(content, true);
+
+        assertArrayEquals(content, output.getContent());
+        assertArrayEquals(content,
+            IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(output.getGzipContent()))));
+        assertTrue(output.getETag().startsWith("\"") && output.getETag().endsWith("\""));
+        assertTrue(output.getGzipETag().startsWith("\"") && output.getGzipETag().endsWith("\""));
+        assertNotEquals(output.getETag(), output.getGzipETag());
+        assertEquals(output.getETag(), new SxOutputCache.Output(content, false).getETag());
+    }
+
+    @Test
+    public void outputWithoutGzip() throws IOException
+    {
+        SxOutputCache.Output output = new SxOutputCache.Output("content".getBytes("UTF-8"), false);
+
+        assertNull(output.getGzipContent());
+        assertNull(output.getGzipETag());
+        assertNotEquals(output.getETag(), new SxOutputCache.Output("other".getBytes("UTF-8"), false).getETag());
+    }
+}